@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.Bundle;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.DisplayMetrics;
+
+import com.android.perftests.core.R;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures reloading drawables after rotating or toggling night mode back and forth, and
+ * reports how many drawables had to be loaded from the assets again.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ResourcesConfigChangePerfTest {
+    private static final int[] DRAWABLES = {
+            R.drawable.config_dependent_shape,
+            R.drawable.vector_drawable01,
+    };
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private Resources mResources;
+    private DisplayMetrics mMetrics;
+
+    // The cache only holds on to drawables that are in use, like by the activities of the
+    // back stack in both configurations.
+    private final Drawable[][] mDrawables = new Drawable[2][DRAWABLES.length];
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        // Use our own AssetManager, updating the configuration changes the one of the context.
+        final AssetManager assets = new AssetManager();
+        assets.addAssetPath(context.getPackageResourcePath());
+        mMetrics = new DisplayMetrics();
+        mMetrics.setToDefaults();
+        mResources = new Resources(assets, mMetrics, context.getResources().getConfiguration());
+    }
+
+    @Test
+    public void timeRotation() {
+        final Configuration other = new Configuration(mResources.getConfiguration());
+        other.orientation = other.orientation == Configuration.ORIENTATION_LANDSCAPE
+                ? Configuration.ORIENTATION_PORTRAIT : Configuration.ORIENTATION_LANDSCAPE;
+        toggleConfiguration("rotation", other);
+    }
+
+    @Test
+    public void timeNightModeToggle() {
+        final Configuration other = new Configuration(mResources.getConfiguration());
+        final int nightMode = (other.uiMode & Configuration.UI_MODE_NIGHT_MASK)
+                == Configuration.UI_MODE_NIGHT_YES
+                ? Configuration.UI_MODE_NIGHT_NO : Configuration.UI_MODE_NIGHT_YES;
+        other.uiMode = (other.uiMode & ~Configuration.UI_MODE_NIGHT_MASK) | nightMode;
+        toggleConfiguration("nightMode", other);
+    }
+
+    private void toggleConfiguration(String name, Configuration other) {
+        final Configuration original = new Configuration(mResources.getConfiguration());
+        loadDrawables(0);
+
+        final int startLoadCount = mResources.getImpl().getDrawableLoadCount();
+        int toggles = 0;
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mResources.updateConfiguration(other, mMetrics);
+            loadDrawables(1);
+            mResources.updateConfiguration(original, mMetrics);
+            loadDrawables(0);
+            toggles++;
+        }
+
+        final Bundle status = new Bundle();
+        status.putInt(name + "_toggles", toggles);
+        status.putInt(name + "_drawableLoads",
+                mResources.getImpl().getDrawableLoadCount() - startLoadCount);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
+    private void loadDrawables(int configIndex) {
+        for (int i = 0; i < DRAWABLES.length; i++) {
+            mDrawables[configIndex][i] = mResources.getDrawable(DRAWABLES[i], null);
+        }
+    }
+}
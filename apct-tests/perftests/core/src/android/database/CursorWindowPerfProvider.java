@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+/**
+ * Serves {@link #ROW_COUNT} rows of {@link TableHelper#USER} from a separate process, so that
+ * {@link CursorWindowPerfTest} can measure scanning a cursor across processes.
+ */
+public class CursorWindowPerfProvider extends ContentProvider {
+    public static final Uri URI =
+            Uri.parse("content://com.android.perftests.core.cursorwindow/users");
+
+    public static final int ROW_COUNT = 100000;
+
+    private static final String DB_NAME = CursorWindowPerfProvider.class.getSimpleName();
+
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    private synchronized SQLiteDatabase getDatabase() {
+        if (mDatabase == null) {
+            final Context context = getContext();
+            context.deleteDatabase(DB_NAME);
+            mDatabase = context.openOrCreateDatabase(DB_NAME, Context.MODE_PRIVATE, null);
+
+            final TableHelper helper = TableHelper.USER;
+            mDatabase.execSQL(helper.createSql());
+            mDatabase.beginTransaction();
+            try {
+                final String insert = helper.insertSql();
+                for (int i = 0; i < ROW_COUNT; i++) {
+                    mDatabase.execSQL(insert, helper.createItem(i));
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+        }
+        return mDatabase;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        return getDatabase().rawQuery(TableHelper.USER.readSql(), null);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
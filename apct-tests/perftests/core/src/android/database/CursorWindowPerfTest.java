@@ -16,11 +16,14 @@
 
 package android.database;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
 import android.perftests.utils.BenchmarkState;
 import android.perftests.utils.PerfStatusReporter;
 import android.support.test.InstrumentationRegistry;
@@ -87,6 +90,38 @@ public class CursorWindowPerfTest {
         loadRowFromCursorWindow(TableHelper.USER, false);
     }
 
+    @Test
+    public void scan100kRowsCrossProcess() {
+        scanRowsCrossProcess(false);
+    }
+
+    @Test
+    public void scan100kRowsCrossProcess_forwardOnly() {
+        scanRowsCrossProcess(true);
+    }
+
+    private void scanRowsCrossProcess(boolean forwardOnly) {
+        final ContentResolver resolver = getContext().getContentResolver();
+        final Bundle queryArgs = new Bundle();
+        queryArgs.putBoolean(ContentResolver.QUERY_ARG_FORWARD_ONLY, forwardOnly);
+
+        // The provider creates its rows on the first query, keep that out of the measurement.
+        try (Cursor cursor = resolver.query(CursorWindowPerfProvider.URI, null, queryArgs, null)) {
+            assertEquals(CursorWindowPerfProvider.ROW_COUNT, cursor.getCount());
+        }
+
+        BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            try (Cursor cursor = resolver.query(CursorWindowPerfProvider.URI, null, queryArgs,
+                    null)) {
+                TableHelper.CursorReader reader = TableHelper.USER.createReader(cursor);
+                while (cursor.moveToNext()) {
+                    reader.read();
+                }
+            }
+        }
+    }
+
     private void loadRowFromCursorWindow(TableHelper helper, boolean doubleRef) {
         try (Cursor cursor = sDatabase.rawQuery(helper.readSql(), new String[0])) {
             TableHelper.CursorReader reader = helper.createReader(cursor);
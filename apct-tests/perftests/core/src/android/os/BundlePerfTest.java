@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.os;
+
+import android.graphics.Rect;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Measures the cost of receiving a large Bundle, e.g. Intent extras, when only some of its
+ * values are read.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BundlePerfTest {
+    private static final int KEY_COUNT = 50;
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private Parcel mParcel;
+
+    @Before
+    public void setUp() {
+        final Bundle bundle = new Bundle();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            switch (i % 3) {
+                case 0:
+                    bundle.putString("key" + i, "value" + i);
+                    break;
+                case 1:
+                    bundle.putParcelable("key" + i, new Rect(i, i, i + 1, i + 1));
+                    break;
+                default:
+                    final ArrayList<Rect> list = new ArrayList<>();
+                    for (int j = 0; j < 10; j++) {
+                        list.add(new Rect(j, j, j + 1, j + 1));
+                    }
+                    bundle.putParcelableArrayList("key" + i, list);
+                    break;
+            }
+        }
+        mParcel = Parcel.obtain();
+        mParcel.writeBundle(bundle);
+    }
+
+    @After
+    public void tearDown() {
+        mParcel.recycle();
+        mParcel = null;
+    }
+
+    private Bundle readBundle() {
+        mParcel.setDataPosition(0);
+        final Bundle bundle = mParcel.readBundle();
+        bundle.setClassLoader(Rect.class.getClassLoader());
+        return bundle;
+    }
+
+    @Test
+    public void timeGetOneString() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            readBundle().getString("key0");
+        }
+    }
+
+    @Test
+    public void timeGetOneParcelable() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            readBundle().getParcelable("key1");
+        }
+    }
+
+    @Test
+    public void timeGetAllValues() {
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            final Bundle bundle = readBundle();
+            for (int i = 0; i < KEY_COUNT; i++) {
+                bundle.get("key" + i);
+            }
+        }
+    }
+
+    @Test
+    public void timeGetOneAndWriteBack() {
+        final Parcel out = Parcel.obtain();
+        try {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                final Bundle bundle = readBundle();
+                bundle.getString("key0");
+                out.setDataPosition(0);
+                out.writeBundle(bundle);
+            }
+        } finally {
+            out.recycle();
+        }
+    }
+}
@@ -16,8 +16,11 @@
 
 package android.os;
 
+import android.app.Activity;
+import android.graphics.Rect;
 import android.perftests.utils.BenchmarkState;
 import android.perftests.utils.PerfStatusReporter;
+import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.LargeTest;
 import android.support.test.runner.AndroidJUnit4;
 
@@ -27,6 +30,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 @RunWith(AndroidJUnit4.class)
 @LargeTest
 public class ParcelPerfTest {
@@ -167,4 +174,200 @@ public class ParcelPerfTest {
             Parcel.obtain().recycle();
         }
     }
+
+    @Test
+    public void timeReadParcelable() {
+        mParcel.writeParcelable(new Rect(1, 2, 3, 4), 0);
+        final ClassLoader loader = Rect.class.getClassLoader();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mParcel.setDataPosition(0);
+            mParcel.readParcelable(loader);
+        }
+    }
+
+    /**
+     * Reads Parcelables on as many threads as system_server has binder threads, to measure
+     * contention on the Parcelable.Creator cache.
+     */
+    @Test
+    public void timeReadParcelableConcurrently() throws Exception {
+        final int threadCount = 16;
+        final int readsPerThread = 100;
+        final ClassLoader loader = Rect.class.getClassLoader();
+        final Parcel[] parcels = new Parcel[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            parcels[i] = Parcel.obtain();
+            parcels[i].writeParcelable(new Rect(1, 2, 3, 4), 0);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+            while (state.keepRunning()) {
+                final CountDownLatch done = new CountDownLatch(threadCount);
+                for (int i = 0; i < threadCount; i++) {
+                    final Parcel parcel = parcels[i];
+                    executor.execute(() -> {
+                        for (int j = 0; j < readsPerThread; j++) {
+                            parcel.setDataPosition(0);
+                            parcel.readParcelable(loader);
+                        }
+                        done.countDown();
+                    });
+                }
+                done.await();
+            }
+        } finally {
+            executor.shutdown();
+            for (Parcel parcel : parcels) {
+                parcel.recycle();
+            }
+        }
+    }
+
+    /**
+     * Strings as they show up in system_server traffic: a lot of entries drawn from a small
+     * set of package and permission names.
+     */
+    private static String[] createRepeatedStrings() {
+        final String[] strings = new String[500];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = (i % 2 == 0 ? "com.example.package" : "android.permission.PERMISSION")
+                    + (i % 25);
+        }
+        return strings;
+    }
+
+    private static void writeStrings(Parcel parcel, String[] strings, boolean pooled) {
+        final PooledStringWriter writer = pooled ? new PooledStringWriter(parcel) : null;
+        if (writer != null) {
+            writer.install();
+        }
+        for (String string : strings) {
+            parcel.writeString(string);
+        }
+        if (writer != null) {
+            writer.finish();
+        }
+    }
+
+    private static void readStrings(Parcel parcel, int count, boolean pooled) {
+        final PooledStringReader reader = pooled ? new PooledStringReader(parcel) : null;
+        if (reader != null) {
+            reader.install();
+        }
+        for (int i = 0; i < count; i++) {
+            parcel.readString();
+        }
+        if (reader != null) {
+            reader.uninstall();
+        }
+    }
+
+    private static Bundle createLargeBundle() {
+        final Bundle bundle = new Bundle();
+        final String[] strings = createRepeatedStrings();
+        for (int i = 0; i < 100; i++) {
+            bundle.putString("key" + i, strings[i]);
+        }
+        return bundle;
+    }
+
+    private void timeWriteStrings(boolean pooled) {
+        final String[] strings = createRepeatedStrings();
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mParcel.setDataPosition(0);
+            writeStrings(mParcel, strings, pooled);
+        }
+    }
+
+    private void timeReadStrings(boolean pooled) {
+        final String[] strings = createRepeatedStrings();
+        writeStrings(mParcel, strings, pooled);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mParcel.setDataPosition(0);
+            readStrings(mParcel, strings.length, pooled);
+        }
+    }
+
+    @Test
+    public void timeWriteStrings() {
+        timeWriteStrings(false);
+    }
+
+    @Test
+    public void timeWriteStringsPooled() {
+        timeWriteStrings(true);
+    }
+
+    @Test
+    public void timeReadStrings() {
+        timeReadStrings(false);
+    }
+
+    @Test
+    public void timeReadStringsPooled() {
+        timeReadStrings(true);
+    }
+
+    private void timeReadBundle(boolean pooled) {
+        final Bundle bundle = createLargeBundle();
+        bundle.setPoolStrings(pooled);
+        mParcel.writeBundle(bundle);
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        while (state.keepRunning()) {
+            mParcel.setDataPosition(0);
+            mParcel.readBundle().size();
+        }
+    }
+
+    @Test
+    public void timeReadBundle() {
+        timeReadBundle(false);
+    }
+
+    @Test
+    public void timeReadBundlePooled() {
+        timeReadBundle(true);
+    }
+
+    /**
+     * Reports the bytes and the allocations saved by pooling the strings of a parcel.
+     */
+    @Test
+    public void reportPooledStringSavings() {
+        final String[] strings = createRepeatedStrings();
+        final Bundle status = new Bundle();
+        for (boolean pooled : new boolean[] { false, true }) {
+            final String prefix = pooled ? "pooledStrings" : "strings";
+            final Parcel parcel = Parcel.obtain();
+            try {
+                writeStrings(parcel, strings, pooled);
+                status.putInt(prefix + "_bytes", parcel.dataSize());
+
+                parcel.setDataPosition(0);
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                readStrings(parcel, strings.length, pooled);
+                Debug.stopAllocCounting();
+                status.putInt(prefix + "_readAllocations", Debug.getThreadAllocCount());
+            } finally {
+                parcel.recycle();
+            }
+        }
+        for (boolean pooled : new boolean[] { false, true }) {
+            final Bundle bundle = createLargeBundle();
+            bundle.setPoolStrings(pooled);
+            final Parcel parcel = Parcel.obtain();
+            try {
+                parcel.writeBundle(bundle);
+                status.putInt((pooled ? "pooledBundle" : "bundle") + "_bytes", parcel.dataSize());
+            } finally {
+                parcel.recycle();
+            }
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
 }
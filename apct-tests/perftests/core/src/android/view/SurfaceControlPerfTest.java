@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.perftests.utils.BenchmarkState;
+import android.perftests.utils.PerfStatusReporter;
+import android.support.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Measures a transaction that moves many surfaces, as the window manager does for each
+ * animation frame, with and without batching their properties into one native call.
+ */
+@RunWith(Parameterized.class)
+@LargeTest
+public class SurfaceControlPerfTest {
+    @Parameterized.Parameters(name = "{0} surfaces")
+    public static Collection<Object[]> getParameters() {
+        return Arrays.asList(new Object[][] { { 5 }, { 20 }, { 50 } });
+    }
+
+    @Rule
+    public PerfStatusReporter mPerfStatusReporter = new PerfStatusReporter();
+
+    private final int mSurfaceCount;
+    private SurfaceSession mSession;
+    private SurfaceControl[] mSurfaces;
+    private final Rect mCrop = new Rect();
+
+    public SurfaceControlPerfTest(int surfaceCount) {
+        mSurfaceCount = surfaceCount;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mSession = new SurfaceSession();
+        mSurfaces = new SurfaceControl[mSurfaceCount];
+        for (int i = 0; i < mSurfaceCount; i++) {
+            mSurfaces[i] = new SurfaceControl(mSession, "SurfaceControlPerfTest" + i, 100, 100,
+                    PixelFormat.TRANSLUCENT, SurfaceControl.HIDDEN);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (SurfaceControl surface : mSurfaces) {
+            surface.destroy();
+        }
+        mSession.kill();
+    }
+
+    @Test
+    public void timeTransactionUnbatched() {
+        runTransactions(false);
+    }
+
+    @Test
+    public void timeTransactionBatched() {
+        runTransactions(true);
+    }
+
+    private void runTransactions(boolean batched) {
+        for (SurfaceControl surface : mSurfaces) {
+            surface.setBatched(batched);
+        }
+        final BenchmarkState state = mPerfStatusReporter.getBenchmarkState();
+        int frame = 0;
+        while (state.keepRunning()) {
+            frame++;
+            SurfaceControl.openTransaction();
+            try {
+                for (int i = 0; i < mSurfaceCount; i++) {
+                    final SurfaceControl surface = mSurfaces[i];
+                    surface.setPosition(frame % 100, i);
+                    surface.setAlpha((frame % 10) / 10f);
+                    surface.setLayer(i + frame % 2);
+                    mCrop.set(0, 0, 50 + frame % 50, 50 + frame % 50);
+                    surface.setWindowCrop(mCrop);
+                }
+            } finally {
+                SurfaceControl.closeTransaction();
+            }
+        }
+    }
+}
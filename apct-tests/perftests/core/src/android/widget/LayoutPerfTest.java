@@ -79,6 +79,21 @@ public class LayoutPerfTest {
     @Test
     @UiThreadTest
     public void testLayoutPerf() throws Throwable {
+        runLayoutPerf();
+    }
+
+    @Test
+    @UiThreadTest
+    public void testLayoutPerfSkipCleanRemeasure() throws Throwable {
+        View.setSkipCleanRemeasureEnabled(true);
+        try {
+            runLayoutPerf();
+        } finally {
+            View.setSkipCleanRemeasureEnabled(false);
+        }
+    }
+
+    private void runLayoutPerf() throws Throwable {
         mActivityRule.runOnUiThread(() -> {
             assertTrue("We should be running on the main thread",
                     Looper.getMainLooper().getThread() == Thread.currentThread());
@@ -46,6 +46,7 @@ import android.content.res.CompatibilityInfo;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.Resources.Theme;
+import android.content.res.ResourcesImpl;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDebug;
 import android.database.sqlite.SQLiteDebug.DbStats;
@@ -122,9 +123,11 @@ import android.webkit.WebView;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.app.IVoiceInteractor;
 import com.android.internal.content.ReferrerIntent;
+import com.android.internal.logging.MetricsLogger;
 import com.android.internal.os.BinderInternal;
 import com.android.internal.os.RuntimeInit;
 import com.android.internal.os.SomeArgs;
+import com.android.internal.os.Zygote;
 import com.android.internal.util.ArrayUtils;
 import com.android.internal.util.FastPrintWriter;
 import com.android.internal.util.IndentingPrintWriter;
@@ -1243,6 +1246,24 @@ public final class ActivityThread {
                 pw.print(assetAlloc);
             }
 
+            // Framework drawables shared with the zygote or between Resources.
+            final long[] drawableStats = ResourcesImpl.getFrameworkDrawableStats();
+            pw.println(" ");
+            pw.println(" Framework Drawables");
+            printRow(pw, TWO_COUNT_COLUMNS, "Preloaded hits:", drawableStats[0],
+                    "Shared hits:", drawableStats[1]);
+            printRow(pw, TWO_COUNT_COLUMNS, "Misses:", drawableStats[2],
+                    "Shared bitmaps(KB):", drawableStats[3] / 1024);
+            if (ResourcesImpl.TRACE_FOR_DETAILED_PRELOAD) {
+                // Input for the zygote preload profile, see PreloadProfile.
+                pw.println(" ");
+                pw.println(" Used framework resources");
+                final Resources system = Resources.getSystem();
+                for (int id : ResourcesImpl.getUsedFrameworkResources()) {
+                    pw.print("  "); pw.println(system.getResourceName(id));
+                }
+            }
+
             // Unreachable native memory
             if (dumpUnreachable) {
                 boolean showContents = ((mBoundApplication != null)
@@ -5455,6 +5476,14 @@ public final class ActivityThread {
         // Note when this process has started.
         Process.setStartTimes(SystemClock.elapsedRealtime(), SystemClock.uptimeMillis());
 
+        // Compare how long starts from the zygote process pool and from a fork take.
+        final long spawnRequestTime = Zygote.getSpawnRequestElapsedRealtime();
+        if (spawnRequestTime > 0) {
+            MetricsLogger.histogram(null, Zygote.isSpawnedFromPool()
+                    ? "app_spawn_to_bind_pool_ms" : "app_spawn_to_bind_fork_ms",
+                    (int) (Process.getStartElapsedRealtime() - spawnRequestTime));
+        }
+
         mBoundApplication = data;
         mConfiguration = new Configuration(data.config);
         mCompatConfiguration = new Configuration(data.config);
@@ -99,13 +99,17 @@ abstract public class ContentProviderNative extends Binder implements IContentPr
                     ICancellationSignal cancellationSignal = ICancellationSignal.Stub.asInterface(
                             data.readStrongBinder());
 
+                    // Read before the provider gets a chance to modify the arguments.
+                    final boolean forwardOnly = queryArgs != null
+                            && queryArgs.getBoolean(ContentResolver.QUERY_ARG_FORWARD_ONLY);
+
                     Cursor cursor = query(callingPkg, url, projection, queryArgs, cancellationSignal);
                     if (cursor != null) {
                         CursorToBulkCursorAdaptor adaptor = null;
 
                         try {
                             adaptor = new CursorToBulkCursorAdaptor(cursor, observer,
-                                    getProviderName());
+                                    getProviderName(), forwardOnly);
                             cursor = null;
 
                             BulkCursorDescriptor d = adaptor.getBulkCursorDescriptor();
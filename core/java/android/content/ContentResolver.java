@@ -367,6 +367,16 @@ public abstract class ContentResolver {
      */
     public static final String QUERY_ARG_LIMIT = "android:query-arg-limit";
 
+    /**
+     * Boolean argument indicating that the caller will only move forward through the returned
+     * Cursor.  When the Cursor crosses processes, the provider then fills the next window of
+     * rows while the caller is still reading the current one.  Moving backwards still works,
+     * but is slower.
+     *
+     * @hide
+     */
+    public static final String QUERY_ARG_FORWARD_ONLY = "android:query-arg-forward-only";
+
     /**
      * Added to {@link Cursor} extras {@link Bundle} to indicate total row count of
      * recordset when paging is supported. Providers must include this when
@@ -20,6 +20,8 @@ import android.os.Binder;
 import android.os.IBinder;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.PooledStringReader;
+import android.os.PooledStringWriter;
 import android.os.RemoteException;
 import android.util.Log;
 
@@ -52,6 +54,8 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
 
     private int mInlineCountLimit = Integer.MAX_VALUE;
 
+    private boolean mPoolStrings;
+
     public BaseParceledListSlice(List<T> list) {
         mList = list;
     }
@@ -64,27 +68,38 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
         if (N <= 0) {
             return;
         }
+        final boolean poolStrings = p.readInt() != 0;
 
-        Parcelable.Creator<?> creator = readParcelableCreator(p, loader);
+        final PooledStringReader inlineStrings = poolStrings ? new PooledStringReader(p) : null;
+        Parcelable.Creator<?> creator;
         Class<?> listElementClass = null;
-
         int i = 0;
-        while (i < N) {
-            if (p.readInt() == 0) {
-                break;
+        try {
+            if (inlineStrings != null) {
+                inlineStrings.install();
             }
+            creator = readParcelableCreator(p, loader);
+            while (i < N) {
+                if (p.readInt() == 0) {
+                    break;
+                }
 
-            final T parcelable = readCreator(creator, p, loader);
-            if (listElementClass == null) {
-                listElementClass = parcelable.getClass();
-            } else {
-                verifySameType(listElementClass, parcelable.getClass());
-            }
+                final T parcelable = readCreator(creator, p, loader);
+                if (listElementClass == null) {
+                    listElementClass = parcelable.getClass();
+                } else {
+                    verifySameType(listElementClass, parcelable.getClass());
+                }
 
-            mList.add(parcelable);
+                mList.add(parcelable);
 
-            if (DEBUG) Log.d(TAG, "Read inline #" + i + ": " + mList.get(mList.size()-1));
-            i++;
+                if (DEBUG) Log.d(TAG, "Read inline #" + i + ": " + mList.get(mList.size()-1));
+                i++;
+            }
+        } finally {
+            if (inlineStrings != null) {
+                inlineStrings.uninstall();
+            }
         }
         if (i >= N) {
             return;
@@ -101,6 +116,9 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
                 Log.w(TAG, "Failure retrieving array; only received " + i + " of " + N, e);
                 return;
             }
+            if (poolStrings) {
+                new PooledStringReader(reply).install();
+            }
             while (i < N && reply.readInt() != 0) {
                 final T parcelable = readCreator(creator, reply, loader);
                 verifySameType(listElementClass, parcelable.getClass());
@@ -144,6 +162,15 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
         mInlineCountLimit = maxCount;
     }
 
+    /**
+     * Write the strings of the entries through a per-transaction string pool, so that
+     * strings repeated across entries (package names, permissions, ...) are only sent once.
+     * This is ignored when the destination parcel already has a read-write helper.
+     */
+    public void setPoolStrings(boolean poolStrings) {
+        mPoolStrings = poolStrings;
+    }
+
     /**
      * Write this to another Parcel. Note that this discards the internal Parcel
      * and should not be used anymore. This is so we can pass this to a Binder
@@ -156,18 +183,31 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
         dest.writeInt(N);
         if (DEBUG) Log.d(TAG, "Writing " + N + " items");
         if (N > 0) {
+            final boolean poolStrings = mPoolStrings && !dest.hasReadWriteHelper();
+            dest.writeInt(poolStrings ? 1 : 0);
             final Class<?> listElementClass = mList.get(0).getClass();
-            writeParcelableCreator(mList.get(0), dest);
+            final PooledStringWriter inlineStrings =
+                    poolStrings ? new PooledStringWriter(dest) : null;
             int i = 0;
-            while (i < N && i < mInlineCountLimit && dest.dataSize() < MAX_IPC_SIZE) {
-                dest.writeInt(1);
+            try {
+                if (inlineStrings != null) {
+                    inlineStrings.install();
+                }
+                writeParcelableCreator(mList.get(0), dest);
+                while (i < N && i < mInlineCountLimit && dest.dataSize() < MAX_IPC_SIZE) {
+                    dest.writeInt(1);
 
-                final T parcelable = mList.get(i);
-                verifySameType(listElementClass, parcelable.getClass());
-                writeElement(parcelable, dest, callFlags);
+                    final T parcelable = mList.get(i);
+                    verifySameType(listElementClass, parcelable.getClass());
+                    writeElement(parcelable, dest, callFlags);
 
-                if (DEBUG) Log.d(TAG, "Wrote inline #" + i + ": " + mList.get(i));
-                i++;
+                    if (DEBUG) Log.d(TAG, "Wrote inline #" + i + ": " + mList.get(i));
+                    i++;
+                }
+            } finally {
+                if (inlineStrings != null) {
+                    inlineStrings.finish();
+                }
             }
             if (i < N) {
                 dest.writeInt(0);
@@ -180,6 +220,11 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
                         }
                         int i = data.readInt();
                         if (DEBUG) Log.d(TAG, "Writing more @" + i + " of " + N);
+                        final PooledStringWriter replyStrings =
+                                poolStrings ? new PooledStringWriter(reply) : null;
+                        if (replyStrings != null) {
+                            replyStrings.install();
+                        }
                         while (i < N && reply.dataSize() < MAX_IPC_SIZE) {
                             reply.writeInt(1);
 
@@ -190,6 +235,9 @@ abstract class BaseParceledListSlice<T> implements Parcelable {
                             if (DEBUG) Log.d(TAG, "Wrote extra #" + i + ": " + mList.get(i));
                             i++;
                         }
+                        if (replyStrings != null) {
+                            replyStrings.finish();
+                        }
                         if (i < N) {
                             if (DEBUG) Log.d(TAG, "Breaking @" + i + " of " + N);
                             reply.writeInt(0);
@@ -383,4 +383,12 @@ public abstract class PackageManagerInternal {
      * Updates a package last used time.
      */
     public abstract void notifyPackageUse(String packageName, int reason);
+
+    /**
+     * Returns a number that changes whenever a package is installed, updated or removed, or
+     * the enabled state of a package or component changes. Unlike the package broadcasts, it
+     * changes before the call that made the change returns, so it can be used to invalidate
+     * state derived from the package manager without calling into it.
+     */
+    public abstract int getComponentStateGeneration();
 }
@@ -296,6 +296,14 @@ public final class AssetManager implements AutoCloseable {
         return true;
     }
 
+    /**
+     * Returns whether a cookie refers to the system assets.  They come first in every
+     * AssetManager, so such a cookie means the same asset in all of them.
+     */
+    /*package*/ static boolean isSystemAssetCookie(int cookie) {
+        return cookie > 0 && cookie <= getSystem().mStringBlocks.length;
+    }
+
     /**
      * Ensures the string blocks are loaded.
      *
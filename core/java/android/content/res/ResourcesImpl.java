@@ -31,6 +31,7 @@ import android.content.res.Configuration.NativeConfig;
 import android.content.res.Resources.NotFoundException;
 import android.graphics.Bitmap;
 import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.DrawableContainer;
@@ -45,10 +46,14 @@ import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.LongSparseArray;
 import android.util.Slog;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.TypedValue;
 import android.util.Xml;
 import android.view.DisplayAdjustments;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.GrowingArrayUtils;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -56,8 +61,10 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The implementation of Resource access. This class contains the AssetManager and all caches
@@ -85,6 +92,8 @@ public class ResourcesImpl {
 
     /** Used only when TRACE_FOR_DETAILED_PRELOAD is true. */
     private static int sPreloadTracingNumLoadedDrawables;
+    @GuardedBy("sUsedFrameworkResources")
+    private static final SparseBooleanArray sUsedFrameworkResources = new SparseBooleanArray();
     private long mPreloadTracingPreloadStartTime;
     private long mPreloadTracingStartBitmapSize;
     private long mPreloadTracingStartBitmapCount;
@@ -105,6 +114,29 @@ public class ResourcesImpl {
     private static final LongSparseArray<android.content.res.ConstantState<ComplexColor>>
             sPreloadedComplexColors = new LongSparseArray<>();
 
+    // Framework drawables that were not preloaded are shared by all the ResourcesImpl of the
+    // process once loaded, as long as something uses them.  Indexed by
+    // getSharedDrawablesIndex(), then keyed like mDrawableCache.
+    @GuardedBy("sSharedDrawables")
+    private static final SparseArray<LongSparseArray<WeakReference<Drawable.ConstantState>>>
+            sSharedDrawables = new SparseArray<>();
+    @GuardedBy("sSharedDrawables")
+    private static int sSharedDrawablePutCount;
+
+    // Number of entries added to sSharedDrawables between two removals of the cleared ones.
+    private static final int SHARED_DRAWABLES_PRUNE_INTERVAL = 64;
+
+    // Framework drawable statistics.  Atomic rather than guarded by sSharedDrawables, as
+    // preloaded hits do not take that lock otherwise.
+    private static final AtomicLong sPreloadedDrawableHits = new AtomicLong();
+    private static final AtomicLong sSharedDrawableHits = new AtomicLong();
+    private static final AtomicLong sFrameworkDrawableMisses = new AtomicLong();
+    // Ids of the shared drawables whose bitmap is counted in sSharedDrawableBitmapBytes.
+    @GuardedBy("sSharedDrawables")
+    private static final SparseBooleanArray sSharedBitmapIds = new SparseBooleanArray();
+    @GuardedBy("sSharedDrawables")
+    private static long sSharedDrawableBitmapBytes;
+
     /** Lock object used to protect access to caches and configuration. */
     private final Object mAccessLock = new Object();
 
@@ -144,6 +176,9 @@ public class ResourcesImpl {
 
     private final Configuration mConfiguration = new Configuration();
 
+    // Number of drawables loaded from the assets rather than from a cache, not synchronized.
+    private int mDrawableLoadCount;
+
     static {
         sPreloadedDrawables = new LongSparseArray[2];
         sPreloadedDrawables[0] = new LongSparseArray<>();
@@ -450,11 +485,13 @@ public class ResourcesImpl {
                             + mDisplayAdjustments.getCompatibilityInfo());
                 }
 
-                mDrawableCache.onConfigurationChange(configChanges);
-                mColorDrawableCache.onConfigurationChange(configChanges);
-                mComplexColorCache.onConfigurationChange(configChanges);
-                mAnimatorCache.onConfigurationChange(configChanges);
-                mStateListAnimatorCache.onConfigurationChange(configChanges);
+                // The caches keep the entries that depend on what changed, they are used
+                // again if the configuration changes back.
+                mDrawableCache.onConfigurationChange(configChanges, mConfiguration);
+                mColorDrawableCache.onConfigurationChange(configChanges, mConfiguration);
+                mComplexColorCache.onConfigurationChange(configChanges, mConfiguration);
+                mAnimatorCache.onConfigurationChange(configChanges, mConfiguration);
+                mStateListAnimatorCache.onConfigurationChange(configChanges, mConfiguration);
 
                 flushLayoutCache();
             }
@@ -603,13 +640,23 @@ public class ResourcesImpl {
 
             // Next, check preloaded drawables. Preloaded drawables may contain
             // unresolved theme attributes.
-            final Drawable.ConstantState cs;
+            Drawable.ConstantState cs;
             if (isColorDrawable) {
                 cs = sPreloadedColorDrawables.get(key);
             } else {
                 cs = sPreloadedDrawables[mConfiguration.getLayoutDirection()].get(key);
             }
 
+            // Then, check framework drawables loaded by other ResourcesImpl of this process.
+            final boolean shareable = !mPreloading && !isColorDrawable && useCache
+                    && mMetrics.densityDpi == mMetrics.noncompatDensityDpi
+                    && AssetManager.isSystemAssetCookie(value.assetCookie);
+            boolean sharedHit = false;
+            if (shareable && cs == null) {
+                cs = getSharedDrawable(key);
+                sharedHit = cs != null;
+            }
+
             Drawable dr;
             boolean needsNewDrawableAfterCache = false;
             if (cs != null) {
@@ -624,10 +671,20 @@ public class ResourcesImpl {
                     }
                 }
                 dr = cs.newDrawable(wrapper);
+                if (shareable) {
+                    recordFrameworkDrawableHit(sharedHit, id, dr);
+                }
             } else if (isColorDrawable) {
                 dr = new ColorDrawable(value.data);
             } else {
                 dr = loadDrawableForCookie(wrapper, value, id, density, null);
+                mDrawableLoadCount++;
+                if (shareable && dr != null) {
+                    putSharedDrawable(key, dr.getConstantState());
+                }
+            }
+            if (TRACE_FOR_DETAILED_PRELOAD && dr != null) {
+                recordFrameworkResourceUse(id);
             }
             // DrawableContainer' constant state has drawables instances. In order to leave the
             // constant state intact in the cache, we need to create a new DrawableContainer after
@@ -716,6 +773,117 @@ public class ResourcesImpl {
         }
     }
 
+    private int getSharedDrawablesIndex() {
+        return (mMetrics.densityDpi << 1) | mConfiguration.getLayoutDirection();
+    }
+
+    @Nullable
+    private Drawable.ConstantState getSharedDrawable(long key) {
+        synchronized (sSharedDrawables) {
+            final LongSparseArray<WeakReference<Drawable.ConstantState>> drawables =
+                    sSharedDrawables.get(getSharedDrawablesIndex());
+            final WeakReference<Drawable.ConstantState> ref =
+                    drawables != null ? drawables.get(key) : null;
+            return ref != null ? ref.get() : null;
+        }
+    }
+
+    private void putSharedDrawable(long key, @Nullable Drawable.ConstantState cs) {
+        sFrameworkDrawableMisses.incrementAndGet();
+        synchronized (sSharedDrawables) {
+            // Like for preloading, only share what does not depend on the configuration
+            // beyond the density and layout direction used as index.
+            if (cs == null || (cs.getChangingConfigurations()
+                    & ~(ActivityInfo.CONFIG_FONT_SCALE | ActivityInfo.CONFIG_DENSITY
+                    | ActivityInfo.CONFIG_LAYOUT_DIRECTION)) != 0) {
+                return;
+            }
+            final int index = getSharedDrawablesIndex();
+            LongSparseArray<WeakReference<Drawable.ConstantState>> drawables =
+                    sSharedDrawables.get(index);
+            if (drawables == null) {
+                drawables = new LongSparseArray<>();
+                sSharedDrawables.put(index, drawables);
+            }
+            drawables.put(key, new WeakReference<>(cs));
+
+            if (++sSharedDrawablePutCount % SHARED_DRAWABLES_PRUNE_INTERVAL == 0) {
+                for (int i = sSharedDrawables.size() - 1; i >= 0; i--) {
+                    final LongSparseArray<WeakReference<Drawable.ConstantState>> entries =
+                            sSharedDrawables.valueAt(i);
+                    for (int j = entries.size() - 1; j >= 0; j--) {
+                        if (entries.valueAt(j).get() == null) {
+                            entries.removeAt(j);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void recordFrameworkDrawableHit(boolean shared, int id, Drawable dr) {
+        if (!shared) {
+            sPreloadedDrawableHits.incrementAndGet();
+            return;
+        }
+        sSharedDrawableHits.incrementAndGet();
+        // Only bitmaps can be measured, they are most of the memory anyway.  Each one is only
+        // decoded once however many times it is shared, so it is only counted once.
+        if (dr instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) dr).getBitmap();
+            if (bitmap != null) {
+                synchronized (sSharedDrawables) {
+                    if (!sSharedBitmapIds.get(id)) {
+                        sSharedBitmapIds.put(id, true);
+                        sSharedDrawableBitmapBytes += bitmap.getAllocationByteCount();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a framework drawable or color used by an app, whether it was preloaded or not, so
+     * that a resource that the preload profile left out is preloaded again once apps use it.
+     */
+    private static void recordFrameworkResourceUse(int id) {
+        if ((id >>> 24) != 0x1 || android.os.Process.myUid() == 0) {
+            return;
+        }
+        synchronized (sUsedFrameworkResources) {
+            sUsedFrameworkResources.put(id, true);
+        }
+    }
+
+    /**
+     * Framework drawables and colors used by this process, to build the zygote preload profile.
+     * Only recorded when TRACE_FOR_DETAILED_PRELOAD is true.
+     *
+     * @return The ids of the resources.
+     */
+    public static int[] getUsedFrameworkResources() {
+        synchronized (sUsedFrameworkResources) {
+            final int[] ids = new int[sUsedFrameworkResources.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = sUsedFrameworkResources.keyAt(i);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Framework drawable statistics of this process: {preloaded hits, shared hits, misses,
+     * bytes of the bitmaps that shared hits did not have to decode again, each counted once}.
+     *
+     * @hide
+     */
+    public static long[] getFrameworkDrawableStats() {
+        synchronized (sSharedDrawables) {
+            return new long[] { sPreloadedDrawableHits.get(), sSharedDrawableHits.get(),
+                    sFrameworkDrawableMisses.get(), sSharedDrawableBitmapBytes };
+        }
+    }
+
     private boolean verifyPreloadConfig(@Config int changingConfigurations,
             @Config int allowVarying, @AnyRes int resourceId, @Nullable String name) {
         // We allow preloading of resources even if they vary by font scale (which
@@ -928,6 +1096,9 @@ public class ResourcesImpl {
         if (complexColor == null) {
             complexColor = loadComplexColorForCookie(wrapper, value, id, theme);
         }
+        if (TRACE_FOR_DETAILED_PRELOAD && complexColor != null) {
+            recordFrameworkResourceUse(id);
+        }
 
         if (complexColor != null) {
             complexColor.setBaseChangingConfigurations(value.changingConfigurations);
@@ -1216,6 +1387,15 @@ public class ResourcesImpl {
         }
     }
 
+    /**
+     * @return The number of drawables loaded from the assets rather than from a cache.
+     * @hide
+     */
+    @VisibleForTesting
+    public int getDrawableLoadCount() {
+        return mDrawableLoadCount;
+    }
+
     LongSparseArray<Drawable.ConstantState> getPreloadedDrawables() {
         return sPreloadedDrawables[0];
     }
@@ -18,6 +18,7 @@ package android.content.res;
 
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.content.pm.ActivityInfo;
 import android.content.pm.ActivityInfo.Config;
 import android.content.res.Resources.Theme;
 import android.content.res.Resources.ThemeKey;
@@ -32,9 +33,30 @@ import java.lang.ref.WeakReference;
  * @param <T> type of data to cache
  */
 abstract class ThemedResourceCache<T> {
-    private ArrayMap<ThemeKey, LongSparseArray<WeakReference<T>>> mThemedEntries;
-    private LongSparseArray<WeakReference<T>> mUnthemedEntries;
-    private LongSparseArray<WeakReference<T>> mNullThemedEntries;
+    private ArrayMap<ThemeKey, LongSparseArray<Entry<T>>> mThemedEntries;
+    private LongSparseArray<Entry<T>> mUnthemedEntries;
+    private LongSparseArray<Entry<T>> mNullThemedEntries;
+
+    /**
+     * The configuration new entries are created under, or {@code null} until the first call to
+     * {@link #onConfigurationChange(int, Configuration)}.  Entries are tagged with it instead
+     * of being pruned when the configuration changes, so that they can be used again once the
+     * configuration goes back to what they depend on.
+     */
+    private Configuration mConfiguration;
+
+    private static final class Entry<T> extends WeakReference<T> {
+        /**
+         * A configuration the entry is valid under, shared with the other entries of the
+         * cache, or {@code null} if the entry is pruned on configuration changes instead.
+         */
+        Configuration configuration;
+
+        Entry(T referent, Configuration configuration) {
+            super(referent);
+            this.configuration = configuration;
+        }
+    }
 
     /**
      * Adds a new theme-dependent entry to the cache.
@@ -64,14 +86,14 @@ abstract class ThemedResourceCache<T> {
         }
 
         synchronized (this) {
-            final LongSparseArray<WeakReference<T>> entries;
+            final LongSparseArray<Entry<T>> entries;
             if (!usesTheme) {
                 entries = getUnthemedLocked(true);
             } else {
                 entries = getThemedLocked(theme, true);
             }
             if (entries != null) {
-                entries.put(key, new WeakReference<>(entry));
+                entries.put(key, new Entry<>(entry, mConfiguration));
             }
         }
     }
@@ -90,19 +112,19 @@ abstract class ThemedResourceCache<T> {
         // hit first. Since most of the framework drawables are themed, that's
         // probably going to be the themed cache.
         synchronized (this) {
-            final LongSparseArray<WeakReference<T>> themedEntries = getThemedLocked(theme, false);
+            final LongSparseArray<Entry<T>> themedEntries = getThemedLocked(theme, false);
             if (themedEntries != null) {
-                final WeakReference<T> themedEntry = themedEntries.get(key);
+                final Entry<T> themedEntry = themedEntries.get(key);
                 if (themedEntry != null) {
-                    return themedEntry.get();
+                    return getValidLocked(themedEntry);
                 }
             }
 
-            final LongSparseArray<WeakReference<T>> unthemedEntries = getUnthemedLocked(false);
+            final LongSparseArray<Entry<T>> unthemedEntries = getUnthemedLocked(false);
             if (unthemedEntries != null) {
-                final WeakReference<T> unthemedEntry = unthemedEntries.get(key);
+                final Entry<T> unthemedEntry = unthemedEntries.get(key);
                 if (unthemedEntry != null) {
-                    return unthemedEntry.get();
+                    return getValidLocked(unthemedEntry);
                 }
             }
         }
@@ -120,6 +142,50 @@ abstract class ThemedResourceCache<T> {
         prune(configChanges);
     }
 
+    /**
+     * Moves the cache to a new configuration.  Unlike {@link #onConfigurationChange(int)},
+     * entries depending on the changed configuration are kept, and are used again if the
+     * configuration changes back, e.g. when rotating back or toggling night mode twice.
+     *
+     * @param configChanges a bitmask of configuration changes
+     * @param configuration the new configuration, copied by the cache
+     */
+    public void onConfigurationChange(@Config int configChanges,
+            @NonNull Configuration configuration) {
+        synchronized (this) {
+            // Entries put before the first configuration are pruned like before, and so is
+            // everything when the assets changed, which comparing configurations can miss.
+            if (mConfiguration == null
+                    || (configChanges & ActivityInfo.CONFIG_ASSETS_PATHS) != 0) {
+                prune(configChanges);
+            } else {
+                prune(0);
+            }
+            mConfiguration = new Configuration(configuration);
+        }
+    }
+
+    /**
+     * Returns the value of an entry if it is still valid under the current configuration.
+     */
+    @Nullable
+    private T getValidLocked(@NonNull Entry<T> entry) {
+        final T value = entry.get();
+        if (value == null || entry.configuration == null
+                || entry.configuration == mConfiguration) {
+            return value;
+        }
+
+        final int changes = entry.configuration.diff(mConfiguration);
+        if (changes != 0 && shouldInvalidateEntry(value, changes)) {
+            return null;
+        }
+        // The entry does not depend on any difference between the two configurations, so
+        // it is just as valid under the current one. Remember it to skip the diff next time.
+        entry.configuration = mConfiguration;
+        return value;
+    }
+
     /**
      * Returns whether a cached entry has been invalidated by a configuration
      * change.
@@ -141,7 +207,7 @@ abstract class ThemedResourceCache<T> {
      *         empty and {@code create} was {@code false}
      */
     @Nullable
-    private LongSparseArray<WeakReference<T>> getThemedLocked(@Nullable Theme t, boolean create) {
+    private LongSparseArray<Entry<T>> getThemedLocked(@Nullable Theme t, boolean create) {
         if (t == null) {
             if (mNullThemedEntries == null && create) {
                 mNullThemedEntries = new LongSparseArray<>(1);
@@ -158,7 +224,7 @@ abstract class ThemedResourceCache<T> {
         }
 
         final ThemeKey key = t.getKey();
-        LongSparseArray<WeakReference<T>> cache = mThemedEntries.get(key);
+        LongSparseArray<Entry<T>> cache = mThemedEntries.get(key);
         if (cache == null && create) {
             cache = new LongSparseArray<>(1);
 
@@ -178,7 +244,7 @@ abstract class ThemedResourceCache<T> {
      *         empty and {@code create} was {@code false}
      */
     @Nullable
-    private LongSparseArray<WeakReference<T>> getUnthemedLocked(boolean create) {
+    private LongSparseArray<Entry<T>> getUnthemedLocked(boolean create) {
         if (mUnthemedEntries == null && create) {
             mUnthemedEntries = new LongSparseArray<>(1);
         }
@@ -211,14 +277,14 @@ abstract class ThemedResourceCache<T> {
         }
     }
 
-    private boolean pruneEntriesLocked(@Nullable LongSparseArray<WeakReference<T>> entries,
+    private boolean pruneEntriesLocked(@Nullable LongSparseArray<Entry<T>> entries,
             @Config int configChanges) {
         if (entries == null) {
             return true;
         }
 
         for (int i = entries.size() - 1; i >= 0; i--) {
-            final WeakReference<T> ref = entries.valueAt(i);
+            final Entry<T> ref = entries.valueAt(i);
             if (ref == null || pruneEntryLocked(ref.get(), configChanges)) {
                 entries.removeAt(i);
             }
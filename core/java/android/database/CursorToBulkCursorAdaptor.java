@@ -16,8 +16,14 @@
 
 package android.database;
 
+import android.database.sqlite.SQLiteCursor;
 import android.net.Uri;
 import android.os.*;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -27,6 +33,11 @@ import android.os.*;
  * then it is assumed to own the window.  Otherwise, the adaptor provides a
  * window to be filled and ensures it gets closed as needed during deactivation
  * and requeries.
+ * </p><p>
+ * If the client only moves forward, see
+ * {@link android.content.ContentResolver#QUERY_ARG_FORWARD_ONLY}, the adaptor always
+ * provides the windows itself.  If the cursor is a {@link SQLiteCursor}, the next window is
+ * filled from its query in the background while the client is reading the current one.
  * </p>
  *
  * {@hide}
@@ -35,8 +46,29 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         implements IBinder.DeathRecipient {
     private static final String TAG = "Cursor";
 
+    private static final int PREFETCH_THREADS = 2;
+
+    /**
+     * Fills the prefetched windows.  Not the shared AsyncTask pool, as each fill runs a query
+     * for as long as it takes to fill a window.
+     */
+    private static final ThreadPoolExecutor sPrefetchExecutor = new ThreadPoolExecutor(
+            PREFETCH_THREADS, PREFETCH_THREADS, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> new Thread(r, "CursorWindowPrefetch"));
+
+    static {
+        sPrefetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private final Object mLock = new Object();
     private final String mProviderName;
+    private final boolean mForwardOnly;
+
+    /**
+     * In forward-only mode, mCursor if it can fill windows from its query without the lock,
+     * null if the windows are not prefetched.
+     */
+    private final SQLiteCursor mQueryCursor;
     private ContentObserverProxy mObserver;
 
     /**
@@ -52,6 +84,17 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
      */
     private CursorWindow mFilledWindow;
 
+    /**
+     * In forward-only mode, the window that follows mFilledWindow.  It is only handed out once
+     * mPrefetchWindowFilled is set, the client is done with mFilledWindow by then.  It is null
+     * while a prefetch fills it, as the prefetch owns it until it is done.
+     */
+    private CursorWindow mPrefetchWindow;
+    private boolean mPrefetchWindowFilled;
+
+    /** Incremented to drop the prefetches that have not run yet. */
+    private int mPrefetchGeneration;
+
     private static final class ContentObserverProxy extends ContentObserver {
         protected IContentObserver mRemote;
 
@@ -87,12 +130,19 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
 
     public CursorToBulkCursorAdaptor(Cursor cursor, IContentObserver observer,
             String providerName) {
+        this(cursor, observer, providerName, false /* forwardOnly */);
+    }
+
+    public CursorToBulkCursorAdaptor(Cursor cursor, IContentObserver observer,
+            String providerName, boolean forwardOnly) {
         if (cursor instanceof CrossProcessCursor) {
             mCursor = (CrossProcessCursor)cursor;
         } else {
             mCursor = new CrossProcessCursorWrapper(cursor);
         }
         mProviderName = providerName;
+        mForwardOnly = forwardOnly;
+        mQueryCursor = forwardOnly && cursor instanceof SQLiteCursor ? (SQLiteCursor) cursor : null;
 
         synchronized (mLock) {
             createAndRegisterObserverProxyLocked(observer);
@@ -104,6 +154,13 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
             mFilledWindow.close();
             mFilledWindow = null;
         }
+
+        mPrefetchGeneration++;
+        mPrefetchWindowFilled = false;
+        if (mPrefetchWindow != null) {
+            mPrefetchWindow.close();
+            mPrefetchWindow = null;
+        }
     }
 
     private void disposeLocked() {
@@ -143,7 +200,13 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
             d.columnNames = mCursor.getColumnNames();
             d.wantsAllOnMoveCalls = mCursor.getWantsAllOnMoveCalls();
             d.count = mCursor.getCount();
-            d.window = mCursor.getWindow();
+            if (mForwardOnly) {
+                // Never hand out the cursor's own window, prefetching moves the cursor and
+                // could refill it while the client is reading it.
+                d.window = d.count > 0 ? getForwardOnlyWindowLocked(0) : null;
+            } else {
+                d.window = mCursor.getWindow();
+            }
             if (d.window != null) {
                 // Acquire a reference to the window because its reference count will be
                 // decremented when it is returned as part of the binder call reply parcel.
@@ -158,6 +221,18 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         synchronized (mLock) {
             throwIfCursorIsClosed();
 
+            if (mForwardOnly) {
+                if (position < 0 || position >= mCursor.getCount()) {
+                    closeFilledWindowLocked();
+                    return null;
+                }
+                CursorWindow window = getForwardOnlyWindowLocked(position);
+                // Acquire a reference to the window because its reference count will be
+                // decremented when it is returned as part of the binder call reply parcel.
+                window.acquireReference();
+                return window;
+            }
+
             if (!mCursor.moveToPosition(position)) {
                 closeFilledWindowLocked();
                 return null;
@@ -187,6 +262,86 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         }
     }
 
+    private CursorWindow getForwardOnlyWindowLocked(int position) {
+        CursorWindow window;
+        if (mPrefetchWindowFilled && windowContains(mPrefetchWindow, position)) {
+            // Swap the windows, the client is done with the one it had before.
+            window = mPrefetchWindow;
+            mPrefetchWindow = mFilledWindow;
+            mFilledWindow = window;
+        } else {
+            window = mFilledWindow;
+            if (window == null) {
+                mFilledWindow = new CursorWindow(mProviderName);
+                window = mFilledWindow;
+            } else {
+                window.clear();
+            }
+            if (mQueryCursor != null) {
+                mQueryCursor.fillWindowFromQuery(position, window);
+            } else {
+                mCursor.fillWindow(position, window);
+            }
+        }
+
+        mPrefetchWindowFilled = false;
+        if (window.getNumRows() > 0) {
+            prefetchWindowLocked(window.getStartPosition() + window.getNumRows());
+        }
+        return window;
+    }
+
+    private void prefetchWindowLocked(final int position) {
+        final int generation = ++mPrefetchGeneration;
+        if (mQueryCursor == null || position >= mCursor.getCount()) {
+            return;
+        }
+
+        // The window is filled outside of the lock, so that the client and the other binder
+        // calls do not wait for the query, and only swapped in under it.
+        final SQLiteCursor cursor = mQueryCursor;
+        final CursorWindow window = mPrefetchWindow != null
+                ? mPrefetchWindow : new CursorWindow(mProviderName);
+        mPrefetchWindow = null;
+        sPrefetchExecutor.execute(() -> {
+            boolean filled = false;
+            RuntimeException error = null;
+            if (isPrefetchCurrent(generation)) {
+                window.clear();
+                try {
+                    cursor.fillWindowFromQuery(position, window);
+                    filled = true;
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+            synchronized (mLock) {
+                if (generation == mPrefetchGeneration && mCursor != null) {
+                    if (error != null) {
+                        // The window is filled again when the client asks for it, which
+                        // reports the error.
+                        Log.w(TAG, "Unable to prefetch window at " + position, error);
+                    }
+                    mPrefetchWindow = window;
+                    mPrefetchWindowFilled = filled;
+                    return;
+                }
+            }
+            window.close();
+        });
+    }
+
+    private boolean isPrefetchCurrent(int generation) {
+        synchronized (mLock) {
+            return generation == mPrefetchGeneration && mCursor != null;
+        }
+    }
+
+    private static boolean windowContains(CursorWindow window, int position) {
+        return position >= window.getStartPosition()
+                && position < window.getStartPosition() + window.getNumRows();
+    }
+
     @Override
     public void onMove(int position) {
         synchronized (mLock) {
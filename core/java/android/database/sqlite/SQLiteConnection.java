@@ -103,6 +103,12 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private final PreparedStatementCache mPreparedStatementCache;
     private PreparedStatement mPreparedStatementPool;
 
+    // Statements served from / missing from the prepared statement cache.  Unlike the
+    // statistics of the cache itself, these are not affected by the lookups the pool does
+    // in isPreparedStatementInCache().  Written by the owner only, read by the pool unsafely.
+    private int mStatementCacheHits;
+    private int mStatementCacheMisses;
+
     // The recent operations log.
     private final OperationLog mRecentOperations = new OperationLog();
 
@@ -453,6 +459,16 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         return mPreparedStatementCache.get(sql) != null;
     }
 
+    // Called by SQLiteConnectionPool only.
+    int getStatementCacheHitCountUnsafe() {
+        return mStatementCacheHits;
+    }
+
+    // Called by SQLiteConnectionPool only.
+    int getStatementCacheMissCountUnsafe() {
+        return mStatementCacheMisses;
+    }
+
     /**
      * Gets the unique id of this connection.
      * @return The connection id.
@@ -881,6 +897,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         boolean skipCache = false;
         if (statement != null) {
             if (!statement.mInUse) {
+                mStatementCacheHits += 1;
                 return statement;
             }
             // The statement is already in the cache but is in use (this statement appears
@@ -889,6 +906,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             skipCache = true;
         }
 
+        mStatementCacheMisses += 1;
         final long statementPtr = nativePrepareStatement(mConnectionPtr, sql);
         try {
             final int numParameters = nativeGetParameterCount(mConnectionPtr, statementPtr);
@@ -16,6 +16,7 @@
 
 package android.database.sqlite;
 
+import android.database.sqlite.SQLiteDebug.ConnectionPoolStats;
 import android.database.sqlite.SQLiteDebug.DbStats;
 import android.os.CancellationSignal;
 import android.os.Handler;
@@ -82,12 +83,23 @@ public final class SQLiteConnectionPool implements Closeable {
     // and logging a message about the connection pool being busy.
     private static final long CONNECTION_POOL_BUSY_MILLIS = 30 * 1000; // 30 seconds
 
+    // A non-primary connection request waiting at least this long lets the pool open one
+    // more connection than configured, up to twice the configured size.
+    private static final long POOL_GROW_WAIT_MILLIS = 10;
+
+    // Amount of time without such waits after which a connection added under contention
+    // is given back.
+    private static final long EXTRA_CONNECTION_IDLE_MILLIS = 30 * 1000; // 30 seconds
+
     private final CloseGuard mCloseGuard = CloseGuard.get();
 
     private final Object mLock = new Object();
     private final AtomicBoolean mConnectionLeaked = new AtomicBoolean();
     private final SQLiteDatabaseConfiguration mConfiguration;
     private int mMaxConnectionPoolSize;
+    private int mConfiguredMaxConnectionPoolSize;
+    private int mExtraConnectionCount;
+    private long mLastLongWaitTime;
     private boolean mIsOpen;
     private int mNextConnectionId;
 
@@ -102,6 +114,31 @@ public final class SQLiteConnectionPool implements Closeable {
     @GuardedBy("mLock")
     private IdleConnectionHandler mIdleConnectionHandler;
 
+    @GuardedBy("mLock")
+    private ExtraConnectionHandler mExtraConnectionHandler;
+
+    // Statistics, see ConnectionPoolStats.
+    @GuardedBy("mLock")
+    private final long[] mWaitTimeHistogram =
+            new long[ConnectionPoolStats.WAIT_TIME_BUCKET_LIMITS_MILLIS.length + 1];
+    @GuardedBy("mLock")
+    private long mAcquireCount;
+    @GuardedBy("mLock")
+    private long mWaitCount;
+    @GuardedBy("mLock")
+    private long mTotalWaitMillis;
+    @GuardedBy("mLock")
+    private long mMaxWaitMillis;
+    @GuardedBy("mLock")
+    private int mGrowCount;
+    @GuardedBy("mLock")
+    private int mIdleExtraConnectionsClosed;
+    // Statement cache statistics of the connections that were closed.
+    @GuardedBy("mLock")
+    private long mClosedStatementCacheHits;
+    @GuardedBy("mLock")
+    private long mClosedStatementCacheMisses;
+
     // Describes what should happen to an acquired connection when it is returned to the pool.
     enum AcquiredConnectionStatus {
         // The connection should be returned to the pool as usual.
@@ -244,6 +281,9 @@ public final class SQLiteConnectionPool implements Closeable {
 
                 mIsOpen = false;
 
+                if (mExtraConnectionHandler != null) {
+                    mExtraConnectionHandler.removeMessages(0);
+                }
                 closeAvailableConnectionsAndLogExceptionsLocked();
 
                 final int pendingCount = mAcquiredConnections.size();
@@ -486,6 +526,45 @@ public final class SQLiteConnectionPool implements Closeable {
         }
     }
 
+    /**
+     * Collects statistics about how connections were acquired from this pool.
+     *
+     * @param statsList The list to populate.
+     */
+    public void collectConnectionPoolStats(ArrayList<ConnectionPoolStats> statsList) {
+        final ConnectionPoolStats stats = new ConnectionPoolStats();
+        synchronized (mLock) {
+            stats.dbName = mConfiguration.path;
+            stats.maxConnections = mMaxConnectionPoolSize;
+            stats.configuredMaxConnections = mConfiguredMaxConnectionPoolSize;
+            stats.acquireCount = mAcquireCount;
+            stats.waitCount = mWaitCount;
+            stats.totalWaitMillis = mTotalWaitMillis;
+            stats.maxWaitMillis = mMaxWaitMillis;
+            stats.waitTimeHistogram = mWaitTimeHistogram.clone();
+            stats.growCount = mGrowCount;
+            stats.idleConnectionsClosed = mIdleExtraConnectionsClosed;
+
+            long hits = mClosedStatementCacheHits;
+            long misses = mClosedStatementCacheMisses;
+            if (mAvailablePrimaryConnection != null) {
+                hits += mAvailablePrimaryConnection.getStatementCacheHitCountUnsafe();
+                misses += mAvailablePrimaryConnection.getStatementCacheMissCountUnsafe();
+            }
+            for (SQLiteConnection connection : mAvailableNonPrimaryConnections) {
+                hits += connection.getStatementCacheHitCountUnsafe();
+                misses += connection.getStatementCacheMissCountUnsafe();
+            }
+            for (SQLiteConnection connection : mAcquiredConnections.keySet()) {
+                hits += connection.getStatementCacheHitCountUnsafe();
+                misses += connection.getStatementCacheMissCountUnsafe();
+            }
+            stats.statementCacheHits = hits;
+            stats.statementCacheMisses = misses;
+        }
+        statsList.add(stats);
+    }
+
     // Might throw.
     private SQLiteConnection openConnectionLocked(SQLiteDatabaseConfiguration configuration,
             boolean primaryConnection) {
@@ -575,6 +654,8 @@ public final class SQLiteConnectionPool implements Closeable {
 
     // Can't throw.
     private void closeConnectionAndLogExceptionsLocked(SQLiteConnection connection) {
+        mClosedStatementCacheHits += connection.getStatementCacheHitCountUnsafe();
+        mClosedStatementCacheMisses += connection.getStatementCacheMissCountUnsafe();
         try {
             connection.close(); // might throw
             if (mIdleConnectionHandler != null) {
@@ -667,6 +748,7 @@ public final class SQLiteConnectionPool implements Closeable {
                 connection = tryAcquirePrimaryConnectionLocked(connectionFlags); // might throw
             }
             if (connection != null) {
+                recordConnectionAcquiredLocked(false /*waited*/, 0, wantPrimaryConnection);
                 return connection;
             }
 
@@ -733,8 +815,11 @@ public final class SQLiteConnectionPool implements Closeable {
                     final SQLiteConnection connection = waiter.mAssignedConnection;
                     final RuntimeException ex = waiter.mException;
                     if (connection != null || ex != null) {
+                        final long waitMillis = SystemClock.uptimeMillis() - waiter.mStartTime;
                         recycleConnectionWaiterLocked(waiter);
                         if (connection != null) {
+                            recordConnectionAcquiredLocked(true /*waited*/, waitMillis,
+                                    wantPrimaryConnection);
                             return connection;
                         }
                         throw ex; // rethrow!
@@ -758,6 +843,77 @@ public final class SQLiteConnectionPool implements Closeable {
         }
     }
 
+    // Can't throw.
+    private void recordConnectionAcquiredLocked(boolean waited, long waitMillis,
+            boolean wantPrimaryConnection) {
+        mAcquireCount += 1;
+        if (waited) {
+            mWaitCount += 1;
+            mTotalWaitMillis += waitMillis;
+            mMaxWaitMillis = Math.max(mMaxWaitMillis, waitMillis);
+        }
+        final long[] limits = ConnectionPoolStats.WAIT_TIME_BUCKET_LIMITS_MILLIS;
+        int bucket = 0;
+        while (bucket < limits.length && waitMillis >= limits[bucket]) {
+            bucket++;
+        }
+        mWaitTimeHistogram[bucket] += 1;
+
+        // More connections cannot help requests that need the primary connection.
+        if (waitMillis >= POOL_GROW_WAIT_MILLIS && !wantPrimaryConnection
+                && mConfiguredMaxConnectionPoolSize > 1) {
+            mLastLongWaitTime = SystemClock.uptimeMillis();
+            if (mExtraConnectionCount < mConfiguredMaxConnectionPoolSize
+                    && ensureExtraConnectionHandlerLocked()) {
+                mExtraConnectionCount += 1;
+                mMaxConnectionPoolSize += 1;
+                mGrowCount += 1;
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Waited " + waitMillis + " ms for a connection to "
+                            + mConfiguration.label + ", growing pool to "
+                            + mMaxConnectionPoolSize);
+                }
+                mExtraConnectionHandler.scheduleLocked(EXTRA_CONNECTION_IDLE_MILLIS);
+                // Let the next waiter open the new connection right away.
+                wakeConnectionWaitersLocked();
+            }
+        }
+    }
+
+    private boolean ensureExtraConnectionHandlerLocked() {
+        if (mExtraConnectionHandler == null) {
+            final Looper looper = Looper.getMainLooper();
+            if (looper == null) {
+                // Nothing to give the extra connections back with, don't open them.
+                return false;
+            }
+            mExtraConnectionHandler = new ExtraConnectionHandler(looper);
+        }
+        return true;
+    }
+
+    // Can't throw.
+    private void closeIdleExtraConnectionLocked() {
+        if (!mIsOpen || mExtraConnectionCount == 0) {
+            return;
+        }
+        final long idleMillis = SystemClock.uptimeMillis() - mLastLongWaitTime;
+        if (idleMillis < EXTRA_CONNECTION_IDLE_MILLIS) {
+            mExtraConnectionHandler.scheduleLocked(EXTRA_CONNECTION_IDLE_MILLIS - idleMillis);
+            return;
+        }
+
+        mExtraConnectionCount -= 1;
+        mMaxConnectionPoolSize -= 1;
+        // Connections still in use are closed when released, see releaseConnection().
+        final int availableCount = mAvailableNonPrimaryConnections.size();
+        closeExcessConnectionsAndLogExceptionsLocked();
+        mIdleExtraConnectionsClosed += availableCount - mAvailableNonPrimaryConnections.size();
+        if (mExtraConnectionCount > 0) {
+            mExtraConnectionHandler.scheduleLocked(EXTRA_CONNECTION_IDLE_MILLIS);
+        }
+    }
+
     // Can't throw.
     private void cancelConnectionWaiterLocked(ConnectionWaiter waiter) {
         if (waiter.mAssignedConnection != null || waiter.mException != null) {
@@ -1002,15 +1158,18 @@ public final class SQLiteConnectionPool implements Closeable {
     private void setMaxConnectionPoolSizeLocked() {
         if (!mConfiguration.isInMemoryDb()
                 && (mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0) {
-            mMaxConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
+            mConfiguredMaxConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
         } else {
             // We don't actually need to always restrict the connection pool size to 1
             // for non-WAL databases.  There might be reasons to use connection pooling
             // with other journal modes. However, we should always keep pool size of 1 for in-memory
             // databases since every :memory: db is separate from another.
             // For now, enabling connection pooling and using WAL are the same thing in the API.
-            mMaxConnectionPoolSize = 1;
+            mConfiguredMaxConnectionPoolSize = 1;
+            mExtraConnectionCount = 0;
         }
+        mExtraConnectionCount = Math.min(mExtraConnectionCount, mConfiguredMaxConnectionPoolSize);
+        mMaxConnectionPoolSize = mConfiguredMaxConnectionPoolSize + mExtraConnectionCount;
     }
 
     /**
@@ -1075,7 +1234,20 @@ public final class SQLiteConnectionPool implements Closeable {
         synchronized (mLock) {
             printer.println("Connection pool for " + mConfiguration.path + ":");
             printer.println("  Open: " + mIsOpen);
-            printer.println("  Max connections: " + mMaxConnectionPoolSize);
+            printer.println("  Max connections: " + mMaxConnectionPoolSize
+                    + " (configured " + mConfiguredMaxConnectionPoolSize + ")");
+            printer.println("  Acquired: " + mAcquireCount + " times, waited " + mWaitCount
+                    + " times for " + mTotalWaitMillis + " ms, longest " + mMaxWaitMillis
+                    + " ms");
+            final StringBuilder histogram = new StringBuilder("  Wait time histogram:");
+            final long[] limits = ConnectionPoolStats.WAIT_TIME_BUCKET_LIMITS_MILLIS;
+            for (int i = 0; i < mWaitTimeHistogram.length; i++) {
+                histogram.append(i < limits.length ? " <" + limits[i] : " >=" + limits[i - 1])
+                        .append("ms=").append(mWaitTimeHistogram[i]);
+            }
+            printer.println(histogram.toString());
+            printer.println("  Grown: " + mGrowCount + " times, idle extra connections closed: "
+                    + mIdleExtraConnectionsClosed);
             if (mConfiguration.isLookasideConfigSet()) {
                 printer.println("  Lookaside config: sz=" + mConfiguration.lookasideSlotSize
                         + " cnt=" + mConfiguration.lookasideSlotCount);
@@ -1186,4 +1358,25 @@ public final class SQLiteConnectionPool implements Closeable {
             removeMessages(con.getConnectionId());
         }
     }
+
+    private class ExtraConnectionHandler extends Handler {
+        ExtraConnectionHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            synchronized (mLock) {
+                if (this != mExtraConnectionHandler) {
+                    return;
+                }
+                closeIdleExtraConnectionLocked();
+            }
+        }
+
+        void scheduleLocked(long delayMillis) {
+            removeMessages(0);
+            sendEmptyMessageDelayed(0, delayMillis);
+        }
+    }
 }
@@ -134,6 +134,18 @@ public class SQLiteCursor extends AbstractWindowedCursor {
         return mCount;
     }
 
+    /**
+     * Fills the given window directly from the query, starting at the given position, leaving
+     * the window and the position of this cursor alone.  Unlike
+     * {@link #fillWindow(int, CursorWindow)}, it may run on another thread than the one using
+     * the cursor.  It throws {@link IllegalStateException} if the cursor is closed meanwhile.
+     *
+     * @hide
+     */
+    public void fillWindowFromQuery(int position, CursorWindow window) {
+        mQuery.fillWindow(window, position, position, false);
+    }
+
     private void fillWindow(int requiredPos) {
         clearOrCreateWindow(getDatabase().getPath());
 
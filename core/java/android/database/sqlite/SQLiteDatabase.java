@@ -27,6 +27,7 @@ import android.database.DatabaseErrorHandler;
 import android.database.DatabaseUtils;
 import android.database.DefaultDatabaseErrorHandler;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteDebug.ConnectionPoolStats;
 import android.database.sqlite.SQLiteDebug.DbStats;
 import android.os.CancellationSignal;
 import android.os.Looper;
@@ -2129,6 +2130,22 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    static ArrayList<ConnectionPoolStats> getConnectionPoolStats() {
+        ArrayList<ConnectionPoolStats> statsList = new ArrayList<ConnectionPoolStats>();
+        for (SQLiteDatabase db : getActiveDatabases()) {
+            db.collectConnectionPoolStats(statsList);
+        }
+        return statsList;
+    }
+
+    private void collectConnectionPoolStats(ArrayList<ConnectionPoolStats> statsList) {
+        synchronized (mLock) {
+            if (mConnectionPoolLocked != null) {
+                mConnectionPoolLocked.collectConnectionPoolStats(statsList);
+            }
+        }
+    }
+
     private static ArrayList<SQLiteDatabase> getActiveDatabases() {
         ArrayList<SQLiteDatabase> databases = new ArrayList<SQLiteDatabase>();
         synchronized (sActiveDatabases) {
@@ -146,6 +146,65 @@ public final class SQLiteDebug {
         }
     }
 
+    /**
+     * Contains statistics about how the connections of a database were handed out.
+     */
+    public static class ConnectionPoolStats {
+        /**
+         * Upper bounds, exclusive, of the buckets of {@link #waitTimeHistogram}.  The last
+         * bucket holds everything slower.
+         */
+        public static final long[] WAIT_TIME_BUCKET_LIMITS_MILLIS = {
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000 };
+
+        /** name of the database */
+        public String dbName;
+
+        /** the maximum number of connections, including the ones added under contention */
+        public int maxConnections;
+
+        /** the maximum number of connections the pool was configured with */
+        public int configuredMaxConnections;
+
+        /** number of connections acquired from the pool */
+        public long acquireCount;
+
+        /** number of acquisitions that had to wait for a connection */
+        public long waitCount;
+
+        /** total and longest time spent waiting for a connection */
+        public long totalWaitMillis;
+        public long maxWaitMillis;
+
+        /** number of acquisitions per wait time, see {@link #WAIT_TIME_BUCKET_LIMITS_MILLIS} */
+        public long[] waitTimeHistogram;
+
+        /** number of times the pool grew because of contention */
+        public int growCount;
+
+        /** number of extra connections that were closed after being idle */
+        public int idleConnectionsClosed;
+
+        /** prepared statements served from / missing from the statement caches */
+        public long statementCacheHits;
+        public long statementCacheMisses;
+
+        /**
+         * @return the percentage of prepared statements served from the statement caches.
+         */
+        public float getStatementCacheHitRate() {
+            final long total = statementCacheHits + statementCacheMisses;
+            return total == 0 ? 0 : statementCacheHits * 100f / total;
+        }
+    }
+
+    /**
+     * Returns the connection pool stats of all open databases in the current process.
+     */
+    public static ArrayList<ConnectionPoolStats> getConnectionPoolStats() {
+        return SQLiteDatabase.getConnectionPoolStats();
+    }
+
     /**
      * return all pager and database stats for the current process.
      * @return {@link PagerStats}
@@ -43,6 +43,12 @@ public class BaseBundle {
     // Keep in sync with frameworks/native/libs/binder/PersistableBundle.cpp.
     static final int BUNDLE_MAGIC = 0x4C444E42; // 'B' 'N' 'D' 'L'
 
+    /**
+     * Magic of a Bundle whose strings were written through a {@link PooledStringWriter}.
+     * Never written for a {@link PersistableBundle}, so native code does not need to know it.
+     */
+    static final int BUNDLE_MAGIC_POOLED = 0x50444E42; // 'B' 'N' 'D' 'P'
+
     /**
      * Flag indicating that this Bundle is okay to "defuse." That is, it's okay
      * for system processes to ignore any {@link BadParcelableException}
@@ -54,6 +60,12 @@ public class BaseBundle {
      */
     static final int FLAG_DEFUSABLE = 1 << 0;
 
+    /**
+     * Flag indicating that the strings of this Bundle should be written through a
+     * per-transaction string pool, see {@link Bundle#setPoolStrings}.
+     */
+    static final int FLAG_POOL_STRINGS = 1 << 1;
+
     private static final boolean LOG_DEFUSABLE = false;
 
     private static volatile boolean sShouldDefuse = false;
@@ -90,6 +102,11 @@ public class BaseBundle {
      */
     Parcel mParcelledData = null;
 
+    /**
+     * Whether mParcelledData starts with a string pool, see {@link #BUNDLE_MAGIC_POOLED}.
+     */
+    boolean mParcelledDataPooled;
+
     /**
      * The ClassLoader used when unparcelling data from mParcelledData.
      */
@@ -189,7 +206,7 @@ public class BaseBundle {
         if (size == 0) {
             return null;
         }
-        Object o = mMap.valueAt(0);
+        Object o = getValueAt(0);
         try {
             return (String) o;
         } catch (ClassCastException e) {
@@ -254,6 +271,8 @@ public class BaseBundle {
             return;
         }
 
+        final PooledStringReader pooledStrings = mParcelledDataPooled
+                ? new PooledStringReader(parcelledData) : null;
         final int count = parcelledData.readInt();
         if (DEBUG) {
             Log.d(TAG, "unparcel " + Integer.toHexString(System.identityHashCode(this))
@@ -269,8 +288,20 @@ public class BaseBundle {
             map.erase();
             map.ensureCapacity(count);
         }
+        // Values can only be left in a parcel we own, and whose strings can be read in any
+        // order, see getValueAt().
+        final boolean lazy = recycleParcel && pooledStrings == null
+                && !parcelledData.hasReadWriteHelper();
+        int lazyValues = 0;
         try {
-            parcelledData.readArrayMapInternal(map, count, mClassLoader);
+            if (pooledStrings != null) {
+                pooledStrings.install();
+            }
+            if (lazy) {
+                lazyValues = parcelledData.readArrayMapLazilyInternal(map, count, mClassLoader);
+            } else {
+                parcelledData.readArrayMapInternal(map, count, mClassLoader);
+            }
         } catch (BadParcelableException e) {
             if (sShouldDefuse) {
                 Log.w(TAG, "Failed to parse Bundle, but defusing quietly", e);
@@ -280,10 +311,14 @@ public class BaseBundle {
             }
         } finally {
             mMap = map;
-            if (recycleParcel) {
+            if (pooledStrings != null) {
+                pooledStrings.uninstall();
+            }
+            if (recycleParcel && lazyValues == 0) {
                 recycleParcel(parcelledData);
             }
             mParcelledData = null;
+            mParcelledDataPooled = false;
         }
         if (DEBUG) {
             Log.d(TAG, "unparcel " + Integer.toHexString(System.identityHashCode(this))
@@ -321,9 +356,60 @@ public class BaseBundle {
     /** @hide */
     ArrayMap<String, Object> getMap() {
         unparcel();
+        resolveLazyValues();
         return mMap;
     }
 
+    /**
+     * Unparcels all the values left in the parcel the Bundle was read from. Must be called
+     * after {@link #unparcel()}.
+     */
+    final void resolveLazyValues() {
+        synchronized (this) {
+            for (int i = 0, n = mMap.size(); i < n; i++) {
+                getValueAt(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the value for the given key, unparcelling it if needed. Must be called after
+     * {@link #unparcel()}.
+     */
+    final Object getValue(String key) {
+        final int i = mMap.indexOfKey(key);
+        return i >= 0 ? getValueAt(i) : null;
+    }
+
+    /**
+     * Returns the value at the given index of mMap, unparcelling it if it was left in the
+     * parcel the Bundle was read from. Must be called after {@link #unparcel()}.
+     */
+    final Object getValueAt(int i) {
+        Object o = mMap.valueAt(i);
+        if (!(o instanceof Parcel.LazyValue)) {
+            return o;
+        }
+        // Same as unparcel(), so that racing readers unparcel the value only once.
+        synchronized (this) {
+            o = mMap.valueAt(i);
+            if (o instanceof Parcel.LazyValue) {
+                try {
+                    o = ((Parcel.LazyValue) o).apply(mClassLoader);
+                } catch (BadParcelableException e) {
+                    if (sShouldDefuse) {
+                        Log.w(TAG, "Failed to parse value for key " + mMap.keyAt(i)
+                                + ", but defusing quietly", e);
+                        return null;
+                    }
+                    throw e;
+                }
+                mMap.setValueAt(i, o);
+            }
+            return o;
+        }
+    }
+
     /**
      * Returns the number of mappings contained in this Bundle.
      *
@@ -369,6 +455,9 @@ public class BaseBundle {
         } else if (isParcelled()) {
             return mParcelledData.compareData(other.mParcelledData) == 0;
         } else {
+            // Values left in the parcel would only be compared by identity.
+            resolveLazyValues();
+            other.resolveLazyValues();
             return mMap.equals(other.mMap);
         }
     }
@@ -395,6 +484,7 @@ public class BaseBundle {
             } else {
                 mParcelledData = null;
             }
+            mParcelledDataPooled = from.mParcelledDataPooled;
 
             if (from.mMap != null) {
                 if (!deep) {
@@ -477,7 +567,7 @@ public class BaseBundle {
     @Nullable
     public Object get(String key) {
         unparcel();
-        return mMap.get(key);
+        return getValue(key);
     }
 
     /**
@@ -855,7 +945,7 @@ public class BaseBundle {
      */
     public boolean getBoolean(String key, boolean defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -889,7 +979,7 @@ public class BaseBundle {
      */
     Byte getByte(String key, byte defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -923,7 +1013,7 @@ public class BaseBundle {
      */
     char getChar(String key, char defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -957,7 +1047,7 @@ public class BaseBundle {
      */
     short getShort(String key, short defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -991,7 +1081,7 @@ public class BaseBundle {
      */
    public int getInt(String key, int defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -1025,7 +1115,7 @@ public class BaseBundle {
      */
     public long getLong(String key, long defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -1059,7 +1149,7 @@ public class BaseBundle {
      */
     float getFloat(String key, float defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -1093,7 +1183,7 @@ public class BaseBundle {
      */
     public double getDouble(String key, double defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -1116,7 +1206,7 @@ public class BaseBundle {
     @Nullable
     public String getString(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (String) o;
         } catch (ClassCastException e) {
@@ -1152,7 +1242,7 @@ public class BaseBundle {
     @Nullable
     CharSequence getCharSequence(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (CharSequence) o;
         } catch (ClassCastException e) {
@@ -1188,7 +1278,7 @@ public class BaseBundle {
     @Nullable
     Serializable getSerializable(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1211,7 +1301,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<Integer> getIntegerArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1234,7 +1324,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<String> getStringArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1257,7 +1347,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<CharSequence> getCharSequenceArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1280,7 +1370,7 @@ public class BaseBundle {
     @Nullable
     public boolean[] getBooleanArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1303,7 +1393,7 @@ public class BaseBundle {
     @Nullable
     byte[] getByteArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1326,7 +1416,7 @@ public class BaseBundle {
     @Nullable
     short[] getShortArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1349,7 +1439,7 @@ public class BaseBundle {
     @Nullable
     char[] getCharArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1372,7 +1462,7 @@ public class BaseBundle {
     @Nullable
     public int[] getIntArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1395,7 +1485,7 @@ public class BaseBundle {
     @Nullable
     public long[] getLongArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1418,7 +1508,7 @@ public class BaseBundle {
     @Nullable
     float[] getFloatArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1441,7 +1531,7 @@ public class BaseBundle {
     @Nullable
     public double[] getDoubleArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1464,7 +1554,7 @@ public class BaseBundle {
     @Nullable
     public String[] getStringArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1487,7 +1577,7 @@ public class BaseBundle {
     @Nullable
     CharSequence[] getCharSequenceArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1521,7 +1611,7 @@ public class BaseBundle {
                 } else {
                     int length = mParcelledData.dataSize();
                     parcel.writeInt(length);
-                    parcel.writeInt(BUNDLE_MAGIC);
+                    parcel.writeInt(mParcelledDataPooled ? BUNDLE_MAGIC_POOLED : BUNDLE_MAGIC);
                     parcel.appendFrom(mParcelledData, 0, length);
                 }
                 return;
@@ -1534,12 +1624,30 @@ public class BaseBundle {
             parcel.writeInt(0);
             return;
         }
+        // A parcel with a read-write helper already pools (or otherwise owns) its strings.
+        final boolean poolStrings = (mFlags & FLAG_POOL_STRINGS) != 0
+                && !parcel.hasReadWriteHelper();
+        if (poolStrings || parcel.hasReadWriteHelper()) {
+            // The strings of the values left in the parcel we were read from must go through
+            // the helper too, so they can't be copied as is.
+            resolveLazyValues();
+        }
         int lengthPos = parcel.dataPosition();
         parcel.writeInt(-1); // dummy, will hold length
-        parcel.writeInt(BUNDLE_MAGIC);
+        parcel.writeInt(poolStrings ? BUNDLE_MAGIC_POOLED : BUNDLE_MAGIC);
 
         int startPos = parcel.dataPosition();
-        parcel.writeArrayMapInternal(map);
+        if (poolStrings) {
+            final PooledStringWriter pooledStrings = new PooledStringWriter(parcel);
+            pooledStrings.install();
+            try {
+                parcel.writeArrayMapInternal(map);
+            } finally {
+                pooledStrings.finish();
+            }
+        } else {
+            parcel.writeArrayMapInternal(map);
+        }
         int endPos = parcel.dataPosition();
 
         // Backpatch length
@@ -1572,12 +1680,15 @@ public class BaseBundle {
         }
 
         final int magic = parcel.readInt();
-        if (magic != BUNDLE_MAGIC) {
+        if (magic != BUNDLE_MAGIC && magic != BUNDLE_MAGIC_POOLED) {
             throw new IllegalStateException("Bad magic number for Bundle: 0x"
                     + Integer.toHexString(magic));
         }
+        mParcelledDataPooled = magic == BUNDLE_MAGIC_POOLED;
 
-        if (parcel.hasReadWriteHelper()) {
+        // A pooled Bundle carries its own strings, so it can be copied out even if the
+        // parcel has a read-write helper.
+        if (parcel.hasReadWriteHelper() && !mParcelledDataPooled) {
             // If the parcel has a read-write helper, then we can't lazily-unparcel it, so just
             // unparcel right away.
             synchronized (this) {
@@ -227,6 +227,21 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
         }
     }
 
+    /**
+     * Mark if this Bundle should write its strings through a per-transaction string pool,
+     * so that keys and values repeated across the Bundle are only sent once. Only worth it
+     * for large Bundles; the receiver must run the same version of the framework.
+     *
+     * @hide
+     */
+    public void setPoolStrings(boolean poolStrings) {
+        if (poolStrings) {
+            mFlags |= FLAG_POOL_STRINGS;
+        } else {
+            mFlags &= ~FLAG_POOL_STRINGS;
+        }
+    }
+
     /** {@hide} */
     public static Bundle setDefusable(Bundle bundle, boolean defusable) {
         if (bundle != null) {
@@ -325,7 +340,14 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
                 // It's been unparcelled, so we need to walk the map
                 for (int i=mMap.size()-1; i>=0; i--) {
                     Object obj = mMap.valueAt(i);
-                    if (obj instanceof Parcelable) {
+                    if (obj instanceof Parcel.LazyValue) {
+                        // Checking the whole parcel it was read from is cheaper than
+                        // unparcelling the value.
+                        if (((Parcel.LazyValue) obj).hasFileDescriptors()) {
+                            fdFound = true;
+                            break;
+                        }
+                    } else if (obj instanceof Parcelable) {
                         if ((((Parcelable)obj).describeContents()
                                 & Parcelable.CONTENTS_FILE_DESCRIPTOR) != 0) {
                             fdFound = true;
@@ -390,7 +412,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
         if (mMap != null) {
             ArrayMap<String, Object> map = mMap;
             for (int i = map.size() - 1; i >= 0; i--) {
-                Object value = map.valueAt(i);
+                Object value = map == mMap ? getValueAt(i) : bundle.getValueAt(i);
                 if (PersistableBundle.isValidType(value)) {
                     continue;
                 }
@@ -874,7 +896,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Size getSize(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (Size) o;
         } catch (ClassCastException e) {
@@ -894,7 +916,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public SizeF getSizeF(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (SizeF) o;
         } catch (ClassCastException e) {
@@ -914,7 +936,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Bundle getBundle(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -937,7 +959,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> T getParcelable(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -960,7 +982,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Parcelable[] getParcelableArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -983,7 +1005,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> ArrayList<T> getParcelableArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1007,7 +1029,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> SparseArray<T> getSparseParcelableArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1156,7 +1178,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public IBinder getBinder(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1183,7 +1205,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public IBinder getIBinder(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1256,6 +1278,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
                         mParcelledData.dataSize() + "]";
             }
         }
+        resolveLazyValues();
         return "Bundle[" + mMap.toString() + "]";
     }
 
@@ -1270,6 +1293,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
                 return "mParcelledData.dataSize=" + mParcelledData.dataSize();
             }
         }
+        resolveLazyValues();
         return mMap.toString();
     }
 }
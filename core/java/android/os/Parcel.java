@@ -42,6 +42,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -51,6 +54,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Container for a message (data and object references) that can
@@ -423,6 +427,14 @@ public final class Parcel {
         mReadWriteHelper = helper != null ? helper : ReadWriteHelper.DEFAULT;
     }
 
+    /**
+     * @return the {@link ReadWriteHelper} of this parcel, {@link ReadWriteHelper#DEFAULT} if it
+     *         has none.
+     */
+    ReadWriteHelper getReadWriteHelper() {
+        return mReadWriteHelper;
+    }
+
     /**
      * @return whether this parcel has a {@link ReadWriteHelper}.
      *
@@ -835,7 +847,7 @@ public final class Parcel {
         for (int i=0; i<N; i++) {
             if (DEBUG_ARRAY_MAP) startPos = dataPosition();
             writeString(val.keyAt(i));
-            writeValue(val.valueAt(i));
+            writeValue(val.valueAt(i), true);
             if (DEBUG_ARRAY_MAP) Log.d(TAG, "  Write #" + i + " "
                     + (dataPosition()-startPos) + " bytes: key=0x"
                     + Integer.toHexString(val.keyAt(i) != null ? val.keyAt(i).hashCode() : 0)
@@ -1671,7 +1683,25 @@ public final class Parcel {
      * should be used).</p>
      */
     public final void writeValue(Object v) {
-        if (v == null) {
+        writeValue(v, false);
+    }
+
+    /**
+     * Same as {@link #writeValue(Object)}. With {@code withLength}, the values that cannot be
+     * skipped cheaply are preceded by their length, see {@link #hasLengthPrefix}. Only the
+     * values of a map written by {@link #writeArrayMapInternal} are.
+     */
+    private void writeValue(Object v, boolean withLength) {
+        if (v instanceof LazyValue) {
+            final LazyValue lazy = (LazyValue) v;
+            if (withLength && !hasReadWriteHelper() && !lazy.mSource.hasReadWriteHelper()) {
+                // Never unparcelled, write back exactly what was read.
+                lazy.writeToParcel(this);
+            } else {
+                // The bytes are in another format, or their strings must go through a helper.
+                writeValue(lazy.apply(lazy.mLoader), withLength);
+            }
+        } else if (v == null) {
             writeInt(VAL_NULL);
         } else if (v instanceof String) {
             writeInt(VAL_STRING);
@@ -1681,7 +1711,9 @@ public final class Parcel {
             writeInt((Integer) v);
         } else if (v instanceof Map) {
             writeInt(VAL_MAP);
+            final int lengthPos = startLengthPrefix(withLength);
             writeMap((Map) v);
+            finishLengthPrefix(lengthPos);
         } else if (v instanceof Bundle) {
             // Must be before Parcelable
             writeInt(VAL_BUNDLE);
@@ -1694,7 +1726,9 @@ public final class Parcel {
             // come before the Parcelable case, so that their specific VAL_*
             // types will be written.
             writeInt(VAL_PARCELABLE);
+            final int lengthPos = startLengthPrefix(withLength);
             writeParcelable((Parcelable) v, 0);
+            finishLengthPrefix(lengthPos);
         } else if (v instanceof Short) {
             writeInt(VAL_SHORT);
             writeInt(((Short) v).intValue());
@@ -1716,10 +1750,14 @@ public final class Parcel {
             writeCharSequence((CharSequence) v);
         } else if (v instanceof List) {
             writeInt(VAL_LIST);
+            final int lengthPos = startLengthPrefix(withLength);
             writeList((List) v);
+            finishLengthPrefix(lengthPos);
         } else if (v instanceof SparseArray) {
             writeInt(VAL_SPARSEARRAY);
+            final int lengthPos = startLengthPrefix(withLength);
             writeSparseArray((SparseArray) v);
+            finishLengthPrefix(lengthPos);
         } else if (v instanceof boolean[]) {
             writeInt(VAL_BOOLEANARRAY);
             writeBooleanArray((boolean[]) v);
@@ -1738,7 +1776,9 @@ public final class Parcel {
             writeStrongBinder((IBinder) v);
         } else if (v instanceof Parcelable[]) {
             writeInt(VAL_PARCELABLEARRAY);
+            final int lengthPos = startLengthPrefix(withLength);
             writeParcelableArray((Parcelable[]) v, 0);
+            finishLengthPrefix(lengthPos);
         } else if (v instanceof int[]) {
             writeInt(VAL_INTARRAY);
             writeIntArray((int[]) v);
@@ -1763,17 +1803,65 @@ public final class Parcel {
                 // Only pure Object[] are written here, Other arrays of non-primitive types are
                 // handled by serialization as this does not record the component type.
                 writeInt(VAL_OBJECTARRAY);
+                final int lengthPos = startLengthPrefix(withLength);
                 writeArray((Object[]) v);
+                finishLengthPrefix(lengthPos);
             } else if (v instanceof Serializable) {
                 // Must be last
                 writeInt(VAL_SERIALIZABLE);
+                final int lengthPos = startLengthPrefix(withLength);
                 writeSerializable((Serializable) v);
+                finishLengthPrefix(lengthPos);
             } else {
                 throw new RuntimeException("Parcel: unable to marshal value " + v);
             }
         }
     }
 
+    /**
+     * Reserves room for the length of a value written by {@link #writeValue}, if needed.
+     *
+     * @return the position to pass to {@link #finishLengthPrefix}.
+     */
+    private int startLengthPrefix(boolean withLength) {
+        if (!withLength) {
+            return -1;
+        }
+        final int lengthPos = dataPosition();
+        writeInt(-1); // dummy, will hold length
+        return lengthPos;
+    }
+
+    private void finishLengthPrefix(int lengthPos) {
+        if (lengthPos < 0) {
+            return;
+        }
+        final int endPos = dataPosition();
+        setDataPosition(lengthPos);
+        writeInt(endPos - lengthPos - 4);
+        setDataPosition(endPos);
+    }
+
+    /**
+     * Whether values of the given type are written with their length in a map, so that they
+     * can be skipped without being unparcelled. Only types whose size cannot be guessed cheaply
+     * are, none of them can appear in a {@link PersistableBundle} read by native code.
+     */
+    private static boolean hasLengthPrefix(int type) {
+        switch (type) {
+            case VAL_MAP:
+            case VAL_PARCELABLE:
+            case VAL_LIST:
+            case VAL_SPARSEARRAY:
+            case VAL_PARCELABLEARRAY:
+            case VAL_OBJECTARRAY:
+            case VAL_SERIALIZABLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     /**
      * Flatten the name of the class of the Parcelable and its contents
      * into the parcel.
@@ -2726,8 +2814,59 @@ public final class Parcel {
      * loader will be used.
      */
     public final Object readValue(ClassLoader loader) {
+        return readValue(readInt(), loader);
+    }
+
+    /**
+     * Reads a value of a map written by {@link #writeArrayMapInternal}, which may be preceded
+     * by its length.
+     */
+    private Object readArrayMapValue(ClassLoader loader) {
         int type = readInt();
 
+        if (hasLengthPrefix(type)) {
+            final int length = readInt();
+            final int start = dataPosition();
+            if (length < 0 || length > dataAvail()) {
+                throw new BadParcelableException("Bad length " + length + " for value of type "
+                        + type + " at offset " + start);
+            }
+            final Object value = readValue(type, loader);
+            final int end = start + length;
+            if (dataPosition() > end) {
+                throw new BadParcelableException("Value of type " + type + " at offset " + start
+                        + " read " + (dataPosition() - start) + " bytes, but " + length
+                        + " were written");
+            }
+            // Stay in sync with the next value even if a Parcelable did not read everything
+            // it wrote.
+            setDataPosition(end);
+            return value;
+        }
+        return readValue(type, loader);
+    }
+
+    /**
+     * Same as {@link #readArrayMapValue}, except that values written with a length are
+     * skipped and returned as a {@link LazyValue} to be unparcelled later, if ever.
+     */
+    /* package */ Object readLazyValue(ClassLoader loader) {
+        final int start = dataPosition();
+        final int type = readInt();
+        if (!hasLengthPrefix(type)) {
+            return readValue(type, loader);
+        }
+        final int length = readInt();
+        if (length < 0 || length > dataAvail()) {
+            throw new BadParcelableException("Bad length " + length + " for value of type "
+                    + type + " at offset " + start);
+        }
+        final int end = dataPosition() + length;
+        setDataPosition(end);
+        return new LazyValue(this, start, end - start, loader);
+    }
+
+    private Object readValue(int type, ClassLoader loader) {
         switch (type) {
         case VAL_NULL:
             return null;
@@ -2869,71 +3008,90 @@ public final class Parcel {
         if (name == null) {
             return null;
         }
-        Parcelable.Creator<?> creator;
-        synchronized (mCreators) {
-            HashMap<String,Parcelable.Creator<?>> map = mCreators.get(loader);
-            if (map == null) {
-                map = new HashMap<>();
-                mCreators.put(loader, map);
-            }
-            creator = map.get(name);
-            if (creator == null) {
-                try {
-                    // If loader == null, explicitly emulate Class.forName(String) "caller
-                    // classloader" behavior.
-                    ClassLoader parcelableClassLoader =
-                            (loader == null ? getClass().getClassLoader() : loader);
-                    // Avoid initializing the Parcelable class until we know it implements
-                    // Parcelable and has the necessary CREATOR field. http://b/1171613.
-                    Class<?> parcelableClass = Class.forName(name, false /* initialize */,
-                            parcelableClassLoader);
-                    if (!Parcelable.class.isAssignableFrom(parcelableClass)) {
-                        throw new BadParcelableException("Parcelable protocol requires that the "
-                                + "class implements Parcelable");
-                    }
-                    Field f = parcelableClass.getField("CREATOR");
-                    if ((f.getModifiers() & Modifier.STATIC) == 0) {
-                        throw new BadParcelableException("Parcelable protocol requires "
-                                + "the CREATOR object to be static on class " + name);
-                    }
-                    Class<?> creatorType = f.getType();
-                    if (!Parcelable.Creator.class.isAssignableFrom(creatorType)) {
-                        // Fail before calling Field.get(), not after, to avoid initializing
-                        // parcelableClass unnecessarily.
-                        throw new BadParcelableException("Parcelable protocol requires a "
-                                + "Parcelable.Creator object called "
-                                + "CREATOR on class " + name);
-                    }
-                    creator = (Parcelable.Creator<?>) f.get(null);
-                }
-                catch (IllegalAccessException e) {
-                    Log.e(TAG, "Illegal access when unmarshalling: " + name, e);
-                    throw new BadParcelableException(
-                            "IllegalAccessException when unmarshalling: " + name);
+        final ConcurrentHashMap<String, WeakReference<Parcelable.Creator<?>>> map =
+                getCreatorsForClassLoader(loader);
+        final WeakReference<Parcelable.Creator<?>> creatorRef = map.get(name);
+        Parcelable.Creator<?> creator = (creatorRef != null) ? creatorRef.get() : null;
+        if (creator == null) {
+            try {
+                // If loader == null, explicitly emulate Class.forName(String) "caller
+                // classloader" behavior.
+                ClassLoader parcelableClassLoader =
+                        (loader == null ? getClass().getClassLoader() : loader);
+                // Avoid initializing the Parcelable class until we know it implements
+                // Parcelable and has the necessary CREATOR field. http://b/1171613.
+                Class<?> parcelableClass = Class.forName(name, false /* initialize */,
+                        parcelableClassLoader);
+                if (!Parcelable.class.isAssignableFrom(parcelableClass)) {
+                    throw new BadParcelableException("Parcelable protocol requires that the "
+                            + "class implements Parcelable");
                 }
-                catch (ClassNotFoundException e) {
-                    Log.e(TAG, "Class not found when unmarshalling: " + name, e);
-                    throw new BadParcelableException(
-                            "ClassNotFoundException when unmarshalling: " + name);
+                Field f = parcelableClass.getField("CREATOR");
+                if ((f.getModifiers() & Modifier.STATIC) == 0) {
+                    throw new BadParcelableException("Parcelable protocol requires "
+                            + "the CREATOR object to be static on class " + name);
                 }
-                catch (NoSuchFieldException e) {
+                Class<?> creatorType = f.getType();
+                if (!Parcelable.Creator.class.isAssignableFrom(creatorType)) {
+                    // Fail before calling Field.get(), not after, to avoid initializing
+                    // parcelableClass unnecessarily.
                     throw new BadParcelableException("Parcelable protocol requires a "
                             + "Parcelable.Creator object called "
                             + "CREATOR on class " + name);
                 }
-                if (creator == null) {
-                    throw new BadParcelableException("Parcelable protocol requires a "
-                            + "non-null Parcelable.Creator object called "
-                            + "CREATOR on class " + name);
-                }
-
-                map.put(name, creator);
+                creator = (Parcelable.Creator<?>) f.get(null);
+            }
+            catch (IllegalAccessException e) {
+                Log.e(TAG, "Illegal access when unmarshalling: " + name, e);
+                throw new BadParcelableException(
+                        "IllegalAccessException when unmarshalling: " + name);
             }
+            catch (ClassNotFoundException e) {
+                Log.e(TAG, "Class not found when unmarshalling: " + name, e);
+                throw new BadParcelableException(
+                        "ClassNotFoundException when unmarshalling: " + name);
+            }
+            catch (NoSuchFieldException e) {
+                throw new BadParcelableException("Parcelable protocol requires a "
+                        + "Parcelable.Creator object called "
+                        + "CREATOR on class " + name);
+            }
+            if (creator == null) {
+                throw new BadParcelableException("Parcelable protocol requires a "
+                        + "non-null Parcelable.Creator object called "
+                        + "CREATOR on class " + name);
+            }
+
+            // Racing threads may both resolve the creator, they get the same instance.
+            map.put(name, new WeakReference<>(creator));
         }
 
         return creator;
     }
 
+    private static ConcurrentHashMap<String, WeakReference<Parcelable.Creator<?>>>
+            getCreatorsForClassLoader(ClassLoader loader) {
+        if (loader == null) {
+            return sNullLoaderCreators;
+        }
+        ConcurrentHashMap<String, WeakReference<Parcelable.Creator<?>>> map =
+                sCreators.get(new ClassLoaderLookupKey(loader));
+        if (map == null) {
+            // Drop the caches of class loaders that have been collected.
+            Reference<? extends ClassLoader> stale;
+            while ((stale = sCreatorsQueue.poll()) != null) {
+                sCreators.remove(stale);
+            }
+            map = new ConcurrentHashMap<>();
+            final ConcurrentHashMap<String, WeakReference<Parcelable.Creator<?>>> existing =
+                    sCreators.putIfAbsent(new ClassLoaderKey(loader, sCreatorsQueue), map);
+            if (existing != null) {
+                map = existing;
+            }
+        }
+        return map;
+    }
+
     /**
      * Read and return a new Parcelable array from the parcel.
      * The given class loader will be used to load any enclosed
@@ -3015,9 +3173,64 @@ public final class Parcel {
 
     // Cache of previously looked up CREATOR.createFromParcel() methods for
     // particular classes.  Keys are the names of the classes, values are
-    // Method objects.
-    private static final HashMap<ClassLoader,HashMap<String,Parcelable.Creator<?>>>
-        mCreators = new HashMap<>();
+    // Method objects.  Lookups don't take a lock as binder threads unmarshal
+    // concurrently.  Class loaders and creators are only weakly referenced so
+    // the cache doesn't keep class loaders alive; a creator stays reachable
+    // through the CREATOR field of its class for as long as its class loader.
+    private static final ConcurrentHashMap<Object,
+            ConcurrentHashMap<String, WeakReference<Parcelable.Creator<?>>>>
+        sCreators = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, WeakReference<Parcelable.Creator<?>>>
+        sNullLoaderCreators = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<ClassLoader> sCreatorsQueue = new ReferenceQueue<>();
+
+    /** Key of {@link #sCreators}, compares class loaders by identity. */
+    private static final class ClassLoaderKey extends WeakReference<ClassLoader> {
+        private final int mHashCode;
+
+        ClassLoaderKey(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            mHashCode = System.identityHashCode(loader);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            // Stale keys only equal themselves, so they can still be removed.
+            final ClassLoader loader = get();
+            return loader != null && o instanceof ClassLoaderKey
+                    && ((ClassLoaderKey) o).get() == loader;
+        }
+    }
+
+    /**
+     * Looks up a {@link ClassLoaderKey} without allocating a weak reference. Only ever passed to
+     * {@link ConcurrentHashMap#get}, which calls equals() on the key being looked up.
+     */
+    private static final class ClassLoaderLookupKey {
+        private final ClassLoader mLoader;
+
+        ClassLoaderLookupKey(ClassLoader loader) {
+            mLoader = loader;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mLoader);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ClassLoaderKey && ((ClassLoaderKey) o).get() == mLoader;
+        }
+    }
 
     /** @hide for internal use only. */
     static protected final Parcel obtain(int obj) {
@@ -3111,7 +3324,7 @@ public final class Parcel {
         while (N > 0) {
             if (DEBUG_ARRAY_MAP) startPos = dataPosition();
             String key = readString();
-            Object value = readValue(loader);
+            Object value = readArrayMapValue(loader);
             if (DEBUG_ARRAY_MAP) Log.d(TAG, "  Read #" + (N-1) + " "
                     + (dataPosition()-startPos) + " bytes: key=0x"
                     + Integer.toHexString((key != null ? key.hashCode() : 0)) + " " + key);
@@ -3121,6 +3334,29 @@ public final class Parcel {
         outVal.validate();
     }
 
+    /**
+     * Same as {@link #readArrayMapInternal}, except that values are read with
+     * {@link #readLazyValue}. This parcel must not be recycled while the map holds any
+     * {@link LazyValue}.
+     *
+     * @return the number of values that were left parcelled.
+     */
+    /* package */ int readArrayMapLazilyInternal(ArrayMap outVal, int N,
+        ClassLoader loader) {
+        int lazyValues = 0;
+        while (N > 0) {
+            String key = readString();
+            Object value = readLazyValue(loader);
+            if (value instanceof LazyValue) {
+                lazyValues++;
+            }
+            outVal.append(key, value);
+            N--;
+        }
+        outVal.validate();
+        return lazyValues;
+    }
+
     /* package */ void readArrayMapSafelyInternal(ArrayMap outVal, int N,
         ClassLoader loader) {
         if (DEBUG_ARRAY_MAP) {
@@ -3132,7 +3368,7 @@ public final class Parcel {
             String key = readString();
             if (DEBUG_ARRAY_MAP) Log.d(TAG, "  Read safe #" + (N-1) + ": key=0x"
                     + (key != null ? key.hashCode() : 0) + " " + key);
-            Object value = readValue(loader);
+            Object value = readArrayMapValue(loader);
             outVal.put(key, value);
             N--;
         }
@@ -3225,4 +3461,57 @@ public final class Parcel {
     public long getBlobAshmemSize() {
         return nativeGetBlobAshmemSize(mNativePtr);
     }
+
+    /**
+     * A value of a {@link BaseBundle} left in its parcel until it is first accessed, see
+     * {@link #readLazyValue}. Keeps the source parcel alive, so it can both be unparcelled
+     * and written back byte for byte.
+     *
+     * @hide
+     */
+    static final class LazyValue {
+        final Parcel mSource;
+        // Class loader of the Bundle when the value was read, for values written out of it.
+        final ClassLoader mLoader;
+        private final int mPosition;
+        private final int mLength;
+
+        LazyValue(Parcel source, int position, int length, ClassLoader loader) {
+            mSource = source;
+            mPosition = position;
+            mLength = length;
+            mLoader = loader;
+        }
+
+        /**
+         * Unparcels the value. Every call returns a new instance.
+         */
+        Object apply(ClassLoader loader) {
+            // The source may be shared with copies of the Bundle.
+            synchronized (mSource) {
+                final int restorePos = mSource.dataPosition();
+                try {
+                    mSource.setDataPosition(mPosition);
+                    return mSource.readArrayMapValue(loader);
+                } finally {
+                    mSource.setDataPosition(restorePos);
+                }
+            }
+        }
+
+        void writeToParcel(Parcel out) {
+            synchronized (mSource) {
+                out.appendFrom(mSource, mPosition, mLength);
+            }
+        }
+
+        boolean hasFileDescriptors() {
+            return mSource.hasFileDescriptors();
+        }
+
+        @Override
+        public String toString() {
+            return "LazyValue{" + mLength + " bytes}";
+        }
+    }
 }
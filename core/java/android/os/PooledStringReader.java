@@ -20,9 +20,13 @@ package android.os;
  * Helper class for reading pooling strings from a Parcel.  It must be used
  * in conjunction with {@link android.os.PooledStringWriter}.  This really needs
  * to be pushed in to Parcel itself, but doing that is...  complicated.
+ *
+ * <p>When the strings were written with an installed {@link PooledStringWriter}, the reader
+ * must be installed too with {@link #install()} and removed with {@link #uninstall()} once
+ * the pooled region has been read.
  * @hide
  */
-public class PooledStringReader {
+public class PooledStringReader extends Parcel.ReadWriteHelper {
     private final Parcel mIn;
 
     /**
@@ -30,9 +34,18 @@ public class PooledStringReader {
      */
     private final String[] mPool;
 
+    /**
+     * The read-write helper of the parcel before we were installed, restored when we are
+     * uninstalled.
+     */
+    private Parcel.ReadWriteHelper mPreviousHelper;
+
     public PooledStringReader(Parcel in) {
         mIn = in;
         final int size = in.readInt();
+        if (size < 0 || size > in.dataAvail()) {
+            throw new BadParcelableException("Bad string pool size " + size);
+        }
         mPool = new String[size];
     }
 
@@ -46,9 +59,31 @@ public class PooledStringReader {
             return mPool[idx];
         } else {
             idx = (-idx) - 1;
-            String str = mIn.readString();
+            String str = mIn.readStringNoHelper();
             mPool[idx] = str;
             return str;
         }
     }
+
+    @Override
+    public String readString(Parcel p) {
+        return readString();
+    }
+
+    /**
+     * Route all {@link Parcel#readString} calls on the parcel through this pool.
+     */
+    public void install() {
+        mPreviousHelper = mIn.getReadWriteHelper();
+        mIn.setReadWriteHelper(this);
+    }
+
+    /**
+     * Stop routing {@link Parcel#readString} calls through this pool, and go back to the helper
+     * the parcel had before {@link #install()}.
+     */
+    public void uninstall() {
+        mIn.setReadWriteHelper(mPreviousHelper);
+        mPreviousHelper = null;
+    }
 }
@@ -22,9 +22,14 @@ import java.util.HashMap;
  * Helper class for writing pooled strings into a Parcel.  It must be used
  * in conjunction with {@link android.os.PooledStringReader}.  This really needs
  * to be pushed in to Parcel itself, but doing that is...  complicated.
+ *
+ * <p>It can also be installed as the {@link Parcel.ReadWriteHelper} of the parcel with
+ * {@link #install()}, so that every {@link Parcel#writeString} until {@link #finish()} goes
+ * through the pool.  Each string is written inline the first time it is seen, so the pooled
+ * region is self-contained and can be copied around like any other part of the parcel.
  * @hide
  */
-public class PooledStringWriter {
+public class PooledStringWriter extends Parcel.ReadWriteHelper {
     private final Parcel mOut;
 
     /**
@@ -48,6 +53,17 @@ public class PooledStringWriter {
      */
     private int mNext;
 
+    /**
+     * Whether we were installed as the read-write helper of {@link #mOut}.
+     */
+    private boolean mInstalled;
+
+    /**
+     * The read-write helper of {@link #mOut} before we were installed, restored by
+     * {@link #finish()}.
+     */
+    private Parcel.ReadWriteHelper mPreviousHelper;
+
     public PooledStringWriter(Parcel out) {
         mOut = out;
         mPool = new HashMap<>();
@@ -62,16 +78,36 @@ public class PooledStringWriter {
         } else {
             mPool.put(str, mNext);
             mOut.writeInt(-(mNext+1));
-            mOut.writeString(str);
+            mOut.writeStringNoHelper(str);
             mNext++;
         }
     }
 
+    @Override
+    public void writeString(Parcel p, String s) {
+        writeString(s);
+    }
+
+    /**
+     * Route all {@link Parcel#writeString} calls on the parcel through this pool until
+     * {@link #finish()} is called.
+     */
+    public void install() {
+        mPreviousHelper = mOut.getReadWriteHelper();
+        mOut.setReadWriteHelper(this);
+        mInstalled = true;
+    }
+
     public int getStringCount() {
         return mPool.size();
     }
 
     public void finish() {
+        if (mInstalled) {
+            mOut.setReadWriteHelper(mPreviousHelper);
+            mPreviousHelper = null;
+            mInstalled = false;
+        }
         final int pos = mOut.dataPosition();
         mOut.setDataPosition(mStart);
         mOut.writeInt(mNext);
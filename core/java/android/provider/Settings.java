@@ -86,6 +86,7 @@ import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Settings provider contains global system-level device preferences.
@@ -1514,6 +1515,20 @@ public final class Settings {
      */
     public static final String CALL_METHOD_TAG_KEY = "_tag";
 
+    /**
+     * @hide - String array argument extra to the fast-path call()-based get requests
+     * naming additional settings in the same table to return with the requested one
+     *
+     * @see #CALL_METHOD_PREFETCH_VALUES_KEY
+     */
+    public static final String CALL_METHOD_PREFETCH_KEY = "_prefetch";
+
+    /**
+     * @hide - Bundle result extra of a fast-path call()-based get request that holds
+     * the values of the settings named by {@link #CALL_METHOD_PREFETCH_KEY}
+     */
+    public static final String CALL_METHOD_PREFETCH_VALUES_KEY = "_prefetch_values";
+
     /** @hide - Private call() method to write to 'system' table */
     public static final String CALL_METHOD_PUT_SYSTEM = "PUT_system";
 
@@ -1827,6 +1842,9 @@ public final class Settings {
         @GuardedBy("this")
         private GenerationTracker mGenerationTracker;
 
+        // Number of calls and queries made to the provider to read settings.
+        private final AtomicInteger mProviderReadCount = new AtomicInteger();
+
         public NameValueCache(Uri uri, String getCommand, String setCommand,
                 ContentProviderHolder providerHolder) {
             mUri = uri;
@@ -1857,6 +1875,44 @@ public final class Settings {
         }
 
         public String getStringForUser(ContentResolver cr, String name, final int userHandle) {
+            return getStringForUser(cr, name, null, userHandle);
+        }
+
+        /**
+         * Loads the given settings of the calling user into the cache with a single
+         * call to the provider, skipping the ones that are already cached.
+         */
+        public void prefetchStrings(ContentResolver cr, String[] names) {
+            if (mCallGetCommand == null || names == null || names.length == 0) {
+                return;
+            }
+            final ArraySet<String> missing = new ArraySet<>(names.length);
+            synchronized (NameValueCache.this) {
+                if (mGenerationTracker != null && mGenerationTracker.isGenerationChanged()) {
+                    mValues.clear();
+                }
+                for (String name : names) {
+                    if (mGenerationTracker == null || !mValues.containsKey(name)) {
+                        missing.add(name);
+                    }
+                }
+            }
+            if (missing.isEmpty()) {
+                return;
+            }
+            final String[] prefetchNames = new String[missing.size() - 1];
+            for (int i = 0; i < prefetchNames.length; i++) {
+                prefetchNames[i] = missing.valueAt(i + 1);
+            }
+            if (DEBUG) {
+                Log.i(TAG, "Prefetching " + missing.size() + " settings for type:"
+                        + mUri.getPath() + " in package:" + cr.getPackageName());
+            }
+            getStringForUser(cr, missing.valueAt(0), prefetchNames, UserHandle.myUserId());
+        }
+
+        private String getStringForUser(ContentResolver cr, String name, String[] prefetchNames,
+                final int userHandle) {
             final boolean isSelf = (userHandle == UserHandle.myUserId());
             if (isSelf) {
                 synchronized (NameValueCache.this) {
@@ -1891,6 +1947,12 @@ public final class Settings {
                         args = new Bundle();
                         args.putInt(CALL_METHOD_USER_KEY, userHandle);
                     }
+                    if (isSelf && prefetchNames != null && prefetchNames.length > 0) {
+                        if (args == null) {
+                            args = new Bundle();
+                        }
+                        args.putStringArray(CALL_METHOD_PREFETCH_KEY, prefetchNames);
+                    }
                     boolean needsGenerationTracker = false;
                     synchronized (NameValueCache.this) {
                         if (isSelf && mGenerationTracker == null) {
@@ -1913,6 +1975,7 @@ public final class Settings {
                     // did not do permission checking but thats no longer the case.
                     // Long term this should be removed and callers should properly call
                     // clearCallingIdentity or use a ContentResolver from the caller as needed.
+                    mProviderReadCount.incrementAndGet();
                     if (Settings.isInSystemServer() && Binder.getCallingUid() != Process.myUid()) {
                         final long token = Binder.clearCallingIdentity();
                         try {
@@ -1962,6 +2025,12 @@ public final class Settings {
                                     }
                                 }
                                 mValues.put(name, value);
+                                Bundle prefetched = b.getBundle(CALL_METHOD_PREFETCH_VALUES_KEY);
+                                if (prefetched != null) {
+                                    for (String key : prefetched.keySet()) {
+                                        mValues.put(key, prefetched.getString(key));
+                                    }
+                                }
                             }
                         } else {
                             if (LOCAL_LOGV) Log.i(TAG, "call-query of user " + userHandle
@@ -1983,6 +2052,7 @@ public final class Settings {
                 Bundle queryArgs = ContentResolver.createSqlQueryBundle(
                         NAME_EQ_PLACEHOLDER, new String[]{name}, null);
                 // Same workaround as above.
+                mProviderReadCount.incrementAndGet();
                 if (Settings.isInSystemServer() && Binder.getCallingUid() != Process.myUid()) {
                     final long token = Binder.clearCallingIdentity();
                     try {
@@ -2017,6 +2087,10 @@ public final class Settings {
             }
         }
 
+        public int getProviderReadCountForTest() {
+            return mProviderReadCount.get();
+        }
+
         public void clearGenerationTrackerForTest() {
             synchronized (NameValueCache.this) {
                 if (mGenerationTracker != null) {
@@ -2214,12 +2288,31 @@ public final class Settings {
             outKeySet.addAll(MOVED_TO_GLOBAL);
         }
 
+        /**
+         * Fetch the given settings of the calling user with a single call to the provider,
+         * so that subsequent lookups of them are served from the local cache.
+         * @param resolver to access the database with
+         * @param names the settings to load
+         * @hide
+         */
+        public static void prefetchStrings(ContentResolver resolver, String... names) {
+            sNameValueCache.prefetchStrings(resolver, names);
+        }
+
         /** @hide */
         public static void clearProviderForTest() {
             sProviderHolder.clearProviderForTest();
             sNameValueCache.clearGenerationTrackerForTest();
         }
 
+        /**
+         * @return the number of calls made to the provider to read settings of this table.
+         * @hide
+         */
+        public static int getProviderReadCountForTest() {
+            return sNameValueCache.getProviderReadCountForTest();
+        }
+
         /**
          * Look up a name in the database.
          * @param resolver to access the database with
@@ -5802,12 +5895,31 @@ public final class Settings {
             outKeySet.addAll(MOVED_TO_GLOBAL);
         }
 
+        /**
+         * Fetch the given settings of the calling user with a single call to the provider,
+         * so that subsequent lookups of them are served from the local cache.
+         * @param resolver to access the database with
+         * @param names the settings to load
+         * @hide
+         */
+        public static void prefetchStrings(ContentResolver resolver, String... names) {
+            sNameValueCache.prefetchStrings(resolver, names);
+        }
+
         /** @hide */
         public static void clearProviderForTest() {
             sProviderHolder.clearProviderForTest();
             sNameValueCache.clearGenerationTrackerForTest();
         }
 
+        /**
+         * @return the number of calls made to the provider to read settings of this table.
+         * @hide
+         */
+        public static int getProviderReadCountForTest() {
+            return sNameValueCache.getProviderReadCountForTest();
+        }
+
         /**
          * Look up a name in the database.
          * @param resolver to access the database with
@@ -11919,12 +12031,31 @@ public final class Settings {
             outKeySet.addAll(MOVED_TO_SECURE);
         }
 
+        /**
+         * Fetch the given settings of the calling user with a single call to the provider,
+         * so that subsequent lookups of them are served from the local cache.
+         * @param resolver to access the database with
+         * @param names the settings to load
+         * @hide
+         */
+        public static void prefetchStrings(ContentResolver resolver, String... names) {
+            sNameValueCache.prefetchStrings(resolver, names);
+        }
+
         /** @hide */
         public static void clearProviderForTest() {
             sProviderHolder.clearProviderForTest();
             sNameValueCache.clearGenerationTrackerForTest();
         }
 
+        /**
+         * @return the number of calls made to the provider to read settings of this table.
+         * @hide
+         */
+        public static int getProviderReadCountForTest() {
+            return sNameValueCache.getProviderReadCountForTest();
+        }
+
         /**
          * Look up a name in the database.
          * @param resolver to access the database with
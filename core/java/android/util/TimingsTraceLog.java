@@ -74,4 +74,13 @@ public class TimingsTraceLog {
     public void logDuration(String name, long timeMs) {
         Slog.d(mTag, name + " took to complete: " + timeMs + "ms");
     }
+
+    /**
+     * Log a step that ran concurrently with others, with its start time relative to a common
+     * origin, so that the timeline of the steps can be reconstructed.
+     */
+    public void logTimelineEntry(String name, long startOffsetMs, long timeMs) {
+        Slog.d(mTag, name + " started at: +" + startOffsetMs + "ms took to complete: "
+                + timeMs + "ms");
+    }
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.annotation.LayoutRes;
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.policy.PhoneLayoutInflater;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inflates layouts on a pool of worker threads, so that the thread that owns the views only has
+ * to attach them.
+ *
+ * <p>Factories may belong to an activity or a fragment manager, which are not thread safe, and
+ * may replace any tag, e.g. a {@code TextView} with a compat subclass. So if the
+ * {@link LayoutInflater} of the given context has a {@link LayoutInflater.Factory} or
+ * {@link LayoutInflater.Factory2}, layouts are always inflated on the thread of this inflater,
+ * and nothing is pre-inflated. Otherwise workers use a new inflater, without the private factory
+ * of an activity, so tags that only it can create, like {@code <fragment>}, fail there. Such
+ * layouts, and layouts with views that cannot be created on a thread without a {@link Looper},
+ * e.g. because they create a {@link Handler}, fall back to the thread of this inflater and are
+ * not tried in the background again.
+ *
+ * <p>The parent passed along is only used to generate the layout params of the root view, so
+ * its {@link ViewGroup#generateLayoutParams(android.util.AttributeSet)} is called on a worker
+ * thread and must not depend on state that the thread of the parent modifies. Pre-inflated views
+ * are only reused for a parent of the same class.
+ *
+ * <p>Constructors of the inflated views are cached across inflations and threads by {@link
+ * LayoutInflater}, as is the time spent inflating each layout, see
+ * {@link LayoutInflater#dumpInflateStats}.
+ *
+ * @hide
+ */
+public final class AsyncLayoutInflater {
+    private static final String TAG = "AsyncLayoutInflater";
+
+    @VisibleForTesting
+    static final int POOL_SIZE = 2;
+
+    /** Maximum number of pre-inflated views kept per layout. */
+    @VisibleForTesting
+    static final int MAX_PREINFLATED_VIEWS = 4;
+
+    private static ExecutorService sExecutor;
+
+    private static final Object sLock = new Object();
+    // Layouts that failed to inflate on a worker thread, guarded by sLock.
+    private static final SparseBooleanArray sMainThreadOnlyLayouts = new SparseBooleanArray();
+
+    public interface OnInflateFinishedListener {
+        /**
+         * Called on the thread of the inflater once the layout was inflated.
+         *
+         * @param view The root view of the inflated layout.
+         * @param resid The layout that was inflated.
+         * @param parent The parent the layout params of the view were generated for.
+         */
+        void onInflateFinished(@NonNull View view, @LayoutRes int resid,
+                @Nullable ViewGroup parent);
+    }
+
+    private final LayoutInflater mInflater;
+    private final Handler mHandler;
+    // Views inflated ahead of time by preInflate(), by layout, guarded by mPreinflatedViews.
+    private final SparseArray<ArrayList<PreinflatedView>> mPreinflatedViews = new SparseArray<>();
+
+    private static final class PreinflatedView {
+        final View view;
+        // Class of the parent the layout params of the view were generated for, or null.
+        final Class<?> parentClass;
+
+        PreinflatedView(View view, Class<?> parentClass) {
+            this.view = view;
+            this.parentClass = parentClass;
+        }
+    }
+
+    /**
+     * Creates an inflater that delivers the views on the thread of the calling looper.
+     *
+     * @throws IllegalStateException if the calling thread has no looper.
+     */
+    public AsyncLayoutInflater(@NonNull Context context) {
+        final Looper looper = Looper.myLooper();
+        if (looper == null) {
+            throw new IllegalStateException(
+                    "AsyncLayoutInflater must be created on a thread with a Looper");
+        }
+        mInflater = LayoutInflater.from(context);
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Inflates a layout on a worker thread and passes it to the callback on the thread of this
+     * inflater.
+     *
+     * @param parent Parent to generate the layout params of the root view for, from a worker
+     *        thread, see {@link AsyncLayoutInflater}. The view is not added to it.
+     */
+    public void inflate(@LayoutRes int resid, @Nullable ViewGroup parent,
+            @NonNull OnInflateFinishedListener callback) {
+        if (callback == null) {
+            throw new NullPointerException("callback argument may not be null!");
+        }
+        final View preinflated = takePreinflatedView(resid, parent);
+        if (preinflated != null) {
+            mHandler.post(() -> callback.onInflateFinished(preinflated, resid, parent));
+            return;
+        }
+        if (hasFactory() || isMainThreadOnly(resid)) {
+            mHandler.post(() -> callback.onInflateFinished(
+                    mInflater.inflate(resid, parent, false), resid, parent));
+            return;
+        }
+        getExecutor().execute(() -> {
+            final View view = inflateInBackground(resid, parent);
+            mHandler.post(() -> callback.onInflateFinished(
+                    view != null ? view : mInflater.inflate(resid, parent, false),
+                    resid, parent));
+        });
+    }
+
+    /**
+     * Inflates a layout on a worker thread ahead of time, so that a later call to
+     * {@link #getOrInflate} or {@link #inflate} returns it right away. Does nothing if the
+     * inflater of the context has a factory.
+     *
+     * @param parent Parent to generate the layout params of the root view for, from a worker
+     *        thread, see {@link AsyncLayoutInflater}.
+     */
+    public void preInflate(@LayoutRes int resid, @Nullable ViewGroup parent) {
+        if (hasFactory() || isMainThreadOnly(resid)) {
+            return;
+        }
+        getExecutor().execute(() -> {
+            final View view = inflateInBackground(resid, parent);
+            if (view == null) {
+                return;
+            }
+            synchronized (mPreinflatedViews) {
+                ArrayList<PreinflatedView> views = mPreinflatedViews.get(resid);
+                if (views == null) {
+                    views = new ArrayList<>();
+                    mPreinflatedViews.put(resid, views);
+                }
+                if (views.size() < MAX_PREINFLATED_VIEWS) {
+                    views.add(new PreinflatedView(view,
+                            parent != null ? parent.getClass() : null));
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a view pre-inflated by {@link #preInflate} for a parent of the same class, or
+     * inflates the layout on the calling thread if there is none.
+     */
+    public View getOrInflate(@LayoutRes int resid, @Nullable ViewGroup parent) {
+        final View view = takePreinflatedView(resid, parent);
+        return view != null ? view : mInflater.inflate(resid, parent, false);
+    }
+
+    /**
+     * Drops all views inflated ahead of time.
+     */
+    public void clearPreinflatedViews() {
+        synchronized (mPreinflatedViews) {
+            mPreinflatedViews.clear();
+        }
+    }
+
+    private View takePreinflatedView(int resid, ViewGroup parent) {
+        final Class<?> parentClass = parent != null ? parent.getClass() : null;
+        synchronized (mPreinflatedViews) {
+            final ArrayList<PreinflatedView> views = mPreinflatedViews.get(resid);
+            if (views == null) {
+                return null;
+            }
+            // Layout params are only valid for the class of parent they were generated for.
+            for (int i = views.size() - 1; i >= 0; i--) {
+                if (views.get(i).parentClass == parentClass) {
+                    return views.remove(i).view;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Whether the inflater of the context has a factory, which could replace views the workers
+     * would create as is.
+     */
+    private boolean hasFactory() {
+        return mInflater.getFactory() != null || mInflater.getFactory2() != null;
+    }
+
+    /**
+     * @return The inflated view, or null if the layout cannot be inflated on a worker thread.
+     */
+    private View inflateInBackground(int resid, ViewGroup parent) {
+        try {
+            // LayoutInflater is not thread safe, so use a new inflater for each inflation. Ours
+            // has no factory, or we would not be here.
+            return new PhoneLayoutInflater(mInflater.getContext()).inflate(resid, parent, false);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to inflate resource 0x" + Integer.toHexString(resid)
+                    + " in the background, retrying on the thread of the inflater", e);
+            synchronized (sLock) {
+                sMainThreadOnlyLayouts.put(resid, true);
+            }
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    int getPreinflatedViewCount(int resid) {
+        synchronized (mPreinflatedViews) {
+            final ArrayList<PreinflatedView> views = mPreinflatedViews.get(resid);
+            return views != null ? views.size() : 0;
+        }
+    }
+
+    @VisibleForTesting
+    static boolean isMainThreadOnly(int resid) {
+        synchronized (sLock) {
+            return sMainThreadOnlyLayouts.get(resid);
+        }
+    }
+
+    @VisibleForTesting
+    static ExecutorService getExecutor() {
+        synchronized (sLock) {
+            if (sExecutor == null) {
+                final AtomicInteger count = new AtomicInteger();
+                final ThreadFactory factory = r -> {
+                    final Thread thread = new Thread(r, TAG + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+                sExecutor = Executors.newFixedThreadPool(POOL_SIZE, factory);
+            }
+            return sExecutor;
+        }
+    }
+}
@@ -136,6 +136,10 @@ public final class Choreographer {
     private static final int SKIPPED_FRAME_WARNING_LIMIT = SystemProperties.getInt(
             "debug.choreographer.skipwarning", 30);
 
+    // Record per-phase frame timings, see FrameTimingStats.
+    private static final boolean RECORD_FRAME_TIMING = SystemProperties.getBoolean(
+            "debug.choreographer.frametiming", true);
+
     private static final int MSG_DO_FRAME = 0;
     private static final int MSG_DO_SCHEDULE_VSYNC = 1;
     private static final int MSG_DO_SCHEDULE_CALLBACK = 2;
@@ -186,6 +190,10 @@ public final class Choreographer {
      */
     FrameInfo mFrameInfo = new FrameInfo();
 
+    // Durations of the input, animation, traversal and draw phases of recent frames.
+    private final FrameTimingStats mFrameTimingStats =
+            RECORD_FRAME_TIMING ? new FrameTimingStats() : null;
+
     /**
      * Must be kept in sync with CALLBACK_* ints below, used to index into this array.
      * @hide
@@ -370,6 +378,9 @@ public final class Choreographer {
                 writer.println(mFrameScheduled);
         writer.print(innerPrefix); writer.print("mLastFrameTime=");
                 writer.println(TimeUtils.formatUptime(mLastFrameTimeNanos / 1000000));
+        if (mFrameTimingStats != null) {
+            mFrameTimingStats.dump(innerPrefix, writer);
+        }
     }
 
     /**
@@ -731,6 +742,10 @@ public final class Choreographer {
             Trace.traceEnd(Trace.TRACE_TAG_VIEW);
         }
 
+        if (mFrameTimingStats != null) {
+            mFrameTimingStats.addFrame(mFrameInfo, System.nanoTime(), mFrameIntervalNanos);
+        }
+
         if (DEBUG_FRAMES) {
             final long endNanos = System.nanoTime();
             Log.d(TAG, "Frame " + frame + ": Finished, took "
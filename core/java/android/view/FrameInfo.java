@@ -54,7 +54,7 @@ final class FrameInfo {
     public @interface FrameInfoFlags {}
 
     // The intended vsync time, unadjusted by jitter
-    private static final int INTENDED_VSYNC = 1;
+    static final int INTENDED_VSYNC = 1;
 
     // Jitter-adjusted vsync time, this is what was used as input into the
     // animation & drawing system
@@ -67,16 +67,16 @@ final class FrameInfo {
     private static final int NEWEST_INPUT_EVENT = 4;
 
     // When input event handling started
-    private static final int HANDLE_INPUT_START = 5;
+    static final int HANDLE_INPUT_START = 5;
 
     // When animation evaluations started
-    private static final int ANIMATION_START = 6;
+    static final int ANIMATION_START = 6;
 
     // When ViewRootImpl#performTraversals() started
-    private static final int PERFORM_TRAVERSALS_START = 7;
+    static final int PERFORM_TRAVERSALS_START = 7;
 
     // When View:draw() started
-    private static final int DRAW_START = 8;
+    static final int DRAW_START = 8;
 
     public void setVsync(long intendedVsync, long usedVsync) {
         mFrameInfo[INTENDED_VSYNC] = intendedVsync;
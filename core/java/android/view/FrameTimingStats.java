@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.util.TimeUtils;
+
+import java.io.PrintWriter;
+
+/**
+ * Records how long each phase of the frames produced by a {@link Choreographer} took.
+ *
+ * The durations of the most recent frames are kept in preallocated ring buffers, and every
+ * frame is also added to a per-phase histogram of 1ms buckets from which percentiles are
+ * computed. Recording a frame does not allocate, so this can stay enabled in the field.
+ *
+ * Only accessed from the thread of the owning Choreographer, except for {@link #dump} which
+ * tolerates torn reads.
+ *
+ * @hide
+ */
+final class FrameTimingStats {
+
+    static final int PHASE_INPUT = 0;
+    static final int PHASE_ANIMATION = 1;
+    static final int PHASE_TRAVERSAL = 2;
+    static final int PHASE_DRAW = 3;
+    static final int PHASE_TOTAL = 4;
+    private static final int PHASE_COUNT = 5;
+
+    private static final String[] PHASE_NAMES = {
+            "input", "animation", "traversal", "draw", "total" };
+
+    // Number of recent frames kept per phase.
+    private static final int RECENT_FRAME_COUNT = 128;
+
+    // Histogram buckets of 1ms, the last one collects everything slower.
+    private static final int HISTOGRAM_BUCKET_COUNT = 100;
+
+    private static final int[] PERCENTILES = { 50, 90, 95, 99 };
+
+    private final long[][] mRecentNanos = new long[PHASE_COUNT][RECENT_FRAME_COUNT];
+    private final int[][] mHistograms = new int[PHASE_COUNT][HISTOGRAM_BUCKET_COUNT];
+    private int mNextRecentIndex;
+    private long mFrameCount;
+    private long mJankyFrameCount;
+
+    /**
+     * Records the phases of a frame from the timestamps collected in {@link FrameInfo}.
+     *
+     * @param frameInfo The timestamps of the frame.
+     * @param endNanos When the frame finished, from {@link System#nanoTime()}.
+     * @param frameIntervalNanos The display frame interval, to count janky frames.
+     */
+    void addFrame(FrameInfo frameInfo, long endNanos, long frameIntervalNanos) {
+        final long[] info = frameInfo.mFrameInfo;
+        final long inputStart = info[FrameInfo.HANDLE_INPUT_START];
+        final long animationStart = info[FrameInfo.ANIMATION_START];
+        final long traversalStart = info[FrameInfo.PERFORM_TRAVERSALS_START];
+        // DRAW_START is only updated when the frame draws.
+        final long drawStart = info[FrameInfo.DRAW_START] >= traversalStart
+                ? info[FrameInfo.DRAW_START] : endNanos;
+
+        record(PHASE_INPUT, animationStart - inputStart);
+        record(PHASE_ANIMATION, traversalStart - animationStart);
+        record(PHASE_TRAVERSAL, drawStart - traversalStart);
+        record(PHASE_DRAW, endNanos - drawStart);
+        final long totalNanos = endNanos - info[FrameInfo.INTENDED_VSYNC];
+        record(PHASE_TOTAL, totalNanos);
+
+        if (totalNanos > frameIntervalNanos) {
+            mJankyFrameCount++;
+        }
+        mFrameCount++;
+        mNextRecentIndex = (mNextRecentIndex + 1) % RECENT_FRAME_COUNT;
+    }
+
+    private void record(int phase, long durationNanos) {
+        if (durationNanos < 0) {
+            durationNanos = 0;
+        }
+        mRecentNanos[phase][mNextRecentIndex] = durationNanos;
+        final int bucket = (int) Math.min(durationNanos / TimeUtils.NANOS_PER_MS,
+                HISTOGRAM_BUCKET_COUNT - 1);
+        mHistograms[phase][bucket]++;
+    }
+
+    /**
+     * @return The given percentile of a phase in milliseconds, or -1 if no frame was recorded.
+     */
+    int getPercentileMillis(int phase, int percentile) {
+        final int[] histogram = mHistograms[phase];
+        long total = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKET_COUNT; i++) {
+            total += histogram[i];
+        }
+        if (total == 0) {
+            return -1;
+        }
+        final long threshold = (total * percentile + 99) / 100;
+        long count = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKET_COUNT; i++) {
+            count += histogram[i];
+            if (count >= threshold) {
+                return i;
+            }
+        }
+        return HISTOGRAM_BUCKET_COUNT - 1;
+    }
+
+    /**
+     * @return The longest duration of a phase among the recent frames, in nanoseconds.
+     */
+    long getRecentMaxNanos(int phase) {
+        long max = 0;
+        final long[] recent = mRecentNanos[phase];
+        for (int i = 0; i < RECENT_FRAME_COUNT; i++) {
+            max = Math.max(max, recent[i]);
+        }
+        return max;
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        final String innerPrefix = prefix + "  ";
+        writer.print(prefix); writer.print("FrameTimingStats: frames=");
+                writer.print(mFrameCount);
+                writer.print(" janky="); writer.println(mJankyFrameCount);
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            writer.print(innerPrefix); writer.print(PHASE_NAMES[phase]); writer.print(":");
+            for (int percentile : PERCENTILES) {
+                writer.print(" p"); writer.print(percentile); writer.print("=");
+                writer.print(getPercentileMillis(phase, percentile)); writer.print("ms");
+            }
+            writer.print(" recentMax=");
+            writer.print(getRecentMaxNanos(phase) * 0.000001f); writer.println("ms");
+        }
+    }
+}
@@ -29,6 +29,7 @@ import android.os.Message;
 import android.os.Trace;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.util.Xml;
 import android.widget.FrameLayout;
@@ -39,8 +40,10 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Instantiates a layout XML file into its corresponding {@link android.view.View}
@@ -90,8 +93,14 @@ public abstract class LayoutInflater {
     static final Class<?>[] mConstructorSignature = new Class[] {
             Context.class, AttributeSet.class};
 
-    private static final HashMap<String, Constructor<? extends View>> sConstructorMap =
-            new HashMap<String, Constructor<? extends View>>();
+    // Shared by all inflaters, including those inflating on background threads, see
+    // AsyncLayoutInflater.
+    private static final ConcurrentHashMap<String, Constructor<? extends View>> sConstructorMap =
+            new ConcurrentHashMap<String, Constructor<? extends View>>();
+
+    private static final Object sInflateStatsLock = new Object();
+    // Number of inflations, and total and max time in ns, per layout resource.
+    private static final SparseArray<long[]> sInflateStats = new SparseArray<>();
 
     private HashMap<String, Boolean> mFilterMap;
 
@@ -418,11 +427,49 @@ public abstract class LayoutInflater {
                     + Integer.toHexString(resource) + ")");
         }
 
+        final long startTime = System.nanoTime();
         final XmlResourceParser parser = res.getLayout(resource);
         try {
             return inflate(parser, root, attachToRoot);
         } finally {
             parser.close();
+            recordInflateTime(resource, System.nanoTime() - startTime);
+        }
+    }
+
+    private static void recordInflateTime(int resource, long durationNs) {
+        synchronized (sInflateStatsLock) {
+            long[] stats = sInflateStats.get(resource);
+            if (stats == null) {
+                stats = new long[3];
+                sInflateStats.put(resource, stats);
+            }
+            stats[0]++;
+            stats[1] += durationNs;
+            stats[2] = Math.max(stats[2], durationNs);
+        }
+    }
+
+    /**
+     * Prints how often and how long each layout resource was inflated in this process.
+     *
+     * @hide
+     */
+    public static void dumpInflateStats(PrintWriter pw, Resources res) {
+        synchronized (sInflateStatsLock) {
+            pw.printf("Layout inflation (%d layouts):\n", sInflateStats.size());
+            for (int i = 0; i < sInflateStats.size(); i++) {
+                final int resource = sInflateStats.keyAt(i);
+                final long[] stats = sInflateStats.valueAt(i);
+                String name;
+                try {
+                    name = res.getResourceName(resource);
+                } catch (Resources.NotFoundException e) {
+                    name = "0x" + Integer.toHexString(resource);
+                }
+                pw.printf("  %s: count=%d avg=%.2fms max=%.2fms\n", name, stats[0],
+                        stats[1] / (double) stats[0] / 1000000, stats[2] / 1000000.0);
+            }
         }
     }
 
@@ -29,6 +29,8 @@ import android.view.Surface.OutOfResourcesException;
 
 import dalvik.system.CloseGuard;
 
+import java.util.ArrayList;
+
 /**
  * SurfaceControl
  *  @hide
@@ -112,12 +114,61 @@ public class SurfaceControl {
     private static native boolean nativeGetTransformToDisplayInverse(long nativeObject);
 
     private static native Display.HdrCapabilities nativeGetHdrCapabilities(IBinder displayToken);
+    /**
+     * Applies all the properties, even those of the surfaces after one that rejects some, and
+     * stores the index and the status of each failing surface in outFailures.
+     * @return The number of failing surfaces.
+     */
+    private static native int nativeApplyBatch(long[] nativeObjects, int[] dirtyMasks,
+            float[] floatValues, int[] intValues, int count, int[] outFailures);
 
 
     private final CloseGuard mCloseGuard = CloseGuard.get();
     private final String mName;
     long mNativeObject; // package visibility only for Surface.java access
 
+    // Properties of batched surfaces that are sent in one native call when the transaction is
+    // closed, see setBatched(). Keep in sync with android_view_SurfaceControl.cpp.
+    private static final int BATCH_POSITION = 1 << 0;
+    private static final int BATCH_ALPHA = 1 << 1;
+    private static final int BATCH_MATRIX = 1 << 2;
+    private static final int BATCH_LAYER = 1 << 3;
+    private static final int BATCH_WINDOW_CROP = 1 << 4;
+    private static final int BATCH_FLOATS_PER_SURFACE = 7;
+    private static final int BATCH_INTS_PER_SURFACE = 5;
+
+    private static final Object sBatchLock = new Object();
+    private static final ArrayList<SurfaceControl> sBatchPending = new ArrayList<>();
+    private static long[] sBatchObjects = new long[16];
+    private static int[] sBatchMasks = new int[16];
+    private static float[] sBatchFloats = new float[16 * BATCH_FLOATS_PER_SURFACE];
+    private static int[] sBatchInts = new int[16 * BATCH_INTS_PER_SURFACE];
+    private static int[] sBatchFailures = new int[16 * 2];
+    private static long sBatchedPropertyCount;
+    private static long sBatchApplyCount;
+    private static long sBatchSurfaceCount;
+
+    private boolean mBatched;
+    // Guarded by sBatchLock.
+    private int mBatchDirty;
+    // Status of the last batched properties that this surface rejected.
+    private int mBatchError;
+    private final float[] mBatchFloats = new float[BATCH_FLOATS_PER_SURFACE];
+    private final int[] mBatchInts = new int[BATCH_INTS_PER_SURFACE];
+    private BatchErrorListener mBatchErrorListener;
+
+    /**
+     * Receives the errors of the properties of a batched surface, see
+     * {@link #setBatchErrorListener}.
+     */
+    public interface BatchErrorListener {
+        /**
+         * Called once the transaction is closed if the surface rejected some of its batched
+         * properties, with the exception that their setters would have thrown otherwise.
+         */
+        void onBatchedPropertiesFailed(SurfaceControl surface, RuntimeException e);
+    }
+
     /* flags used in constructor (keep in sync with ISurfaceComposerClient.h) */
 
     /**
@@ -353,9 +404,21 @@ public class SurfaceControl {
     // event logging.
     public SurfaceControl(SurfaceControl other) {
         mName = other.mName;
-        mNativeObject = other.mNativeObject;
+        synchronized (sBatchLock) {
+            // Pending properties are applied to the native object, which now belongs to us.
+            if (other.mBatchDirty != 0) {
+                mBatchDirty = other.mBatchDirty;
+                System.arraycopy(other.mBatchFloats, 0, mBatchFloats, 0, mBatchFloats.length);
+                System.arraycopy(other.mBatchInts, 0, mBatchInts, 0, mBatchInts.length);
+                other.mBatchDirty = 0;
+                sBatchPending.set(sBatchPending.indexOf(other), this);
+            }
+            mBatched = other.mBatched;
+            mBatchErrorListener = other.mBatchErrorListener;
+            mNativeObject = other.mNativeObject;
+            other.mNativeObject = 0;
+        }
         other.mCloseGuard.close();
-        other.mNativeObject = 0;
         mCloseGuard.open("release");
     }
 
@@ -385,8 +448,12 @@ public class SurfaceControl {
      */
     public void release() {
         if (mNativeObject != 0) {
+            // The layer outlives this object, so it must still get the pending properties. Like
+            // those of the unbatched setters, they are sent with the next closed transaction.
+            final ArrayList<SurfaceControl> failed = mBatched ? applyBatchedProperties(this) : null;
             nativeRelease(mNativeObject);
             mNativeObject = 0;
+            reportBatchFailures(failed, false /* throwUnhandled */);
         }
         mCloseGuard.close();
     }
@@ -398,6 +465,7 @@ public class SurfaceControl {
      */
     public void destroy() {
         if (mNativeObject != 0) {
+            dropBatchedProperties();
             nativeDestroy(mNativeObject);
             mNativeObject = 0;
         }
@@ -430,11 +498,202 @@ public class SurfaceControl {
 
     /** end a transaction */
     public static void closeTransaction() {
-        nativeCloseTransaction(false);
+        ArrayList<SurfaceControl> failed = null;
+        try {
+            failed = applyBatchedProperties(null);
+        } finally {
+            // Always close, the transaction nesting count is global.
+            nativeCloseTransaction(false);
+        }
+        reportBatchFailures(failed, true /* throwUnhandled */);
     }
 
     public static void closeTransactionSync() {
-        nativeCloseTransaction(true);
+        ArrayList<SurfaceControl> failed = null;
+        try {
+            failed = applyBatchedProperties(null);
+        } finally {
+            nativeCloseTransaction(true);
+        }
+        reportBatchFailures(failed, true /* throwUnhandled */);
+    }
+
+    /**
+     * Sets whether the position, alpha, matrix, layer and window crop of this surface are
+     * recorded and sent to native along with those of all other batched surfaces in a single call
+     * when the transaction is closed, rather than with one call per property. This does not
+     * change when the properties take effect, as the native side only sends them to the
+     * compositor when the transaction is closed as well.
+     *
+     * <p>As the setters of a batched surface cannot fail, the errors that they would have thrown
+     * are reported once the transaction is closed: to the listener set with
+     * {@link #setBatchErrorListener}, or else by throwing the first of them from
+     * {@link #closeTransaction}.
+     */
+    public void setBatched(boolean batched) {
+        if (!batched) {
+            reportBatchFailures(applyBatchedProperties(null), true /* throwUnhandled */);
+        }
+        mBatched = batched;
+    }
+
+    /**
+     * Sets the listener that is told about the batched properties that this surface rejected,
+     * see {@link #setBatched}. It is called with no lock of this class held.
+     */
+    public void setBatchErrorListener(BatchErrorListener listener) {
+        mBatchErrorListener = listener;
+    }
+
+    /**
+     * @return The number of properties set on batched surfaces, the number of native calls that
+     *         applied them and the number of surfaces updated by those calls, since boot.
+     */
+    public static long[] getBatchStats() {
+        synchronized (sBatchLock) {
+            return new long[] { sBatchedPropertyCount, sBatchApplyCount, sBatchSurfaceCount };
+        }
+    }
+
+    private void setBatchedFloats(int property, float f0, float f1, float f2, float f3) {
+        synchronized (sBatchLock) {
+            if (mBatchDirty == 0) {
+                sBatchPending.add(this);
+            }
+            mBatchDirty |= property;
+            sBatchedPropertyCount++;
+            switch (property) {
+                case BATCH_POSITION:
+                    mBatchFloats[0] = f0;
+                    mBatchFloats[1] = f1;
+                    break;
+                case BATCH_ALPHA:
+                    mBatchFloats[2] = f0;
+                    break;
+                case BATCH_MATRIX:
+                    mBatchFloats[3] = f0;
+                    mBatchFloats[4] = f1;
+                    mBatchFloats[5] = f2;
+                    mBatchFloats[6] = f3;
+                    break;
+            }
+        }
+    }
+
+    private void setBatchedInts(int property, int i0, int i1, int i2, int i3) {
+        synchronized (sBatchLock) {
+            if (mBatchDirty == 0) {
+                sBatchPending.add(this);
+            }
+            mBatchDirty |= property;
+            sBatchedPropertyCount++;
+            switch (property) {
+                case BATCH_LAYER:
+                    mBatchInts[0] = i0;
+                    break;
+                case BATCH_WINDOW_CROP:
+                    mBatchInts[1] = i0;
+                    mBatchInts[2] = i1;
+                    mBatchInts[3] = i2;
+                    mBatchInts[4] = i3;
+                    break;
+            }
+        }
+    }
+
+    private void dropBatchedProperties() {
+        if (!mBatched) {
+            return;
+        }
+        synchronized (sBatchLock) {
+            if (mBatchDirty != 0) {
+                mBatchDirty = 0;
+                sBatchPending.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Applies the pending properties of the given surface, or of all batched surfaces if null.
+     * @return The surfaces that rejected some of them, with their status set, or null.
+     */
+    private static ArrayList<SurfaceControl> applyBatchedProperties(SurfaceControl only) {
+        synchronized (sBatchLock) {
+            final SurfaceControl[] surfaces;
+            if (only == null) {
+                surfaces = sBatchPending.toArray(new SurfaceControl[sBatchPending.size()]);
+                sBatchPending.clear();
+            } else if (only.mBatchDirty != 0) {
+                surfaces = new SurfaceControl[] { only };
+                sBatchPending.remove(only);
+            } else {
+                return null;
+            }
+            final int count = surfaces.length;
+            if (count == 0) {
+                return null;
+            }
+            if (sBatchObjects.length < count) {
+                final int size = Math.max(count, sBatchObjects.length * 2);
+                sBatchObjects = new long[size];
+                sBatchMasks = new int[size];
+                sBatchFloats = new float[size * BATCH_FLOATS_PER_SURFACE];
+                sBatchInts = new int[size * BATCH_INTS_PER_SURFACE];
+                sBatchFailures = new int[size * 2];
+            }
+            for (int i = 0; i < count; i++) {
+                final SurfaceControl sc = surfaces[i];
+                sBatchObjects[i] = sc.mNativeObject;
+                sBatchMasks[i] = sc.mBatchDirty;
+                System.arraycopy(sc.mBatchFloats, 0, sBatchFloats, i * BATCH_FLOATS_PER_SURFACE,
+                        BATCH_FLOATS_PER_SURFACE);
+                System.arraycopy(sc.mBatchInts, 0, sBatchInts, i * BATCH_INTS_PER_SURFACE,
+                        BATCH_INTS_PER_SURFACE);
+                sc.mBatchDirty = 0;
+            }
+            sBatchApplyCount++;
+            sBatchSurfaceCount += count;
+            final int failedCount = nativeApplyBatch(sBatchObjects, sBatchMasks, sBatchFloats,
+                    sBatchInts, count, sBatchFailures);
+            if (failedCount == 0) {
+                return null;
+            }
+            final ArrayList<SurfaceControl> failed = new ArrayList<>(failedCount);
+            for (int i = 0; i < failedCount; i++) {
+                final SurfaceControl sc = surfaces[sBatchFailures[i * 2]];
+                sc.mBatchError = sBatchFailures[i * 2 + 1];
+                failed.add(sc);
+            }
+            return failed;
+        }
+    }
+
+    /**
+     * Tells the listeners of the given surfaces about their errors. The first error of a surface
+     * without a listener is thrown if throwUnhandled, and logged otherwise.
+     */
+    private static void reportBatchFailures(ArrayList<SurfaceControl> failed,
+            boolean throwUnhandled) {
+        if (failed == null) {
+            return;
+        }
+        IllegalArgumentException unhandled = null;
+        for (int i = 0; i < failed.size(); i++) {
+            final SurfaceControl sc = failed.get(i);
+            final IllegalArgumentException e = new IllegalArgumentException(
+                    "Batched properties rejected by " + sc + ": status " + sc.mBatchError);
+            final BatchErrorListener listener = sc.mBatchErrorListener;
+            if (listener != null) {
+                listener.onBatchedPropertiesFailed(sc, e);
+            } else if (throwUnhandled && unhandled == null) {
+                unhandled = e;
+            } else {
+                Log.w(TAG, e.getMessage());
+            }
+        }
+        if (unhandled != null) {
+            throw unhandled;
+        }
     }
 
     public void deferTransactionUntil(IBinder handle, long frame) {
@@ -473,6 +732,10 @@ public class SurfaceControl {
 
     public void setLayer(int zorder) {
         checkNotReleased();
+        if (mBatched) {
+            setBatchedInts(BATCH_LAYER, zorder, 0, 0, 0);
+            return;
+        }
         nativeSetLayer(mNativeObject, zorder);
     }
 
@@ -483,6 +746,10 @@ public class SurfaceControl {
 
     public void setPosition(float x, float y) {
         checkNotReleased();
+        if (mBatched) {
+            setBatchedFloats(BATCH_POSITION, x, y, 0, 0);
+            return;
+        }
         nativeSetPosition(mNativeObject, x, y);
     }
 
@@ -542,16 +809,32 @@ public class SurfaceControl {
      */
     public void setAlpha(float alpha) {
         checkNotReleased();
+        if (mBatched) {
+            setBatchedFloats(BATCH_ALPHA, alpha, 0, 0, 0);
+            return;
+        }
         nativeSetAlpha(mNativeObject, alpha);
     }
 
     public void setMatrix(float dsdx, float dtdx, float dtdy, float dsdy) {
         checkNotReleased();
+        if (mBatched) {
+            setBatchedFloats(BATCH_MATRIX, dsdx, dtdx, dtdy, dsdy);
+            return;
+        }
         nativeSetMatrix(mNativeObject, dsdx, dtdx, dtdy, dsdy);
     }
 
     public void setWindowCrop(Rect crop) {
         checkNotReleased();
+        if (mBatched) {
+            if (crop != null) {
+                setBatchedInts(BATCH_WINDOW_CROP, crop.left, crop.top, crop.right, crop.bottom);
+            } else {
+                setBatchedInts(BATCH_WINDOW_CROP, 0, 0, 0, 0);
+            }
+            return;
+        }
         if (crop != null) {
             nativeSetWindowCrop(mNativeObject,
                 crop.left, crop.top, crop.right, crop.bottom);
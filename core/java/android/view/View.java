@@ -842,6 +842,12 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      */
     private static boolean sAlwaysRemeasureExactly = false;
 
+    /**
+     * Skip measuring a view that was asked to lay out again with the same spec within a layout
+     * pass if nothing in its subtree changed since it was measured with that spec.
+     */
+    private static boolean sSkipCleanRemeasure = false;
+
     /**
      * Relax constraints around whether setLayoutParams() must be called after
      * modifying the layout params.
@@ -2888,6 +2894,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      *        1                          PFLAG3_TEMPORARY_DETACH
      *       1                           PFLAG3_NO_REVEAL_ON_FOCUS
      *      1                            PFLAG3_NOTIFY_AUTOFILL_ENTER_ON_LAYOUT
+     *     1                             PFLAG3_MEASURED_CLEAN
      * |-------|-------|-------|-------|
      */
 
@@ -3168,6 +3175,13 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      */
     static final int PFLAG3_NOTIFY_AUTOFILL_ENTER_ON_LAYOUT = 0x8000000;
 
+    /**
+     * Flag indicating that the view was measured by onMeasure() since it was last asked to lay
+     * out, and that neither it nor any of its descendants changed since. Only used when
+     * {@link #sSkipCleanRemeasure} is set.
+     */
+    private static final int PFLAG3_MEASURED_CLEAN = 0x10000000;
+
     /* End of masks for mPrivateFlags3 */
 
     /**
@@ -19689,6 +19703,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
         }
 
         mPrivateFlags &= ~PFLAG_FORCE_LAYOUT;
+        mPrivateFlags3 &= ~PFLAG3_MEASURED_CLEAN;
         mPrivateFlags3 |= PFLAG3_IS_LAID_OUT;
 
         if ((mPrivateFlags3 & PFLAG3_NOTIFY_AUTOFILL_ENTER_ON_LAYOUT) != 0) {
@@ -21984,6 +21999,7 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
     @CallSuper
     public void requestLayout() {
         if (mMeasureCache != null) mMeasureCache.clear();
+        clearMeasuredClean();
 
         if (mAttachInfo != null && mAttachInfo.mViewRequestingLayout == null) {
             // Only trigger request-during-layout logic if this is the view requesting it,
@@ -22015,11 +22031,43 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
      */
     public void forceLayout() {
         if (mMeasureCache != null) mMeasureCache.clear();
+        clearMeasuredClean();
 
         mPrivateFlags |= PFLAG_FORCE_LAYOUT;
         mPrivateFlags |= PFLAG_INVALIDATED;
     }
 
+    /**
+     * Sets whether a view asked to lay out is measured only once per spec within a layout pass,
+     * as long as nothing in its subtree changes in between. Parents like {@link
+     * android.widget.RelativeLayout} and weighted {@link android.widget.LinearLayout} measure
+     * their children several times per pass, often with the same spec. Must be set before the
+     * view hierarchy is measured for the first time.
+     *
+     * @hide
+     */
+    public static void setSkipCleanRemeasureEnabled(boolean enabled) {
+        sSkipCleanRemeasure = enabled;
+    }
+
+    /**
+     * Marks this view and its ancestors as changed since they were last measured.
+     */
+    void clearMeasuredClean() {
+        mPrivateFlags3 &= ~PFLAG3_MEASURED_CLEAN;
+        if (!sSkipCleanRemeasure) {
+            return;
+        }
+        // The parents do not see changes of children that were only forced to lay out, or that
+        // requested it while the parents were already waiting for layout.
+        ViewParent parent = mParent;
+        while (parent instanceof View) {
+            final View view = (View) parent;
+            view.mPrivateFlags3 &= ~PFLAG3_MEASURED_CLEAN;
+            parent = view.mParent;
+        }
+    }
+
     /**
      * <p>
      * This is called to find out how big a view should be. The parent
@@ -22068,6 +22116,15 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
         final boolean needsLayout = specChanged
                 && (sAlwaysRemeasureExactly || !isSpecExactly || !matchesSpecSize);
 
+        if (forceLayout && !specChanged && sSkipCleanRemeasure
+                && (mPrivateFlags3 & PFLAG3_MEASURED_CLEAN) != 0) {
+            // Already measured with this spec in this layout pass and nothing changed since.
+            if (mAttachInfo != null) {
+                mAttachInfo.mSkippedMeasureCount++;
+            }
+            return;
+        }
+
         if (forceLayout || needsLayout) {
             // first clears the measured dimension flag
             mPrivateFlags &= ~PFLAG_MEASURED_DIMENSION_SET;
@@ -22077,8 +22134,15 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
             int cacheIndex = forceLayout ? -1 : mMeasureCache.indexOfKey(key);
             if (cacheIndex < 0 || sIgnoreMeasureCache) {
                 // measure ourselves, this should set the measured dimension flag back
+                if (forceLayout && sSkipCleanRemeasure) {
+                    // Set before measuring so changes made while measuring clear it again.
+                    mPrivateFlags3 |= PFLAG3_MEASURED_CLEAN;
+                }
                 onMeasure(widthMeasureSpec, heightMeasureSpec);
                 mPrivateFlags3 &= ~PFLAG3_MEASURE_NEEDED_BEFORE_LAYOUT;
+                if (mAttachInfo != null) {
+                    mAttachInfo.mMeasureCount++;
+                }
             } else {
                 long value = mMeasureCache.valueAt(cacheIndex);
                 // Casting a long to int drops the high 32 bits, no mask needed
@@ -25568,6 +25632,13 @@ public class View implements Drawable.Callback, KeyEvent.Callback,
          */
         View mViewRequestingLayout;
 
+        /**
+         * Number of views measured by onMeasure(), and of measures skipped because the view was
+         * already measured with the same spec, in the current traversal.
+         */
+        int mMeasureCount;
+        int mSkippedMeasureCount;
+
         /**
          * Used to track views that need (at least) a partial relayout at their current size
          * during the next traversal.
@@ -5021,6 +5021,7 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
     }
 
     private void addInArray(View child, int index) {
+        clearMeasuredClean();
         View[] children = mChildren;
         final int count = mChildrenCount;
         final int size = children.length;
@@ -5052,6 +5053,7 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
 
     // This method also sets the child's mParent to null
     private void removeFromArray(int index) {
+        clearMeasuredClean();
         final View[] children = mChildren;
         if (!(mTransitioningViews != null && mTransitioningViews.contains(children[index]))) {
             children[index].mParent = null;
@@ -5075,6 +5077,7 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
 
     // This method also sets the children's mParent to null
     private void removeFromArray(int start, int count) {
+        clearMeasuredClean();
         final View[] children = mChildren;
         final int childrenCount = mChildrenCount;
 
@@ -5422,6 +5425,7 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
 
         final View[] children = mChildren;
         mChildrenCount = 0;
+        clearMeasuredClean();
 
         final View focused = mFocused;
         final boolean detach = mAttachInfo != null;
@@ -5663,6 +5667,7 @@ public abstract class ViewGroup extends View implements ViewParent, ViewManager
 
         final View[] children = mChildren;
         mChildrenCount = 0;
+        clearMeasuredClean();
 
         for (int i = count - 1; i >= 0; i--) {
             children[i].mParent = null;
@@ -321,6 +321,11 @@ public final class ViewRootImpl implements ViewParent,
 
     public boolean mTraversalScheduled;
     int mTraversalBarrier;
+
+    // Views measured and measures skipped by the last traversal, see View#measure().
+    private int mLastMeasureCount;
+    private int mLastSkippedMeasureCount;
+
     boolean mWillDrawSoon;
     /** Set to true while in performTraversals for detecting when die(true) is called from internal
      * callbacks such as onMeasure, onPreDraw, onDraw and deferring doDie() until later. */
@@ -1389,7 +1394,15 @@ public final class ViewRootImpl implements ViewParent,
                 Debug.startMethodTracing("ViewAncestor");
             }
 
+            mAttachInfo.mMeasureCount = 0;
+            mAttachInfo.mSkippedMeasureCount = 0;
             performTraversals();
+            mLastMeasureCount = mAttachInfo.mMeasureCount;
+            mLastSkippedMeasureCount = mAttachInfo.mSkippedMeasureCount;
+            if (DEBUG_LAYOUT && (mLastMeasureCount > 0 || mLastSkippedMeasureCount > 0)) {
+                Log.v(mTag, "Traversal measured " + mLastMeasureCount + " views, skipped "
+                        + mLastSkippedMeasureCount);
+            }
 
             if (mProfile) {
                 Debug.stopMethodTracing();
@@ -6233,6 +6246,10 @@ public final class ViewRootImpl implements ViewParent,
                 writer.println(mPendingInputEventCount);
         writer.print(innerPrefix); writer.print("mProcessInputEventsScheduled=");
                 writer.println(mProcessInputEventsScheduled);
+        writer.print(innerPrefix); writer.print("mLastMeasureCount=");
+                writer.print(mLastMeasureCount);
+                writer.print(" mLastSkippedMeasureCount=");
+                writer.println(mLastSkippedMeasureCount);
         writer.print(innerPrefix); writer.print("mTraversalScheduled=");
                 writer.print(mTraversalScheduled);
         writer.print(innerPrefix); writer.print("mIsAmbientMode=");
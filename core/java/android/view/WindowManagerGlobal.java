@@ -18,6 +18,8 @@ package android.view;
 
 import android.animation.ValueAnimator;
 import android.app.ActivityManager;
+import android.app.ActivityThread;
+import android.app.Application;
 import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
@@ -592,6 +594,11 @@ public final class WindowManagerGlobal {
                 pw.printf("Total Views:        %d\n", viewsCount);
                 pw.printf("Total DisplayList:  %.2f kB\n\n", displayListsSize / 1024.0f);
             }
+
+            final Application app = ActivityThread.currentApplication();
+            if (app != null) {
+                LayoutInflater.dumpInflateStats(pw, app.getResources());
+            }
         } finally {
             pw.flush();
         }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.util.ArrayMap;
+import android.util.Log;
+
+import libcore.io.IoUtils;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * How many of the profiled app processes used each preloaded class and framework resource.
+ *
+ * <p>The zygote uses it to skip preloading the entries that few apps use, which are then loaded
+ * by the apps that need them on first use. The profile is a text file with one entry per line:
+ * <pre>
+ * # Comment
+ * processes class &lt;number of processes profiled for classes&gt;
+ * class &lt;binary class name&gt; &lt;number of processes that loaded it&gt;
+ * processes resource &lt;number of processes profiled for resources&gt;
+ * resource &lt;package:type/entry&gt; &lt;number of processes that used it&gt;
+ * </pre>
+ * Class usage is collected by the preload2 tool, resource usage from the "Used framework
+ * resources" section of {@code dumpsys meminfo} of processes running with
+ * {@code debug.trace_resource_preload} set. As they come from different sets of processes, each
+ * kind of entry has its own process count. A kind of entry without any line in the profile was
+ * not profiled, and all its entries are considered hot.
+ *
+ * @hide
+ */
+public final class PreloadProfile {
+    private static final String TAG = "PreloadProfile";
+
+    private final ArrayMap<String, Integer> mClassUses = new ArrayMap<>();
+    private final ArrayMap<String, Integer> mResourceUses = new ArrayMap<>();
+    private final int mColdPercent;
+    private int mClassProcessCount;
+    private int mResourceProcessCount;
+
+    /**
+     * @param coldPercent Entries used by less than this percentage of the profiled processes
+     *        are cold.
+     */
+    PreloadProfile(int coldPercent) {
+        mColdPercent = coldPercent;
+    }
+
+    /**
+     * Reads the profile at the given path.
+     *
+     * @return The profile, or null if it does not exist or cannot be parsed.
+     */
+    public static PreloadProfile read(String path, int coldPercent) {
+        Reader reader = null;
+        try {
+            reader = new FileReader(path);
+            final PreloadProfile profile = new PreloadProfile(coldPercent);
+            profile.parse(reader);
+            return profile;
+        } catch (FileNotFoundException e) {
+            Log.w(TAG, "No preload profile at " + path);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Error reading preload profile " + path, e);
+        } finally {
+            IoUtils.closeQuietly(reader);
+        }
+        return null;
+    }
+
+    void parse(Reader reader) throws IOException {
+        final BufferedReader br = new BufferedReader(reader, 256);
+        String line;
+        while ((line = br.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith("#") || line.isEmpty()) {
+                continue;
+            }
+            final String[] fields = line.split("\\s+");
+            try {
+                if (fields.length == 3 && "processes".equals(fields[0])
+                        && "class".equals(fields[1])) {
+                    mClassProcessCount = Integer.parseInt(fields[2]);
+                } else if (fields.length == 3 && "processes".equals(fields[0])
+                        && "resource".equals(fields[1])) {
+                    mResourceProcessCount = Integer.parseInt(fields[2]);
+                } else if (fields.length == 3 && "class".equals(fields[0])) {
+                    mClassUses.put(fields[1], Integer.parseInt(fields[2]));
+                } else if (fields.length == 3 && "resource".equals(fields[0])) {
+                    mResourceUses.put(fields[1], Integer.parseInt(fields[2]));
+                } else {
+                    throw new IllegalArgumentException("Malformed line: " + line);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed line: " + line, e);
+            }
+        }
+        if (!mClassUses.isEmpty() && mClassProcessCount <= 0) {
+            throw new IllegalArgumentException("Missing class process count");
+        }
+        if (!mResourceUses.isEmpty() && mResourceProcessCount <= 0) {
+            throw new IllegalArgumentException("Missing resource process count");
+        }
+    }
+
+    /**
+     * @return true if the class should not be preloaded.
+     */
+    public boolean isClassCold(String className) {
+        return isCold(mClassUses, mClassProcessCount, className);
+    }
+
+    /**
+     * @param name The full name of the resource, as returned by
+     *        {@link android.content.res.Resources#getResourceName}.
+     * @return true if the resource should not be preloaded.
+     */
+    public boolean isResourceCold(String name) {
+        return isCold(mResourceUses, mResourceProcessCount, name);
+    }
+
+    private boolean isCold(ArrayMap<String, Integer> uses, int processCount, String name) {
+        if (uses.isEmpty()) {
+            return false;
+        }
+        final Integer count = uses.get(name);
+        return count == null || count * 100L < (long) processCount * mColdPercent;
+    }
+
+    public int getClassProcessCount() {
+        return mClassProcessCount;
+    }
+
+    public int getResourceProcessCount() {
+        return mResourceProcessCount;
+    }
+}
@@ -63,6 +63,10 @@ public final class Zygote {
 
     private static final ZygoteHooks VM_HOOKS = new ZygoteHooks();
 
+    /** Set in the child, see {@link #setSpawnInfo}. */
+    private static long sSpawnRequestElapsedRealtime;
+    private static boolean sSpawnedFromPool;
+
     private Zygote() {}
 
     /**
@@ -121,6 +125,81 @@ public final class Zygote {
           int[][] rlimits, int mountExternal, String seInfo, String niceName, int[] fdsToClose,
           int[] fdsToIgnore, String instructionSet, String appDataDir);
 
+    /**
+     * Forks a child of the zygote that keeps the zygote's credentials, to be specialized into an
+     * application process later with {@link #specializeAppProcess}. The child must not start any
+     * thread until then.
+     *
+     * @param fdsToClose an array of ints, holding one or more POSIX
+     * file descriptor numbers that are to be closed by the child
+     * (and replaced by /dev/null) after forking.  An integer value
+     * of -1 in any entry in the array means "ignore this one".
+     * @param fdsToIgnore null-ok an array of ints, either null or holding
+     * one or more POSIX file descriptor numbers that are to be ignored
+     * in the file descriptor table check.
+     *
+     * @return 0 if this is the child, pid of the child
+     * if this is the parent, or -1 on error.
+     */
+    static int forkUnspecialized(int[] fdsToClose, int[] fdsToIgnore) {
+        VM_HOOKS.preFork();
+        // Resets nice priority for zygote process.
+        resetNicePriority();
+        int pid = nativeForkUnspecialized(fdsToClose, fdsToIgnore);
+        // The child finishes the fork once it is specialized.
+        if (pid != 0) {
+            VM_HOOKS.postForkCommon();
+        }
+        return pid;
+    }
+
+    native private static int nativeForkUnspecialized(int[] fdsToClose, int[] fdsToIgnore);
+
+    /**
+     * Turns a child forked with {@link #forkUnspecialized} into an application process. See
+     * {@link #forkAndSpecialize} for the parameters.
+     */
+    static void specializeAppProcess(int uid, int gid, int[] gids, int debugFlags,
+            int[][] rlimits, int mountExternal, String seInfo, String niceName,
+            String instructionSet, String appDataDir) {
+        nativeSpecializeAppProcess(uid, gid, gids, debugFlags, rlimits, mountExternal, seInfo,
+                niceName, instructionSet, appDataDir);
+        // Enable tracing as soon as possible for the child process.
+        Trace.setTracingEnabled(true, debugFlags);
+
+        // Note that this event ends at the end of handleChildProc,
+        Trace.traceBegin(Trace.TRACE_TAG_ACTIVITY_MANAGER, "PostFork");
+        VM_HOOKS.postForkCommon();
+    }
+
+    native private static void nativeSpecializeAppProcess(int uid, int gid, int[] gids,
+            int debugFlags, int[][] rlimits, int mountExternal, String seInfo, String niceName,
+            String instructionSet, String appDataDir);
+
+    /**
+     * Records when the zygote received the request to start this process, and whether the
+     * process came from the pool of unspecialized processes.
+     */
+    static void setSpawnInfo(long requestElapsedRealtime, boolean fromPool) {
+        sSpawnRequestElapsedRealtime = requestElapsedRealtime;
+        sSpawnedFromPool = fromPool;
+    }
+
+    /**
+     * @return The {@link android.os.SystemClock#elapsedRealtime} when the zygote received the
+     * request to start this process, or 0 if unknown.
+     */
+    public static long getSpawnRequestElapsedRealtime() {
+        return sSpawnRequestElapsedRealtime;
+    }
+
+    /**
+     * @return Whether this process was taken from the pool of unspecialized processes.
+     */
+    public static boolean isSpawnedFromPool() {
+        return sSpawnedFromPool;
+    }
+
     /**
      * Called to do any initialization before starting an application.
      */
@@ -31,6 +31,7 @@ import android.net.Credentials;
 import android.net.LocalSocket;
 import android.os.FactoryTest;
 import android.os.Process;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.Trace;
 import android.system.ErrnoException;
@@ -138,6 +139,8 @@ class ZygoteConnection {
             return null;
         }
 
+        final long requestElapsedRealtime = SystemClock.elapsedRealtime();
+
         int pid = -1;
         FileDescriptor childPipeFd = null;
         FileDescriptor serverPipeFd = null;
@@ -194,6 +197,17 @@ class ZygoteConnection {
 
         if (parsedArgs.refreshFont) {
             Typeface.recreateDefaults();
+            // The pooled processes still have the old fonts.
+            zygoteServer.emptyPool();
+        }
+
+        // Processes from the pool can't be wrapped or get new stdio, they were forked already.
+        if (parsedArgs.invokeWith == null && descriptors == null) {
+            pid = zygoteServer.startFromPool(parsedArgs, rlimits, requestElapsedRealtime);
+            if (pid > 0) {
+                handleParentProc(pid, null, null);
+                return null;
+            }
         }
 
         /**
@@ -224,6 +238,8 @@ class ZygoteConnection {
 
         fd = null;
 
+        fdsToIgnore = zygoteServer.getFdsToIgnore(fdsToIgnore);
+
         pid = Zygote.forkAndSpecialize(parsedArgs.uid, parsedArgs.gid, parsedArgs.gids,
                 parsedArgs.debugFlags, rlimits, parsedArgs.mountExternal, parsedArgs.seInfo,
                 parsedArgs.niceName, fdsToClose, fdsToIgnore, parsedArgs.instructionSet,
@@ -233,6 +249,7 @@ class ZygoteConnection {
             if (pid == 0) {
                 // in child
                 zygoteServer.setForkChild();
+                Zygote.setSpawnInfo(requestElapsedRealtime, false /* fromPool */);
 
                 zygoteServer.closeServerSocket();
                 IoUtils.closeQuietly(serverPipeFd);
@@ -26,6 +26,7 @@ import android.icu.text.DecimalFormatSymbols;
 import android.icu.util.ULocale;
 import android.opengl.EGL14;
 import android.os.Build;
+import android.os.Debug;
 import android.os.IInstalld;
 import android.os.Environment;
 import android.os.Process;
@@ -108,6 +109,21 @@ public class ZygoteInit {
      */
     private static final String PRELOADED_CLASSES = "/system/etc/preloaded-classes";
 
+    /**
+     * The path of the usage profile of the preloaded classes and resources, see
+     * {@link PreloadProfile}.
+     */
+    private static final String PRELOAD_PROFILE = "/system/etc/preload-profile";
+
+    /** Whether to skip preloading the cold entries of the preload profile. */
+    private static final String PROPERTY_PRELOAD_PROFILE = "persist.sys.zygote.preload_profile";
+
+    /** Entries used by less than this percentage of the profiled apps are not preloaded. */
+    private static final int PRELOAD_PROFILE_COLD_PERCENT = 5;
+
+    /** The preload profile if enabled, only set while preloading. */
+    private static PreloadProfile sPreloadProfile;
+
     /** Controls whether we should preload resources during zygote init. */
     public static final boolean PRELOAD_RESOURCES = true;
 
@@ -121,6 +137,12 @@ public class ZygoteInit {
 
     static void preload(TimingsTraceLog bootTimingsTraceLog) {
         Log.d(TAG, "begin preload");
+        final boolean preloadProfile = SystemProperties.getBoolean(PROPERTY_PRELOAD_PROFILE, false);
+        if (preloadProfile) {
+            bootTimingsTraceLog.traceBegin("ReadPreloadProfile");
+            sPreloadProfile = PreloadProfile.read(PRELOAD_PROFILE, PRELOAD_PROFILE_COLD_PERCENT);
+            bootTimingsTraceLog.traceEnd(); // ReadPreloadProfile
+        }
         bootTimingsTraceLog.traceBegin("BeginIcuCachePinning");
         beginIcuCachePinning();
         bootTimingsTraceLog.traceEnd(); // BeginIcuCachePinning
@@ -143,6 +165,12 @@ public class ZygoteInit {
         WebViewFactory.prepareWebViewInZygote();
         endIcuCachePinning();
         warmUpJcaProviders();
+        sPreloadProfile = null;
+        if (preloadProfile) {
+            // What preloading costs every app with the profile. Reading the PSS is too slow
+            // for every boot.
+            Log.i(TAG, "Zygote PSS after preload: " + Debug.getPss() + " kB");
+        }
         Log.d(TAG, "end preload");
 
         sPreloadComplete = true;
@@ -279,6 +307,7 @@ public class ZygoteInit {
                 = new BufferedReader(new InputStreamReader(is), 256);
 
             int count = 0;
+            int deferredCount = 0;
             String line;
             while ((line = br.readLine()) != null) {
                 // Skip comments and blank lines.
@@ -286,6 +315,11 @@ public class ZygoteInit {
                 if (line.startsWith("#") || line.equals("")) {
                     continue;
                 }
+                // Leave cold classes to be loaded by the apps that use them.
+                if (sPreloadProfile != null && sPreloadProfile.isClassCold(line)) {
+                    deferredCount++;
+                    continue;
+                }
 
                 Trace.traceBegin(Trace.TRACE_TAG_DALVIK, line);
                 try {
@@ -317,7 +351,8 @@ public class ZygoteInit {
             }
 
             Log.i(TAG, "...preloaded " + count + " classes in "
-                    + (SystemClock.uptimeMillis()-startTime) + "ms.");
+                    + (SystemClock.uptimeMillis()-startTime) + "ms, deferred " + deferredCount
+                    + " cold classes.");
         } catch (IOException e) {
             Log.e(TAG, "Error reading " + PRELOADED_CLASSES + ".", e);
         } finally {
@@ -393,12 +428,16 @@ public class ZygoteInit {
 
     private static int preloadColorStateLists(TypedArray ar) {
         int N = ar.length();
+        int deferred = 0;
         for (int i=0; i<N; i++) {
             int id = ar.getResourceId(i, 0);
             if (false) {
                 Log.v(TAG, "Preloading resource #" + Integer.toHexString(id));
             }
-            if (id != 0) {
+            if (id != 0 && isResourceCold(id)) {
+                // Left to be loaded by the apps that use it.
+                deferred++;
+            } else if (id != 0) {
                 if (mResources.getColorStateList(id, null) == null) {
                     throw new IllegalArgumentException(
                             "Unable to find preloaded color resource #0x"
@@ -407,18 +446,22 @@ public class ZygoteInit {
                 }
             }
         }
-        return N;
+        return N - deferred;
     }
 
 
     private static int preloadDrawables(TypedArray ar) {
         int N = ar.length();
+        int deferred = 0;
         for (int i=0; i<N; i++) {
             int id = ar.getResourceId(i, 0);
             if (false) {
                 Log.v(TAG, "Preloading resource #" + Integer.toHexString(id));
             }
-            if (id != 0) {
+            if (id != 0 && isResourceCold(id)) {
+                // Left to be loaded by the apps that use it.
+                deferred++;
+            } else if (id != 0) {
                 if (mResources.getDrawable(id, null) == null) {
                     throw new IllegalArgumentException(
                             "Unable to find preloaded drawable resource #0x"
@@ -427,7 +470,12 @@ public class ZygoteInit {
                 }
             }
         }
-        return N;
+        return N - deferred;
+    }
+
+    private static boolean isResourceCold(int id) {
+        return sPreloadProfile != null
+                && sPreloadProfile.isResourceCold(mResources.getResourceName(id));
     }
 
     /**
@@ -791,6 +839,9 @@ public class ZygoteInit {
 
             Log.i(TAG, "Accepting command socket connections");
 
+            // Keep processes ready to be specialized, if configured.
+            zygoteServer.enableProcessPool();
+
             // The select loop returns early in the child process after a fork and
             // loops forever in the zygote.
             caller = zygoteServer.runSelectLoop(abiList);
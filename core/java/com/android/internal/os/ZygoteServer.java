@@ -16,19 +16,33 @@
 
 package com.android.internal.os;
 
+import static android.system.OsConstants.O_CLOEXEC;
+import static android.system.OsConstants.POLLERR;
 import static android.system.OsConstants.POLLIN;
 
 import android.net.LocalServerSocket;
 import android.net.LocalSocket;
+import android.os.FileUtils;
+import android.os.Process;
+import android.os.SystemProperties;
+import android.os.Trace;
 import android.system.Os;
 import android.system.ErrnoException;
 import android.system.StructPollfd;
 import android.util.Log;
 
 import android.util.Slog;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.util.ArrayList;
+import libcore.io.IoUtils;
 
 /**
  * Server socket class for zygote processes.
@@ -44,6 +58,34 @@ class ZygoteServer {
 
     private static final String ANDROID_SOCKET_PREFIX = "ANDROID_SOCKET_";
 
+    /** Number of unspecialized processes to keep ready, 0 to disable the pool. */
+    private static final String PROPERTY_POOL_SIZE = "persist.sys.zygote.pool_size";
+
+    /**
+     * The pool is refilled when it holds fewer processes than this, defaults to the pool size so
+     * that it is refilled after every start.
+     */
+    private static final String PROPERTY_POOL_REFILL_THRESHOLD =
+            "persist.sys.zygote.pool_refill_threshold";
+
+    /**
+     * How long the zygote must be idle before refilling the pool, so that refilling does not
+     * delay starts that come in bursts.
+     */
+    private static final int POOL_REFILL_DELAY_MILLIS = 1000;
+
+    /** Upper bound of the pool size, whatever the property says. */
+    private static final int MAX_POOL_SIZE = 10;
+
+    /**
+     * oom_score_adj of the pooled processes while they wait, the same as the least recently used
+     * cached app, so that the low memory killer reclaims them before any app. They would keep
+     * the unkillable score of the zygote otherwise.
+     */
+    private static final String POOLED_PROCESS_OOM_SCORE_ADJ = "906";
+
+    private static final String OOM_SCORE_ADJ_PATH = "/proc/self/oom_score_adj";
+
     private LocalServerSocket mServerSocket;
 
     /**
@@ -51,11 +93,35 @@ class ZygoteServer {
      */
     private boolean mIsForkChild;
 
+    private boolean mPoolEnabled;
+
+    // Sizing of the pool, read from the properties before each fill and after each command.
+    private int mPoolSize;
+    private int mPoolRefillThreshold;
+
+    /** Children forked in advance, waiting for a start command. */
+    private final ArrayList<PooledProcess> mPool = new ArrayList<>();
+
     ZygoteServer() {
     }
 
     void setForkChild() {
         mIsForkChild = true;
+        // The child must not keep the command pipes of the other pooled processes.
+        for (int i = mPool.size() - 1; i >= 0; i--) {
+            IoUtils.closeQuietly(mPool.get(i).commandFd);
+        }
+        mPool.clear();
+    }
+
+    /**
+     * Lets this zygote keep a pool of unspecialized processes, if configured with
+     * {@link #PROPERTY_POOL_SIZE}. Starting an application from the pool takes the fork off the
+     * critical path, only the specialization remains.
+     */
+    void enableProcessPool() {
+        mPoolEnabled = true;
+        updatePoolSizing();
     }
 
     /**
@@ -154,11 +220,21 @@ class ZygoteServer {
                 pollFds[i].fd = fds.get(i);
                 pollFds[i].events = (short) POLLIN;
             }
+            final boolean poolNeedsRefill = poolNeedsRefill();
+            final int events;
             try {
-                Os.poll(pollFds, -1);
+                events = Os.poll(pollFds, poolNeedsRefill ? POOL_REFILL_DELAY_MILLIS : -1);
             } catch (ErrnoException ex) {
                 throw new RuntimeException("poll failed", ex);
             }
+            if (events == 0 && poolNeedsRefill) {
+                final Runnable command = fillPool(fds, peers);
+                if (command != null) {
+                    // We're in a pooled process that was given a command.
+                    return command;
+                }
+                continue;
+            }
             for (int i = pollFds.length - 1; i >= 0; --i) {
                 if ((pollFds[i].revents & POLLIN) == 0) {
                     continue;
@@ -186,6 +262,7 @@ class ZygoteServer {
                             if (command != null) {
                                 throw new IllegalStateException("command != null");
                             }
+                            updatePoolSizing();
 
                             // We don't know whether the remote side of the socket was closed or
                             // not until we attempt to read from it from processOneCommand. This shows up as
@@ -224,4 +301,341 @@ class ZygoteServer {
             }
         }
     }
+
+    private void updatePoolSizing() {
+        if (!mPoolEnabled) {
+            return;
+        }
+        final int poolSize = SystemProperties.getInt(PROPERTY_POOL_SIZE, 0);
+        setPoolSizing(poolSize, SystemProperties.getInt(PROPERTY_POOL_REFILL_THRESHOLD, poolSize));
+    }
+
+    @VisibleForTesting
+    void setPoolSizing(int poolSize, int refillThreshold) {
+        mPoolSize = Math.max(0, Math.min(poolSize, MAX_POOL_SIZE));
+        mPoolRefillThreshold = Math.max(0, Math.min(refillThreshold, mPoolSize));
+    }
+
+    @VisibleForTesting
+    int getPoolSize() {
+        return mPoolEnabled ? mPoolSize : 0;
+    }
+
+    @VisibleForTesting
+    int getPoolRefillThreshold() {
+        return mPoolEnabled ? mPoolRefillThreshold : 0;
+    }
+
+    private boolean poolNeedsRefill() {
+        return getPoolSize() > 0 && ZygoteInit.isPreloadComplete()
+                && mPool.size() < getPoolRefillThreshold();
+    }
+
+    /**
+     * Forks unspecialized processes until the pool is full.
+     *
+     * @param sessionFds The server socket and the sockets of the command sessions, which the
+     *        pooled processes must not keep: a session can be the one of the system server.
+     * @param peers The command sessions, null for the server socket.
+     * @return In a pooled process, the command it was given. Null in the zygote.
+     */
+    private Runnable fillPool(ArrayList<FileDescriptor> sessionFds,
+            ArrayList<ZygoteConnection> peers) {
+        Trace.traceBegin(Trace.TRACE_TAG_DALVIK, "FillZygotePool");
+        try {
+            updatePoolSizing();
+            removeDeadPooledProcesses();
+            final int poolSize = getPoolSize();
+            final int[] fdsToClose = getFdsToClose(sessionFds);
+            while (mPool.size() < poolSize) {
+                final FileDescriptor[] pipeFds;
+                try {
+                    pipeFds = Os.pipe2(O_CLOEXEC);
+                } catch (ErrnoException ex) {
+                    Log.w(TAG, "Unable to create pipe for pooled process", ex);
+                    return null;
+                }
+                final int[] fdsToIgnore = getFdsToIgnore(
+                        new int[] { pipeFds[0].getInt$(), pipeFds[1].getInt$() });
+
+                final int pid = Zygote.forkUnspecialized(fdsToClose, fdsToIgnore);
+                if (pid == 0) {
+                    // In the pooled process.
+                    setForkChild();
+                    closeServerSocket();
+                    // Their descriptors now point to /dev/null, release them.
+                    for (ZygoteConnection peer : peers) {
+                        if (peer != null) {
+                            peer.closeSocket();
+                        }
+                    }
+                    IoUtils.closeQuietly(pipeFds[1]);
+                    return waitForCommand(pipeFds[0]);
+                }
+                IoUtils.closeQuietly(pipeFds[0]);
+                if (pid < 0) {
+                    Log.w(TAG, "Unable to fork pooled process");
+                    IoUtils.closeQuietly(pipeFds[1]);
+                    return null;
+                }
+                mPool.add(new PooledProcess(pid, pipeFds[1]));
+            }
+            return null;
+        } finally {
+            Trace.traceEnd(Trace.TRACE_TAG_DALVIK);
+        }
+    }
+
+    /**
+     * @return The descriptors of the server socket and of every command session, to be closed by
+     * a forked child.
+     */
+    @VisibleForTesting
+    static int[] getFdsToClose(ArrayList<FileDescriptor> sessionFds) {
+        final int[] fdsToClose = new int[sessionFds.size()];
+        for (int i = 0; i < fdsToClose.length; i++) {
+            fdsToClose[i] = sessionFds.get(i).getInt$();
+        }
+        return fdsToClose;
+    }
+
+    /**
+     * Drops the pooled processes that died, e.g. killed by the low memory killer. Their command
+     * pipe reports an error once nobody can read from it.
+     */
+    private void removeDeadPooledProcesses() {
+        final int poolCount = mPool.size();
+        if (poolCount == 0) {
+            return;
+        }
+        final StructPollfd[] pollFds = new StructPollfd[poolCount];
+        for (int i = 0; i < poolCount; i++) {
+            pollFds[i] = new StructPollfd();
+            pollFds[i].fd = mPool.get(i).commandFd;
+        }
+        try {
+            Os.poll(pollFds, 0);
+        } catch (ErrnoException ex) {
+            Log.w(TAG, "poll of pooled processes failed", ex);
+            return;
+        }
+        for (int i = poolCount - 1; i >= 0; i--) {
+            if ((pollFds[i].revents & POLLERR) != 0) {
+                IoUtils.closeQuietly(mPool.remove(i).commandFd);
+            }
+        }
+    }
+
+    /**
+     * Kills the pooled processes, when they no longer match what a regular fork would produce.
+     */
+    void emptyPool() {
+        for (int i = mPool.size() - 1; i >= 0; i--) {
+            final PooledProcess process = mPool.remove(i);
+            IoUtils.closeQuietly(process.commandFd);
+            Process.killProcess(process.pid);
+        }
+    }
+
+    /**
+     * @return The given descriptors, plus the command pipes of the pooled processes, for the
+     * file descriptor check done when forking.
+     */
+    int[] getFdsToIgnore(int[] fdsToIgnore) {
+        final int poolCount = mPool.size();
+        if (poolCount == 0) {
+            return fdsToIgnore;
+        }
+        final int extraCount = fdsToIgnore != null ? fdsToIgnore.length : 0;
+        final int[] result = new int[extraCount + poolCount];
+        for (int i = 0; i < extraCount; i++) {
+            result[i] = fdsToIgnore[i];
+        }
+        for (int i = 0; i < poolCount; i++) {
+            result[extraCount + i] = mPool.get(i).commandFd.getInt$();
+        }
+        return result;
+    }
+
+    /**
+     * Starts an application in a pooled process.
+     *
+     * @return The pid of the process, or -1 if the pool is empty.
+     */
+    int startFromPool(ZygoteConnection.Arguments parsedArgs, int[][] rlimits,
+            long requestElapsedRealtime) {
+        final byte[] command;
+        try {
+            command = writeCommand(parsedArgs, rlimits, requestElapsedRealtime);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to write pool command", ex);
+        }
+        while (!mPool.isEmpty()) {
+            final PooledProcess process = mPool.remove(mPool.size() - 1);
+            try {
+                // Commands are much smaller than the pipe buffer, this does not block.
+                int offset = 0;
+                while (offset < command.length) {
+                    offset += Os.write(process.commandFd, command, offset,
+                            command.length - offset);
+                }
+                return process.pid;
+            } catch (ErrnoException | IOException ex) {
+                // The process died since the pool was last checked.
+                Log.w(TAG, "Pooled process " + process.pid + " is gone", ex);
+            } finally {
+                IoUtils.closeQuietly(process.commandFd);
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] writeCommand(ZygoteConnection.Arguments args, int[][] rlimits,
+            long requestElapsedRealtime) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(requestElapsedRealtime);
+        out.writeInt(args.uid);
+        out.writeInt(args.gid);
+        writeIntArray(out, args.gids);
+        out.writeInt(args.debugFlags);
+        out.writeInt(rlimits != null ? rlimits.length : -1);
+        if (rlimits != null) {
+            for (int[] rlimit : rlimits) {
+                writeIntArray(out, rlimit);
+            }
+        }
+        out.writeInt(args.mountExternal);
+        writeString(out, args.seInfo);
+        writeString(out, args.niceName);
+        writeString(out, args.instructionSet);
+        writeString(out, args.appDataDir);
+        out.writeInt(args.targetSdkVersion);
+        out.writeInt(args.remainingArgs.length);
+        for (String arg : args.remainingArgs) {
+            out.writeUTF(arg);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Waits in a pooled process for the command written by {@link #startFromPool}, then turns
+     * this process into the application.
+     */
+    private static Runnable waitForCommand(FileDescriptor commandFd) {
+        Process.setArgV0("zygote-pool");
+        // Regular forks keep the score of the zygote until the activity manager sets theirs,
+        // so put it back before specializing, while lowering it is still permitted.
+        final String zygoteOomScoreAdj = readOomScoreAdj();
+        writeOomScoreAdj(POOLED_PROCESS_OOM_SCORE_ADJ);
+        final DataInputStream in = new DataInputStream(new FileInputStream(commandFd));
+        final long requestElapsedRealtime;
+        final int uid, gid, debugFlags, mountExternal, targetSdkVersion;
+        final int[] gids;
+        final int[][] rlimits;
+        final String seInfo, niceName, instructionSet, appDataDir;
+        final String[] remainingArgs;
+        try {
+            requestElapsedRealtime = in.readLong();
+            uid = in.readInt();
+            gid = in.readInt();
+            gids = readIntArray(in);
+            debugFlags = in.readInt();
+            final int rlimitCount = in.readInt();
+            rlimits = rlimitCount >= 0 ? new int[rlimitCount][] : null;
+            for (int i = 0; i < rlimitCount; i++) {
+                rlimits[i] = readIntArray(in);
+            }
+            mountExternal = in.readInt();
+            seInfo = readString(in);
+            niceName = readString(in);
+            instructionSet = readString(in);
+            appDataDir = readString(in);
+            targetSdkVersion = in.readInt();
+            remainingArgs = new String[in.readInt()];
+            for (int i = 0; i < remainingArgs.length; i++) {
+                remainingArgs[i] = in.readUTF();
+            }
+        } catch (IOException ex) {
+            // The zygote emptied the pool or died, there is nothing left to do.
+            Process.killProcess(Process.myPid());
+            throw new IllegalStateException("Pooled process not killed", ex);
+        } finally {
+            IoUtils.closeQuietly(in);
+        }
+
+        if (zygoteOomScoreAdj != null) {
+            writeOomScoreAdj(zygoteOomScoreAdj);
+        }
+        Zygote.specializeAppProcess(uid, gid, gids, debugFlags, rlimits, mountExternal, seInfo,
+                niceName, instructionSet, appDataDir);
+        Zygote.setSpawnInfo(requestElapsedRealtime, true /* fromPool */);
+        if (niceName != null) {
+            Process.setArgV0(niceName);
+        }
+        // End of the postFork event.
+        Trace.traceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER);
+        return ZygoteInit.zygoteInit(targetSdkVersion, remainingArgs, null /* classLoader */);
+    }
+
+    private static String readOomScoreAdj() {
+        try {
+            return IoUtils.readFileAsString(OOM_SCORE_ADJ_PATH).trim();
+        } catch (IOException ex) {
+            Log.w(TAG, "Unable to read oom_score_adj of pooled process", ex);
+            return null;
+        }
+    }
+
+    private static void writeOomScoreAdj(String value) {
+        try {
+            FileUtils.stringToFile(OOM_SCORE_ADJ_PATH, value);
+        } catch (IOException ex) {
+            Log.w(TAG, "Unable to set oom_score_adj of pooled process to " + value, ex);
+        }
+    }
+
+    private static void writeIntArray(DataOutputStream out, int[] array) throws IOException {
+        out.writeInt(array != null ? array.length : -1);
+        if (array != null) {
+            for (int value : array) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    private static int[] readIntArray(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = in.readInt();
+        }
+        return array;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static final class PooledProcess {
+        final int pid;
+        /** Write end of the pipe the process reads its command from. */
+        final FileDescriptor commandFd;
+
+        PooledProcess(int pid, FileDescriptor commandFd) {
+            this.pid = pid;
+            this.commandFd = commandFd;
+        }
+    }
 }
@@ -26,6 +26,7 @@
 
 #include <android-base/chrono_utils.h>
 #include <nativehelper/JNIHelp.h>
+#include <nativehelper/ScopedPrimitiveArray.h>
 #include <nativehelper/ScopedUtfChars.h>
 #include <android_runtime/android_view_Surface.h>
 #include <android_runtime/android_view_SurfaceSession.h>
@@ -410,6 +411,62 @@ static void nativeSetLayerStack(JNIEnv* env, jclass clazz, jlong nativeObject, j
     }
 }
 
+// Keep in sync with the BATCH_* constants in SurfaceControl.java.
+enum {
+    BATCH_POSITION = 1 << 0,
+    BATCH_ALPHA = 1 << 1,
+    BATCH_MATRIX = 1 << 2,
+    BATCH_LAYER = 1 << 3,
+    BATCH_WINDOW_CROP = 1 << 4,
+    BATCH_FLOATS_PER_SURFACE = 7,
+    BATCH_INTS_PER_SURFACE = 5,
+};
+
+static status_t firstError(status_t current, status_t err) {
+    return current == NO_ERROR && err < 0 && err != NO_INIT ? err : current;
+}
+
+static jint nativeApplyBatch(JNIEnv* env, jclass clazz, jlongArray nativeObjects,
+        jintArray dirtyMasks, jfloatArray floatValues, jintArray intValues, jint count,
+        jintArray outFailures) {
+    ScopedLongArrayRO objects(env, nativeObjects);
+    ScopedIntArrayRO masks(env, dirtyMasks);
+    ScopedFloatArrayRO floats(env, floatValues);
+    ScopedIntArrayRO ints(env, intValues);
+    ScopedIntArrayRW failures(env, outFailures);
+    jint failedCount = 0;
+    for (jint i = 0; i < count; i++) {
+        SurfaceControl* const ctrl = reinterpret_cast<SurfaceControl *>(objects[i]);
+        const jint mask = masks[i];
+        const jfloat* f = floats.get() + i * BATCH_FLOATS_PER_SURFACE;
+        const jint* n = ints.get() + i * BATCH_INTS_PER_SURFACE;
+        // Throwing here would skip the properties of all the surfaces after this one, so the
+        // failures are returned to Java, which reports them once the transaction is closed.
+        status_t err = NO_ERROR;
+        if (mask & BATCH_POSITION) {
+            err = firstError(err, ctrl->setPosition(f[0], f[1]));
+        }
+        if (mask & BATCH_ALPHA) {
+            err = firstError(err, ctrl->setAlpha(f[2]));
+        }
+        if (mask & BATCH_MATRIX) {
+            err = firstError(err, ctrl->setMatrix(f[3], f[4], f[5], f[6]));
+        }
+        if (mask & BATCH_LAYER) {
+            err = firstError(err, ctrl->setLayer(n[0]));
+        }
+        if (mask & BATCH_WINDOW_CROP) {
+            err = firstError(err, ctrl->setCrop(Rect(n[1], n[2], n[3], n[4])));
+        }
+        if (err != NO_ERROR) {
+            failures[failedCount * 2] = i;
+            failures[failedCount * 2 + 1] = err;
+            failedCount++;
+        }
+    }
+    return failedCount;
+}
+
 static jobject nativeGetBuiltInDisplay(JNIEnv* env, jclass clazz, jint id) {
     sp<IBinder> token(SurfaceComposerClient::getBuiltInDisplay(id));
     return javaObjectForIBinder(env, token);
@@ -815,6 +872,8 @@ static const JNINativeMethod sSurfaceControlMethods[] = {
             (void*)nativeSetFinalCrop },
     {"nativeSetLayerStack", "(JI)V",
             (void*)nativeSetLayerStack },
+    {"nativeApplyBatch", "([J[I[F[II[I)I",
+            (void*)nativeApplyBatch },
     {"nativeGetBuiltInDisplay", "(I)Landroid/os/IBinder;",
             (void*)nativeGetBuiltInDisplay },
     {"nativeCreateDisplay", "(Ljava/lang/String;Z)Landroid/os/IBinder;",
@@ -483,15 +483,9 @@ static void FillFileDescriptorVector(JNIEnv* env,
   }
 }
 
-// Utility routine to fork zygote and specialize the child process.
-static pid_t ForkAndSpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArray javaGids,
-                                     jint debug_flags, jobjectArray javaRlimits,
-                                     jlong permittedCapabilities, jlong effectiveCapabilities,
-                                     jint mount_external,
-                                     jstring java_se_info, jstring java_se_name,
-                                     bool is_system_server, jintArray fdsToClose,
-                                     jintArray fdsToIgnore,
-                                     jstring instructionSet, jstring dataDir) {
+// Utility routine to fork a child of the zygote. The child keeps the credentials of the
+// zygote until it is specialized.
+static pid_t ForkCommon(JNIEnv* env, jintArray fdsToClose, jintArray fdsToIgnore) {
   SetSigChldHandler();
 
   sigset_t sigchld;
@@ -539,148 +533,206 @@ static pid_t ForkAndSpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArra
     if (!gOpenFdTable->ReopenOrDetach()) {
       RuntimeAbort(env, __LINE__, "Unable to reopen whitelisted descriptors.");
     }
+  }
 
-    if (sigprocmask(SIG_UNBLOCK, &sigchld, nullptr) == -1) {
-      ALOGE("sigprocmask(SIG_SETMASK, { SIGCHLD }) failed: %s", strerror(errno));
-      RuntimeAbort(env, __LINE__, "Call to sigprocmask(SIG_UNBLOCK, { SIGCHLD }) failed.");
-    }
+  // We blocked SIGCHLD prior to a fork, we unblock it here.
+  if (sigprocmask(SIG_UNBLOCK, &sigchld, nullptr) == -1) {
+    ALOGE("sigprocmask(SIG_SETMASK, { SIGCHLD }) failed: %s", strerror(errno));
+    RuntimeAbort(env, __LINE__, "Call to sigprocmask(SIG_UNBLOCK, { SIGCHLD }) failed.");
+  }
+  return pid;
+}
 
-    // Keep capabilities across UID change, unless we're staying root.
-    if (uid != 0) {
-      EnableKeepCapabilities(env);
-    }
+// Utility routine to specialize a child of the zygote, called in the child.
+static void SpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArray javaGids,
+                             jint debug_flags, jobjectArray javaRlimits,
+                             jlong permittedCapabilities, jlong effectiveCapabilities,
+                             jint mount_external,
+                             jstring java_se_info, jstring java_se_name,
+                             bool is_system_server, jstring instructionSet, jstring dataDir) {
+  // Keep capabilities across UID change, unless we're staying root.
+  if (uid != 0) {
+    EnableKeepCapabilities(env);
+  }
 
-    SetInheritable(env, permittedCapabilities);
-    DropCapabilitiesBoundingSet(env);
+  SetInheritable(env, permittedCapabilities);
+  DropCapabilitiesBoundingSet(env);
 
-    bool use_native_bridge = !is_system_server && (instructionSet != NULL)
-        && android::NativeBridgeAvailable();
-    if (use_native_bridge) {
-      ScopedUtfChars isa_string(env, instructionSet);
-      use_native_bridge = android::NeedsNativeBridge(isa_string.c_str());
-    }
-    if (use_native_bridge && dataDir == NULL) {
-      // dataDir should never be null if we need to use a native bridge.
-      // In general, dataDir will never be null for normal applications. It can only happen in
-      // special cases (for isolated processes which are not associated with any app). These are
-      // launched by the framework and should not be emulated anyway.
-      use_native_bridge = false;
-      ALOGW("Native bridge will not be used because dataDir == NULL.");
+  bool use_native_bridge = !is_system_server && (instructionSet != NULL)
+      && android::NativeBridgeAvailable();
+  if (use_native_bridge) {
+    ScopedUtfChars isa_string(env, instructionSet);
+    use_native_bridge = android::NeedsNativeBridge(isa_string.c_str());
+  }
+  if (use_native_bridge && dataDir == NULL) {
+    // dataDir should never be null if we need to use a native bridge.
+    // In general, dataDir will never be null for normal applications. It can only happen in
+    // special cases (for isolated processes which are not associated with any app). These are
+    // launched by the framework and should not be emulated anyway.
+    use_native_bridge = false;
+    ALOGW("Native bridge will not be used because dataDir == NULL.");
+  }
+
+  if (!MountEmulatedStorage(uid, mount_external, use_native_bridge)) {
+    ALOGW("Failed to mount emulated storage: %s", strerror(errno));
+    if (errno == ENOTCONN || errno == EROFS) {
+      // When device is actively encrypting, we get ENOTCONN here
+      // since FUSE was mounted before the framework restarted.
+      // When encrypted device is booting, we get EROFS since
+      // FUSE hasn't been created yet by init.
+      // In either case, continue without external storage.
+    } else {
+      RuntimeAbort(env, __LINE__, "Cannot continue without emulated storage");
     }
+  }
 
-    if (!MountEmulatedStorage(uid, mount_external, use_native_bridge)) {
-      ALOGW("Failed to mount emulated storage: %s", strerror(errno));
-      if (errno == ENOTCONN || errno == EROFS) {
-        // When device is actively encrypting, we get ENOTCONN here
-        // since FUSE was mounted before the framework restarted.
-        // When encrypted device is booting, we get EROFS since
-        // FUSE hasn't been created yet by init.
-        // In either case, continue without external storage.
-      } else {
-        RuntimeAbort(env, __LINE__, "Cannot continue without emulated storage");
+  if (!is_system_server) {
+      int rc = createProcessGroup(uid, getpid());
+      if (rc != 0) {
+          if (rc == -EROFS) {
+              ALOGW("createProcessGroup failed, kernel missing CONFIG_CGROUP_CPUACCT?");
+          } else {
+              ALOGE("createProcessGroup(%d, %d) failed: %s", uid, getpid(), strerror(-rc));
+          }
       }
-    }
+  }
 
-    if (!is_system_server) {
-        int rc = createProcessGroup(uid, getpid());
-        if (rc != 0) {
-            if (rc == -EROFS) {
-                ALOGW("createProcessGroup failed, kernel missing CONFIG_CGROUP_CPUACCT?");
-            } else {
-                ALOGE("createProcessGroup(%d, %d) failed: %s", uid, pid, strerror(-rc));
-            }
-        }
-    }
+  SetGids(env, javaGids);
 
-    SetGids(env, javaGids);
+  SetRLimits(env, javaRlimits);
 
-    SetRLimits(env, javaRlimits);
+  if (use_native_bridge) {
+    ScopedUtfChars isa_string(env, instructionSet);
+    ScopedUtfChars data_dir(env, dataDir);
+    android::PreInitializeNativeBridge(data_dir.c_str(), isa_string.c_str());
+  }
 
-    if (use_native_bridge) {
-      ScopedUtfChars isa_string(env, instructionSet);
-      ScopedUtfChars data_dir(env, dataDir);
-      android::PreInitializeNativeBridge(data_dir.c_str(), isa_string.c_str());
-    }
+  int rc = setresgid(gid, gid, gid);
+  if (rc == -1) {
+    ALOGE("setresgid(%d) failed: %s", gid, strerror(errno));
+    RuntimeAbort(env, __LINE__, "setresgid failed");
+  }
 
-    int rc = setresgid(gid, gid, gid);
-    if (rc == -1) {
-      ALOGE("setresgid(%d) failed: %s", gid, strerror(errno));
-      RuntimeAbort(env, __LINE__, "setresgid failed");
-    }
+  rc = setresuid(uid, uid, uid);
+  if (rc == -1) {
+    ALOGE("setresuid(%d) failed: %s", uid, strerror(errno));
+    RuntimeAbort(env, __LINE__, "setresuid failed");
+  }
 
-    rc = setresuid(uid, uid, uid);
-    if (rc == -1) {
-      ALOGE("setresuid(%d) failed: %s", uid, strerror(errno));
-      RuntimeAbort(env, __LINE__, "setresuid failed");
-    }
+  if (NeedsNoRandomizeWorkaround()) {
+      // Work around ARM kernel ASLR lossage (http://b/5817320).
+      int old_personality = personality(0xffffffff);
+      int new_personality = personality(old_personality | ADDR_NO_RANDOMIZE);
+      if (new_personality == -1) {
+          ALOGW("personality(%d) failed: %s", new_personality, strerror(errno));
+      }
+  }
 
-    if (NeedsNoRandomizeWorkaround()) {
-        // Work around ARM kernel ASLR lossage (http://b/5817320).
-        int old_personality = personality(0xffffffff);
-        int new_personality = personality(old_personality | ADDR_NO_RANDOMIZE);
-        if (new_personality == -1) {
-            ALOGW("personality(%d) failed: %s", new_personality, strerror(errno));
-        }
-    }
+  SetCapabilities(env, permittedCapabilities, effectiveCapabilities, permittedCapabilities);
+
+  SetSchedulerPolicy(env);
 
-    SetCapabilities(env, permittedCapabilities, effectiveCapabilities, permittedCapabilities);
+  const char* se_info_c_str = NULL;
+  ScopedUtfChars* se_info = NULL;
+  if (java_se_info != NULL) {
+      se_info = new ScopedUtfChars(env, java_se_info);
+      se_info_c_str = se_info->c_str();
+      if (se_info_c_str == NULL) {
+        RuntimeAbort(env, __LINE__, "se_info_c_str == NULL");
+      }
+  }
+  const char* se_name_c_str = NULL;
+  ScopedUtfChars* se_name = NULL;
+  if (java_se_name != NULL) {
+      se_name = new ScopedUtfChars(env, java_se_name);
+      se_name_c_str = se_name->c_str();
+      if (se_name_c_str == NULL) {
+        RuntimeAbort(env, __LINE__, "se_name_c_str == NULL");
+      }
+  }
+  rc = selinux_android_setcontext(uid, is_system_server, se_info_c_str, se_name_c_str);
+  if (rc == -1) {
+    ALOGE("selinux_android_setcontext(%d, %d, \"%s\", \"%s\") failed", uid,
+          is_system_server, se_info_c_str, se_name_c_str);
+    RuntimeAbort(env, __LINE__, "selinux_android_setcontext failed");
+  }
 
-    SetSchedulerPolicy(env);
+  // Make it easier to debug audit logs by setting the main thread's name to the
+  // nice name rather than "app_process".
+  if (se_info_c_str == NULL && is_system_server) {
+    se_name_c_str = "system_server";
+  }
+  if (se_info_c_str != NULL) {
+    SetThreadName(se_name_c_str);
+  }
 
-    const char* se_info_c_str = NULL;
-    ScopedUtfChars* se_info = NULL;
-    if (java_se_info != NULL) {
-        se_info = new ScopedUtfChars(env, java_se_info);
-        se_info_c_str = se_info->c_str();
-        if (se_info_c_str == NULL) {
-          RuntimeAbort(env, __LINE__, "se_info_c_str == NULL");
-        }
-    }
-    const char* se_name_c_str = NULL;
-    ScopedUtfChars* se_name = NULL;
-    if (java_se_name != NULL) {
-        se_name = new ScopedUtfChars(env, java_se_name);
-        se_name_c_str = se_name->c_str();
-        if (se_name_c_str == NULL) {
-          RuntimeAbort(env, __LINE__, "se_name_c_str == NULL");
-        }
-    }
-    rc = selinux_android_setcontext(uid, is_system_server, se_info_c_str, se_name_c_str);
-    if (rc == -1) {
-      ALOGE("selinux_android_setcontext(%d, %d, \"%s\", \"%s\") failed", uid,
-            is_system_server, se_info_c_str, se_name_c_str);
-      RuntimeAbort(env, __LINE__, "selinux_android_setcontext failed");
-    }
+  delete se_info;
+  delete se_name;
 
-    // Make it easier to debug audit logs by setting the main thread's name to the
-    // nice name rather than "app_process".
-    if (se_info_c_str == NULL && is_system_server) {
-      se_name_c_str = "system_server";
-    }
-    if (se_info_c_str != NULL) {
-      SetThreadName(se_name_c_str);
-    }
+  UnsetSigChldHandler();
 
-    delete se_info;
-    delete se_name;
+  env->CallStaticVoidMethod(gZygoteClass, gCallPostForkChildHooks, debug_flags,
+                            is_system_server, instructionSet);
+  if (env->ExceptionCheck()) {
+    RuntimeAbort(env, __LINE__, "Error calling post fork hooks.");
+  }
+}
 
-    UnsetSigChldHandler();
+// Utility routine to fork zygote and specialize the child process.
+static pid_t ForkAndSpecializeCommon(JNIEnv* env, uid_t uid, gid_t gid, jintArray javaGids,
+                                     jint debug_flags, jobjectArray javaRlimits,
+                                     jlong permittedCapabilities, jlong effectiveCapabilities,
+                                     jint mount_external,
+                                     jstring java_se_info, jstring java_se_name,
+                                     bool is_system_server, jintArray fdsToClose,
+                                     jintArray fdsToIgnore,
+                                     jstring instructionSet, jstring dataDir) {
+  pid_t pid = ForkCommon(env, fdsToClose, fdsToIgnore);
+  if (pid == 0) {
+    SpecializeCommon(env, uid, gid, javaGids, debug_flags, javaRlimits, permittedCapabilities,
+                     effectiveCapabilities, mount_external, java_se_info, java_se_name,
+                     is_system_server, instructionSet, dataDir);
+  }
+  return pid;
+}
 
-    env->CallStaticVoidMethod(gZygoteClass, gCallPostForkChildHooks, debug_flags,
-                              is_system_server, instructionSet);
-    if (env->ExceptionCheck()) {
-      RuntimeAbort(env, __LINE__, "Error calling post fork hooks.");
-    }
-  } else if (pid > 0) {
-    // the parent process
+// Returns the capabilities granted to an app process.
+static jlong CalculateAppCapabilities(JNIEnv* env, jint uid, jint gid, jintArray gids) {
+  jlong capabilities = 0;
+
+  // Grant CAP_WAKE_ALARM to the Bluetooth process.
+  // Additionally, allow bluetooth to open packet sockets so it can start the DHCP client.
+  // Grant CAP_SYS_NICE to allow Bluetooth to set RT priority for
+  // audio-related threads.
+  // TODO: consider making such functionality an RPC to netd.
+  if (multiuser_get_app_id(uid) == AID_BLUETOOTH) {
+    capabilities |= (1LL << CAP_WAKE_ALARM);
+    capabilities |= (1LL << CAP_NET_RAW);
+    capabilities |= (1LL << CAP_NET_BIND_SERVICE);
+    capabilities |= (1LL << CAP_SYS_NICE);
+  }
 
-    // We blocked SIGCHLD prior to a fork, we unblock it here.
-    if (sigprocmask(SIG_UNBLOCK, &sigchld, nullptr) == -1) {
-      ALOGE("sigprocmask(SIG_SETMASK, { SIGCHLD }) failed: %s", strerror(errno));
-      RuntimeAbort(env, __LINE__, "Call to sigprocmask(SIG_UNBLOCK, { SIGCHLD }) failed.");
+  // Grant CAP_BLOCK_SUSPEND to processes that belong to GID "wakelock"
+  bool gid_wakelock_found = false;
+  if (gid == AID_WAKELOCK) {
+    gid_wakelock_found = true;
+  } else if (gids != NULL) {
+    jsize gids_num = env->GetArrayLength(gids);
+    ScopedIntArrayRO ar(env, gids);
+    if (ar.get() == NULL) {
+      RuntimeAbort(env, __LINE__, "Bad gids array");
+    }
+    for (int i = 0; i < gids_num; i++) {
+      if (ar[i] == AID_WAKELOCK) {
+        gid_wakelock_found = true;
+        break;
+      }
     }
   }
-  return pid;
+  if (gid_wakelock_found) {
+    capabilities |= (1LL << CAP_BLOCK_SUSPEND);
+  }
+  return capabilities;
 }
 }  // anonymous namespace
 
@@ -697,46 +749,27 @@ static jint com_android_internal_os_Zygote_nativeForkAndSpecialize(
         jintArray fdsToClose,
         jintArray fdsToIgnore,
         jstring instructionSet, jstring appDataDir) {
-    jlong capabilities = 0;
-
-    // Grant CAP_WAKE_ALARM to the Bluetooth process.
-    // Additionally, allow bluetooth to open packet sockets so it can start the DHCP client.
-    // Grant CAP_SYS_NICE to allow Bluetooth to set RT priority for
-    // audio-related threads.
-    // TODO: consider making such functionality an RPC to netd.
-    if (multiuser_get_app_id(uid) == AID_BLUETOOTH) {
-      capabilities |= (1LL << CAP_WAKE_ALARM);
-      capabilities |= (1LL << CAP_NET_RAW);
-      capabilities |= (1LL << CAP_NET_BIND_SERVICE);
-      capabilities |= (1LL << CAP_SYS_NICE);
-    }
-
-    // Grant CAP_BLOCK_SUSPEND to processes that belong to GID "wakelock"
-    bool gid_wakelock_found = false;
-    if (gid == AID_WAKELOCK) {
-      gid_wakelock_found = true;
-    } else if (gids != NULL) {
-      jsize gids_num = env->GetArrayLength(gids);
-      ScopedIntArrayRO ar(env, gids);
-      if (ar.get() == NULL) {
-        RuntimeAbort(env, __LINE__, "Bad gids array");
-      }
-      for (int i = 0; i < gids_num; i++) {
-        if (ar[i] == AID_WAKELOCK) {
-          gid_wakelock_found = true;
-          break;
-        }
-      }
-    }
-    if (gid_wakelock_found) {
-      capabilities |= (1LL << CAP_BLOCK_SUSPEND);
-    }
-
+    jlong capabilities = CalculateAppCapabilities(env, uid, gid, gids);
     return ForkAndSpecializeCommon(env, uid, gid, gids, debug_flags,
             rlimits, capabilities, capabilities, mount_external, se_info,
             se_name, false, fdsToClose, fdsToIgnore, instructionSet, appDataDir);
 }
 
+static jint com_android_internal_os_Zygote_nativeForkUnspecialized(
+        JNIEnv* env, jclass, jintArray fdsToClose, jintArray fdsToIgnore) {
+    return ForkCommon(env, fdsToClose, fdsToIgnore);
+}
+
+static void com_android_internal_os_Zygote_nativeSpecializeAppProcess(
+        JNIEnv* env, jclass, jint uid, jint gid, jintArray gids,
+        jint debug_flags, jobjectArray rlimits,
+        jint mount_external, jstring se_info, jstring se_name,
+        jstring instructionSet, jstring appDataDir) {
+    jlong capabilities = CalculateAppCapabilities(env, uid, gid, gids);
+    SpecializeCommon(env, uid, gid, gids, debug_flags, rlimits, capabilities, capabilities,
+            mount_external, se_info, se_name, false, instructionSet, appDataDir);
+}
+
 static jint com_android_internal_os_Zygote_nativeForkSystemServer(
         JNIEnv* env, jclass, uid_t uid, gid_t gid, jintArray gids,
         jint debug_flags, jobjectArray rlimits, jlong permittedCapabilities,
@@ -819,6 +852,11 @@ static const JNINativeMethod gMethods[] = {
     { "nativeForkAndSpecialize",
       "(II[II[[IILjava/lang/String;Ljava/lang/String;[I[ILjava/lang/String;Ljava/lang/String;)I",
       (void *) com_android_internal_os_Zygote_nativeForkAndSpecialize },
+    { "nativeForkUnspecialized", "([I[I)I",
+      (void *) com_android_internal_os_Zygote_nativeForkUnspecialized },
+    { "nativeSpecializeAppProcess",
+      "(II[II[[IILjava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)V",
+      (void *) com_android_internal_os_Zygote_nativeSpecializeAppProcess },
     { "nativeForkSystemServer", "(II[II[[IJJ)I",
       (void *) com_android_internal_os_Zygote_nativeForkSystemServer },
     { "nativeAllowFileAcrossFork", "(Ljava/lang/String;)V",
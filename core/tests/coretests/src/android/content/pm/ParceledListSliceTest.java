@@ -94,11 +94,17 @@ public class ParceledListSliceTest extends TestCase {
     }
 
     private void sendParcelStringList(List<String> list) {
+        sendParcelStringList(list, false);
+    }
+
+    private void sendParcelStringList(List<String> list, boolean poolStrings) {
         StringParceledListSlice slice;
         Parcel parcel = Parcel.obtain();
 
         try {
-            parcel.writeParcelable(new StringParceledListSlice(list), 0);
+            final StringParceledListSlice source = new StringParceledListSlice(list);
+            source.setPoolStrings(poolStrings);
+            parcel.writeParcelable(source, 0);
             parcel.setDataPosition(0);
             slice = parcel.readParcelable(getClass().getClassLoader());
         } finally {
@@ -129,6 +135,44 @@ public class ParceledListSliceTest extends TestCase {
         sendParcelStringList(list);
     }
 
+    public void testPooledStringList() throws Exception {
+        final int objectCount = 400;
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < objectCount; i++) {
+            list.add("com.example.package" + (i % 10));
+        }
+
+        sendParcelStringList(list, true);
+    }
+
+    public void testPooledStringListIsSmaller() throws Exception {
+        final List<String> list = Collections.nCopies(100, "com.example.package");
+        final StringParceledListSlice pooled = new StringParceledListSlice(list);
+        pooled.setPoolStrings(true);
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            new StringParceledListSlice(list).writeToParcel(parcel, 0);
+            final int unpooledSize = parcel.dataSize();
+            parcel.setDataSize(0);
+            pooled.writeToParcel(parcel, 0);
+            assertTrue(parcel.dataSize() < unpooledSize / 2);
+            assertFalse(parcel.hasReadWriteHelper());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    public void testLargePooledStringList() throws Exception {
+        final int thresholdBytes = 256 * 1024;
+        final int objectCount = 2 * thresholdBytes / 8;
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < objectCount; i++) {
+            list.add(Integer.toString(i % 1000));
+        }
+
+        sendParcelStringList(list, true);
+    }
 
     /**
      * Test that only homogeneous elements may be unparceled.
@@ -166,6 +210,9 @@ public class ParceledListSliceTest extends TestCase {
         // Number of items.
         dest.writeInt(listCount);
 
+        // Strings are not pooled.
+        dest.writeInt(0);
+
         // The type/creator to use when unparceling. Here we use the base class
         // to simulate an attack on ParceledListSlice.
         dest.writeString(BaseObject.class.getName());
@@ -199,6 +199,43 @@ public class ConfigurationBoundResourceCacheTest
         }
     }
 
+    @SmallTest
+    public void testConfigChangeAndBack()
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        TypedValue staticValue = new TypedValue();
+        TypedValue changingValue = new TypedValue();
+        final Resources res = getActivity().getResources();
+        res.getValue(R.dimen.resource_cache_test_generic, staticValue, true);
+        res.getValue(R.dimen.resource_cache_test_orientation_dependent, changingValue, true);
+        float staticDim = TypedValue.complexToDimension(staticValue.data, res.getDisplayMetrics());
+        float changingDim = TypedValue.complexToDimension(changingValue.data,
+                res.getDisplayMetrics());
+        final Configuration cfg = res.getConfiguration();
+        mCache.onConfigurationChange(0, cfg);
+        mCache.put(R.dimen.resource_cache_test_generic, getActivity().getTheme(),
+                new DummyFloatConstantState(staticDim, staticValue.changingConfigurations));
+        mCache.put(R.dimen.resource_cache_test_orientation_dependent, getActivity().getTheme(),
+                new DummyFloatConstantState(changingDim, changingValue.changingConfigurations));
+
+        Configuration newCnf = new Configuration(cfg);
+        newCnf.orientation = cfg.orientation == Configuration.ORIENTATION_LANDSCAPE ?
+                Configuration.ORIENTATION_PORTRAIT
+                : Configuration.ORIENTATION_LANDSCAPE;
+        mCache.onConfigurationChange(calcConfigChanges(res, newCnf), newCnf);
+        assertEquals(staticDim, mCache.getInstance(R.dimen.resource_cache_test_generic, res,
+                getActivity().getTheme()));
+        assertNull(mCache.getInstance(R.dimen.resource_cache_test_orientation_dependent, res,
+                getActivity().getTheme()));
+
+        // Both entries are valid again once the orientation is back.
+        mCache.onConfigurationChange(newCnf.diff(cfg), cfg);
+        assertEquals(staticDim, mCache.getInstance(R.dimen.resource_cache_test_generic, res,
+                getActivity().getTheme()));
+        assertEquals(changingDim,
+                mCache.getInstance(R.dimen.resource_cache_test_orientation_dependent, res,
+                        getActivity().getTheme()));
+    }
+
     private static int calcConfigChanges(Resources resources, Configuration configuration) {
         return resources.calcConfigChanges(configuration);
     }
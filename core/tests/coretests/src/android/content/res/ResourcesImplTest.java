@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.content.res;
+
+import android.graphics.drawable.Drawable;
+import android.support.test.filters.SmallTest;
+import android.test.AndroidTestCase;
+import android.util.DisplayMetrics;
+
+public class ResourcesImplTest extends AndroidTestCase {
+
+    private static Resources createResources() {
+        final DisplayMetrics dm = new DisplayMetrics();
+        dm.setToDefaults();
+        return new Resources(new AssetManager(), dm, new Configuration());
+    }
+
+    @SmallTest
+    public void testFrameworkDrawablesAreShared() {
+        final Resources first = createResources();
+        final Resources second = createResources();
+        assertNotSame(first.getImpl(), second.getImpl());
+
+        // Not preloaded by the zygote.
+        final Drawable firstDrawable = first.getDrawable(android.R.drawable.ic_menu_compass, null);
+        final long sharedHits = ResourcesImpl.getFrameworkDrawableStats()[1];
+        final Drawable secondDrawable =
+                second.getDrawable(android.R.drawable.ic_menu_compass, null);
+
+        assertEquals(sharedHits + 1, ResourcesImpl.getFrameworkDrawableStats()[1]);
+        assertNotSame(firstDrawable, secondDrawable);
+        assertSame(firstDrawable.getConstantState(), secondDrawable.getConstantState());
+    }
+
+    @SmallTest
+    public void testSharedBitmapCountedOnce() {
+        // Not preloaded by the zygote.
+        final Drawable drawable =
+                createResources().getDrawable(android.R.drawable.ic_menu_camera, null);
+        createResources().getDrawable(android.R.drawable.ic_menu_camera, null);
+        final long[] stats = ResourcesImpl.getFrameworkDrawableStats();
+
+        createResources().getDrawable(android.R.drawable.ic_menu_camera, null);
+
+        final long[] newStats = ResourcesImpl.getFrameworkDrawableStats();
+        assertEquals(stats[1] + 1, newStats[1]);
+        assertEquals(stats[3], newStats[3]);
+        // Keeps the drawable shared until then.
+        assertNotNull(drawable.getConstantState());
+    }
+}
@@ -32,6 +32,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.File;
+import java.util.ArrayList;
 
 /**
  * Tests for {@link SQLiteConnectionPool}
@@ -88,4 +89,33 @@ public class SQLiteConnectionPoolTest {
         pool.close();
         thread.quit();
     }
+
+    @Test
+    public void testConnectionPoolStats() {
+        SQLiteConnectionPool pool = SQLiteConnectionPool.open(mTestConf);
+        SQLiteDebug.ConnectionPoolStats before = getStats(pool);
+        assertEquals("Pool is not WAL", 1, before.configuredMaxConnections);
+        assertEquals(1, before.maxConnections);
+
+        SQLiteConnection c = pool.acquireConnection("pragma user_version", 0, null);
+        c.executeForLong("pragma user_version", null, null);
+        c.executeForLong("pragma user_version", null, null);
+        pool.releaseConnection(c);
+
+        SQLiteDebug.ConnectionPoolStats after = getStats(pool);
+        assertEquals(before.acquireCount + 1, after.acquireCount);
+        assertEquals(0, after.waitCount);
+        assertEquals("First acquire should land in the fastest bucket",
+                after.acquireCount, after.waitTimeHistogram[0]);
+        assertEquals(before.statementCacheMisses + 1, after.statementCacheMisses);
+        assertEquals(before.statementCacheHits + 1, after.statementCacheHits);
+        pool.close();
+    }
+
+    private static SQLiteDebug.ConnectionPoolStats getStats(SQLiteConnectionPool pool) {
+        ArrayList<SQLiteDebug.ConnectionPoolStats> stats = new ArrayList<>();
+        pool.collectConnectionPoolStats(stats);
+        assertEquals(1, stats.size());
+        return stats.get(0);
+    }
 }
@@ -16,16 +16,22 @@
 
 package android.os;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import android.graphics.Rect;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.util.ArrayMap;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+
 /**
  * Unit tests for bundle that requires accessing hidden APS.  Tests that can be written only with
  * public APIs should go in the CTS counterpart.
@@ -137,4 +143,183 @@ public class BundleTest {
         checkBundle(b, withFd);
         p.recycle();
     }
+
+    @Test
+    public void testPooledStrings() throws Exception {
+        final Bundle nested = new Bundle();
+        nested.putString("string", "com.example.package");
+        final Bundle source = new Bundle();
+        source.putString("string", "com.example.package");
+        source.putStringArray("array", new String[] { "com.example.package", null, "abc" });
+        source.putBundle("nested", nested);
+        source.setPoolStrings(true);
+
+        final Parcel p = Parcel.obtain();
+        final Parcel copy = Parcel.obtain();
+        try {
+            source.writeToParcel(p, 0);
+            p.setDataPosition(0);
+            final Bundle parcelled = new Bundle(p);
+            assertTrue(parcelled.isParcelled());
+
+            // Sending it again without unparcelling keeps the pooled strings intact.
+            parcelled.writeToParcel(copy, 0);
+            copy.setDataPosition(0);
+            final Bundle b = new Bundle(copy);
+
+            assertEquals("com.example.package", b.getString("string"));
+            assertArrayEquals(new String[] { "com.example.package", null, "abc" },
+                    b.getStringArray("array"));
+            assertEquals("com.example.package", b.getBundle("nested").getString("string"));
+            assertFalse(b.isParcelled());
+            assertFalse(copy.hasReadWriteHelper());
+        } finally {
+            p.recycle();
+            copy.recycle();
+        }
+    }
+
+    @Test
+    public void testPooledStringsInsidePooledRegion() throws Exception {
+        final Bundle source = new Bundle();
+        source.putString("string", "com.example.package");
+        source.setPoolStrings(true);
+
+        final Parcel p = Parcel.obtain();
+        try {
+            final PooledStringWriter writer = new PooledStringWriter(p);
+            writer.install();
+            p.writeString("com.example.outer");
+            source.writeToParcel(p, 0);
+            // Still written through the outer pool once the bundle is done.
+            p.writeString("com.example.outer");
+            writer.finish();
+            assertFalse(p.hasReadWriteHelper());
+
+            p.setDataPosition(0);
+            final PooledStringReader reader = new PooledStringReader(p);
+            reader.install();
+            assertEquals("com.example.outer", p.readString());
+            final Bundle b = new Bundle(p);
+            assertEquals("com.example.package", b.getString("string"));
+            assertEquals("com.example.outer", p.readString());
+            reader.uninstall();
+            assertFalse(p.hasReadWriteHelper());
+        } finally {
+            p.recycle();
+        }
+    }
+
+    @Test
+    public void testLazyValues() throws Exception {
+        final ArrayList<Rect> list = new ArrayList<>();
+        list.add(new Rect(5, 6, 7, 8));
+        final Bundle source = new Bundle();
+        source.putString("string", "abc");
+        source.putParcelable("rect", new Rect(1, 2, 3, 4));
+        source.putParcelableArrayList("list", list);
+
+        final Parcel p = Parcel.obtain();
+        final Parcel copy = Parcel.obtain();
+        try {
+            source.writeToParcel(p, 0);
+            p.setDataPosition(0);
+            final Bundle b = new Bundle(p);
+            b.setClassLoader(Rect.class.getClassLoader());
+
+            // Reading a key leaves the other values parcelled, they are written back as is.
+            assertEquals("abc", b.getString("string"));
+            assertFalse(b.isParcelled());
+            b.writeToParcel(copy, 0);
+            assertEquals(0, p.compareData(copy));
+
+            assertEquals(new Rect(1, 2, 3, 4), b.getParcelable("rect"));
+            assertEquals(list, b.getParcelableArrayList("list"));
+            assertEquals(3, b.size());
+        } finally {
+            p.recycle();
+            copy.recycle();
+        }
+    }
+
+    @Test
+    public void testLazyValuesWithPooledStrings() throws Exception {
+        final Bundle source = new Bundle();
+        source.putString("string", "abc");
+        source.putParcelable("rect", new Rect(1, 2, 3, 4));
+
+        final Parcel p = Parcel.obtain();
+        final Parcel copy = Parcel.obtain();
+        try {
+            source.writeToParcel(p, 0);
+            p.setDataPosition(0);
+            final Bundle b = new Bundle(p);
+            b.setClassLoader(Rect.class.getClassLoader());
+            assertEquals("abc", b.getString("string"));
+
+            // The class name of the Rect must be written through the pooled strings.
+            b.setPoolStrings(true);
+            b.writeToParcel(copy, 0);
+            copy.setDataPosition(0);
+            final Bundle read = new Bundle(copy);
+            read.setClassLoader(Rect.class.getClassLoader());
+            assertEquals(new Rect(1, 2, 3, 4), read.getParcelable("rect"));
+            assertEquals("abc", read.getString("string"));
+        } finally {
+            p.recycle();
+            copy.recycle();
+        }
+    }
+
+    @Test
+    public void testLazyValuesEqualsAndToString() throws Exception {
+        final Bundle source = new Bundle();
+        source.putParcelable("rect", new Rect(1, 2, 3, 4));
+
+        final Parcel p = Parcel.obtain();
+        try {
+            source.writeToParcel(p, 0);
+            p.setDataPosition(0);
+            final Bundle first = new Bundle(p);
+            p.setDataPosition(0);
+            final Bundle second = new Bundle(p);
+            first.setClassLoader(Rect.class.getClassLoader());
+            second.setClassLoader(Rect.class.getClassLoader());
+            first.size();
+            second.size();
+
+            // Values still in the parcel compare and print as what they hold.
+            assertTrue(first.kindofEquals(second));
+            assertTrue(first.toString().contains(new Rect(1, 2, 3, 4).toString()));
+        } finally {
+            p.recycle();
+        }
+    }
+
+    @Test
+    public void testArrayMapValueWithBadLength() throws Exception {
+        // Too long, negative, and shorter than what the value reads.
+        for (int length : new int[] { Integer.MAX_VALUE, -8, 4 }) {
+            final ArrayMap<String, Object> map = new ArrayMap<>();
+            map.put("rect", new Rect(1, 2, 3, 4));
+            final Parcel p = Parcel.obtain();
+            try {
+                p.writeArrayMap(map);
+                p.setDataPosition(0);
+                p.readInt();
+                p.readString();
+                p.readInt();
+                // Overwrite the length written before the value.
+                p.writeInt(length);
+                p.setDataPosition(0);
+                try {
+                    p.readArrayMap(new ArrayMap(), Rect.class.getClassLoader());
+                    fail("Length " + length + " was accepted");
+                } catch (BadParcelableException expected) {
+                }
+            } finally {
+                p.recycle();
+            }
+        }
+    }
 }
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.util.AttributeSet;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+
+import com.android.frameworks.coretests.R;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AsyncLayoutInflaterTest extends AndroidTestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private HandlerThread mThread;
+    private AsyncLayoutInflater mInflater;
+
+    /** Can only be created on a thread with a looper. */
+    public static class HandlerView extends View {
+        public HandlerView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+            new Handler();
+        }
+    }
+
+    /** Only created by the factory of the inflater. */
+    public static class FactoryFrameLayout extends FrameLayout {
+        public FactoryFrameLayout(Context context, AttributeSet attrs) {
+            super(context, attrs);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("AsyncLayoutInflaterTest");
+        mThread.start();
+        mInflater = runOnThread(() -> new AsyncLayoutInflater(getContext()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quitSafely();
+        super.tearDown();
+    }
+
+    @MediumTest
+    public void testRequiresLooper() throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                new AsyncLayoutInflater(getContext());
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertTrue(error.get() instanceof IllegalStateException);
+    }
+
+    @MediumTest
+    public void testCallbackOnOwnerLooper() throws Exception {
+        final FrameLayout parent = new FrameLayout(getContext());
+        final InflateResult result = inflate(R.layout.async_inflate_simple, parent);
+
+        assertEquals(mThread.getLooper(), result.looper);
+        assertTrue(result.view instanceof FrameLayout);
+        assertTrue(result.view.getLayoutParams() instanceof FrameLayout.LayoutParams);
+        assertSame(parent, result.parent);
+        assertEquals(R.layout.async_inflate_simple, result.resid);
+        assertFalse(AsyncLayoutInflater.isMainThreadOnly(R.layout.async_inflate_simple));
+    }
+
+    @MediumTest
+    public void testFallbackForViewCreatingHandler() throws Exception {
+        final InflateResult result = inflate(R.layout.async_inflate_handler, null);
+
+        assertEquals(mThread.getLooper(), result.looper);
+        assertTrue(result.view instanceof HandlerView);
+        assertTrue(AsyncLayoutInflater.isMainThreadOnly(R.layout.async_inflate_handler));
+
+        // Not tried in the background again.
+        assertTrue(inflate(R.layout.async_inflate_handler, null).view instanceof HandlerView);
+    }
+
+    @MediumTest
+    public void testFactoryAppliedOnOwnerThread() throws Exception {
+        final Context context = new ContextThemeWrapper(getContext(), 0);
+        LayoutInflater.from(context).setFactory2(new LayoutInflater.Factory2() {
+            @Override
+            public View onCreateView(View parent, String name, Context context,
+                    AttributeSet attrs) {
+                return onCreateView(name, context, attrs);
+            }
+
+            @Override
+            public View onCreateView(String name, Context context, AttributeSet attrs) {
+                return "FrameLayout".equals(name) ? new FactoryFrameLayout(context, attrs) : null;
+            }
+        });
+        mInflater = runOnThread(() -> new AsyncLayoutInflater(context));
+
+        final InflateResult result = inflate(R.layout.async_inflate_simple, null);
+        assertEquals(mThread.getLooper(), result.looper);
+        assertTrue(result.view instanceof FactoryFrameLayout);
+        assertFalse(AsyncLayoutInflater.isMainThreadOnly(R.layout.async_inflate_simple));
+
+        // Nothing is inflated ahead of time without the factory.
+        mInflater.preInflate(R.layout.async_inflate_simple, null);
+        waitForWorkers();
+        assertEquals(0, mInflater.getPreinflatedViewCount(R.layout.async_inflate_simple));
+    }
+
+    @MediumTest
+    public void testPreInflatedViewReused() throws Exception {
+        final FrameLayout parent = new FrameLayout(getContext());
+        mInflater.preInflate(R.layout.async_inflate_simple, parent);
+        waitForWorkers();
+        assertEquals(1, mInflater.getPreinflatedViewCount(R.layout.async_inflate_simple));
+
+        final View view = mInflater.getOrInflate(R.layout.async_inflate_simple,
+                new FrameLayout(getContext()));
+        assertTrue(view.getLayoutParams() instanceof FrameLayout.LayoutParams);
+        assertEquals(0, mInflater.getPreinflatedViewCount(R.layout.async_inflate_simple));
+    }
+
+    @MediumTest
+    public void testPreInflatedViewNotReusedForOtherParentClass() throws Exception {
+        mInflater.preInflate(R.layout.async_inflate_simple, new FrameLayout(getContext()));
+        waitForWorkers();
+
+        final LinearLayout parent = new LinearLayout(getContext());
+        final InflateResult result = inflate(R.layout.async_inflate_simple, parent);
+        assertTrue(result.view.getLayoutParams() instanceof LinearLayout.LayoutParams);
+        assertSame(parent, result.parent);
+        assertEquals(1, mInflater.getPreinflatedViewCount(R.layout.async_inflate_simple));
+
+        mInflater.clearPreinflatedViews();
+        assertEquals(0, mInflater.getPreinflatedViewCount(R.layout.async_inflate_simple));
+    }
+
+    @MediumTest
+    public void testPreInflatedViewsCapped() throws Exception {
+        for (int i = 0; i < AsyncLayoutInflater.MAX_PREINFLATED_VIEWS + 2; i++) {
+            mInflater.preInflate(R.layout.async_inflate_simple, null);
+        }
+        waitForWorkers();
+        assertEquals(AsyncLayoutInflater.MAX_PREINFLATED_VIEWS,
+                mInflater.getPreinflatedViewCount(R.layout.async_inflate_simple));
+    }
+
+    private static final class InflateResult {
+        View view;
+        int resid;
+        ViewGroup parent;
+        Looper looper;
+    }
+
+    private InflateResult inflate(int resid, ViewGroup parent) throws Exception {
+        final InflateResult result = new InflateResult();
+        final CountDownLatch done = new CountDownLatch(1);
+        mInflater.inflate(resid, parent, (view, inflatedResid, inflatedParent) -> {
+            result.view = view;
+            result.resid = inflatedResid;
+            result.parent = inflatedParent;
+            result.looper = Looper.myLooper();
+            done.countDown();
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return result;
+    }
+
+    /**
+     * Waits for the tasks queued so far to finish, by blocking every worker of the pool once
+     * they are done with them.
+     */
+    private static void waitForWorkers() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(AsyncLayoutInflater.POOL_SIZE);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < AsyncLayoutInflater.POOL_SIZE; i++) {
+            AsyncLayoutInflater.getExecutor().execute(() -> {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        try {
+            assertTrue(blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private <T> T runOnThread(Callable<T> callable) throws Exception {
+        final AtomicReference<T> result = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(() -> {
+            try {
+                result.set(callable.call());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return result.get();
+    }
+}
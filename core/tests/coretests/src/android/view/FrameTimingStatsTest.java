@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+public class FrameTimingStatsTest extends AndroidTestCase {
+
+    private static final long MS = 1000000;
+    private static final long FRAME_INTERVAL = 16 * MS;
+
+    @SmallTest
+    public void testEmpty() {
+        FrameTimingStats stats = new FrameTimingStats();
+        assertEquals(-1, stats.getPercentileMillis(FrameTimingStats.PHASE_TOTAL, 50));
+        assertEquals(0, stats.getRecentMaxNanos(FrameTimingStats.PHASE_TOTAL));
+    }
+
+    @SmallTest
+    public void testPhases() {
+        FrameTimingStats stats = new FrameTimingStats();
+        // 1ms input, 2ms animation, 3ms traversal, 4ms draw.
+        stats.addFrame(createFrameInfo(0, 1 * MS, 3 * MS, 6 * MS), 10 * MS, FRAME_INTERVAL);
+
+        assertEquals(1, stats.getPercentileMillis(FrameTimingStats.PHASE_INPUT, 50));
+        assertEquals(2, stats.getPercentileMillis(FrameTimingStats.PHASE_ANIMATION, 50));
+        assertEquals(3, stats.getPercentileMillis(FrameTimingStats.PHASE_TRAVERSAL, 50));
+        assertEquals(4, stats.getPercentileMillis(FrameTimingStats.PHASE_DRAW, 50));
+        assertEquals(10, stats.getPercentileMillis(FrameTimingStats.PHASE_TOTAL, 50));
+        assertEquals(10 * MS, stats.getRecentMaxNanos(FrameTimingStats.PHASE_TOTAL));
+    }
+
+    @SmallTest
+    public void testFrameWithoutDraw() {
+        FrameTimingStats stats = new FrameTimingStats();
+        stats.addFrame(createFrameInfo(0, 1 * MS, 2 * MS, -1), 5 * MS, FRAME_INTERVAL);
+
+        assertEquals(3, stats.getPercentileMillis(FrameTimingStats.PHASE_TRAVERSAL, 50));
+        assertEquals(0, stats.getPercentileMillis(FrameTimingStats.PHASE_DRAW, 50));
+    }
+
+    @SmallTest
+    public void testPercentiles() {
+        FrameTimingStats stats = new FrameTimingStats();
+        for (int i = 1; i <= 100; i++) {
+            stats.addFrame(createFrameInfo(0, 0, 0, 0), i * MS, FRAME_INTERVAL);
+        }
+        assertEquals(50, stats.getPercentileMillis(FrameTimingStats.PHASE_TOTAL, 50));
+        assertEquals(90, stats.getPercentileMillis(FrameTimingStats.PHASE_TOTAL, 90));
+        // Everything slower than the histogram lands in the last bucket.
+        assertEquals(99, stats.getPercentileMillis(FrameTimingStats.PHASE_TOTAL, 99));
+    }
+
+    private static FrameInfo createFrameInfo(long inputStart, long animationStart,
+            long traversalStart, long drawStart) {
+        FrameInfo info = new FrameInfo();
+        info.setVsync(0, 0);
+        info.mFrameInfo[FrameInfo.HANDLE_INPUT_START] = inputStart;
+        info.mFrameInfo[FrameInfo.ANIMATION_START] = animationStart;
+        info.mFrameInfo[FrameInfo.PERFORM_TRAVERSALS_START] = traversalStart;
+        info.mFrameInfo[FrameInfo.DRAW_START] = drawStart;
+        return info;
+    }
+}
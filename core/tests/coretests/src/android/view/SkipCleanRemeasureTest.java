@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.content.Context;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.filters.MediumTest;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View.MeasureSpec;
+import android.widget.LinearLayout;
+import android.widget.RelativeLayout;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test of {@link View#setSkipCleanRemeasureEnabled}: a child of a {@link RelativeLayout} or of a
+ * weighted {@link LinearLayout} is changed between two measures of the same layout pass, and
+ * the hierarchy must end up with the same measured sizes as with the mode disabled.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class SkipCleanRemeasureTest {
+    private static final int WIDTH = 500;
+    private static final int HEIGHT = 800;
+    private static final int CHANGED_SIZE = 200;
+
+    @Rule
+    public ActivityTestRule<Activity> mActivityRule = new ActivityTestRule<>(Activity.class);
+
+    private interface Container {
+        /** Detaches the child and attaches it back with the given params, without layout. */
+        void reattach(View child, ViewGroup.LayoutParams params);
+    }
+
+    public static class TestRelativeLayout extends RelativeLayout implements Container {
+        public TestRelativeLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void reattach(View child, ViewGroup.LayoutParams params) {
+            final int index = indexOfChild(child);
+            detachViewFromParent(index);
+            attachViewToParent(child, index, params);
+        }
+    }
+
+    public static class TestLinearLayout extends LinearLayout implements Container {
+        public TestLinearLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void reattach(View child, ViewGroup.LayoutParams params) {
+            final int index = indexOfChild(child);
+            detachViewFromParent(index);
+            attachViewToParent(child, index, params);
+        }
+    }
+
+    private interface Change {
+        /** Notifies the container that the params of its first child were changed. */
+        void apply(ViewGroup container, View child);
+    }
+
+    private static final Change REQUEST_LAYOUT = (container, child) -> child.requestLayout();
+
+    private static final Change FORCE_LAYOUT = (container, child) -> child.forceLayout();
+
+    private static final Change ATTACH_VIEW_TO_PARENT = (container, child) ->
+            ((Container) container).reattach(child, child.getLayoutParams());
+
+    private static final class Result {
+        int[] sizes;
+        int measureCount;
+        int skippedMeasureCount;
+    }
+
+    @After
+    public void tearDown() {
+        View.setSkipCleanRemeasureEnabled(false);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testRelativeLayoutRequestLayout() {
+        verify(false /* weightedLinearLayout */, REQUEST_LAYOUT);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testRelativeLayoutForceLayout() {
+        verify(false /* weightedLinearLayout */, FORCE_LAYOUT);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testRelativeLayoutAttachViewToParent() {
+        verify(false /* weightedLinearLayout */, ATTACH_VIEW_TO_PARENT);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testWeightedLinearLayoutRequestLayout() {
+        verify(true /* weightedLinearLayout */, REQUEST_LAYOUT);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testWeightedLinearLayoutForceLayout() {
+        verify(true /* weightedLinearLayout */, FORCE_LAYOUT);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testWeightedLinearLayoutAttachViewToParent() {
+        verify(true /* weightedLinearLayout */, ATTACH_VIEW_TO_PARENT);
+    }
+
+    private void verify(boolean weightedLinearLayout, Change change) {
+        View.setSkipCleanRemeasureEnabled(false);
+        final Result expected = measure(weightedLinearLayout, change);
+        // The hierarchy is created again, as the mode must be set before it is first measured.
+        View.setSkipCleanRemeasureEnabled(true);
+        final Result actual = measure(weightedLinearLayout, change);
+
+        assertArrayEquals(expected.sizes, actual.sizes);
+        assertEquals(CHANGED_SIZE, actual.sizes[2]);
+        assertEquals(0, expected.skippedMeasureCount);
+        assertTrue(actual.skippedMeasureCount > 0);
+        assertTrue(actual.measureCount > 0);
+        assertTrue(actual.measureCount < expected.measureCount);
+    }
+
+    /**
+     * Measures the container, changes the size of its first child and measures it again, without
+     * laying it out in between.
+     */
+    private Result measure(boolean weightedLinearLayout, Change change) {
+        final Context context = mActivityRule.getActivity();
+        final ViewGroup container = weightedLinearLayout
+                ? createWeightedLinearLayout(context) : createRelativeLayout(context);
+        mActivityRule.getActivity().setContentView(container);
+        final View.AttachInfo attachInfo = container.mAttachInfo;
+        final int measureCount = attachInfo.mMeasureCount;
+        final int skippedMeasureCount = attachInfo.mSkippedMeasureCount;
+
+        final int widthMeasureSpec = MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.EXACTLY);
+        final int heightMeasureSpec = MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.EXACTLY);
+        container.measure(widthMeasureSpec, heightMeasureSpec);
+
+        final View child = container.getChildAt(0);
+        child.getLayoutParams().width = CHANGED_SIZE;
+        child.getLayoutParams().height = CHANGED_SIZE;
+        change.apply(container, child);
+        container.measure(widthMeasureSpec, heightMeasureSpec);
+
+        final Result result = new Result();
+        result.sizes = new int[2 + 2 * container.getChildCount()];
+        result.sizes[0] = container.getMeasuredWidth();
+        result.sizes[1] = container.getMeasuredHeight();
+        for (int i = 0; i < container.getChildCount(); i++) {
+            result.sizes[2 + 2 * i] = container.getChildAt(i).getMeasuredWidth();
+            result.sizes[3 + 2 * i] = container.getChildAt(i).getMeasuredHeight();
+        }
+        result.measureCount = attachInfo.mMeasureCount - measureCount;
+        result.skippedMeasureCount = attachInfo.mSkippedMeasureCount - skippedMeasureCount;
+        return result;
+    }
+
+    /**
+     * The second child fills the space right of the first one. The third one is measured with
+     * the same spec by both passes of the layout, so it is only measured once with the mode on.
+     */
+    private static ViewGroup createRelativeLayout(Context context) {
+        final RelativeLayout layout = new TestRelativeLayout(context);
+
+        final View first = new View(context);
+        first.setId(View.generateViewId());
+        final RelativeLayout.LayoutParams firstParams = new RelativeLayout.LayoutParams(
+                100, ViewGroup.LayoutParams.MATCH_PARENT);
+        firstParams.addRule(RelativeLayout.ALIGN_PARENT_LEFT);
+        layout.addView(first, firstParams);
+
+        final RelativeLayout.LayoutParams secondParams = new RelativeLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, 50);
+        secondParams.addRule(RelativeLayout.RIGHT_OF, first.getId());
+        layout.addView(new View(context), secondParams);
+
+        final RelativeLayout.LayoutParams thirdParams = new RelativeLayout.LayoutParams(
+                100, ViewGroup.LayoutParams.MATCH_PARENT);
+        thirdParams.addRule(RelativeLayout.ALIGN_PARENT_RIGHT);
+        layout.addView(new View(context), thirdParams);
+        return layout;
+    }
+
+    /**
+     * The two weighted children share the height left by the others. The last one is measured
+     * with the same spec by both measures, so it is only measured once with the mode on.
+     */
+    private static ViewGroup createWeightedLinearLayout(Context context) {
+        final LinearLayout layout = new TestLinearLayout(context);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(new View(context), new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, 100));
+        layout.addView(new View(context), new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, 0, 1));
+        layout.addView(new View(context), new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, 0, 2));
+        layout.addView(new View(context), new LinearLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, 100));
+        return layout;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+@SmallTest
+public class PreloadProfileTest extends TestCase {
+
+    private static PreloadProfile parse(String profile) throws IOException {
+        final PreloadProfile result = new PreloadProfile(10);
+        result.parse(new StringReader(profile));
+        return result;
+    }
+
+    public void testColdEntries() throws IOException {
+        final PreloadProfile profile = parse("# Comment\n"
+                + "processes class 20\n"
+                + "class android.view.View 20\n"
+                + "class android.widget.Rare 1\n"
+                + "processes resource 2\n"
+                + "resource android:drawable/btn_default 1\n");
+
+        assertEquals(20, profile.getClassProcessCount());
+        assertEquals(2, profile.getResourceProcessCount());
+        assertFalse(profile.isClassCold("android.view.View"));
+        assertTrue(profile.isClassCold("android.widget.Rare"));
+        // Not loaded by any profiled process.
+        assertTrue(profile.isClassCold("android.widget.Unused"));
+        assertFalse(profile.isResourceCold("android:drawable/btn_default"));
+        assertTrue(profile.isResourceCold("android:drawable/unused"));
+    }
+
+    public void testKindNotProfiled() throws IOException {
+        final PreloadProfile profile = parse("processes class 20\n"
+                + "class android.view.View 20\n");
+
+        assertFalse(profile.isResourceCold("android:drawable/btn_default"));
+    }
+
+    public void testMalformed() throws IOException {
+        try {
+            parse("processes class 20\nclass android.view.View\n");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            parse("class android.view.View 1\n");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            // The resources were not profiled in the same processes as the classes.
+            parse("processes class 20\nclass android.view.View 1\n"
+                    + "resource android:drawable/btn_default 1\n");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.os;
+
+import static android.system.OsConstants.O_CLOEXEC;
+
+import android.system.Os;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import libcore.io.IoUtils;
+
+import java.io.FileDescriptor;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests of the process pool of {@link ZygoteServer} that do not need to fork.
+ */
+@SmallTest
+public class ZygoteServerTest extends TestCase {
+
+    public void testPooledProcessesCloseAllSessions() throws Exception {
+        final FileDescriptor[] server = Os.pipe2(O_CLOEXEC);
+        final FileDescriptor[] session = Os.pipe2(O_CLOEXEC);
+        try {
+            // As in the select loop: the server socket, then one descriptor per session.
+            final ArrayList<FileDescriptor> sessionFds = new ArrayList<>();
+            sessionFds.add(server[0]);
+            sessionFds.add(session[0]);
+            sessionFds.add(session[1]);
+
+            final int[] fdsToClose = ZygoteServer.getFdsToClose(sessionFds);
+            assertTrue(Arrays.equals(new int[] {
+                    server[0].getInt$(), session[0].getInt$(), session[1].getInt$() },
+                    fdsToClose));
+        } finally {
+            IoUtils.closeQuietly(server[0]);
+            IoUtils.closeQuietly(server[1]);
+            IoUtils.closeQuietly(session[0]);
+            IoUtils.closeQuietly(session[1]);
+        }
+    }
+
+    public void testPoolSizing() {
+        final ZygoteServer server = new ZygoteServer();
+        server.setPoolSizing(3, 2);
+        // Only a zygote that enabled it keeps a pool.
+        assertEquals(0, server.getPoolSize());
+        assertEquals(0, server.getPoolRefillThreshold());
+
+        server.enableProcessPool();
+        server.setPoolSizing(3, 2);
+        assertEquals(3, server.getPoolSize());
+        assertEquals(2, server.getPoolRefillThreshold());
+
+        server.setPoolSizing(100, 100);
+        assertTrue(server.getPoolSize() > 0);
+        assertTrue(server.getPoolSize() < 100);
+        assertEquals(server.getPoolSize(), server.getPoolRefillThreshold());
+
+        server.setPoolSizing(-1, 5);
+        assertEquals(0, server.getPoolSize());
+        assertEquals(0, server.getPoolRefillThreshold());
+    }
+
+    public void testFdsToIgnoreWithEmptyPool() {
+        final ZygoteServer server = new ZygoteServer();
+        final int[] fdsToIgnore = { 3, 4 };
+        assertSame(fdsToIgnore, server.getFdsToIgnore(fdsToIgnore));
+        assertNull(server.getFdsToIgnore(null));
+    }
+}
@@ -338,17 +338,20 @@ public class SettingsProvider extends ContentProvider {
         switch (method) {
             case Settings.CALL_METHOD_GET_GLOBAL: {
                 Setting setting = getGlobalSetting(name);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return packageValueForCallResult(setting, isTrackingGeneration(args),
+                        getPrefetchedValues(args, SETTINGS_TYPE_GLOBAL, requestingUserId));
             }
 
             case Settings.CALL_METHOD_GET_SECURE: {
                 Setting setting = getSecureSetting(name, requestingUserId);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return packageValueForCallResult(setting, isTrackingGeneration(args),
+                        getPrefetchedValues(args, SETTINGS_TYPE_SECURE, requestingUserId));
             }
 
             case Settings.CALL_METHOD_GET_SYSTEM: {
                 Setting setting = getSystemSetting(name, requestingUserId);
-                return packageValueForCallResult(setting, isTrackingGeneration(args));
+                return packageValueForCallResult(setting, isTrackingGeneration(args),
+                        getPrefetchedValues(args, SETTINGS_TYPE_SYSTEM, requestingUserId));
             }
 
             case Settings.CALL_METHOD_PUT_GLOBAL: {
@@ -1885,8 +1888,8 @@ public class SettingsProvider extends ContentProvider {
     }
 
     private Bundle packageValueForCallResult(Setting setting,
-            boolean trackingGeneration) {
-        if (!trackingGeneration) {
+            boolean trackingGeneration, Bundle prefetchedValues) {
+        if (!trackingGeneration && prefetchedValues == null) {
             if (setting == null || setting.isNull()) {
                 return NULL_SETTING_BUNDLE;
             }
@@ -1894,12 +1897,53 @@ public class SettingsProvider extends ContentProvider {
         }
         Bundle result = new Bundle();
         result.putString(Settings.NameValueTable.VALUE,
-                !setting.isNull() ? setting.getValue() : null);
-
-        mSettingsRegistry.mGenerationRegistry.addGenerationData(result, setting.getKey());
+                (setting != null && !setting.isNull()) ? setting.getValue() : null);
+        if (prefetchedValues != null) {
+            result.putBundle(Settings.CALL_METHOD_PREFETCH_VALUES_KEY, prefetchedValues);
+        }
+        if (trackingGeneration) {
+            mSettingsRegistry.mGenerationRegistry.addGenerationData(result, setting.getKey());
+        }
         return result;
     }
 
+    private Bundle getPrefetchedValues(Bundle args, int type, int requestingUserId) {
+        final String[] names = (args != null)
+                ? args.getStringArray(Settings.CALL_METHOD_PREFETCH_KEY) : null;
+        if (names == null) {
+            return null;
+        }
+        Bundle values = new Bundle();
+        for (String name : names) {
+            final Setting setting;
+            try {
+                switch (type) {
+                    case SETTINGS_TYPE_GLOBAL: {
+                        setting = getGlobalSetting(name);
+                    } break;
+
+                    case SETTINGS_TYPE_SECURE: {
+                        setting = getSecureSetting(name, requestingUserId);
+                    } break;
+
+                    case SETTINGS_TYPE_SYSTEM: {
+                        setting = getSystemSetting(name, requestingUserId);
+                    } break;
+
+                    default: {
+                        throw new IllegalArgumentException("Invalid settings type: " + type);
+                    }
+                }
+            } catch (SecurityException e) {
+                // Not readable by the caller, leave it to be fetched on demand.
+                continue;
+            }
+            values.putString(name, (setting != null && !setting.isNull())
+                    ? setting.getValue() : null);
+        }
+        return values;
+    }
+
     private static int getRequestingUserId(Bundle args) {
         final int callingUserId = UserHandle.getCallingUserId();
         return (args != null) ? args.getInt(Settings.CALL_METHOD_USER_KEY, callingUserId)
@@ -27,6 +27,7 @@ import android.content.pm.PackageManagerInternal;
 import android.content.pm.Signature;
 import android.os.Binder;
 import android.os.Build;
+import android.os.FileUtils;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -37,6 +38,7 @@ import android.providers.settings.GlobalSettingsProto;
 import android.providers.settings.SettingsOperationProto;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.AtomicFile;
 import android.util.Base64;
 import android.util.Slog;
@@ -55,6 +57,13 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -65,12 +74,20 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.CRC32;
 
 /**
  * This class contains the state for one type of settings. It is responsible
  * for saving the state asynchronously to an XML file after a mutation and
  * loading the from an XML file on construction.
  * <p>
+ * To avoid re-serializing the whole table when only a few settings changed,
+ * mutations since the last full write are appended to a binary journal next
+ * to the XML file. The journal is folded into the XML file by a full write
+ * once it grows large relative to the table, and is replayed on top of the
+ * XML file on load.
+ * </p>
+ * <p>
  * This class uses the same lock as the settings provider to ensure that
  * multiple changes made by the settings provider, e,g, upgrade, bulk insert,
  * etc, are atomically persisted since the asynchronous persistence is using
@@ -90,6 +107,15 @@ final class SettingsState {
     private static final long WRITE_SETTINGS_DELAY_MILLIS = 200;
     private static final long MAX_WRITE_SETTINGS_DELAY_MILLIS = 2000;
 
+    private static final String JOURNAL_FILE_SUFFIX = ".journal";
+
+    private static final int JOURNAL_OP_UPDATE = 1;
+    private static final int JOURNAL_OP_DELETE = 2;
+
+    // The journal is compacted into the state file once it holds more records
+    // than this or than half the number of settings, whichever is larger.
+    private static final int MIN_JOURNAL_RECORDS_BEFORE_COMPACTION = 64;
+
     public static final int MAX_BYTES_PER_APP_PACKAGE_UNLIMITED = -1;
     public static final int MAX_BYTES_PER_APP_PACKAGE_LIMITED = 20000;
 
@@ -127,6 +153,7 @@ final class SettingsState {
     private static final String HISTORICAL_OPERATION_UPDATE = "update";
     private static final String HISTORICAL_OPERATION_DELETE = "delete";
     private static final String HISTORICAL_OPERATION_PERSIST = "persist";
+    private static final String HISTORICAL_OPERATION_PERSIST_JOURNAL = "persist_journal";
     private static final String HISTORICAL_OPERATION_INITIALIZE = "initialize";
     private static final String HISTORICAL_OPERATION_RESET = "reset";
 
@@ -164,6 +191,20 @@ final class SettingsState {
     @GuardedBy("mLock")
     private final File mStatePersistFile;
 
+    @GuardedBy("mLock")
+    private final File mJournalFile;
+
+    // Names of the settings changed since the last write.
+    @GuardedBy("mLock")
+    private final ArraySet<String> mChangedSettings = new ArraySet<>();
+
+    // Whether the next write must rewrite the whole state file.
+    @GuardedBy("mLock")
+    private boolean mFullWriteNeeded;
+
+    @GuardedBy("mLock")
+    private int mJournalRecordCount;
+
     private final Setting mNullSetting = new Setting(null, null, false, null, null) {
         @Override
         public boolean isNull() {
@@ -203,6 +244,7 @@ final class SettingsState {
         mContext = context;
         mLock = lock;
         mStatePersistFile = file;
+        mJournalFile = new File(file.getPath() + JOURNAL_FILE_SUFFIX);
         mKey = key;
         mHandler = new MyHandler(looper);
         if (maxBytesPerAppPackage == MAX_BYTES_PER_APP_PACKAGE_LIMITED) {
@@ -236,6 +278,7 @@ final class SettingsState {
             return;
         }
         mVersion = version;
+        mFullWriteNeeded = true;
 
         scheduleWriteIfNeededLocked();
     }
@@ -255,6 +298,7 @@ final class SettingsState {
             Setting setting = mSettings.valueAt(i);
             if (packageName.equals(setting.packageName)) {
                 mSettings.removeAt(i);
+                mChangedSettings.add(name);
                 removedSomething = true;
             }
         }
@@ -309,6 +353,7 @@ final class SettingsState {
             mSettings.put(name, newSetting);
             updateMemoryUsagePerPackageLocked(newSetting.getPackageName(), oldValue,
                     newSetting.getValue(), oldDefaultValue, newSetting.getDefaultValue());
+            mChangedSettings.add(name);
             scheduleWriteIfNeededLocked();
         }
     }
@@ -340,6 +385,7 @@ final class SettingsState {
         updateMemoryUsagePerPackageLocked(packageName, oldValue, value,
                 oldDefaultValue, newState.getDefaultValue());
 
+        mChangedSettings.add(name);
         scheduleWriteIfNeededLocked();
 
         return true;
@@ -364,6 +410,7 @@ final class SettingsState {
 
         addHistoricalOperationLocked(HISTORICAL_OPERATION_DELETE, oldState);
 
+        mChangedSettings.add(name);
         scheduleWriteIfNeededLocked();
 
         return true;
@@ -393,6 +440,7 @@ final class SettingsState {
 
         addHistoricalOperationLocked(HISTORICAL_OPERATION_RESET, oldSetting);
 
+        mChangedSettings.add(name);
         scheduleWriteIfNeededLocked();
 
         return true;
@@ -570,72 +618,309 @@ final class SettingsState {
 
     private void doWriteState() {
         boolean wroteState = false;
+        boolean wroteJournal = false;
+        boolean journalFailed = false;
+        boolean writeFailed = false;
         final int version;
-        final ArrayMap<String, Setting> settings;
+        // Either the records of the changed settings, or all the settings for a full write.
+        ArrayList<JournalRecord> records = null;
+        ArrayMap<String, Setting> settings = null;
 
+        // Never take mLock while holding mWriteLock, persistSyncLocked() takes them the other way.
         synchronized (mLock) {
             version = mVersion;
-            settings = new ArrayMap<>(mSettings);
+            if (!mFullWriteNeeded) {
+                records = getJournalRecordsLocked();
+                if (records != null && mJournalRecordCount + records.size() > Math.max(
+                        MIN_JOURNAL_RECORDS_BEFORE_COMPACTION, mSettings.size() / 2)) {
+                    // Too many records since the last full write, compact them.
+                    records = null;
+                }
+            }
+            if (records == null) {
+                settings = new ArrayMap<>(mSettings);
+            }
+            mChangedSettings.clear();
+            mFullWriteNeeded = false;
             mDirty = false;
             mWriteScheduled = false;
         }
 
+        if (records != null && records.isEmpty()) {
+            return;
+        }
+
         synchronized (mWriteLock) {
-            if (DEBUG_PERSISTENCE) {
-                Slog.i(LOG_TAG, "[PERSIST START]");
-            }
+            if (records != null) {
+                final long startTimeMillis = SystemClock.uptimeMillis();
+                try {
+                    appendJournalRecords(records);
+                    wroteJournal = true;
+                    if (DEBUG_PERSISTENCE) {
+                        Slog.i(LOG_TAG, "[PERSISTED JOURNAL] " + records.size() + " records in "
+                                + (SystemClock.uptimeMillis() - startTimeMillis) + " ms");
+                    }
+                } catch (IOException e) {
+                    Slog.w(LOG_TAG, "Failed to append to settings journal, writing all", e);
+                    journalFailed = true;
+                }
+            } else {
+                if (DEBUG_PERSISTENCE) {
+                    Slog.i(LOG_TAG, "[PERSIST START]");
+                }
 
-            AtomicFile destination = new AtomicFile(mStatePersistFile);
-            FileOutputStream out = null;
-            try {
-                out = destination.startWrite();
+                AtomicFile destination = new AtomicFile(mStatePersistFile);
+                FileOutputStream out = null;
+                try {
+                    out = destination.startWrite();
+
+                    XmlSerializer serializer = Xml.newSerializer();
+                    serializer.setOutput(out, StandardCharsets.UTF_8.name());
+                    serializer.setFeature(
+                            "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+                    serializer.startDocument(null, true);
+                    serializer.startTag(null, TAG_SETTINGS);
+                    serializer.attribute(null, ATTR_VERSION, String.valueOf(version));
+
+                    final int settingCount = settings.size();
+                    for (int i = 0; i < settingCount; i++) {
+                        Setting setting = settings.valueAt(i);
+
+                        writeSingleSetting(mVersion, serializer, setting.getId(),
+                                setting.getName(), setting.getValue(), setting.getDefaultValue(),
+                                setting.getPackageName(), setting.getTag(),
+                                setting.isDefaultFromSystem());
+
+                        if (DEBUG_PERSISTENCE) {
+                            Slog.i(LOG_TAG, "[PERSISTED]" + setting.getName() + "="
+                                    + setting.getValue());
+                        }
+                    }
 
-                XmlSerializer serializer = Xml.newSerializer();
-                serializer.setOutput(out, StandardCharsets.UTF_8.name());
-                serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output",
-                        true);
-                serializer.startDocument(null, true);
-                serializer.startTag(null, TAG_SETTINGS);
-                serializer.attribute(null, ATTR_VERSION, String.valueOf(version));
+                    serializer.endTag(null, TAG_SETTINGS);
+                    serializer.endDocument();
+                    destination.finishWrite(out);
 
-                final int settingCount = settings.size();
-                for (int i = 0; i < settingCount; i++) {
-                    Setting setting = settings.valueAt(i);
+                    // The state file now has everything in the journal. If we die before
+                    // deleting it the records are replayed in order on load, and the ones
+                    // older than the state file are skipped by comparing setting ids.
+                    mJournalFile.delete();
 
-                    writeSingleSetting(mVersion, serializer, setting.getId(), setting.getName(),
-                            setting.getValue(), setting.getDefaultValue(), setting.getPackageName(),
-                            setting.getTag(), setting.isDefaultFromSystem());
+                    wroteState = true;
 
                     if (DEBUG_PERSISTENCE) {
-                        Slog.i(LOG_TAG, "[PERSISTED]" + setting.getName() + "="
-                                + setting.getValue());
+                        Slog.i(LOG_TAG, "[PERSIST END]");
                     }
+                } catch (Throwable t) {
+                    Slog.wtf(LOG_TAG, "Failed to write settings, restoring backup", t);
+                    destination.failWrite(out);
+                    writeFailed = true;
+                } finally {
+                    IoUtils.closeQuietly(out);
                 }
+            }
+        }
 
-                serializer.endTag(null, TAG_SETTINGS);
-                serializer.endDocument();
-                destination.finishWrite(out);
+        synchronized (mLock) {
+            if (writeFailed || journalFailed) {
+                mFullWriteNeeded = true;
+            }
+            if (wroteState) {
+                mJournalRecordCount = 0;
+                addHistoricalOperationLocked(HISTORICAL_OPERATION_PERSIST, null);
+            } else if (wroteJournal) {
+                mJournalRecordCount += records.size();
+                addHistoricalOperationLocked(HISTORICAL_OPERATION_PERSIST_JOURNAL, null);
+            }
+        }
 
-                wroteState = true;
+        if (journalFailed) {
+            // The changes are only in memory now, write them all right away.
+            doWriteState();
+        }
+    }
+
+    /**
+     * @return the journal records for the settings changed since the last write, or
+     * null if they cannot be journaled.
+     */
+    private ArrayList<JournalRecord> getJournalRecordsLocked() {
+        final int changedCount = mChangedSettings.size();
+        final ArrayList<JournalRecord> records = new ArrayList<>(changedCount);
+        for (int i = 0; i < changedCount; i++) {
+            final String name = mChangedSettings.valueAt(i);
+            final Setting setting = mSettings.get(name);
+            if (setting != null) {
+                if (setting.getId() == null || setting.getPackageName() == null) {
+                    // Would be dropped by a full write too, so let it decide.
+                    return null;
+                }
+                records.add(new JournalRecord(JOURNAL_OP_UPDATE, new Setting(setting)));
+            } else {
+                // Deletes take a fresh id so they are ordered against later updates.
+                records.add(new JournalRecord(JOURNAL_OP_DELETE, new Setting(name, null, null,
+                        SYSTEM_PACKAGE_NAME, null, false, String.valueOf(mNextId++))));
+            }
+        }
+        return records;
+    }
+
+    private void appendJournalRecords(List<JournalRecord> records) throws IOException {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mJournalFile, true);
+            final DataOutputStream journal = new DataOutputStream(
+                    new BufferedOutputStream(out));
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final DataOutputStream record = new DataOutputStream(buffer);
+            final CRC32 crc = new CRC32();
+
+            final int recordCount = records.size();
+            for (int i = 0; i < recordCount; i++) {
+                final JournalRecord journalRecord = records.get(i);
+                final Setting setting = journalRecord.mSetting;
+                buffer.reset();
+                record.writeByte(journalRecord.mOperation);
+                writeJournalString(record, setting.getId());
+                writeJournalString(record, setting.getName());
+                if (journalRecord.mOperation == JOURNAL_OP_UPDATE) {
+                    writeJournalString(record, setting.getValue());
+                    writeJournalString(record, setting.getDefaultValue());
+                    writeJournalString(record, setting.getPackageName());
+                    writeJournalString(record, setting.getTag());
+                    record.writeBoolean(setting.isDefaultFromSystem());
+                }
+                record.flush();
+
+                final byte[] payload = buffer.toByteArray();
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                journal.writeInt(payload.length);
+                journal.write(payload);
+                journal.writeLong(crc.getValue());
 
                 if (DEBUG_PERSISTENCE) {
-                    Slog.i(LOG_TAG, "[PERSIST END]");
+                    Slog.i(LOG_TAG, "[JOURNALED]" + setting.getName() + "="
+                            + setting.getValue());
                 }
-            } catch (Throwable t) {
-                Slog.wtf(LOG_TAG, "Failed to write settings, restoring backup", t);
-                destination.failWrite(out);
-            } finally {
-                IoUtils.closeQuietly(out);
             }
+            journal.flush();
+            FileUtils.sync(out);
+        } finally {
+            IoUtils.closeQuietly(out);
         }
+    }
 
-        if (wroteState) {
-            synchronized (mLock) {
-                addHistoricalOperationLocked(HISTORICAL_OPERATION_PERSIST, null);
+    private void readJournalLocked() {
+        if (!mJournalFile.exists()) {
+            return;
+        }
+        // Fold the journal, including any record torn by a crash, into the state file.
+        mFullWriteNeeded = true;
+
+        final long journalLength = mJournalFile.length();
+        final CRC32 crc = new CRC32();
+        int recordCount = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournalFile)));
+            while (true) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > journalLength) {
+                    Slog.w(LOG_TAG, "Invalid record in settings journal " + mJournalFile);
+                    break;
+                }
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                final long checksum = in.readLong();
+                crc.reset();
+                crc.update(payload, 0, length);
+                if (crc.getValue() != checksum) {
+                    Slog.w(LOG_TAG, "Corrupt record in settings journal " + mJournalFile);
+                    break;
+                }
+                applyJournalRecordLocked(new DataInputStream(new ByteArrayInputStream(payload)));
+                recordCount++;
             }
+        } catch (EOFException e) {
+            Slog.w(LOG_TAG, "Truncated record in settings journal " + mJournalFile);
+        } catch (IOException | NumberFormatException e) {
+            Slog.w(LOG_TAG, "Failed reading settings journal " + mJournalFile, e);
+        } finally {
+            IoUtils.closeQuietly(in);
+        }
+
+        if (DEBUG_PERSISTENCE) {
+            Slog.i(LOG_TAG, "[RESTORED JOURNAL] " + recordCount + " records");
         }
     }
 
+    private void applyJournalRecordLocked(DataInputStream in) throws IOException {
+        final int operation = in.readByte();
+        final String id = readJournalString(in);
+        final String name = readJournalString(in);
+
+        final long recordId = Long.parseLong(id);
+        mNextId = Math.max(mNextId, recordId + 1);
+
+        final Setting current = mSettings.get(name);
+        if (current != null && Long.parseLong(current.getId()) > recordId) {
+            // The state file was written after this record.
+            return;
+        }
+
+        switch (operation) {
+            case JOURNAL_OP_UPDATE: {
+                final String value = readJournalString(in);
+                final String defaultValue = readJournalString(in);
+                final String packageName = readJournalString(in);
+                final String tag = readJournalString(in);
+                final boolean fromSystem = in.readBoolean();
+                mSettings.put(name, new Setting(name, value, defaultValue, packageName, tag,
+                        fromSystem, id));
+            } break;
+
+            case JOURNAL_OP_DELETE: {
+                mSettings.remove(name);
+            } break;
+
+            default: {
+                throw new IOException("Unknown journal operation: " + operation);
+            }
+        }
+
+        if (DEBUG_PERSISTENCE) {
+            Slog.i(LOG_TAG, "[REPLAYED] " + name);
+        }
+    }
+
+    // Strings are stored as raw UTF-16 to preserve them as-is, see toBytes().
+    private static void writeJournalString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    private static String readJournalString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
     static void writeSingleSetting(int version, XmlSerializer serializer, String id,
             String name, String value, String defaultValue, String packageName,
             String tag, boolean defaultSysSet) throws IOException {
@@ -710,6 +995,9 @@ final class SettingsState {
         } catch (FileNotFoundException fnfe) {
             Slog.i(LOG_TAG, "No settings state " + mStatePersistFile);
             addHistoricalOperationLocked(HISTORICAL_OPERATION_INITIALIZE, null);
+            // The journal only makes sense on top of a state file.
+            mJournalFile.delete();
+            mFullWriteNeeded = true;
             return;
         }
         try {
@@ -723,6 +1011,7 @@ final class SettingsState {
         } finally {
             IoUtils.closeQuietly(in);
         }
+        readJournalLocked();
     }
 
     /**
@@ -812,6 +1101,16 @@ final class SettingsState {
         }
     }
 
+    private static final class JournalRecord {
+        final int mOperation;
+        final Setting mSetting;
+
+        JournalRecord(int operation, Setting setting) {
+            mOperation = operation;
+            mSetting = setting;
+        }
+    }
+
     private class HistoricalOperation {
         final long mTimestamp;
         final String mOperation;
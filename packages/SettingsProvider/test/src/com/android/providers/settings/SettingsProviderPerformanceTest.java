@@ -19,8 +19,11 @@ package com.android.providers.settings;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 
+import android.content.ContentResolver;
 import android.os.SystemClock;
 import android.os.UserHandle;
+import android.provider.Settings;
+import android.support.test.InstrumentationRegistry;
 import android.util.Log;
 import org.junit.Test;
 
@@ -124,4 +127,63 @@ public class SettingsProviderPerformanceTest extends BaseSettingsProviderTest {
         assertTrue("Setting and getting a settings takes too long.", averageTimePerIterationMillis
                 < MAX_AVERAGE_SET_AND_GET_SETTING_DURATION_MILLIS);
     }
+
+    @Test
+    public void testColdGetPerformanceForGlobalWithPrefetch() throws Exception {
+        final ContentResolver resolver = InstrumentationRegistry.getContext()
+                .getContentResolver();
+        final String[] names = {FAKE_SETTING_NAME, FAKE_SETTING_NAME_1, FAKE_SETTING_NAME_2};
+        final String[] values = {FAKE_SETTING_VALUE, FAKE_SETTING_VALUE_1, FAKE_SETTING_VALUE_2};
+        for (int i = 0; i < names.length; i++) {
+            insertStringViaProviderApi(SETTING_TYPE_GLOBAL, names[i], values[i], false);
+        }
+
+        try {
+            // One provider call per setting. Clearing the provider also drops the local cache
+            // and generation tracker, so every iteration starts cold.
+            final int startCallsIndividual = Settings.Global.getProviderReadCountForTest();
+            final long startTimeIndividualMicro = SystemClock.currentTimeMicro();
+            for (int i = 0; i < ITERATION_COUNT; i++) {
+                Settings.Global.clearProviderForTest();
+                for (int j = 0; j < names.length; j++) {
+                    assertEquals(values[j], Settings.Global.getString(resolver, names[j]));
+                }
+            }
+            final long elapsedIndividualMicro = SystemClock.currentTimeMicro()
+                    - startTimeIndividualMicro;
+            final int callsIndividual = Settings.Global.getProviderReadCountForTest()
+                    - startCallsIndividual;
+
+            // A single provider call for all settings.
+            final int startCallsPrefetch = Settings.Global.getProviderReadCountForTest();
+            final long startTimePrefetchMicro = SystemClock.currentTimeMicro();
+            for (int i = 0; i < ITERATION_COUNT; i++) {
+                Settings.Global.clearProviderForTest();
+                Settings.Global.prefetchStrings(resolver, names);
+                for (int j = 0; j < names.length; j++) {
+                    assertEquals(values[j], Settings.Global.getString(resolver, names[j]));
+                }
+            }
+            final long elapsedPrefetchMicro = SystemClock.currentTimeMicro()
+                    - startTimePrefetchMicro;
+            final int callsPrefetch = Settings.Global.getProviderReadCountForTest()
+                    - startCallsPrefetch;
+
+            Log.i(LOG_TAG, "Average time to cold get " + names.length + " settings: "
+                    + (elapsedIndividualMicro / ITERATION_COUNT) + " us in "
+                    + ((float) callsIndividual / ITERATION_COUNT) + " provider calls "
+                    + "individually, " + (elapsedPrefetchMicro / ITERATION_COUNT) + " us in "
+                    + ((float) callsPrefetch / ITERATION_COUNT) + " provider calls with prefetch");
+
+            // Other threads of the process may read global settings too, so only bound these.
+            assertTrue("Cold gets were served from the cache",
+                    callsIndividual >= names.length * ITERATION_COUNT);
+            assertTrue("Prefetch didn't save provider calls", callsPrefetch < callsIndividual);
+        } finally {
+            // Clean up.
+            for (String name : names) {
+                deleteStringViaProviderApi(SETTING_TYPE_GLOBAL, name);
+            }
+        }
+    }
 }
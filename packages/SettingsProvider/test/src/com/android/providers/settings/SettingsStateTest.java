@@ -16,7 +16,9 @@
 package com.android.providers.settings;
 
 import android.os.Looper;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
+import android.util.Log;
 import android.util.Xml;
 
 import org.xmlpull.v1.XmlSerializer;
@@ -26,8 +28,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 public class SettingsStateTest extends AndroidTestCase {
+    private static final String LOG_TAG = "SettingsStateTest";
+
     public static final String CRAZY_STRING =
             "\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007\u0008\u0009\n\u000b\u000c\r" +
             "\u000e\u000f\u0010\u0011\u0012\u0013\u0014\u0015\u0016\u0017\u0018\u0019\u001a" +
@@ -182,4 +187,133 @@ public class SettingsStateTest extends AndroidTestCase {
             assertEquals("p2", s.getPackageName());
         }
     }
+
+    /**
+     * Make sure changes appended to the journal are replayed on top of the state file.
+     */
+    public void testJournalReplay() {
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        final File journal = new File(file.getPath() + ".journal");
+        file.delete();
+        journal.delete();
+        final Object lock = new Object();
+
+        final SettingsState ssWriter = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        synchronized (lock) {
+            ssWriter.setVersionLocked(SettingsState.SETTINGS_VERSION_NEW_ENCODING);
+            ssWriter.insertSettingLocked("k1", "v1", null, false, "p1");
+            ssWriter.insertSettingLocked("k2", "v2", null, false, "p2");
+            ssWriter.persistSyncLocked();
+        }
+        assertFalse(journal.exists());
+
+        synchronized (lock) {
+            ssWriter.deleteSettingLocked("k1");
+            ssWriter.insertSettingLocked("k2", CRAZY_STRING, null, false, "p2");
+            ssWriter.insertSettingLocked("k3", null, null, false, "p3");
+            ssWriter.persistSyncLocked();
+        }
+        assertTrue(journal.exists());
+
+        final SettingsState ssReader = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        synchronized (lock) {
+            assertTrue(ssReader.getSettingLocked("k1").isNull());
+            assertEquals(CRAZY_STRING, ssReader.getSettingLocked("k2").getValue());
+            assertFalse(ssReader.getSettingLocked("k3").isNull());
+            assertEquals(null, ssReader.getSettingLocked("k3").getValue());
+
+            // Loading a journal compacts it on the next write.
+            ssReader.insertSettingLocked("k4", "v4", null, false, "p4");
+            ssReader.persistSyncLocked();
+        }
+        assertFalse(journal.exists());
+    }
+
+    /**
+     * Make sure a delete left in the journal by a crash right after a full write does not remove
+     * a setting inserted again since.
+     */
+    public void testJournalDeleteBeforeFullWrite() throws Exception {
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        final File journal = new File(file.getPath() + ".journal");
+        file.delete();
+        journal.delete();
+        final Object lock = new Object();
+
+        final SettingsState ssWriter = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        final byte[] deleteJournal;
+        synchronized (lock) {
+            ssWriter.setVersionLocked(SettingsState.SETTINGS_VERSION_NEW_ENCODING);
+            ssWriter.insertSettingLocked("k1", "v1", null, false, "p1");
+            ssWriter.persistSyncLocked();
+            ssWriter.deleteSettingLocked("k1");
+            ssWriter.persistSyncLocked();
+            deleteJournal = Files.readAllBytes(journal.toPath());
+
+            ssWriter.insertSettingLocked("k1", "v2", null, false, "p1");
+            ssWriter.persistSyncLocked();
+        }
+
+        // Loading a journal compacts it on the next write.
+        final SettingsState ssCompacter = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        synchronized (lock) {
+            ssCompacter.insertSettingLocked("k2", "v2", null, false, "p2");
+            ssCompacter.persistSyncLocked();
+        }
+        assertFalse(journal.exists());
+        // As if the process died before deleting the journal.
+        Files.write(journal.toPath(), deleteJournal);
+
+        final SettingsState ssReader = new SettingsState(getContext(), lock, file, 1,
+                SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+        synchronized (lock) {
+            assertEquals("v2", ssReader.getSettingLocked("k1").getValue());
+        }
+    }
+
+    /**
+     * Compare the time to persist a single changed setting against writing the whole table.
+     */
+    public void testWriteLatencyByTableSize() {
+        final File file = new File(getContext().getCacheDir(), "setting.xml");
+        final Object lock = new Object();
+        final int iterations = 20;
+
+        for (int tableSize : new int[] {100, 1000, 5000}) {
+            file.delete();
+            new File(file.getPath() + ".journal").delete();
+            final SettingsState ss = new SettingsState(getContext(), lock, file, 1,
+                    SettingsState.MAX_BYTES_PER_APP_PACKAGE_UNLIMITED, Looper.getMainLooper());
+            synchronized (lock) {
+                ss.setVersionLocked(SettingsState.SETTINGS_VERSION_NEW_ENCODING);
+                for (int i = 0; i < tableSize; i++) {
+                    ss.insertSettingLocked("key" + i, "value" + i, null, false, "package");
+                }
+
+                final long startFullMillis = SystemClock.elapsedRealtime();
+                for (int i = 0; i < iterations; i++) {
+                    ss.insertSettingLocked("key0", "full" + i, null, false, "package");
+                    // A version change forces the whole table to be written.
+                    ss.setVersionLocked(SettingsState.SETTINGS_VERSION_NEW_ENCODING + 1 + i);
+                    ss.persistSyncLocked();
+                }
+                final long fullMillis = SystemClock.elapsedRealtime() - startFullMillis;
+
+                final long startJournalMillis = SystemClock.elapsedRealtime();
+                for (int i = 0; i < iterations; i++) {
+                    ss.insertSettingLocked("key0", "journal" + i, null, false, "package");
+                    ss.persistSyncLocked();
+                }
+                final long journalMillis = SystemClock.elapsedRealtime() - startJournalMillis;
+
+                Log.i(LOG_TAG, "Average time to persist one change in a table of " + tableSize
+                        + " settings: " + (fullMillis / iterations) + " ms full, "
+                        + (journalMillis / iterations) + " ms journaled");
+            }
+        }
+    }
 }
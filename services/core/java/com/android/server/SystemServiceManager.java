@@ -20,12 +20,17 @@ import android.annotation.NonNull;
 import android.content.Context;
 import android.os.SystemClock;
 import android.os.Trace;
+import android.util.ArrayMap;
 import android.util.Slog;
+import android.util.TimingsTraceLog;
+
+import com.android.internal.annotations.GuardedBy;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Manages creating, starting, and other lifecycle events of
@@ -36,6 +41,7 @@ import java.util.ArrayList;
 public class SystemServiceManager {
     private static final String TAG = "SystemServiceManager";
     private static final int SERVICE_CALL_WARN_TIME_MS = 50;
+    private static final String ASYNC_START_TIMING_TAG = "SystemServerTimingAsync";
 
     private final Context mContext;
     private boolean mSafeMode;
@@ -46,6 +52,17 @@ public class SystemServiceManager {
 
     private int mCurrentPhase = -1;
 
+    // Services started with startServiceAsync() since the last boot phase, in the order they
+    // were requested. Only accessed from the thread that starts services.
+    private final ArrayList<AsyncStart> mAsyncStarts = new ArrayList<>();
+
+    // Async starts by service class, to resolve dependencies.
+    private final ArrayMap<Class<?>, AsyncStart> mAsyncStartsByClass = new ArrayMap<>();
+
+    // Guards the scheduling state of the async starts, which is also updated from the init
+    // thread pool as starts complete.
+    private final Object mAsyncStartLock = new Object();
+
     SystemServiceManager(Context context) {
         mContext = context;
     }
@@ -79,38 +96,13 @@ public class SystemServiceManager {
      * @return The service instance, never null.
      * @throws RuntimeException if the service fails to start.
      */
-    @SuppressWarnings("unchecked")
     public <T extends SystemService> T startService(Class<T> serviceClass) {
         try {
             final String name = serviceClass.getName();
             Slog.i(TAG, "Starting " + name);
             Trace.traceBegin(Trace.TRACE_TAG_SYSTEM_SERVER, "StartService " + name);
 
-            // Create the service.
-            if (!SystemService.class.isAssignableFrom(serviceClass)) {
-                throw new RuntimeException("Failed to create " + name
-                        + ": service must extend " + SystemService.class.getName());
-            }
-            final T service;
-            try {
-                MethodType constructorType = MethodType.methodType(void.class, Context.class);
-                MethodHandle constructor =
-                        MethodHandles.lookup().findConstructor(serviceClass, constructorType);
-                service = (T) constructor.invoke(mContext);
-            } catch (InstantiationException ex) {
-                throw new RuntimeException("Failed to create service " + name
-                        + ": service could not be instantiated", ex);
-            } catch (IllegalAccessException ex) {
-                throw new RuntimeException("Failed to create service " + name
-                        + ": service must have a public constructor with a Context argument", ex);
-            } catch (NoSuchMethodException ex) {
-                throw new RuntimeException("Failed to create service " + name
-                        + ": service must have a public constructor with a Context argument", ex);
-            } catch (Throwable ex) {
-                throw new RuntimeException("Failed to create service " + name
-                        + ": service constructor threw an exception", ex);
-            }
-
+            final T service = createService(serviceClass);
             startService(service);
             return service;
         } finally {
@@ -118,10 +110,43 @@ public class SystemServiceManager {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private <T extends SystemService> T createService(Class<T> serviceClass) {
+        final String name = serviceClass.getName();
+        if (!SystemService.class.isAssignableFrom(serviceClass)) {
+            throw new RuntimeException("Failed to create " + name
+                    + ": service must extend " + SystemService.class.getName());
+        }
+        final T service;
+        try {
+            MethodType constructorType = MethodType.methodType(void.class, Context.class);
+            MethodHandle constructor =
+                    MethodHandles.lookup().findConstructor(serviceClass, constructorType);
+            service = (T) constructor.invoke(mContext);
+        } catch (InstantiationException ex) {
+            throw new RuntimeException("Failed to create service " + name
+                    + ": service could not be instantiated", ex);
+        } catch (IllegalAccessException ex) {
+            throw new RuntimeException("Failed to create service " + name
+                    + ": service must have a public constructor with a Context argument", ex);
+        } catch (NoSuchMethodException ex) {
+            throw new RuntimeException("Failed to create service " + name
+                    + ": service must have a public constructor with a Context argument", ex);
+        } catch (Throwable ex) {
+            throw new RuntimeException("Failed to create service " + name
+                    + ": service constructor threw an exception", ex);
+        }
+        return service;
+    }
+
     public void startService(@NonNull final SystemService service) {
         // Register it.
         mServices.add(service);
         // Start it.
+        callOnStart(service);
+    }
+
+    private void callOnStart(@NonNull final SystemService service) {
         long time = SystemClock.elapsedRealtime();
         try {
             service.onStart();
@@ -132,6 +157,189 @@ public class SystemServiceManager {
         warnIfTooLong(SystemClock.elapsedRealtime() - time, service, "onStart");
     }
 
+    /**
+     * Creates and starts a system service on the {@link SystemServerInitThreadPool}, once all
+     * of its dependencies have been started.
+     *
+     * <p>The service receives lifecycle events in the same order as if it had been started
+     * with {@link #startService(Class)} at this point. All pending asynchronous starts are
+     * completed before the next boot phase, so a service only has to declare the services it
+     * needs in its constructor and {@link SystemService#onStart()}; everything started before
+     * the previous boot phase is already available.
+     *
+     * <p>The service must not touch the main looper or objects owned by the system server
+     * main thread while starting, and must be thread-safe with respect to services started
+     * concurrently.
+     *
+     * @param serviceClass A Java class that implements the SystemService interface.
+     * @param dependencies Services, started with this method since the last boot phase, that
+     *        must be started before this one.
+     * @throws IllegalArgumentException if a dependency is not pending asynchronous start.
+     * @see #waitForAsyncStarts()
+     */
+    @SafeVarargs
+    public final <T extends SystemService> void startServiceAsync(Class<T> serviceClass,
+            Class<? extends SystemService>... dependencies) {
+        final AsyncStart start = new AsyncStart(serviceClass, mServices.size());
+        for (Class<? extends SystemService> dependency : dependencies) {
+            final AsyncStart dependencyStart = mAsyncStartsByClass.get(dependency);
+            if (dependencyStart == null) {
+                throw new IllegalArgumentException("Cannot start " + serviceClass.getName()
+                        + ": dependency " + dependency.getName() + " is not starting");
+            }
+            start.dependencies.add(dependencyStart);
+        }
+        mAsyncStarts.add(start);
+        mAsyncStartsByClass.put(serviceClass, start);
+
+        synchronized (mAsyncStartLock) {
+            for (int i = start.dependencies.size() - 1; i >= 0; i--) {
+                final AsyncStart dependencyStart = start.dependencies.get(i);
+                if (!dependencyStart.finished) {
+                    dependencyStart.dependents.add(start);
+                    start.pendingDependencyCount++;
+                }
+            }
+            if (start.pendingDependencyCount == 0) {
+                scheduleAsyncStartLocked(start);
+            }
+        }
+    }
+
+    @GuardedBy("mAsyncStartLock")
+    private void scheduleAsyncStartLocked(AsyncStart start) {
+        start.scheduledTime = SystemClock.elapsedRealtime();
+        SystemServerInitThreadPool.get().submit(() -> runAsyncStart(start),
+                "StartService " + start.serviceClass.getSimpleName());
+    }
+
+    private void runAsyncStart(AsyncStart start) {
+        final TimingsTraceLog log = new TimingsTraceLog(ASYNC_START_TIMING_TAG,
+                Trace.TRACE_TAG_SYSTEM_SERVER);
+        final String name = start.serviceClass.getName();
+        start.startTime = SystemClock.elapsedRealtime();
+        start.threadName = Thread.currentThread().getName();
+        log.traceBegin("StartService " + name);
+        try {
+            if (start.dependencyFailed) {
+                throw new RuntimeException("Failed to start service " + name
+                        + ": a dependency failed to start");
+            }
+            final SystemService service = createService(start.serviceClass);
+            callOnStart(service);
+            start.service = service;
+        } catch (Throwable ex) {
+            start.failure = ex;
+        } finally {
+            log.traceEnd();
+            start.endTime = SystemClock.elapsedRealtime();
+        }
+
+        synchronized (mAsyncStartLock) {
+            start.finished = true;
+            for (int i = start.dependents.size() - 1; i >= 0; i--) {
+                final AsyncStart dependent = start.dependents.get(i);
+                if (start.failure != null) {
+                    dependent.dependencyFailed = true;
+                }
+                if (--dependent.pendingDependencyCount == 0) {
+                    scheduleAsyncStartLocked(dependent);
+                }
+            }
+        }
+        start.done.countDown();
+    }
+
+    /**
+     * Waits for all services {@link #startServiceAsync started asynchronously} to be started,
+     * and registers them for lifecycle events. Called before every boot phase.
+     *
+     * @throws RuntimeException if one of the services failed to start.
+     */
+    public void waitForAsyncStarts() {
+        final int startCount = mAsyncStarts.size();
+        if (startCount == 0) {
+            return;
+        }
+        final long waitStartTime = SystemClock.elapsedRealtime();
+        Trace.traceBegin(Trace.TRACE_TAG_SYSTEM_SERVER, "WaitForAsyncStarts");
+        try {
+            for (int i = 0; i < startCount; i++) {
+                final AsyncStart start = mAsyncStarts.get(i);
+                try {
+                    start.done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while starting "
+                            + start.serviceClass.getName());
+                }
+                if (start.failure instanceof RuntimeException) {
+                    throw (RuntimeException) start.failure;
+                } else if (start.failure != null) {
+                    throw new RuntimeException("Failed to start service "
+                            + start.serviceClass.getName(), start.failure);
+                }
+                // Earlier async starts were registered before this one, keep them in front.
+                mServices.add(start.servicesIndex + i, start.service);
+            }
+            logAsyncStartTimeline(waitStartTime);
+        } finally {
+            mAsyncStarts.clear();
+            mAsyncStartsByClass.clear();
+            Trace.traceEnd(Trace.TRACE_TAG_SYSTEM_SERVER);
+        }
+    }
+
+    /**
+     * Logs when each async start ran relative to the first one, and the chain of dependencies
+     * that determined when the last one finished.
+     */
+    private void logAsyncStartTimeline(long waitStartTime) {
+        final TimingsTraceLog log = new TimingsTraceLog(ASYNC_START_TIMING_TAG,
+                Trace.TRACE_TAG_SYSTEM_SERVER);
+        final int startCount = mAsyncStarts.size();
+        long firstScheduledTime = Long.MAX_VALUE;
+        AsyncStart last = null;
+        for (int i = 0; i < startCount; i++) {
+            final AsyncStart start = mAsyncStarts.get(i);
+            firstScheduledTime = Math.min(firstScheduledTime, start.scheduledTime);
+            if (last == null || start.endTime > last.endTime) {
+                last = start;
+            }
+        }
+        long busyTime = 0;
+        for (int i = 0; i < startCount; i++) {
+            final AsyncStart start = mAsyncStarts.get(i);
+            busyTime += start.endTime - start.startTime;
+            log.logTimelineEntry("StartService " + start.serviceClass.getSimpleName() + " on "
+                    + start.threadName, start.startTime - firstScheduledTime,
+                    start.endTime - start.startTime);
+        }
+
+        // Walk back from the last start to finish through the dependency that finished last,
+        // which is the one that held it back.
+        final StringBuilder path = new StringBuilder();
+        for (AsyncStart start = last; start != null; ) {
+            if (path.length() > 0) {
+                path.insert(0, " -> ");
+            }
+            path.insert(0, start.serviceClass.getSimpleName() + " ("
+                    + (start.endTime - start.startTime) + "ms)");
+            AsyncStart gating = null;
+            for (int i = start.dependencies.size() - 1; i >= 0; i--) {
+                final AsyncStart dependency = start.dependencies.get(i);
+                if (gating == null || dependency.endTime > gating.endTime) {
+                    gating = dependency;
+                }
+            }
+            start = gating;
+        }
+        Slog.i(TAG, "Started " + startCount + " services asynchronously in "
+                + (last.endTime - firstScheduledTime) + "ms (" + busyTime + "ms of work, main"
+                + " thread waited " + (SystemClock.elapsedRealtime() - waitStartTime)
+                + "ms), critical path: " + path);
+    }
+
     /**
      * Starts the specified boot phase for all system services that have been started up to
      * this point.
@@ -142,6 +350,8 @@ public class SystemServiceManager {
         if (phase <= mCurrentPhase) {
             throw new IllegalArgumentException("Next phase must be larger than previous");
         }
+        // Services only see the phases after the one they were started in.
+        waitForAsyncStarts();
         mCurrentPhase = phase;
 
         Slog.i(TAG, "Starting phase " + mCurrentPhase);
@@ -301,6 +511,33 @@ public class SystemServiceManager {
         }
     }
 
+    private static final class AsyncStart {
+        final Class<? extends SystemService> serviceClass;
+        // Size of mServices when the start was requested.
+        final int servicesIndex;
+        final ArrayList<AsyncStart> dependencies = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Guarded by mAsyncStartLock.
+        final ArrayList<AsyncStart> dependents = new ArrayList<>();
+        int pendingDependencyCount;
+        boolean dependencyFailed;
+        boolean finished;
+
+        // Written by the init thread running the start, read after done.
+        long scheduledTime;
+        long startTime;
+        long endTime;
+        String threadName;
+        SystemService service;
+        Throwable failure;
+
+        AsyncStart(Class<? extends SystemService> serviceClass, int servicesIndex) {
+            this.serviceClass = serviceClass;
+            this.servicesIndex = servicesIndex;
+        }
+    }
+
     /**
      * Outputs the state of this manager to the System log.
      */
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import android.app.ActivityThread;
@@ -71,6 +72,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.PackageManagerInternal;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
 import android.os.Binder;
@@ -165,6 +167,69 @@ public final class ActiveServices {
         }
     };
 
+    /** Maximum number of resolved services cached per user. */
+    static final int MAX_RESOLVED_SERVICES = 100;
+
+    int mResolvedServiceHits;
+    int mResolvedServiceMisses;
+    int mResolvedServiceInvalidations;
+
+    /**
+     * Upper bounds, in microseconds, of the buckets of the bind latency histograms. The last
+     * bucket holds the slower binds.
+     */
+    static final int[] BIND_LATENCY_BUCKETS_US = { 250, 500, 1000, 2500, 5000, 10000 };
+
+    /**
+     * Maximum number of calling uids with their own bind latency histogram, the binds of the
+     * others go to {@link #mOtherBindLatencies}.
+     */
+    static final int MAX_BIND_LATENCY_UIDS = 64;
+
+    /**
+     * For each calling uid, how many bindService() calls took how long to handle, see
+     * {@link #BIND_LATENCY_BUCKETS_US}.
+     */
+    final SparseArray<int[]> mBindLatencies = new SparseArray<>();
+
+    /**
+     * Bind latency histogram of the calling uids that came after the first
+     * {@link #MAX_BIND_LATENCY_UIDS} ones.
+     */
+    final int[] mOtherBindLatencies = new int[BIND_LATENCY_BUCKETS_US.length + 1];
+
+    /**
+     * Key of {@link ServiceMap#mResolvedServices}. The calling uid is part of it since the
+     * services an app may see depend on it.
+     */
+    static final class ResolvedServiceKey {
+        final Intent.FilterComparison filter;
+        final String resolvedType;
+        final int callingUid;
+
+        ResolvedServiceKey(Intent.FilterComparison filter, String resolvedType,
+                int callingUid) {
+            this.filter = filter;
+            this.resolvedType = resolvedType;
+            this.callingUid = callingUid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ResolvedServiceKey)) {
+                return false;
+            }
+            final ResolvedServiceKey other = (ResolvedServiceKey) o;
+            return callingUid == other.callingUid && filter.equals(other.filter)
+                    && Objects.equals(resolvedType, other.resolvedType);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * filter.hashCode() + Objects.hashCode(resolvedType)) + callingUid;
+        }
+    }
+
     /**
      * Information about an app that is currently running one or more foreground services.
      * (This maps directly to the running apps we show in the notification.)
@@ -193,6 +258,18 @@ public final class ActiveServices {
         final ArrayMap<ComponentName, ServiceRecord> mServicesByName = new ArrayMap<>();
         final ArrayMap<Intent.FilterComparison, ServiceRecord> mServicesByIntent = new ArrayMap<>();
 
+        /**
+         * Services the package manager resolved intents to, so that binding again to a
+         * service that was destroyed in between does not resolve it again.  Cleared when
+         * packages or components change, see {@link #getResolvedServiceLocked}.
+         */
+        final ArrayMap<ResolvedServiceKey, ServiceInfo> mResolvedServices = new ArrayMap<>();
+        /**
+         * {@link PackageManagerInternal#getComponentStateGeneration} when mResolvedServices
+         * was last cleared.
+         */
+        int mResolvedServicesGeneration;
+
         final ArrayList<ServiceRecord> mDelayedStartList = new ArrayList<>();
         /* XXX eventually I'd like to have this based on processes instead of services.
          * That is, if we try to start two services in a row both running in the same
@@ -217,6 +294,42 @@ public final class ActiveServices {
             mUserId = userId;
         }
 
+        /**
+         * Returns the service an intent was last resolved to, if the package manager did not
+         * change any package or component since.
+         *
+         * @param generation The current
+         *         {@link PackageManagerInternal#getComponentStateGeneration}.
+         */
+        ServiceInfo getResolvedServiceLocked(ResolvedServiceKey key, int generation) {
+            if (generation != mResolvedServicesGeneration) {
+                // PACKAGE_CHANGED is delayed for DONT_KILL_APP changes, don't wait for it.
+                if (!mResolvedServices.isEmpty()) {
+                    mResolvedServices.clear();
+                    mResolvedServiceInvalidations++;
+                }
+                mResolvedServicesGeneration = generation;
+            }
+            final ServiceInfo sInfo = mResolvedServices.get(key);
+            if (sInfo != null) {
+                mResolvedServiceHits++;
+            } else {
+                mResolvedServiceMisses++;
+            }
+            return sInfo;
+        }
+
+        /**
+         * Remembers the service an intent was resolved to. Must follow a miss of
+         * {@link #getResolvedServiceLocked}, which checked the generation.
+         */
+        void putResolvedServiceLocked(ResolvedServiceKey key, ServiceInfo sInfo) {
+            if (mResolvedServices.size() >= MAX_RESOLVED_SERVICES) {
+                mResolvedServices.clear();
+            }
+            mResolvedServices.put(key, sInfo);
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
@@ -1232,6 +1345,37 @@ public final class ActiveServices {
     int bindServiceLocked(IApplicationThread caller, IBinder token, Intent service,
             String resolvedType, final IServiceConnection connection, int flags,
             String callingPackage, final int userId) throws TransactionTooLargeException {
+        final int callingUid = Binder.getCallingUid();
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        try {
+            return bindServiceInnerLocked(caller, token, service, resolvedType, connection,
+                    flags, callingPackage, userId);
+        } finally {
+            noteBindLatencyLocked(callingUid,
+                    (SystemClock.elapsedRealtimeNanos() - startTime) / 1000);
+        }
+    }
+
+    private void noteBindLatencyLocked(int callingUid, long latencyUs) {
+        int[] buckets = mBindLatencies.get(callingUid);
+        if (buckets == null) {
+            if (mBindLatencies.size() < MAX_BIND_LATENCY_UIDS) {
+                buckets = new int[BIND_LATENCY_BUCKETS_US.length + 1];
+                mBindLatencies.put(callingUid, buckets);
+            } else {
+                buckets = mOtherBindLatencies;
+            }
+        }
+        int i = 0;
+        while (i < BIND_LATENCY_BUCKETS_US.length && latencyUs >= BIND_LATENCY_BUCKETS_US[i]) {
+            i++;
+        }
+        buckets[i]++;
+    }
+
+    private int bindServiceInnerLocked(IApplicationThread caller, IBinder token, Intent service,
+            String resolvedType, final IServiceConnection connection, int flags,
+            String callingPackage, final int userId) throws TransactionTooLargeException {
         if (DEBUG_SERVICE) Slog.v(TAG_SERVICE, "bindService: " + service
                 + " type=" + resolvedType + " conn=" + connection.asBinder()
                 + " flags=0x" + Integer.toHexString(flags));
@@ -1687,17 +1831,31 @@ public final class ActiveServices {
         }
         if (r == null) {
             try {
-                // TODO: come back and remove this assumption to triage all services
-                ResolveInfo rInfo = mAm.getPackageManagerInternalLocked().resolveService(service,
-                        resolvedType, ActivityManagerService.STOCK_PM_FLAGS
-                                | PackageManager.MATCH_DEBUG_TRIAGED_MISSING,
-                        userId, callingUid);
-                ServiceInfo sInfo =
-                    rInfo != null ? rInfo.serviceInfo : null;
+                ServiceInfo sInfo = null;
+                if (!isBindExternal) {
+                    sInfo = smap.getResolvedServiceLocked(new ResolvedServiceKey(
+                            new Intent.FilterComparison(service), resolvedType, callingUid),
+                            mAm.getPackageManagerInternalLocked().getComponentStateGeneration());
+                    if (DEBUG_SERVICE && sInfo != null) Slog.v(TAG_SERVICE,
+                            "Retrieved resolved service: " + sInfo.name);
+                }
                 if (sInfo == null) {
-                    Slog.w(TAG_SERVICE, "Unable to start service " + service + " U=" + userId +
-                          ": not found");
-                    return null;
+                    // TODO: come back and remove this assumption to triage all services
+                    ResolveInfo rInfo = mAm.getPackageManagerInternalLocked().resolveService(
+                            service, resolvedType, ActivityManagerService.STOCK_PM_FLAGS
+                                    | PackageManager.MATCH_DEBUG_TRIAGED_MISSING,
+                            userId, callingUid);
+                    sInfo = rInfo != null ? rInfo.serviceInfo : null;
+                    if (sInfo == null) {
+                        Slog.w(TAG_SERVICE, "Unable to start service " + service + " U=" + userId +
+                              ": not found");
+                        return null;
+                    }
+                    if (!isBindExternal) {
+                        smap.putResolvedServiceLocked(new ResolvedServiceKey(
+                                new Intent.FilterComparison(service.cloneFilter()), resolvedType,
+                                callingUid), sInfo);
+                    }
                 }
                 ComponentName name = new ComponentName(
                         sInfo.applicationInfo.packageName, sInfo.name);
@@ -1813,6 +1971,19 @@ public final class ActiveServices {
         return null;
     }
 
+    /**
+     * Forgets the services intents were resolved to, since the installed packages or the
+     * state of their components changed.
+     */
+    void clearResolvedServicesLocked(int userId) {
+        for (int i = mServiceMap.size() - 1; i >= 0; i--) {
+            final ServiceMap smap = mServiceMap.valueAt(i);
+            if (userId == UserHandle.USER_ALL || smap.mUserId == userId) {
+                smap.mResolvedServices.clear();
+            }
+        }
+    }
+
     private final void bumpServiceExecutingLocked(ServiceRecord r, boolean fg, String why) {
         if (DEBUG_SERVICE) Slog.v(TAG_SERVICE, ">>> EXECUTING "
                 + why + " of " + r + " in app " + r.app);
@@ -2277,7 +2448,7 @@ public final class ActiveServices {
         bumpServiceExecutingLocked(r, execInFg, "create");
         mAm.updateLruProcessLocked(app, false, null);
         updateServiceForegroundLocked(r.app, /* oomAdj= */ false);
-        mAm.updateOomAdjLocked();
+        mAm.updateOomAdjLocked(app, true);
 
         boolean created = false;
         try {
@@ -3412,7 +3583,7 @@ public final class ActiveServices {
                     nextTime = sr.executingStart;
                 }
             }
-            if (timeout != null && mAm.mLruProcesses.contains(proc)) {
+            if (timeout != null && proc.onLruList) {
                 Slog.w(TAG, "Timeout executing service: " + timeout);
                 StringWriter sw = new StringWriter();
                 PrintWriter pw = new FastPrintWriter(sw, false, 1024);
@@ -3834,6 +4005,40 @@ public final class ActiveServices {
                 }
             }
 
+            if (matcher.all && dumpPackage == null) {
+                if (needSep) pw.println();
+                needSep = true;
+                pw.print("  Resolved services: hits="); pw.print(mResolvedServiceHits);
+                pw.print(" misses="); pw.print(mResolvedServiceMisses);
+                pw.print(" invalidations="); pw.println(mResolvedServiceInvalidations);
+                if (mBindLatencies.size() > 0) {
+                    pw.print("  Bind latency by calling uid (us, <");
+                    for (int i = 0; i < BIND_LATENCY_BUCKETS_US.length; i++) {
+                        if (i > 0) pw.print(" <");
+                        pw.print(BIND_LATENCY_BUCKETS_US[i]);
+                    }
+                    pw.println(" and more):");
+                    for (int i = 0; i < mBindLatencies.size(); i++) {
+                        pw.print("    ");
+                        UserHandle.formatUid(pw, mBindLatencies.keyAt(i));
+                        pw.print(":");
+                        final int[] buckets = mBindLatencies.valueAt(i);
+                        for (int j = 0; j < buckets.length; j++) {
+                            pw.print(" "); pw.print(buckets[j]);
+                        }
+                        pw.println();
+                    }
+                    if (mBindLatencies.size() >= MAX_BIND_LATENCY_UIDS) {
+                        pw.print("    other:");
+                        for (int j = 0; j < mOtherBindLatencies.length; j++) {
+                            pw.print(" "); pw.print(mOtherBindLatencies[j]);
+                        }
+                        pw.println();
+                    }
+                }
+                printedAnything = true;
+            }
+
             if (matcher.all) {
                 final long nowElapsed = SystemClock.elapsedRealtime();
                 final int[] users = mAm.mUserController.getUsers();
@@ -526,6 +526,10 @@ public class ActivityManagerService extends IActivityManager.Stub
     // could take much longer than usual.
     static final int PROC_START_TIMEOUT_WITH_WRAPPER = 1200*1000;
 
+    // How long after a user is unlocked we restore its recent tasks, if nothing needed them
+    // before.
+    static final int LOAD_USER_RECENTS_DELAY = 10*1000;
+
     // How long we allow a receiver to run before giving up on it.
     static final int BROADCAST_FG_TIMEOUT = 10*1000;
     static final int BROADCAST_BG_TIMEOUT = 60*1000;
@@ -550,6 +554,9 @@ public class ActivityManagerService extends IActivityManager.Stub
     // Maximum number of persisted Uri grants a package is allowed
     static final int MAX_PERSISTED_URI_GRANTS = 128;
 
+    // Maximum number of task snapshots to prefetch when the recent tasks are listed
+    static final int MAX_PREFETCHED_TASK_SNAPSHOTS = 3;
+
     static final int MY_PID = myPid();
 
     static final String[] EMPTY_STRING_ARRAY = new String[0];
@@ -880,6 +887,14 @@ public class ActivityManagerService extends IActivityManager.Stub
      */
     final ArrayList<ProcessRecord> mLruProcesses = new ArrayList<ProcessRecord>();
 
+    /**
+     * The processes of mLruProcesses by the binder of their application thread, to find the
+     * caller of incoming calls without walking the list.  Entries are added on lookup, and
+     * checked against the process before use since its thread changes without it moving in
+     * the list.  See {@link #getRecordForAppLocked}.
+     */
+    final ArrayMap<IBinder, ProcessRecord> mLruProcessesByThread = new ArrayMap<>();
+
     /**
      * Where in mLruProcesses that the processes hosting activities start.
      */
@@ -1382,6 +1397,26 @@ public class ActivityManagerService extends IActivityManager.Stub
      */
     int mAdjSeq = 0;
 
+    /**
+     * Maximum number of processes updated by an incremental oom_adj update before falling back
+     * to updating all processes, see {@link #updateOomAdjLocked(ProcessRecord, boolean)}.
+     */
+    static final int MAX_INCREMENTAL_OOM_ADJ_PROCS = 20;
+
+    /**
+     * Number of full and incremental oom_adj updates, and the total time spent in them,
+     * for dumpsys.
+     */
+    int mNumFullOomAdj = 0;
+    long mFullOomAdjTimeNs = 0;
+    int mNumIncrementalOomAdj = 0;
+    long mIncrementalOomAdjTimeNs = 0;
+
+    /**
+     * Scratch list of the processes updated by an incremental oom_adj update.
+     */
+    final ArrayList<ProcessRecord> mTmpOomAdjTargets = new ArrayList<>();
+
     /**
      * Current sequence id for process LRU updating.
      */
@@ -1699,6 +1734,7 @@ public class ActivityManagerService extends IActivityManager.Stub
     static final int DISPATCH_OOM_ADJ_OBSERVER_MSG = 70;
     static final int START_USER_SWITCH_FG_MSG = 712;
     static final int NOTIFY_VR_KEYGUARD_MSG = 74;
+    static final int LOAD_USER_RECENTS_MSG = 75;
 
     static final int FIRST_ACTIVITY_STACK_MSG = 100;
     static final int FIRST_BROADCAST_QUEUE_MSG = 200;
@@ -2235,8 +2271,10 @@ public class ActivityManagerService extends IActivityManager.Stub
                 final int userId = msg.arg1;
                 mSystemServiceManager.unlockUser(userId);
                 synchronized (ActivityManagerService.this) {
-                    mRecentTasks.loadUserRecentsLocked(userId);
+                    mRecentTasks.onUserUnlockedLocked(userId);
                 }
+                sendMessageDelayed(obtainMessage(LOAD_USER_RECENTS_MSG, userId, 0),
+                        LOAD_USER_RECENTS_DELAY);
                 if (userId == UserHandle.USER_SYSTEM) {
                     startPersistentApps(PackageManager.MATCH_DIRECT_BOOT_UNAWARE);
                 }
@@ -2244,6 +2282,12 @@ public class ActivityManagerService extends IActivityManager.Stub
                 mUserController.finishUserUnlocked((UserState) msg.obj);
                 break;
             }
+            case LOAD_USER_RECENTS_MSG: {
+                synchronized (ActivityManagerService.this) {
+                    mRecentTasks.loadUserRecentsIfPendingLocked(msg.arg1);
+                }
+                break;
+            }
             case SYSTEM_USER_CURRENT_MSG: {
                 mBatteryStatsService.noteEvent(
                         BatteryStats.HistoryItem.EVENT_USER_FOREGROUND_FINISH,
@@ -3383,7 +3427,7 @@ public class ActivityManagerService extends IActivityManager.Stub
     }
 
     final void removeLruProcessLocked(ProcessRecord app) {
-        int lrui = mLruProcesses.lastIndexOf(app);
+        int lrui = app.onLruList ? mLruProcesses.lastIndexOf(app) : -1;
         if (lrui >= 0) {
             if (!app.killed) {
                 Slog.wtfStack(TAG, "Removing process that hasn't been killed: " + app);
@@ -3397,6 +3441,12 @@ public class ActivityManagerService extends IActivityManager.Stub
                 mLruProcessServiceStart--;
             }
             mLruProcesses.remove(lrui);
+            app.onLruList = false;
+            for (int i = mLruProcessesByThread.size() - 1; i >= 0; i--) {
+                if (mLruProcessesByThread.valueAt(i) == app) {
+                    mLruProcessesByThread.removeAt(i);
+                }
+            }
         }
     }
 
@@ -3433,7 +3483,7 @@ public class ActivityManagerService extends IActivityManager.Stub
             }
         }
 
-        int lrui = mLruProcesses.lastIndexOf(app);
+        int lrui = app.onLruList ? mLruProcesses.lastIndexOf(app) : -1;
 
         if (app.persistent && lrui >= 0) {
             // We don't care about the position of persistent processes, as long as
@@ -3573,6 +3623,7 @@ public class ActivityManagerService extends IActivityManager.Stub
             mLruProcessActivityStart++;
             mLruProcessServiceStart++;
         }
+        app.onLruList = true;
 
         // If the app is currently using a content provider or service,
         // bump those processes as well.
@@ -5362,16 +5413,23 @@ public class ActivityManagerService extends IActivityManager.Stub
         }
     }
 
-    private final int getLRURecordIndexForAppLocked(IApplicationThread thread) {
-        final IBinder threadBinder = thread.asBinder();
+    private ProcessRecord getLruProcessForThreadLocked(IBinder threadBinder) {
+        ProcessRecord rec = mLruProcessesByThread.get(threadBinder);
+        if (rec != null) {
+            if (rec.onLruList && rec.thread != null && rec.thread.asBinder() == threadBinder) {
+                return rec;
+            }
+            mLruProcessesByThread.remove(threadBinder);
+        }
         // Find the application record.
         for (int i=mLruProcesses.size()-1; i>=0; i--) {
-            final ProcessRecord rec = mLruProcesses.get(i);
+            rec = mLruProcesses.get(i);
             if (rec.thread != null && rec.thread.asBinder() == threadBinder) {
-                return i;
+                mLruProcessesByThread.put(threadBinder, rec);
+                return rec;
             }
         }
-        return -1;
+        return null;
     }
 
     final ProcessRecord getRecordForAppLocked(
@@ -5380,14 +5438,14 @@ public class ActivityManagerService extends IActivityManager.Stub
             return null;
         }
 
-        int appIndex = getLRURecordIndexForAppLocked(thread);
-        if (appIndex >= 0) {
-            return mLruProcesses.get(appIndex);
+        final IBinder threadBinder = thread.asBinder();
+        final ProcessRecord rec = getLruProcessForThreadLocked(threadBinder);
+        if (rec != null) {
+            return rec;
         }
 
         // Validation: if it isn't in the LRU list, it shouldn't exist, but let's
         // double-check that.
-        final IBinder threadBinder = thread.asBinder();
         final ArrayMap<String, SparseArray<ProcessRecord>> pmap = mProcessNames.getMap();
         for (int i = pmap.size()-1; i >= 0; i--) {
             final SparseArray<ProcessRecord> procs = pmap.valueAt(i);
@@ -6017,6 +6075,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                 if (appInfo != null) {
                     forceStopPackageLocked(packageName, appInfo.uid, "clear data");
                     // Remove all tasks match the cleared application package and user
+                    mRecentTasks.loadUserRecentsIfPendingLocked(resolvedUserId);
                     for (int i = mRecentTasks.size() - 1; i >= 0; i--) {
                         final TaskRecord tr = mRecentTasks.get(i);
                         final String taskPackageName =
@@ -9867,6 +9926,7 @@ public class ActivityManagerService extends IActivityManager.Stub
             try {
                 if (DEBUG_ALL) Slog.v(TAG, "getAppTasks");
 
+                mRecentTasks.loadUserRecentsIfPendingLocked(UserHandle.getUserId(callingUid));
                 final int N = mRecentTasks.size();
                 for (int i = 0; i < N; i++) {
                     TaskRecord tr = mRecentTasks.get(i);
@@ -10012,10 +10072,6 @@ public class ActivityManagerService extends IActivityManager.Stub
             }
             mRecentTasks.loadUserRecentsLocked(userId);
 
-            final int recentsCount = mRecentTasks.size();
-            ArrayList<ActivityManager.RecentTaskInfo> res =
-                    new ArrayList<>(maxNum < recentsCount ? maxNum : recentsCount);
-
             final Set<Integer> includedUsers;
             if (includeProfiles) {
                 includedUsers = mUserController.getProfileIds(userId);
@@ -10023,6 +10079,13 @@ public class ActivityManagerService extends IActivityManager.Stub
                 includedUsers = new HashSet<>();
             }
             includedUsers.add(Integer.valueOf(userId));
+            for (Integer includedUser : includedUsers) {
+                mRecentTasks.loadUserRecentsIfPendingLocked(includedUser);
+            }
+
+            final int recentsCount = mRecentTasks.size();
+            ArrayList<ActivityManager.RecentTaskInfo> res =
+                    new ArrayList<>(maxNum < recentsCount ? maxNum : recentsCount);
 
             for (int i = 0; i < recentsCount && maxNum > 0; i++) {
                 TaskRecord tr = mRecentTasks.get(i);
@@ -10107,6 +10170,20 @@ public class ActivityManagerService extends IActivityManager.Stub
                     maxNum--;
                 }
             }
+            if (detailed) {
+                // Recents is being shown, warm up the snapshots of the tasks after the current
+                // one as they are the most likely to be looked at.
+                final int prefetchCount = Math.min(res.size() - 1, MAX_PREFETCHED_TASK_SNAPSHOTS);
+                if (prefetchCount > 0) {
+                    final int[] taskIds = new int[prefetchCount];
+                    final int[] userIds = new int[prefetchCount];
+                    for (int i = 0; i < prefetchCount; i++) {
+                        taskIds[i] = res.get(i + 1).persistentId;
+                        userIds[i] = res.get(i + 1).userId;
+                    }
+                    mWindowManager.prefetchTaskSnapshots(taskIds, userIds);
+                }
+            }
             return new ParceledListSlice<>(res);
         }
     }
@@ -10425,6 +10502,7 @@ public class ActivityManagerService extends IActivityManager.Stub
 
     private void removeTasksByPackageNameLocked(String packageName, int userId) {
         // Remove all tasks with activities in the specified package from the list of recent tasks
+        mRecentTasks.loadUserRecentsIfPendingLocked(userId);
         for (int i = mRecentTasks.size() - 1; i >= 0; i--) {
             TaskRecord tr = mRecentTasks.get(i);
             if (tr.userId != userId) continue;
@@ -16129,6 +16207,10 @@ public class ActivityManagerService extends IActivityManager.Stub
                 pw.println("  mGoingToSleep=" + mStackSupervisor.mGoingToSleep);
                 pw.println("  mLaunchingActivity=" + mStackSupervisor.mLaunchingActivity);
                 pw.println("  mAdjSeq=" + mAdjSeq + " mLruSeq=" + mLruSeq);
+                pw.println("  mNumFullOomAdj=" + mNumFullOomAdj
+                        + " (" + (mFullOomAdjTimeNs / 1000000) + "ms)"
+                        + " mNumIncrementalOomAdj=" + mNumIncrementalOomAdj
+                        + " (" + (mIncrementalOomAdjTimeNs / 1000000) + "ms)");
                 pw.println("  mNumNonCachedProcs=" + mNumNonCachedProcs
                         + " (" + mLruProcesses.size() + " total)"
                         + " mNumCachedHiddenProcs=" + mNumCachedHiddenProcs
@@ -19356,6 +19438,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                         Slog.w(TAG, msg);
                         throw new SecurityException(msg);
                     }
+                    mServices.clearResolvedServicesLocked(userId);
                     switch (action) {
                         case Intent.ACTION_UID_REMOVED:
                             final int uid = getUidFromIntent(intent);
@@ -19457,6 +19540,7 @@ public class ActivityManagerService extends IActivityManager.Stub
                     break;
                 case Intent.ACTION_PACKAGE_REPLACED:
                 {
+                    mServices.clearResolvedServicesLocked(userId);
                     final Uri data = intent.getData();
                     final String ssp;
                     if (data != null && (ssp = data.getSchemeSpecificPart()) != null) {
@@ -19478,6 +19562,8 @@ public class ActivityManagerService extends IActivityManager.Stub
                 }
                 case Intent.ACTION_PACKAGE_ADDED:
                 {
+                    // A new package may provide a better match for an intent.
+                    mServices.clearResolvedServicesLocked(userId);
                     // Special case for adding a package: by default turn on compatibility mode.
                     Uri data = intent.getData();
                     String ssp;
@@ -22610,7 +22696,9 @@ public class ActivityManagerService extends IActivityManager.Stub
     }
 
     /**
-     * Update OomAdj for a specific process.
+     * Update OomAdj for a specific process, and for the processes hosting the services and
+     * content providers it is a client of, directly or indirectly, since their importance
+     * derives from it.
      * @param app The process to update
      * @param oomAdjAll If it's ok to call updateOomAdjLocked() for all running apps
      *                  if necessary, or skip.
@@ -22619,20 +22707,45 @@ public class ActivityManagerService extends IActivityManager.Stub
     final boolean updateOomAdjLocked(ProcessRecord app, boolean oomAdjAll) {
         final ActivityRecord TOP_ACT = resumedAppLocked();
         final ProcessRecord TOP_APP = TOP_ACT != null ? TOP_ACT.app : null;
-        final boolean wasCached = app.cached;
+        final long startTime = System.nanoTime();
+        final long now = SystemClock.uptimeMillis();
+        final ArrayList<ProcessRecord> targets = mTmpOomAdjTargets;
+
+        if (!collectOomAdjTargetsLocked(app, targets) && oomAdjAll) {
+            // Too many processes depend on this one, a full update is cheaper than walking
+            // all of them, and it updates this one as well. Applying the new oom_adj only
+            // fails if the process gets killed.
+            targets.clear();
+            updateOomAdjLocked();
+            return !app.killed;
+        }
 
         mAdjSeq++;
 
-        // This is the desired cached adjusment we want to tell it to use.
-        // If our app is currently cached, we know it, and that is it.  Otherwise,
-        // we don't know it yet, and it needs to now be cached we will then
-        // need to do a complete oom adj.
-        final int cachedAdj = app.curRawAdj >= ProcessList.CACHED_APP_MIN_ADJ
-                ? app.curRawAdj : ProcessList.UNKNOWN_ADJ;
-        boolean success = updateOomAdjLocked(app, cachedAdj, TOP_APP, false,
-                SystemClock.uptimeMillis());
-        if (oomAdjAll
-                && (wasCached != app.cached || app.curRawAdj == ProcessList.UNKNOWN_ADJ)) {
+        boolean needFullUpdate = false;
+        boolean success = true;
+        for (int i = 0; i < targets.size(); i++) {
+            final ProcessRecord proc = targets.get(i);
+            final boolean wasCached = proc.cached;
+            // This is the desired cached adjusment we want to tell it to use.
+            // If our app is currently cached, we know it, and that is it.  Otherwise,
+            // we don't know it yet, and it needs to now be cached we will then
+            // need to do a complete oom adj.
+            final int cachedAdj = proc.curRawAdj >= ProcessList.CACHED_APP_MIN_ADJ
+                    ? proc.curRawAdj : ProcessList.UNKNOWN_ADJ;
+            final boolean procSuccess = updateOomAdjLocked(proc, cachedAdj, TOP_APP, false, now);
+            if (proc == app) {
+                success = procSuccess;
+            }
+            if (wasCached != proc.cached || proc.curRawAdj == ProcessList.UNKNOWN_ADJ) {
+                needFullUpdate = true;
+            }
+        }
+        targets.clear();
+        mNumIncrementalOomAdj++;
+        mIncrementalOomAdjTimeNs += System.nanoTime() - startTime;
+
+        if (oomAdjAll && needFullUpdate) {
             // Changed to/from cached state, so apps after it in the LRU
             // list may also be changed.
             updateOomAdjLocked();
@@ -22640,9 +22753,55 @@ public class ActivityManagerService extends IActivityManager.Stub
         return success;
     }
 
+    /**
+     * Collects the process and the processes whose oom_adj may derive from it, that is the
+     * processes hosting the services and content providers it is bound to, transitively.
+     * The process itself comes first, followed by the others in breadth first order.
+     *
+     * @return false if there are more than {@link #MAX_INCREMENTAL_OOM_ADJ_PROCS} of them, in
+     *         which case the list only contains the ones found so far.
+     */
+    boolean collectOomAdjTargetsLocked(ProcessRecord app, ArrayList<ProcessRecord> targets) {
+        targets.clear();
+        targets.add(app);
+        for (int i = 0; i < targets.size(); i++) {
+            final ProcessRecord proc = targets.get(i);
+            for (int j = proc.connections.size() - 1; j >= 0; j--) {
+                final ConnectionRecord cr = proc.connections.valueAt(j);
+                if ((cr.flags & Context.BIND_WAIVE_PRIORITY) != 0) {
+                    continue;
+                }
+                if (!addOomAdjTargetLocked(cr.binding.service.app, targets)) {
+                    return false;
+                }
+            }
+            for (int j = proc.conProviders.size() - 1; j >= 0; j--) {
+                if (!addOomAdjTargetLocked(proc.conProviders.get(j).provider.proc, targets)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean addOomAdjTargetLocked(ProcessRecord proc,
+            ArrayList<ProcessRecord> targets) {
+        if (proc == null || proc.persistent || targets.contains(proc)) {
+            // Persistent processes are always at their maximum importance, nothing a
+            // client does changes it.
+            return true;
+        }
+        if (targets.size() >= MAX_INCREMENTAL_OOM_ADJ_PROCS) {
+            return false;
+        }
+        targets.add(proc);
+        return true;
+    }
+
     final void updateOomAdjLocked() {
         final ActivityRecord TOP_ACT = resumedAppLocked();
         final ProcessRecord TOP_APP = TOP_ACT != null ? TOP_ACT.app : null;
+        final long startTime = System.nanoTime();
         final long now = SystemClock.uptimeMillis();
         final long nowElapsed = SystemClock.elapsedRealtime();
         final long oldTime = now - ProcessList.MAX_EMPTY_TIME;
@@ -23141,6 +23300,9 @@ public class ActivityManagerService extends IActivityManager.Stub
             });
         }
 
+        mNumFullOomAdj++;
+        mFullOomAdjTimeNs += System.nanoTime() - startTime;
+
         if (DEBUG_OOM_ADJ) {
             final long duration = SystemClock.uptimeMillis() - now;
             if (false) {
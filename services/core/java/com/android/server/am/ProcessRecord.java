@@ -139,6 +139,7 @@ final class ProcessRecord {
     Object forcingToImportant;  // Token that is forcing this process to be important
     int adjSeq;                 // Sequence id for identifying oom_adj assignment cycles
     int lruSeq;                 // Sequence id for identifying LRU update cycles
+    boolean onLruList;          // Is this process in ActivityManagerService.mLruProcesses?
     CompatibilityInfo compat;   // last used compatibility mode
     IBinder.DeathRecipient deathRecipient; // Who is watching for the death.
     ActiveInstrumentation instr;// Set to currently active instrumentation running in process
@@ -266,6 +267,7 @@ final class ProcessRecord {
                 pw.println();
         pw.print(prefix); pw.print("adjSeq="); pw.print(adjSeq);
                 pw.print(" lruSeq="); pw.print(lruSeq);
+                pw.print(" onLruList="); pw.print(onLruList);
                 pw.print(" lastPss="); DebugUtils.printSizeValue(pw, lastPss*1024);
                 pw.print(" lastSwapPss="); DebugUtils.printSizeValue(pw, lastSwapPss*1024);
                 pw.print(" lastCachedPss="); DebugUtils.printSizeValue(pw, lastCachedPss*1024);
@@ -40,6 +40,7 @@ import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.os.Environment;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.ArraySet;
 import android.util.Slog;
@@ -52,6 +53,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -77,6 +79,13 @@ class RecentTasks extends ArrayList<TaskRecord> {
     private final SparseBooleanArray mUsersWithRecentsLoaded = new SparseBooleanArray(
             DEFAULT_INITIAL_CAPACITY);
 
+    /**
+     * Unlocked users whose persisted task ids are loaded, but whose tasks are not restored yet,
+     * see {@link #onUserUnlockedLocked}.
+     */
+    private final SparseBooleanArray mUsersWithRecentsPending = new SparseBooleanArray(
+            DEFAULT_INITIAL_CAPACITY);
+
     /**
      * Stores for each user task ids that are taken by tasks residing in persistent storage. These
      * tasks may or may not currently be in memory.
@@ -108,6 +117,8 @@ class RecentTasks extends ArrayList<TaskRecord> {
         if (mUsersWithRecentsLoaded.get(userId)) {
             return;
         }
+        final long startTime = SystemClock.uptimeMillis();
+        mUsersWithRecentsPending.delete(userId);
 
         // Load the task ids if not loaded.
         loadPersistedTaskIdsForUserLocked(userId);
@@ -121,7 +132,9 @@ class RecentTasks extends ArrayList<TaskRecord> {
         }
 
         Slog.i(TAG, "Loading recents for user " + userId + " into memory.");
-        addAll(mTaskPersister.restoreTasksForUserLocked(userId, preaddedTasks));
+        final List<TaskRecord> tasks = mTaskPersister.restoreTasksForUserLocked(userId,
+                preaddedTasks);
+        addAll(tasks);
         cleanupLocked(userId);
         mUsersWithRecentsLoaded.put(userId, true);
 
@@ -129,6 +142,35 @@ class RecentTasks extends ArrayList<TaskRecord> {
         if (preaddedTasks.size() > 0) {
             syncPersistentTaskIdsLocked();
         }
+        Slog.i(TAG, "Loaded " + tasks.size() + " recent tasks for user " + userId + " in "
+                + (SystemClock.uptimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * Called when {@code userId} is unlocked. Only loads the ids of the user's persisted tasks
+     * from their index file; restoring the tasks themselves, which reads a file per task, is
+     * left to {@link #loadUserRecentsLocked} when they are first needed, so that it does not
+     * delay the unlock.
+     */
+    void onUserUnlockedLocked(int userId) {
+        if (mUsersWithRecentsLoaded.get(userId)) {
+            return;
+        }
+        final long startTime = SystemClock.uptimeMillis();
+        loadPersistedTaskIdsForUserLocked(userId);
+        mUsersWithRecentsPending.put(userId, true);
+        Slog.i(TAG, "Deferred loading recents for user " + userId + ", loaded "
+                + mPersistedTaskIds.get(userId).size() + " task ids in "
+                + (SystemClock.uptimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * Loads the recent tasks of {@code userId} if it is unlocked but they were deferred.
+     */
+    void loadUserRecentsIfPendingLocked(int userId) {
+        if (mUsersWithRecentsPending.get(userId)) {
+            loadUserRecentsLocked(userId);
+        }
     }
 
     private void loadPersistedTaskIdsForUserLocked(int userId) {
@@ -244,6 +286,7 @@ class RecentTasks extends ArrayList<TaskRecord> {
      * @param userId the id of the user
      */
     void unloadUserDataFromMemoryLocked(int userId) {
+        mUsersWithRecentsPending.delete(userId);
         unloadUserRecentsLocked(userId);
         mPersistedTaskIds.delete(userId);
         mTaskPersister.unloadUserDataFromMemory(userId);
@@ -257,6 +300,15 @@ class RecentTasks extends ArrayList<TaskRecord> {
                 return tr;
             }
         }
+        // The task may not be restored yet.
+        for (int i = mUsersWithRecentsPending.size() - 1; i >= 0; i--) {
+            final int userId = mUsersWithRecentsPending.keyAt(i);
+            final SparseBooleanArray taskIds = mPersistedTaskIds.get(userId);
+            if (mUsersWithRecentsPending.valueAt(i) && taskIds != null && taskIds.get(id)) {
+                loadUserRecentsLocked(userId);
+                return taskForIdLocked(id);
+            }
+        }
         return null;
     }
 
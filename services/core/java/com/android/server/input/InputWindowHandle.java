@@ -20,6 +20,8 @@ import android.graphics.Region;
 import android.view.InputChannel;
 import android.view.IWindow;
 
+import java.util.Objects;
+
 /**
  * Functions as a handle for a window that can receive input.
  * Enables the native input dispatcher to refer indirectly to the window manager's window state.
@@ -94,6 +96,31 @@ public final class InputWindowHandle {
     // Display this input is on.
     public final int displayId;
 
+    // The state last sent to the input dispatcher, see updateSentState().
+    private InputChannel mSentInputChannel;
+    private String mSentName;
+    private int mSentLayoutParamsFlags;
+    private int mSentLayoutParamsType;
+    private long mSentDispatchingTimeoutNanos;
+    private int mSentFrameLeft;
+    private int mSentFrameTop;
+    private int mSentFrameRight;
+    private int mSentFrameBottom;
+    private float mSentScaleFactor;
+    private final Region mSentTouchableRegion = new Region();
+    private boolean mSentVisible;
+    private boolean mSentCanReceiveKeys;
+    private boolean mSentHasFocus;
+    private boolean mSentHasWallpaper;
+    private boolean mSentPaused;
+    private int mSentLayer;
+    private int mSentOwnerPid;
+    private int mSentOwnerUid;
+    private int mSentInputFeatures;
+    private String mSentApplicationName;
+    private long mSentApplicationDispatchingTimeoutNanos;
+    private boolean mSent;
+
     private native void nativeDispose();
 
     public InputWindowHandle(InputApplicationHandle inputApplicationHandle,
@@ -104,6 +131,68 @@ public final class InputWindowHandle {
         this.displayId = displayId;
     }
 
+    /**
+     * Records the current state of the window as the state sent to the input dispatcher.
+     *
+     * @return true if it differs from the state recorded last time, i.e. the input dispatcher
+     *         needs to be updated.
+     */
+    public boolean updateSentState() {
+        final String applicationName =
+                inputApplicationHandle != null ? inputApplicationHandle.name : null;
+        final long applicationDispatchingTimeoutNanos = inputApplicationHandle != null
+                ? inputApplicationHandle.dispatchingTimeoutNanos : 0;
+        if (mSent
+                && mSentInputChannel == inputChannel
+                && Objects.equals(mSentName, name)
+                && mSentLayoutParamsFlags == layoutParamsFlags
+                && mSentLayoutParamsType == layoutParamsType
+                && mSentDispatchingTimeoutNanos == dispatchingTimeoutNanos
+                && mSentFrameLeft == frameLeft
+                && mSentFrameTop == frameTop
+                && mSentFrameRight == frameRight
+                && mSentFrameBottom == frameBottom
+                && mSentScaleFactor == scaleFactor
+                && mSentTouchableRegion.equals(touchableRegion)
+                && mSentVisible == visible
+                && mSentCanReceiveKeys == canReceiveKeys
+                && mSentHasFocus == hasFocus
+                && mSentHasWallpaper == hasWallpaper
+                && mSentPaused == paused
+                && mSentLayer == layer
+                && mSentOwnerPid == ownerPid
+                && mSentOwnerUid == ownerUid
+                && mSentInputFeatures == inputFeatures
+                && Objects.equals(mSentApplicationName, applicationName)
+                && mSentApplicationDispatchingTimeoutNanos == applicationDispatchingTimeoutNanos) {
+            return false;
+        }
+        mSentInputChannel = inputChannel;
+        mSentName = name;
+        mSentLayoutParamsFlags = layoutParamsFlags;
+        mSentLayoutParamsType = layoutParamsType;
+        mSentDispatchingTimeoutNanos = dispatchingTimeoutNanos;
+        mSentFrameLeft = frameLeft;
+        mSentFrameTop = frameTop;
+        mSentFrameRight = frameRight;
+        mSentFrameBottom = frameBottom;
+        mSentScaleFactor = scaleFactor;
+        mSentTouchableRegion.set(touchableRegion);
+        mSentVisible = visible;
+        mSentCanReceiveKeys = canReceiveKeys;
+        mSentHasFocus = hasFocus;
+        mSentHasWallpaper = hasWallpaper;
+        mSentPaused = paused;
+        mSentLayer = layer;
+        mSentOwnerPid = ownerPid;
+        mSentOwnerUid = ownerUid;
+        mSentInputFeatures = inputFeatures;
+        mSentApplicationName = applicationName;
+        mSentApplicationDispatchingTimeoutNanos = applicationDispatchingTimeoutNanos;
+        mSent = true;
+        return true;
+    }
+
     @Override
     public String toString() {
         return new StringBuilder(name)
@@ -764,6 +764,11 @@ public class PackageManagerService extends IPackageManager.Stub
 
     @GuardedBy("mPackages")
     int mChangedPackagesSequenceNumber;
+    /**
+     * Bumped with {@link #mChangedPackagesSequenceNumber}, but also readable without the
+     * lock, see {@link PackageManagerInternal#getComponentStateGeneration}.
+     */
+    private volatile int mComponentStateGeneration;
     /**
      * List of changed [installed, removed or updated] packages.
      * mapping from user id -> sequence number -> package name
@@ -5310,6 +5315,7 @@ public class PackageManagerService extends IPackageManager.Stub
             sequenceNumbers.put(pkgSetting.name, mChangedPackagesSequenceNumber);
         }
         mChangedPackagesSequenceNumber++;
+        mComponentStateGeneration++;
     }
 
     @Override
@@ -8658,7 +8664,10 @@ public class PackageManagerService extends IPackageManager.Stub
                 }
             }
 
-            return new ParceledListSlice<>(list);
+            // Package, permission and split names repeat a lot across packages.
+            final ParceledListSlice<PackageInfo> slice = new ParceledListSlice<>(list);
+            slice.setPoolStrings(true);
+            return slice;
         }
     }
 
@@ -15091,6 +15100,8 @@ public class PackageManagerService extends IPackageManager.Stub
 
                 if (pkgSetting.getHidden(userId) != hidden) {
                     pkgSetting.setHidden(hidden, userId);
+                    // Hidden packages no longer resolve, cached resolutions must be dropped.
+                    mComponentStateGeneration++;
                     mSettings.writePackageRestrictionsLPr(userId);
                     if (hidden) {
                         sendRemoved = true;
@@ -25734,6 +25745,11 @@ Slog.v(TAG, ":: stepped forward, applying functor at tag " + parser.getName());
                 PackageManagerService.this.notifyPackageUseLocked(packageName, reason);
             }
         }
+
+        @Override
+        public int getComponentStateGeneration() {
+            return mComponentStateGeneration;
+        }
     }
 
     @Override
@@ -177,6 +177,15 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
     private boolean mTmpRecoveringMemory;
     private boolean mUpdateImeTarget;
     private boolean mTmpInitial;
+    // Set if the current layout pass only lays out the windows that were marked dirty, see
+    // WindowState#setDisplayLayoutNeeded.
+    private boolean mTmpPartialLayout;
+    // Set if the current layout pass found a window that is laid out relative to its parent, so
+    // the attached windows pass can be skipped when there are none.
+    private boolean mTmpHasLayoutAttached;
+    // Number of windows laid out or placed by the current layout or surface pass.
+    private int mTmpLayoutWindowCount;
+    private int mTmpSurfaceWindowCount;
     private int mMaxUiWidth;
 
     // Mapping from a token IBinder to a WindowToken object on this display.
@@ -495,6 +504,15 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             w -> w.mWinAnimator.prepareSurfaceLocked(true);
 
     private final Consumer<WindowState> mPerformLayout = w -> {
+        if (w.mLayoutAttached) {
+            mTmpHasLayoutAttached = true;
+        }
+        if (mTmpPartialLayout && !w.mLayoutDirty && !w.mLayoutNeeded
+                && !w.affectsLayoutOfOtherWindows()) {
+            // Nothing this window depends on changed, it would get the same frame.
+            return;
+        }
+
         // Don't do layout of a window if it is not visible, or soon won't be visible, to avoid
         // wasting time and funky changes while a window is animating away.
         final boolean gone = (mTmpWindow != null && mService.mPolicy.canBeHiddenByKeyguardLw(w))
@@ -538,6 +556,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                 w.prelayout();
                 final boolean firstLayout = !w.isLaidOut();
                 mService.mPolicy.layoutWindowLw(w, null);
+                mTmpLayoutWindowCount++;
                 w.mLayoutSeq = mService.mLayoutSeq;
 
                 // If this is the first layout, we need to initialize the last inset values as
@@ -570,6 +589,10 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
             if (mTmpWindow != null && mService.mPolicy.canBeHiddenByKeyguardLw(w)) {
                 return;
             }
+            if (mTmpPartialLayout && !w.mLayoutDirty && !w.mLayoutNeeded) {
+                // Neither this window nor the one it is attached to changed.
+                return;
+            }
             if ((w.mViewVisibility != GONE && w.mRelayoutCalled) || !w.mHaveFrame
                     || w.mLayoutNeeded) {
                 if (mTmpInitial) {
@@ -579,6 +602,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
                 w.mLayoutNeeded = false;
                 w.prelayout();
                 mService.mPolicy.layoutWindowLw(w, w.getParentWindow());
+                mTmpLayoutWindowCount++;
                 w.mLayoutSeq = mService.mLayoutSeq;
                 if (DEBUG_LAYOUT) Slog.v(TAG, " LAYOUT: mFrame=" + w.mFrame
                         + " mContainingFrame=" + w.mContainingFrame
@@ -603,6 +627,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
 
     private final Consumer<WindowState> mApplySurfaceChangesTransaction = w -> {
         final WindowSurfacePlacer surfacePlacer = mService.mWindowPlacerLocked;
+        mTmpSurfaceWindowCount++;
         final boolean obscuredChanged = w.mObscured !=
                 mTmpApplySurfaceChangesTransactionState.obscured;
         final RootWindowContainer root = mService.mRoot;
@@ -1700,6 +1725,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
 
     /** Update base (override) display metrics. */
     void updateBaseDisplayMetrics(int baseWidth, int baseHeight, int baseDensity) {
+        mService.invalidateReadSnapshotLocked();
         mBaseDisplayWidth = baseWidth;
         mBaseDisplayHeight = baseHeight;
         mBaseDisplayDensity = baseDensity;
@@ -1914,6 +1940,7 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
     @Override
     void removeImmediately() {
         mRemovingDisplay = true;
+        mService.invalidateReadSnapshotLocked();
         try {
             super.removeImmediately();
             if (DEBUG_DISPLAY) Slog.v(TAG_WM, "Removing display=" + this);
@@ -2498,8 +2525,9 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
         mLayoutNeeded = false;
     }
 
+    /** @return true if the display or some of its windows need layout. */
     boolean isLayoutNeeded() {
-        return mLayoutNeeded;
+        return mLayoutNeeded || mLayoutDirty;
     }
 
     void dumpTokens(PrintWriter pw, boolean dumpAll) {
@@ -2786,7 +2814,9 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
         resetDimming();
 
         mTmpRecoveringMemory = recoveringMemory;
+        mTmpSurfaceWindowCount = 0;
         forAllWindows(mApplySurfaceChangesTransaction, true /* traverseTopToBottom */);
+        surfacePlacer.onSurfaceChangesApplied(mTmpSurfaceWindowCount);
 
         mService.mDisplayManagerInternal.setDisplayProperties(mDisplayId,
                 mTmpApplySurfaceChangesTransactionState.displayHasContent,
@@ -2814,9 +2844,17 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
 
     void performLayout(boolean initial, boolean updateInputWindows) {
         if (!isLayoutNeeded()) {
+            // Nothing on this display asked for layout since the last pass, keep the frames.
+            mService.mWindowPlacerLocked.onDisplayLayoutSkipped();
             return;
         }
+        // If only some windows changed, the other ones keep their frames.  The windows that the
+        // layout of others depends on are laid out anyway, so that the policy is in the same
+        // state as in the last layout when it reaches the others.
+        mTmpPartialLayout = !mLayoutNeeded && !initial;
         clearLayoutNeeded();
+        // Frames are about to change, they are published again once surfaces are placed.
+        mService.invalidateReadSnapshotLocked();
 
         final int dw = mDisplayInfo.logicalWidth;
         final int dh = mDisplayInfo.logicalHeight;
@@ -2844,6 +2882,8 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
         // behind it.
         mTmpWindow = null;
         mTmpInitial = initial;
+        mTmpHasLayoutAttached = false;
+        mTmpLayoutWindowCount = 0;
 
         // First perform layout of any root windows (not attached to another window).
         forAllWindows(mPerformLayout, true /* traverseTopToBottom */);
@@ -2856,7 +2896,11 @@ class DisplayContent extends WindowContainer<DisplayContent.DisplayChildWindowCo
         // Now perform layout of attached windows, which usually depend on the position of the
         // window they are attached to. XXX does not deal with windows that are attached to windows
         // that are themselves attached.
-        forAllWindows(mPerformLayoutAttached, true /* traverseTopToBottom */);
+        if (mTmpHasLayoutAttached) {
+            forAllWindows(mPerformLayoutAttached, true /* traverseTopToBottom */);
+        }
+        clearLayoutDirty();
+        mService.mWindowPlacerLocked.onDisplayLaidOut(mTmpLayoutWindowCount, mTmpPartialLayout);
 
         // Window frames may have changed. Tell the input dispatcher about it.
         mService.mInputMonitor.layoutInputConsumers(dw, dh);
@@ -81,6 +81,17 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
     private int mInputWindowHandleCount;
     private InputWindowHandle mFocusedInputWindowHandle;
 
+    // The window handles last provided to the input dispatcher, to skip providing them again
+    // when none of them changed.
+    private InputWindowHandle[] mSentInputWindowHandles;
+    private int mSentInputWindowHandleCount;
+
+    // How many times the input windows were provided to the input dispatcher, and how many
+    // times, in total and while animating, that was skipped because nothing changed.
+    private int mInputWindowsUpdateCount;
+    private int mInputWindowsElidedCount;
+    private int mInputWindowsElidedAnimatingCount;
+
     private boolean mAddInputConsumerHandle;
     private boolean mAddPipInputConsumerHandle;
     private boolean mAddWallpaperInputConsumerHandle;
@@ -348,6 +359,37 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         mFocusedInputWindowHandle = null;
     }
 
+    /**
+     * @return true if the input windows differ from the ones last provided to the input
+     *         dispatcher, in which case they are recorded as the ones provided.
+     */
+    private boolean inputWindowsChangedLw() {
+        boolean changed = mInputWindowHandleCount != mSentInputWindowHandleCount;
+        for (int i = 0; i < mInputWindowHandleCount; i++) {
+            final InputWindowHandle handle = mInputWindowHandles[i];
+            // Record the state of every window, even once a change was found.
+            if (handle.updateSentState()) {
+                changed = true;
+            } else if (!changed && mSentInputWindowHandles[i] != handle) {
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return false;
+        }
+        if (mSentInputWindowHandles == null
+                || mSentInputWindowHandles.length < mInputWindowHandles.length) {
+            mSentInputWindowHandles = new InputWindowHandle[mInputWindowHandles.length];
+        }
+        System.arraycopy(mInputWindowHandles, 0, mSentInputWindowHandles, 0,
+                mInputWindowHandleCount);
+        for (int i = mInputWindowHandleCount; i < mSentInputWindowHandleCount; i++) {
+            mSentInputWindowHandles[i] = null;
+        }
+        mSentInputWindowHandleCount = mInputWindowHandleCount;
+        return true;
+    }
+
     void setUpdateInputWindowsNeededLw() {
         mUpdateInputWindowsNeeded = true;
     }
@@ -589,6 +631,9 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
         if (mInputFreezeReason != null) {
             pw.println(prefix + "mInputFreezeReason=" + mInputFreezeReason);
         }
+        pw.println(prefix + "mInputWindowsUpdateCount=" + mInputWindowsUpdateCount
+                + " mInputWindowsElidedCount=" + mInputWindowsElidedCount
+                + " mInputWindowsElidedAnimatingCount=" + mInputWindowsElidedAnimatingCount);
         final Set<String> inputConsumerKeys = mInputConsumers.keySet();
         if (!inputConsumerKeys.isEmpty()) {
             pw.println(prefix + "InputConsumers:");
@@ -628,8 +673,17 @@ final class InputMonitor implements InputManagerService.WindowManagerCallbacks {
                 addInputWindowHandle(wallpaperInputConsumer.mWindowHandle);
             }
 
-            // Send windows to native code.
-            mService.mInputManager.setInputWindows(mInputWindowHandles, mFocusedInputWindowHandle);
+            // Send windows to native code, unless it already has them.
+            if (inputWindowsChangedLw()) {
+                mInputWindowsUpdateCount++;
+                mService.mInputManager.setInputWindows(mInputWindowHandles,
+                        mFocusedInputWindowHandle);
+            } else {
+                mInputWindowsElidedCount++;
+                if (mService.mAnimator.isAnimating()) {
+                    mInputWindowsElidedAnimatingCount++;
+                }
+            }
 
             clearInputWindowHandlesLw();
         }
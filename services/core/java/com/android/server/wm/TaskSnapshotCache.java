@@ -17,39 +17,113 @@
 package com.android.server.wm;
 
 import android.annotation.Nullable;
+import android.app.ActivityManager;
 import android.app.ActivityManager.TaskSnapshot;
+import android.graphics.GraphicBuffer;
 import android.util.ArrayMap;
 import android.util.LruCache;
 
+import com.android.internal.annotations.VisibleForTesting;
+
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Map.Entry;
 
 /**
  * Caches snapshots. See {@link TaskSnapshotController}.
  * <p>
+ * Snapshots of running tasks are kept until their memory exceeds a budget, at which point the
+ * least recently used ones are dropped; they can still be restored from disk. Reduced resolution
+ * snapshots restored from disk are kept in a second, smaller tier so that opening Recents
+ * repeatedly doesn't decode them again.
+ * <p>
  * Access to this class should be guarded by the global window manager lock.
  */
 class TaskSnapshotCache {
 
+    private static final long MAX_RUNNING_CACHE_BYTES =
+            (ActivityManager.isLowRamDeviceStatic() ? 24 : 96) * 1024 * 1024;
+    private static final int MAX_REDUCED_CACHE_BYTES =
+            (ActivityManager.isLowRamDeviceStatic() ? 4 : 16) * 1024 * 1024;
+
     private final WindowManagerService mService;
     private final TaskSnapshotLoader mLoader;
     private final ArrayMap<AppWindowToken, Integer> mAppTaskMap = new ArrayMap<>();
     private final ArrayMap<Integer, CacheEntry> mRunningCache = new ArrayMap<>();
+    private final long mMaxRunningCacheBytes;
+    private long mRunningCacheBytes;
+    private long mAccessCounter;
+    private int mRunningHits;
+    private int mRunningEvictions;
+
+    /** Reduced resolution snapshots restored from disk. Internally synchronized. */
+    private final LruCache<Integer, TaskSnapshot> mReducedCache;
+
+    /**
+     * Restores from disk in progress, guarded by the window manager lock. A snapshot taken or a
+     * task removed meanwhile makes the restored snapshot stale, so it must not be cached.
+     */
+    private final ArrayList<PendingRestore> mPendingRestores = new ArrayList<>();
 
     TaskSnapshotCache(WindowManagerService service, TaskSnapshotLoader loader) {
+        this(service, loader, MAX_RUNNING_CACHE_BYTES, MAX_REDUCED_CACHE_BYTES);
+    }
+
+    @VisibleForTesting
+    TaskSnapshotCache(WindowManagerService service, TaskSnapshotLoader loader,
+            long maxRunningCacheBytes, int maxReducedCacheBytes) {
         mService = service;
         mLoader = loader;
+        mMaxRunningCacheBytes = maxRunningCacheBytes;
+        mReducedCache = new LruCache<Integer, TaskSnapshot>(maxReducedCacheBytes) {
+            @Override
+            protected int sizeOf(Integer taskId, TaskSnapshot snapshot) {
+                return (int) getSnapshotBytes(snapshot);
+            }
+        };
     }
 
     void putSnapshot(Task task, TaskSnapshot snapshot) {
         final CacheEntry entry = mRunningCache.get(task.mTaskId);
         if (entry != null) {
             mAppTaskMap.remove(entry.topApp);
+            mRunningCacheBytes -= entry.bytes;
         }
         final AppWindowToken top = task.getTopChild();
         mAppTaskMap.put(top, task.mTaskId);
-        mRunningCache.put(task.mTaskId, new CacheEntry(snapshot, task.getTopChild()));
+        final CacheEntry newEntry = new CacheEntry(snapshot, task.getTopChild());
+        newEntry.lastAccess = ++mAccessCounter;
+        mRunningCache.put(task.mTaskId, newEntry);
+        mRunningCacheBytes += newEntry.bytes;
+
+        // The reduced version on disk is about to be replaced.
+        mReducedCache.remove(task.mTaskId);
+        invalidatePendingRestores(task.mTaskId);
+        trimRunningCache(task.mTaskId);
+    }
+
+    /**
+     * Drops the least recently used running entries until the cache fits its budget. The entry of
+     * {@param keepTaskId} is never dropped.
+     */
+    private void trimRunningCache(int keepTaskId) {
+        while (mRunningCacheBytes > mMaxRunningCacheBytes) {
+            int oldestTaskId = -1;
+            long oldestAccess = Long.MAX_VALUE;
+            for (int i = mRunningCache.size() - 1; i >= 0; i--) {
+                final CacheEntry entry = mRunningCache.valueAt(i);
+                if (mRunningCache.keyAt(i) != keepTaskId && entry.lastAccess < oldestAccess) {
+                    oldestAccess = entry.lastAccess;
+                    oldestTaskId = mRunningCache.keyAt(i);
+                }
+            }
+            if (oldestTaskId == -1) {
+                return;
+            }
+            removeRunningEntry(oldestTaskId);
+            mRunningEvictions++;
+        }
     }
 
     /**
@@ -62,10 +136,20 @@ class TaskSnapshotCache {
             // Try the running cache.
             final CacheEntry entry = mRunningCache.get(taskId);
             if (entry != null) {
+                entry.lastAccess = ++mAccessCounter;
+                mRunningHits++;
                 return entry.snapshot;
             }
         }
 
+        // Try the reduced resolution tier.
+        if (reducedResolution) {
+            final TaskSnapshot snapshot = mReducedCache.get(taskId);
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+
         // Try to restore from disk if asked.
         if (!restoreFromDisk) {
             return null;
@@ -73,17 +157,62 @@ class TaskSnapshotCache {
         return tryRestoreFromDisk(taskId, userId, reducedResolution);
     }
 
+    /**
+     * Loads the reduced resolution snapshot of a task into the cache, unless it is already cached.
+     * DO NOT HOLD THE WINDOW MANAGER LOCK WHEN CALLING THIS METHOD!
+     */
+    void prefetchReducedResolution(int taskId, int userId) {
+        synchronized (mService.mWindowMap) {
+            if (mRunningCache.containsKey(taskId)) {
+                return;
+            }
+        }
+        if (mReducedCache.get(taskId) != null) {
+            return;
+        }
+        tryRestoreFromDisk(taskId, userId, true /* reducedResolution */);
+    }
+
     /**
      * DO NOT HOLD THE WINDOW MANAGER LOCK WHEN CALLING THIS METHOD!
      */
     private TaskSnapshot tryRestoreFromDisk(int taskId, int userId, boolean reducedResolution) {
-        final TaskSnapshot snapshot = mLoader.loadTask(taskId, userId, reducedResolution);
+        final PendingRestore restore = new PendingRestore(taskId);
+        synchronized (mService.mWindowMap) {
+            mPendingRestores.add(restore);
+        }
+        final TaskSnapshot snapshot;
+        try {
+            snapshot = mLoader.loadTask(taskId, userId, reducedResolution);
+        } finally {
+            synchronized (mService.mWindowMap) {
+                mPendingRestores.remove(restore);
+            }
+        }
         if (snapshot == null) {
             return null;
         }
+        if (reducedResolution) {
+            synchronized (mService.mWindowMap) {
+                // Under the lock, so a newer snapshot cannot be taken between the check and the
+                // put, and then be shadowed by this one once it leaves the running cache.
+                if (!restore.stale) {
+                    mReducedCache.put(taskId, snapshot);
+                }
+            }
+        }
         return snapshot;
     }
 
+    private void invalidatePendingRestores(int taskId) {
+        for (int i = mPendingRestores.size() - 1; i >= 0; i--) {
+            final PendingRestore restore = mPendingRestores.get(i);
+            if (restore.taskId == taskId) {
+                restore.stale = true;
+            }
+        }
+    }
+
     /**
      * Called when an app token has been removed
      */
@@ -106,6 +235,8 @@ class TaskSnapshotCache {
 
     void onTaskRemoved(int taskId) {
         removeRunningEntry(taskId);
+        mReducedCache.remove(taskId);
+        invalidatePendingRestores(taskId);
     }
 
     private void removeRunningEntry(int taskId) {
@@ -113,13 +244,26 @@ class TaskSnapshotCache {
         if (entry != null) {
             mAppTaskMap.remove(entry.topApp);
             mRunningCache.remove(taskId);
+            mRunningCacheBytes -= entry.bytes;
         }
     }
 
+    private static long getSnapshotBytes(TaskSnapshot snapshot) {
+        final GraphicBuffer buffer = snapshot.getSnapshot();
+        return buffer != null ? (long) buffer.getWidth() * buffer.getHeight() * 4 : 0;
+    }
+
     void dump(PrintWriter pw, String prefix) {
         final String doublePrefix = prefix + "  ";
         final String triplePrefix = doublePrefix + "  ";
         pw.println(prefix + "SnapshotCache");
+        pw.println(doublePrefix + "running bytes=" + mRunningCacheBytes
+                + " max=" + mMaxRunningCacheBytes + " hits=" + mRunningHits
+                + " evictions=" + mRunningEvictions);
+        pw.println(doublePrefix + "reduced bytes=" + mReducedCache.size()
+                + " max=" + mReducedCache.maxSize() + " hits=" + mReducedCache.hitCount()
+                + " misses=" + mReducedCache.missCount()
+                + " evictions=" + mReducedCache.evictionCount());
         for (int i = mRunningCache.size() - 1; i >= 0; i--) {
             final CacheEntry entry = mRunningCache.valueAt(i);
             pw.println(doublePrefix + "Entry taskId=" + mRunningCache.keyAt(i));
@@ -128,6 +272,17 @@ class TaskSnapshotCache {
         }
     }
 
+    private static final class PendingRestore {
+        final int taskId;
+
+        /** Whether a newer snapshot was taken, or the task removed, since the restore started. */
+        boolean stale;
+
+        PendingRestore(int taskId) {
+            this.taskId = taskId;
+        }
+    }
+
     private static final class CacheEntry {
 
         /** The snapshot. */
@@ -136,9 +291,16 @@ class TaskSnapshotCache {
         /** The app token that was on top of the task when the snapshot was taken */
         final AppWindowToken topApp;
 
+        /** The memory used by the snapshot buffer. */
+        final long bytes;
+
+        /** Value of the access counter when the entry was last used. */
+        long lastAccess;
+
         CacheEntry(TaskSnapshot snapshot, AppWindowToken topApp) {
             this.snapshot = snapshot;
             this.topApp = topApp;
+            this.bytes = getSnapshotBytes(snapshot);
         }
     }
 }
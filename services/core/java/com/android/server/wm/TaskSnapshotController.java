@@ -45,6 +45,7 @@ import android.view.WindowManagerPolicy.StartingSurface;
 import com.google.android.collect.Sets;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
 import com.android.server.wm.TaskSnapshotSurface.SystemBarBackgroundPainter;
 
 import java.io.PrintWriter;
@@ -323,6 +324,21 @@ class TaskSnapshotController {
         mPersister.onTaskRemovedFromRecents(taskId, userId);
     }
 
+    /**
+     * Loads the reduced resolution snapshots of tasks that are likely to be shown next, e.g. when
+     * Recents is opened, on a background thread.
+     *
+     * @param taskIds The ids of the tasks to prefetch, most likely first.
+     * @param userIds The ids of the users the tasks belong to.
+     */
+    void prefetchReducedSnapshots(int[] taskIds, int[] userIds) {
+        BackgroundThread.getHandler().post(() -> {
+            for (int i = 0; i < taskIds.length; i++) {
+                mCache.prefetchReducedResolution(taskIds[i], userIds[i]);
+            }
+        });
+    }
+
     /**
      * See {@link TaskSnapshotPersister#removeObsoleteFiles}
      */
@@ -368,5 +384,6 @@ class TaskSnapshotController {
 
     void dump(PrintWriter pw, String prefix) {
         mCache.dump(pw, prefix);
+        mPersister.dump(pw, prefix);
     }
 }
@@ -26,7 +26,10 @@ import android.app.ActivityManager.TaskSnapshot;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.GraphicBuffer;
+import android.graphics.Paint;
 import android.os.Process;
 import android.os.SystemClock;
 import android.util.ArraySet;
@@ -40,6 +43,7 @@ import com.android.server.wm.nano.WindowManagerProtos.TaskSnapshotProto;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 
@@ -56,10 +60,12 @@ class TaskSnapshotPersister {
     static final float REDUCED_SCALE = ActivityManager.isLowRamDeviceStatic() ? 0.6f : 0.5f;
     static final boolean DISABLE_FULL_SIZED_BITMAPS = ActivityManager.isLowRamDeviceStatic();
     private static final long DELAY_MS = 100;
-    private static final int QUALITY = 95;
+    // Low ram devices trade some image quality for smaller files and faster encoding.
+    private static final int QUALITY = ActivityManager.isLowRamDeviceStatic() ? 85 : 95;
     private static final String PROTO_EXTENSION = ".proto";
     private static final String BITMAP_EXTENSION = ".jpg";
-    private static final int MAX_STORE_QUEUE_DEPTH = 2;
+    private static final long MAX_STORE_QUEUE_BYTES =
+            (ActivityManager.isLowRamDeviceStatic() ? 8 : 32) * 1024 * 1024;
 
     @GuardedBy("mLock")
     private final ArrayDeque<WriteQueueItem> mWriteQueue = new ArrayDeque<>();
@@ -69,10 +75,27 @@ class TaskSnapshotPersister {
     private boolean mQueueIdling;
     @GuardedBy("mLock")
     private boolean mPaused;
+    @GuardedBy("mLock")
+    private long mMaxStoreQueueBytes = MAX_STORE_QUEUE_BYTES;
+    @GuardedBy("mLock")
+    private long mStoreQueueBytes;
+    @GuardedBy("mLock")
+    private int mStoredCount;
+    @GuardedBy("mLock")
+    private int mPurgedCount;
+    @GuardedBy("mLock")
+    private long mTotalStoreTimeMs;
+    @GuardedBy("mLock")
+    private long mMaxStoreTimeMs;
     private boolean mStarted;
     private final Object mLock = new Object();
     private final DirectoryResolver mDirectoryResolver;
 
+    // Only accessed on the persister thread.
+    private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Bitmap mReducedBitmap;
+    private Canvas mReducedCanvas;
+
     /**
      * The list of ids of the tasks that have been persisted since {@link #removeObsoleteFiles} was
      * called.
@@ -145,6 +168,16 @@ class TaskSnapshotPersister {
         }
     }
 
+    /**
+     * Sets the maximum amount of snapshot memory that may be waiting in the queue to be persisted.
+     */
+    @VisibleForTesting
+    void setMaxStoreQueueBytes(long maxStoreQueueBytes) {
+        synchronized (mLock) {
+            mMaxStoreQueueBytes = maxStoreQueueBytes;
+        }
+    }
+
     @TestApi
     void waitForQueueEmpty() {
         while (true) {
@@ -161,18 +194,43 @@ class TaskSnapshotPersister {
     private void sendToQueueLocked(WriteQueueItem item) {
         mWriteQueue.offer(item);
         item.onQueuedLocked();
-        ensureStoreQueueDepthLocked();
+        ensureStoreQueueBudgetLocked();
         if (!mPaused) {
             mLock.notifyAll();
         }
     }
 
     @GuardedBy("mLock")
-    private void ensureStoreQueueDepthLocked() {
-        while (mStoreQueueItems.size() > MAX_STORE_QUEUE_DEPTH) {
-            final StoreWriteQueueItem item = mStoreQueueItems.poll();
-            mWriteQueue.remove(item);
-            Slog.i(TAG, "Queue is too deep! Purged item with taskid=" + item.mTaskId);
+    private void ensureStoreQueueBudgetLocked() {
+        // Always keep the most recent item, even if it alone exceeds the budget.
+        while (mStoreQueueItems.size() > 1 && mStoreQueueBytes > mMaxStoreQueueBytes) {
+            final StoreWriteQueueItem item = mStoreQueueItems.peek();
+            purgeLocked(item);
+            Slog.i(TAG, "Queue is too large! Purged item with taskid=" + item.mTaskId);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void purgeLocked(StoreWriteQueueItem item) {
+        mWriteQueue.remove(item);
+        item.onDequeuedLocked();
+        mPurgedCount++;
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        final String doublePrefix = prefix + "  ";
+        synchronized (mLock) {
+            pw.println(prefix + "SnapshotPersister");
+            pw.println(doublePrefix + "queued=" + mWriteQueue.size()
+                    + " storeQueued=" + mStoreQueueItems.size()
+                    + " storeQueueBytes=" + mStoreQueueBytes
+                    + " maxStoreQueueBytes=" + mMaxStoreQueueBytes);
+            pw.println(doublePrefix + "stored=" + mStoredCount + " purged=" + mPurgedCount
+                    + " quality=" + QUALITY);
+            if (mStoredCount > 0) {
+                pw.println(doublePrefix + "avgStoreTimeMs=" + (mTotalStoreTimeMs / mStoredCount)
+                        + " maxStoreTimeMs=" + mMaxStoreTimeMs);
+            }
         }
     }
 
@@ -215,6 +273,11 @@ class TaskSnapshotPersister {
         }
     }
 
+    private static long getSnapshotBytes(TaskSnapshot snapshot) {
+        final GraphicBuffer buffer = snapshot.getSnapshot();
+        return buffer != null ? (long) buffer.getWidth() * buffer.getHeight() * 4 : 0;
+    }
+
     interface DirectoryResolver {
         File getSystemDirectoryForUser(int userId);
     }
@@ -274,25 +337,38 @@ class TaskSnapshotPersister {
         private final int mTaskId;
         private final int mUserId;
         private final TaskSnapshot mSnapshot;
+        private final long mBytes;
 
         StoreWriteQueueItem(int taskId, int userId, TaskSnapshot snapshot) {
             mTaskId = taskId;
             mUserId = userId;
             mSnapshot = snapshot;
+            mBytes = getSnapshotBytes(snapshot);
         }
 
         @Override
         void onQueuedLocked() {
+            // A newer snapshot of the same task makes a pending one obsolete.
+            for (StoreWriteQueueItem item : mStoreQueueItems) {
+                if (item.mTaskId == mTaskId && item.mUserId == mUserId) {
+                    purgeLocked(item);
+                    break;
+                }
+            }
             mStoreQueueItems.offer(this);
+            mStoreQueueBytes += mBytes;
         }
 
         @Override
         void onDequeuedLocked() {
-            mStoreQueueItems.remove(this);
+            if (mStoreQueueItems.remove(this)) {
+                mStoreQueueBytes -= mBytes;
+            }
         }
 
         @Override
         void write() {
+            final long startTime = SystemClock.uptimeMillis();
             if (!createDirectory(mUserId)) {
                 Slog.e(TAG, "Unable to create snapshot directory for user dir="
                         + getDirectory(mUserId));
@@ -307,6 +383,12 @@ class TaskSnapshotPersister {
             if (failed) {
                 deleteSnapshot(mTaskId, mUserId);
             }
+            final long duration = SystemClock.uptimeMillis() - startTime;
+            synchronized (mLock) {
+                mStoredCount++;
+                mTotalStoreTimeMs += duration;
+                mMaxStoreTimeMs = Math.max(mMaxStoreTimeMs, duration);
+            }
         }
 
         boolean writeProto() {
@@ -340,37 +422,63 @@ class TaskSnapshotPersister {
             }
 
             final Bitmap swBitmap = bitmap.copy(Config.ARGB_8888, false /* isMutable */);
-            final File reducedFile = getReducedResolutionBitmapFile(mTaskId, mUserId);
-            final Bitmap reduced = mSnapshot.isReducedResolution()
-                    ? swBitmap
-                    : Bitmap.createScaledBitmap(swBitmap,
-                            (int) (bitmap.getWidth() * REDUCED_SCALE),
-                            (int) (bitmap.getHeight() * REDUCED_SCALE), true /* filter */);
             try {
-                FileOutputStream reducedFos = new FileOutputStream(reducedFile);
-                reduced.compress(JPEG, QUALITY, reducedFos);
-                reducedFos.close();
-            } catch (IOException e) {
-                Slog.e(TAG, "Unable to open " + reducedFile +" for persisting.", e);
-                return false;
-            }
+                final File reducedFile = getReducedResolutionBitmapFile(mTaskId, mUserId);
+                final Bitmap reduced = mSnapshot.isReducedResolution()
+                        ? swBitmap
+                        : scaleToReducedBitmap(swBitmap);
+                try {
+                    FileOutputStream reducedFos = new FileOutputStream(reducedFile);
+                    reduced.compress(JPEG, QUALITY, reducedFos);
+                    reducedFos.close();
+                } catch (IOException e) {
+                    Slog.e(TAG, "Unable to open " + reducedFile +" for persisting.", e);
+                    return false;
+                }
 
-            // For snapshots with reduced resolution, do not create or save full sized bitmaps
-            if (mSnapshot.isReducedResolution()) {
+                // For snapshots with reduced resolution, do not create or save full sized
+                // bitmaps
+                if (mSnapshot.isReducedResolution()) {
+                    return true;
+                }
+
+                final File file = getBitmapFile(mTaskId, mUserId);
+                try {
+                    FileOutputStream fos = new FileOutputStream(file);
+                    swBitmap.compress(JPEG, QUALITY, fos);
+                    fos.close();
+                } catch (IOException e) {
+                    Slog.e(TAG, "Unable to open " + file + " for persisting.", e);
+                    return false;
+                }
                 return true;
+            } finally {
+                // The software copy is as large as the snapshot, don't wait for GC to free it.
+                swBitmap.recycle();
             }
+        }
+    }
 
-            final File file = getBitmapFile(mTaskId, mUserId);
-            try {
-                FileOutputStream fos = new FileOutputStream(file);
-                swBitmap.compress(JPEG, QUALITY, fos);
-                fos.close();
-            } catch (IOException e) {
-                Slog.e(TAG, "Unable to open " + file + " for persisting.", e);
-                return false;
+    /**
+     * Scales a bitmap down by {@link #REDUCED_SCALE}. Only called from the persister thread, which
+     * reuses the same destination bitmap for all tasks as long as the size doesn't change.
+     */
+    private Bitmap scaleToReducedBitmap(Bitmap bitmap) {
+        final int width = (int) (bitmap.getWidth() * REDUCED_SCALE);
+        final int height = (int) (bitmap.getHeight() * REDUCED_SCALE);
+        if (mReducedBitmap == null || mReducedBitmap.getWidth() != width
+                || mReducedBitmap.getHeight() != height) {
+            if (mReducedBitmap != null) {
+                mReducedBitmap.recycle();
             }
-            return true;
+            mReducedBitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+            mReducedCanvas = new Canvas(mReducedBitmap);
+            mReducedCanvas.scale((float) width / bitmap.getWidth(),
+                    (float) height / bitmap.getHeight());
         }
+        mReducedBitmap.eraseColor(Color.TRANSPARENT);
+        mReducedCanvas.drawBitmap(bitmap, 0, 0, mScalePaint);
+        return mReducedBitmap;
     }
 
     private class DeleteWriteQueueItem extends WriteQueueItem {
@@ -78,6 +78,12 @@ public class WindowAnimator {
 
     boolean mInitialized = false;
 
+    /** Time spent updating surfaces in animation frames, see dumpLocked(). */
+    private int mFrameCount;
+    private long mLastFrameTimeNs;
+    private long mMaxFrameTimeNs;
+    private long mTotalFrameTimeNs;
+
     // When set to true the animator will go over all windows after an animation frame is posted and
     // check if some got replaced and can be removed.
     private boolean mRemoveReplacedWindows = false;
@@ -163,6 +169,7 @@ public class WindowAnimator {
             }
 
             if (SHOW_TRANSACTIONS) Slog.i(TAG, ">>> OPEN TRANSACTION animate");
+            final long frameStartTime = System.nanoTime();
             mService.openSurfaceTransaction();
             try {
                 final AccessibilityController accessibilityController =
@@ -240,6 +247,11 @@ public class WindowAnimator {
                 mService.closeSurfaceTransaction();
                 if (SHOW_TRANSACTIONS) Slog.i(TAG, "<<< CLOSE TRANSACTION animate");
             }
+            final long frameTime = System.nanoTime() - frameStartTime;
+            mFrameCount++;
+            mLastFrameTimeNs = frameTime;
+            mMaxFrameTimeNs = Math.max(mMaxFrameTimeNs, frameTime);
+            mTotalFrameTimeNs += frameTime;
 
             boolean hasPendingLayoutChanges = mService.mRoot.hasPendingLayoutChanges(this);
             boolean doRequest = false;
@@ -343,6 +355,16 @@ public class WindowAnimator {
             pw.print(prefix); pw.print("mWindowDetachedWallpaper=");
                 pw.println(mWindowDetachedWallpaper);
         }
+        pw.print(prefix); pw.print("Animation frames: "); pw.print(mFrameCount);
+                pw.print(" last="); pw.print(mLastFrameTimeNs / 1000); pw.print("us");
+                pw.print(" max="); pw.print(mMaxFrameTimeNs / 1000); pw.print("us");
+                pw.print(" avg=");
+                pw.print(mFrameCount > 0 ? mTotalFrameTimeNs / mFrameCount / 1000 : 0);
+                pw.println("us");
+        final long[] batchStats = SurfaceControl.getBatchStats();
+        pw.print(prefix); pw.print("Batched surface properties: "); pw.print(batchStats[0]);
+                pw.print(" in "); pw.print(batchStats[1]); pw.print(" native calls for ");
+                pw.print(batchStats[2]); pw.println(" surfaces");
     }
 
     int getPendingLayoutChanges(final int displayId) {
@@ -79,6 +79,13 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
     // The owner/creator for this container. No controller if null.
     private WindowContainerController mController;
 
+    /**
+     * Whether windows at or below this container need layout.  Set up to the display by
+     * {@link #setLayoutDirty}, so that a display where nothing else changed only lays out these
+     * windows, and cleared once the display is laid out.
+     */
+    boolean mLayoutDirty;
+
     final protected WindowContainer getParent() {
         return mParent;
     }
@@ -92,6 +99,11 @@ class WindowContainer<E extends WindowContainer> implements Comparable<WindowCon
             onConfigurationChanged(mParent.mFullConfiguration);
             // Update merged override configuration of this container and all its children.
             onMergedOverrideConfigurationChanged();
+            if (mLayoutDirty) {
+                // Let the new parents know.
+                mLayoutDirty = false;
+                setLayoutDirty();
+            }
         }
 
         onParentSet();
@@ -634,6 +646,28 @@ a     * Returns whether this child is on top of the window hierarchy.
         wrapper.release();
     }
 
+    /**
+     * Marks this container and its parents up to the display as having windows that need layout.
+     */
+    void setLayoutDirty() {
+        for (WindowContainer wc = this; wc != null && !wc.mLayoutDirty && wc.mParent != null;
+                wc = wc.mParent) {
+            // The root is not marked, each display is laid out on its own.
+            wc.mLayoutDirty = true;
+        }
+    }
+
+    /** Clears {@link #mLayoutDirty} at and below this container. */
+    void clearLayoutDirty() {
+        if (!mLayoutDirty) {
+            return;
+        }
+        mLayoutDirty = false;
+        for (int i = mChildren.size() - 1; i >= 0; --i) {
+            mChildren.get(i).clearLayoutDirty();
+        }
+    }
+
     /**
      * For all tasks at or below this container call the callback.
      *
@@ -73,9 +73,11 @@ class WindowLayersController {
     private WindowState mImeTarget;
     private boolean mAboveImeTarget;
     private ArrayDeque<WindowState> mAboveImeTargetAppWindows = new ArrayDeque();
+    private int mAssignedWindowCount;
 
     private final Consumer<WindowState> mAssignWindowLayersConsumer = w -> {
         boolean layerChanged = false;
+        mAssignedWindowCount++;
 
         int oldLayer = w.mLayer;
         if (w.mBaseLayer == mCurBaseLayer) {
@@ -121,6 +123,7 @@ class WindowLayersController {
         dc.forAllWindows(mAssignWindowLayersConsumer, false /* traverseTopToBottom */);
 
         adjustSpecialWindows();
+        mService.mWindowPlacerLocked.onLayersAssigned(mAssignedWindowCount);
 
         //TODO (multidisplay): Magnification is supported only for the default display.
         if (mService.mAccessibilityController != null && mAnyLayerChanged
@@ -152,6 +155,7 @@ class WindowLayersController {
         mCurBaseLayer = 0;
         mCurLayer = 0;
         mAnyLayerChanged = false;
+        mAssignedWindowCount = 0;
 
         mHighestApplicationLayer = 0;
         mHighestDockedAffectedLayer = 0;
@@ -256,6 +256,7 @@ import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 /** {@hide} */
 public class WindowManagerService extends IWindowManager.Stub
         implements Watchdog.Monitor, WindowManagerPolicy.WindowManagerFuncs {
@@ -632,6 +633,17 @@ public class WindowManagerService extends IWindowManager.Stub
     WindowState mCurrentFocus = null;
     WindowState mLastFocus = null;
 
+    /**
+     * State read by other services without holding {@link #mWindowMap}, or null if it changed
+     * since the last layout and readers need to take the lock.
+     */
+    private volatile WindowReadSnapshot mReadSnapshot;
+    private final AtomicLong mReadSnapshotHits = new AtomicLong();
+    private final AtomicLong mReadSnapshotMisses = new AtomicLong();
+    /** How long the readers that missed {@link #mReadSnapshot} waited for the lock. */
+    private long mReadLockWaitNanos;
+    private long mReadLockMaxWaitNanos;
+
     /** Windows added since {@link #mCurrentFocus} was set to null. Used for ANR blaming. */
     private final ArrayList<WindowState> mWinAddedSinceNullFocus = new ArrayList<>();
     /** Windows removed since {@link #mCurrentFocus} was set to null. Used for ANR blaming. */
@@ -1731,6 +1743,7 @@ public class WindowManagerService extends IWindowManager.Stub
     void postWindowRemoveCleanupLocked(WindowState win) {
         if (DEBUG_ADD_REMOVE) Slog.v(TAG_WM, "postWindowRemoveCleanupLocked: " + win);
         mWindowMap.remove(win.mClient.asBinder());
+        invalidateReadSnapshotLocked();
         if (win.mAppOp != AppOpsManager.OP_NONE) {
             mAppOps.finishOp(win.mAppOp, win.getOwningUid(), win.getOwningPackage());
         }
@@ -3820,6 +3833,17 @@ public class WindowManagerService extends IWindowManager.Stub
         }
     }
 
+    /**
+     * Starts loading the reduced resolution snapshots of the given tasks in the background so that
+     * they are cached by the time they are requested.
+     *
+     * @param taskIds The ids of the tasks to prefetch, most likely first.
+     * @param userIds The ids of the users the tasks belong to.
+     */
+    public void prefetchTaskSnapshots(int[] taskIds, int[] userIds) {
+        mTaskSnapshotController.prefetchReducedSnapshots(taskIds, userIds);
+    }
+
     /**
      * Takes a snapshot of the screen.  In landscape mode this grabs the whole screen.
      * In portrait mode, it grabs the full screenshot.
@@ -4731,6 +4755,46 @@ public class WindowManagerService extends IWindowManager.Stub
         return mCurrentFocus;
     }
 
+    /**
+     * Publishes the state read without the lock, called after each layout.  The snapshot is only
+     * rebuilt if it was invalidated since it was last published.
+     */
+    void publishReadSnapshotLocked() {
+        if (mReadSnapshot == null) {
+            mReadSnapshot = WindowReadSnapshot.build(mRoot, mCurrentFocus);
+        }
+    }
+
+    /** Makes readers take the lock until the next layout publishes the new state. */
+    void invalidateReadSnapshotLocked() {
+        mReadSnapshot = null;
+    }
+
+    /** @return The published read state, or null if readers need to take the lock. */
+    private WindowReadSnapshot getReadSnapshot() {
+        final WindowReadSnapshot snapshot = mReadSnapshot;
+        if (snapshot != null) {
+            mReadSnapshotHits.incrementAndGet();
+        } else {
+            mReadSnapshotMisses.incrementAndGet();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Records how long a reader that missed the read snapshot waited for the lock, which is what
+     * the snapshot saves the readers that hit it.
+     *
+     * @param startNanos The {@link System#nanoTime} before the reader took the lock.
+     */
+    private void recordReadLockWaitLocked(long startNanos) {
+        final long wait = System.nanoTime() - startNanos;
+        mReadLockWaitNanos += wait;
+        if (wait > mReadLockMaxWaitNanos) {
+            mReadLockMaxWaitNanos = wait;
+        }
+    }
+
     TaskStack getImeFocusStackLocked() {
         // Don't use mCurrentFocus.getStack() because it returns home stack for system windows.
         // Also don't use mInputMethodTarget's stack, because some window with FLAG_NOT_FOCUSABLE
@@ -5452,7 +5516,19 @@ public class WindowManagerService extends IWindowManager.Stub
 
     @Override
     public void getInitialDisplaySize(int displayId, Point size) {
+        final WindowReadSnapshot snapshot = getReadSnapshot();
+        final WindowReadSnapshot.DisplayState state =
+                snapshot != null ? snapshot.getDisplay(displayId) : null;
+        if (state != null) {
+            if (state.display.hasAccess(Binder.getCallingUid())) {
+                size.x = state.initialWidth;
+                size.y = state.initialHeight;
+            }
+            return;
+        }
+        final long lockStart = System.nanoTime();
         synchronized (mWindowMap) {
+            recordReadLockWaitLocked(lockStart);
             final DisplayContent displayContent = mRoot.getDisplayContentOrCreate(displayId);
             if (displayContent != null && displayContent.hasAccess(Binder.getCallingUid())) {
                 size.x = displayContent.mInitialDisplayWidth;
@@ -5463,7 +5539,19 @@ public class WindowManagerService extends IWindowManager.Stub
 
     @Override
     public void getBaseDisplaySize(int displayId, Point size) {
+        final WindowReadSnapshot snapshot = getReadSnapshot();
+        final WindowReadSnapshot.DisplayState state =
+                snapshot != null ? snapshot.getDisplay(displayId) : null;
+        if (state != null) {
+            if (state.display.hasAccess(Binder.getCallingUid())) {
+                size.x = state.baseWidth;
+                size.y = state.baseHeight;
+            }
+            return;
+        }
+        final long lockStart = System.nanoTime();
         synchronized (mWindowMap) {
+            recordReadLockWaitLocked(lockStart);
             final DisplayContent displayContent = mRoot.getDisplayContentOrCreate(displayId);
             if (displayContent != null && displayContent.hasAccess(Binder.getCallingUid())) {
                 size.x = displayContent.mBaseDisplayWidth;
@@ -6008,6 +6096,7 @@ public class WindowManagerService extends IWindowManager.Stub
                     mCurrentFocus + " to " + newFocus + " Callers=" + Debug.getCallers(4));
             final WindowState oldFocus = mCurrentFocus;
             mCurrentFocus = newFocus;
+            invalidateReadSnapshotLocked();
             mLosingFocus.remove(newFocus);
 
             if (mCurrentFocus != null) {
@@ -6723,6 +6812,15 @@ public class WindowManagerService extends IWindowManager.Stub
                 pw.print("  mInputMethodWindow="); pw.println(mInputMethodWindow);
             }
             mWindowPlacerLocked.dump(pw, "  ");
+            pw.print("  Read snapshot: hits="); pw.print(mReadSnapshotHits.get());
+                    pw.print(" misses="); pw.print(mReadSnapshotMisses.get());
+                    pw.print(" lockWait="); pw.print(mReadLockWaitNanos / 1000000); pw.print("ms");
+                    pw.print(" maxLockWait=");
+                    pw.print(mReadLockMaxWaitNanos / 1000); pw.println("us");
+            final WindowReadSnapshot snapshot = mReadSnapshot;
+            if (snapshot != null) {
+                snapshot.dump(pw, "    ");
+            }
             mRoot.mWallpaperController.dump(pw, "  ");
             pw.print("  mSystemBooted="); pw.print(mSystemBooted);
                     pw.print(" mDisplayEnabled="); pw.println(mDisplayEnabled);
@@ -7457,7 +7555,13 @@ public class WindowManagerService extends IWindowManager.Stub
 
         @Override
         public IBinder getFocusedWindowToken() {
+            final WindowReadSnapshot snapshot = getReadSnapshot();
+            if (snapshot != null) {
+                return snapshot.focusedWindowToken;
+            }
+            final long lockStart = System.nanoTime();
             synchronized (mWindowMap) {
+                recordReadLockWaitLocked(lockStart);
                 WindowState windowState = getFocusedWindowLocked();
                 if (windowState != null) {
                     return windowState.mClient.asBinder();
@@ -7483,7 +7587,15 @@ public class WindowManagerService extends IWindowManager.Stub
 
         @Override
         public void getWindowFrame(IBinder token, Rect outBounds) {
+            final WindowReadSnapshot snapshot = getReadSnapshot();
+            final Rect frame = snapshot != null ? snapshot.getVisibleFrame(token) : null;
+            if (frame != null) {
+                outBounds.set(frame);
+                return;
+            }
+            final long lockStart = System.nanoTime();
             synchronized (mWindowMap) {
+                recordReadLockWaitLocked(lockStart);
                 WindowState windowState = mWindowMap.get(token);
                 if (windowState != null) {
                     outBounds.set(windowState.mFrame);
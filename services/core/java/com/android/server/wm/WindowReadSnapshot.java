@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wm;
+
+import android.graphics.Rect;
+import android.os.IBinder;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+import android.view.Display;
+
+import java.io.PrintWriter;
+
+/**
+ * Immutable copy of the window state that is commonly read by other services, so that they can
+ * query it without taking the window manager lock.
+ *
+ * The current snapshot is dropped when the focus, the window list, the display metrics or the
+ * frames change, so readers never see state that is older than the last layout.  A new one is
+ * then built at the end of the next surface placement pass.  Windows that became visible since
+ * are missing from it, their readers take the lock.
+ */
+final class WindowReadSnapshot {
+
+    /** Client token of the focused window, or null if there is none. */
+    final IBinder focusedWindowToken;
+
+    /** Frames of the visible windows, keyed by client token. */
+    private final ArrayMap<IBinder, Rect> mVisibleFrames;
+
+    private final SparseArray<DisplayState> mDisplays;
+
+    static final class DisplayState {
+        final Display display;
+        final int initialWidth;
+        final int initialHeight;
+        final int baseWidth;
+        final int baseHeight;
+
+        DisplayState(DisplayContent dc) {
+            display = dc.getDisplay();
+            initialWidth = dc.mInitialDisplayWidth;
+            initialHeight = dc.mInitialDisplayHeight;
+            baseWidth = dc.mBaseDisplayWidth;
+            baseHeight = dc.mBaseDisplayHeight;
+        }
+    }
+
+    private WindowReadSnapshot(IBinder focusedWindowToken, ArrayMap<IBinder, Rect> visibleFrames,
+            SparseArray<DisplayState> displays) {
+        this.focusedWindowToken = focusedWindowToken;
+        mVisibleFrames = visibleFrames;
+        mDisplays = displays;
+    }
+
+    /** Builds a snapshot of the current state, must be called with the window manager lock. */
+    static WindowReadSnapshot build(RootWindowContainer root, WindowState focus) {
+        final ArrayMap<IBinder, Rect> visibleFrames = new ArrayMap<>();
+        final SparseArray<DisplayState> displays = new SparseArray<>(root.mChildren.size());
+        for (int i = root.mChildren.size() - 1; i >= 0; i--) {
+            final DisplayContent dc = root.mChildren.get(i);
+            displays.put(dc.getDisplayId(), new DisplayState(dc));
+        }
+        root.forAllWindows(w -> {
+            if (w.isVisibleLw()) {
+                visibleFrames.put(w.mClient.asBinder(), new Rect(w.mFrame));
+            }
+        }, true /* traverseTopToBottom */);
+        return new WindowReadSnapshot(focus != null ? focus.mClient.asBinder() : null,
+                visibleFrames, displays);
+    }
+
+    /** @return The frame of a visible window, or null if the window is not visible. */
+    Rect getVisibleFrame(IBinder token) {
+        return mVisibleFrames.get(token);
+    }
+
+    /** @return The state of a display, or null if it did not exist when this was built. */
+    DisplayState getDisplay(int displayId) {
+        return mDisplays.get(displayId);
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.print("focusedWindowToken="); pw.print(focusedWindowToken);
+                pw.print(" visibleWindows="); pw.print(mVisibleFrames.size());
+                pw.print(" displays="); pw.println(mDisplays.size());
+    }
+}
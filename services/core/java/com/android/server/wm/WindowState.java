@@ -47,6 +47,7 @@ import static android.view.WindowManager.LayoutParams.LAST_SUB_WINDOW;
 import static android.view.WindowManager.LayoutParams.MATCH_PARENT;
 import static android.view.WindowManager.LayoutParams.PRIVATE_FLAG_COMPATIBLE_WINDOW;
 import static android.view.WindowManager.LayoutParams.PRIVATE_FLAG_HIDE_NON_SYSTEM_OVERLAY_WINDOWS;
+import static android.view.WindowManager.LayoutParams.PRIVATE_FLAG_KEYGUARD;
 import static android.view.WindowManager.LayoutParams.PRIVATE_FLAG_LAYOUT_CHILD_WINDOW_IN_PARENT_FRAME;
 import static android.view.WindowManager.LayoutParams.PRIVATE_FLAG_NO_MOVE_ANIMATION;
 import static android.view.WindowManager.LayoutParams.PRIVATE_FLAG_WILL_NOT_REPLACE_ON_RELAUNCH;
@@ -58,9 +59,13 @@ import static android.view.WindowManager.LayoutParams.TYPE_APPLICATION_STARTING;
 import static android.view.WindowManager.LayoutParams.TYPE_BASE_APPLICATION;
 import static android.view.WindowManager.LayoutParams.TYPE_DOCK_DIVIDER;
 import static android.view.WindowManager.LayoutParams.TYPE_DRAWN_APPLICATION;
+import static android.view.WindowManager.LayoutParams.TYPE_DREAM;
 import static android.view.WindowManager.LayoutParams.TYPE_INPUT_METHOD;
 import static android.view.WindowManager.LayoutParams.TYPE_INPUT_METHOD_DIALOG;
+import static android.view.WindowManager.LayoutParams.TYPE_NAVIGATION_BAR;
+import static android.view.WindowManager.LayoutParams.TYPE_STATUS_BAR;
 import static android.view.WindowManager.LayoutParams.TYPE_TOAST;
+import static android.view.WindowManager.LayoutParams.TYPE_VOICE_INTERACTION;
 import static android.view.WindowManager.LayoutParams.TYPE_WALLPAPER;
 import static android.view.WindowManager.LayoutParams.isSystemAlertWindowType;
 import static android.view.WindowManagerGlobal.RELAYOUT_RES_DRAG_RESIZING_DOCKED;
@@ -2213,13 +2218,46 @@ class WindowState extends WindowContainer<WindowState> implements WindowManagerP
         return replacementSet;
     }
 
+    /**
+     * Asks for the layout of the display because this window changed.  Unless the change can
+     * affect the layout of other windows, only this window and its children are laid out again.
+     */
     void setDisplayLayoutNeeded() {
         final DisplayContent dc = getDisplayContent();
-        if (dc != null) {
+        if (dc == null) {
+            return;
+        }
+        if (affectsLayoutOfOtherWindows()) {
             dc.setLayoutNeeded();
+        } else {
+            setLayoutDirty();
+        }
+    }
+
+    @Override
+    void setLayoutDirty() {
+        super.setLayoutDirty();
+        // The attached windows are laid out relative to this one.
+        for (int i = mChildren.size() - 1; i >= 0; --i) {
+            mChildren.get(i).setLayoutDirty();
         }
     }
 
+    /**
+     * Whether the policy lays out other windows differently depending on this one: the IME and
+     * voice windows and the IME target offset the content area of the windows below them, the
+     * system bars are laid out first for all others, and the dream and the keyguard hide the
+     * windows behind them.  Such a window is laid out on every layout of its display, which then
+     * sees the same state as in the last layout, and changing it lays out the whole display.
+     */
+    boolean affectsLayoutOfOtherWindows() {
+        final int type = mAttrs.type;
+        return type == TYPE_INPUT_METHOD || type == TYPE_VOICE_INTERACTION
+                || type == TYPE_STATUS_BAR || type == TYPE_NAVIGATION_BAR || type == TYPE_DREAM
+                || (mAttrs.privateFlags & PRIVATE_FLAG_KEYGUARD) != 0
+                || mService.mInputMethodTarget == this;
+    }
+
     // TODO: Strange usage of word workspace here and above.
     boolean inPinnedWorkspace() {
         final Task task = getTask();
@@ -100,6 +100,9 @@ class WindowSurfaceController {
         Trace.traceBegin(TRACE_TAG_WINDOW_MANAGER, "new SurfaceControl");
         mSurfaceControl = new SurfaceControlWithBackground(
                 s, name, w, h, format, flags, windowType, ownerUid, this);
+        // Geometry of all windows is sent to native in one call per transaction.
+        mSurfaceControl.setBatched(true);
+        mSurfaceControl.setBatchErrorListener(this::onBatchedPropertiesFailed);
         Trace.traceEnd(TRACE_TAG_WINDOW_MANAGER);
 
         if (mService.mRoot.mSurfaceTraceEnabled) {
@@ -108,6 +111,15 @@ class WindowSurfaceController {
         }
     }
 
+    /**
+     * Called when the transaction is closed if the surface rejected the position, alpha, matrix,
+     * layer or crop set in it, which the setters below cannot catch as they are batched.
+     */
+    private void onBatchedPropertiesFailed(SurfaceControl surface, RuntimeException e) {
+        Slog.w(TAG, "Error updating surface of " + title, e);
+        mAnimator.reclaimSomeSurfaceMemory("batch", true);
+    }
+
     void installRemoteTrace(FileDescriptor fd) {
         mSurfaceControl = new RemoteSurfaceTrace(fd, mSurfaceControl, mAnimator.mWin);
     }
@@ -89,6 +89,29 @@ class WindowSurfacePlacer {
     private boolean mTraversalScheduled;
     private int mDeferDepth = 0;
 
+    // Statistics of the surface placement passes, see dump(). Counts are accumulated in mCur*,
+    // including layouts and layer assignments done outside of a pass, and published to mLast*
+    // once the next pass is done.
+    private int mPassCount;
+    private long mLastPassTimeNs;
+    private long mMaxPassTimeNs;
+    private long mTotalPassTimeNs;
+    private int mCurDisplaysLaidOut;
+    private int mCurDisplaysPartial;
+    private int mCurDisplaysSkipped;
+    private int mCurWindowsLaidOut;
+    private int mCurWindowsPlaced;
+    private int mCurLayerWindows;
+    private int mLastDisplaysLaidOut;
+    private int mLastDisplaysPartial;
+    private int mLastDisplaysSkipped;
+    private int mLastWindowsLaidOut;
+    private int mLastWindowsPlaced;
+    private int mLastLayerWindows;
+    private long mTotalWindowsLaidOut;
+    private long mTotalWindowsPlaced;
+    private long mTotalLayerWindows;
+
     private static final class LayerAndToken {
         public int layer;
         public AppWindowToken token;
@@ -194,7 +217,10 @@ class WindowSurfacePlacer {
         }
 
         try {
+            final long startTime = System.nanoTime();
             mService.mRoot.performSurfacePlacement(recoveringMemory);
+            mService.publishReadSnapshotLocked();
+            onPassFinished(System.nanoTime() - startTime);
 
             mInLayout = false;
 
@@ -232,6 +258,55 @@ class WindowSurfacePlacer {
         return mInLayout;
     }
 
+    /**
+     * Called when a display was laid out, with the number of windows given a new frame and
+     * whether only the windows that changed were laid out.
+     */
+    void onDisplayLaidOut(int windowCount, boolean partial) {
+        mCurDisplaysLaidOut++;
+        if (partial) {
+            mCurDisplaysPartial++;
+        }
+        mCurWindowsLaidOut += windowCount;
+    }
+
+    /** Called when the layout of a display was skipped because none of its windows changed. */
+    void onDisplayLayoutSkipped() {
+        mCurDisplaysSkipped++;
+    }
+
+    /** Called when the surfaces of a display were updated, with the number of windows visited. */
+    void onSurfaceChangesApplied(int windowCount) {
+        mCurWindowsPlaced += windowCount;
+    }
+
+    /** Called when layers were assigned on a display, with the number of windows visited. */
+    void onLayersAssigned(int windowCount) {
+        mCurLayerWindows += windowCount;
+    }
+
+    private void onPassFinished(long durationNs) {
+        mPassCount++;
+        mLastPassTimeNs = durationNs;
+        mMaxPassTimeNs = Math.max(mMaxPassTimeNs, durationNs);
+        mTotalPassTimeNs += durationNs;
+        mLastDisplaysLaidOut = mCurDisplaysLaidOut;
+        mLastDisplaysPartial = mCurDisplaysPartial;
+        mLastDisplaysSkipped = mCurDisplaysSkipped;
+        mLastWindowsLaidOut = mCurWindowsLaidOut;
+        mLastWindowsPlaced = mCurWindowsPlaced;
+        mLastLayerWindows = mCurLayerWindows;
+        mTotalWindowsLaidOut += mCurWindowsLaidOut;
+        mTotalWindowsPlaced += mCurWindowsPlaced;
+        mTotalLayerWindows += mCurLayerWindows;
+        mCurDisplaysLaidOut = 0;
+        mCurDisplaysPartial = 0;
+        mCurDisplaysSkipped = 0;
+        mCurWindowsLaidOut = 0;
+        mCurWindowsPlaced = 0;
+        mCurLayerWindows = 0;
+    }
+
     /**
      * @return bitmap indicating if another pass through layout must be made.
      */
@@ -786,5 +861,21 @@ class WindowSurfacePlacer {
         pw.println(prefix + "mTraversalScheduled=" + mTraversalScheduled);
         pw.println(prefix + "mHoldScreenWindow=" + mService.mRoot.mHoldScreenWindow);
         pw.println(prefix + "mObscuringWindow=" + mService.mRoot.mObscuringWindow);
+        pw.print(prefix); pw.print("Placement passes: "); pw.print(mPassCount);
+                pw.print(" last="); pw.print(mLastPassTimeNs / 1000); pw.print("us");
+                pw.print(" max="); pw.print(mMaxPassTimeNs / 1000); pw.print("us");
+                pw.print(" avg=");
+                pw.print(mPassCount > 0 ? mTotalPassTimeNs / mPassCount / 1000 : 0);
+                pw.println("us");
+        pw.print(prefix); pw.print("  last pass: displays laid out=");
+                pw.print(mLastDisplaysLaidOut);
+                pw.print(" (partially="); pw.print(mLastDisplaysPartial);
+                pw.print(") skipped="); pw.print(mLastDisplaysSkipped);
+                pw.print(" windows laid out="); pw.print(mLastWindowsLaidOut);
+                pw.print(" placed="); pw.print(mLastWindowsPlaced);
+                pw.print(" layered="); pw.println(mLastLayerWindows);
+        pw.print(prefix); pw.print("  total: windows laid out="); pw.print(mTotalWindowsLaidOut);
+                pw.print(" placed="); pw.print(mTotalWindowsPlaced);
+                pw.print(" layered="); pw.println(mTotalLayerWindows);
     }
 }
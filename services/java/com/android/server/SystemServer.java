@@ -910,13 +910,13 @@ public final class SystemServer {
                 traceEnd();
             }
 
-            traceBeginAndSlog("IpConnectivityMetrics");
-            mSystemServiceManager.startService(IpConnectivityMetrics.class);
-            traceEnd();
+            // Neither needs anything from the services started in the meantime, they are
+            // registered before the next boot phase.
+            Slog.i(TAG, "IpConnectivityMetrics (async)");
+            mSystemServiceManager.startServiceAsync(IpConnectivityMetrics.class);
 
-            traceBeginAndSlog("PinnerService");
-            mSystemServiceManager.startService(PinnerService.class);
-            traceEnd();
+            Slog.i(TAG, "PinnerService (async)");
+            mSystemServiceManager.startServiceAsync(PinnerService.class);
         } catch (RuntimeException e) {
             Slog.e("System", "******************************************");
             Slog.e("System", "************ Failure starting core service", e);
@@ -1322,14 +1322,14 @@ public final class SystemServer {
                 traceEnd();
             }
 
-            traceBeginAndSlog("StartTwilightService");
-            mSystemServiceManager.startService(TwilightService.class);
-            traceEnd();
+            // TwilightManager is only looked up by other services from their boot phases.
+            Slog.i(TAG, "StartTwilightService (async)");
+            mSystemServiceManager.startServiceAsync(TwilightService.class);
 
             if (NightDisplayController.isAvailable(context)) {
-                traceBeginAndSlog("StartNightDisplay");
-                mSystemServiceManager.startService(NightDisplayService.class);
-                traceEnd();
+                Slog.i(TAG, "StartNightDisplay (async)");
+                mSystemServiceManager.startServiceAsync(NightDisplayService.class,
+                        TwilightService.class);
             }
 
             traceBeginAndSlog("StartJobScheduler");
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.am;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/**
+ * Test class for the resolved service cache of {@link ActiveServices}.
+ *
+ * Run: adb shell am instrument -e class com.android.server.am.ActiveServicesTest -w \
+ *     com.android.frameworks.servicestests/android.support.test.runner.AndroidJUnitRunner
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ActiveServicesTest {
+    private static final int TEST_UID = 11111;
+    private static final int OTHER_UID = 22222;
+
+    @Mock private ActivityManagerService mAms;
+
+    private ActiveServices mServices;
+    private ActiveServices.ServiceMap mServiceMap;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mServices = new ActiveServices(mAms);
+        mServiceMap = mServices.new ServiceMap(Looper.getMainLooper(), UserHandle.USER_SYSTEM);
+    }
+
+    @Test
+    public void testResolvedServiceHitAndMiss() {
+        final ServiceInfo sInfo = new ServiceInfo();
+
+        assertNull(mServiceMap.getResolvedServiceLocked(key("a", TEST_UID), 0));
+        mServiceMap.putResolvedServiceLocked(key("a", TEST_UID), sInfo);
+
+        assertSame(sInfo, mServiceMap.getResolvedServiceLocked(key("a", TEST_UID), 0));
+        // Another intent, or the same one from another uid, is resolved again.
+        assertNull(mServiceMap.getResolvedServiceLocked(key("b", TEST_UID), 0));
+        assertNull(mServiceMap.getResolvedServiceLocked(key("a", OTHER_UID), 0));
+
+        assertEquals(1, mServices.mResolvedServiceHits);
+        assertEquals(3, mServices.mResolvedServiceMisses);
+        assertEquals(0, mServices.mResolvedServiceInvalidations);
+    }
+
+    @Test
+    public void testResolvedServicesInvalidatedByComponentStateChange() {
+        mServiceMap.putResolvedServiceLocked(key("a", TEST_UID), new ServiceInfo());
+        assertEquals(1, mServiceMap.mResolvedServices.size());
+
+        // E.g. a service disabled with DONT_KILL_APP, whose PACKAGE_CHANGED comes much later.
+        assertNull(mServiceMap.getResolvedServiceLocked(key("a", TEST_UID), 1));
+        assertEquals(0, mServiceMap.mResolvedServices.size());
+        assertEquals(1, mServices.mResolvedServiceInvalidations);
+
+        // Nothing to drop when nothing was cached for the previous generation.
+        assertNull(mServiceMap.getResolvedServiceLocked(key("a", TEST_UID), 2));
+        assertEquals(1, mServices.mResolvedServiceInvalidations);
+        assertEquals(0, mServices.mResolvedServiceHits);
+    }
+
+    @Test
+    public void testResolvedServicesCapped() {
+        for (int i = 0; i < ActiveServices.MAX_RESOLVED_SERVICES; i++) {
+            mServiceMap.putResolvedServiceLocked(key("a" + i, TEST_UID), new ServiceInfo());
+        }
+        assertEquals(ActiveServices.MAX_RESOLVED_SERVICES, mServiceMap.mResolvedServices.size());
+
+        mServiceMap.putResolvedServiceLocked(key("b", TEST_UID), new ServiceInfo());
+        assertEquals(1, mServiceMap.mResolvedServices.size());
+    }
+
+    @Test
+    public void testClearResolvedServices() {
+        mServices.mServiceMap.put(UserHandle.USER_SYSTEM, mServiceMap);
+        mServiceMap.putResolvedServiceLocked(key("a", TEST_UID), new ServiceInfo());
+
+        mServices.clearResolvedServicesLocked(UserHandle.USER_SYSTEM + 1);
+        assertEquals(1, mServiceMap.mResolvedServices.size());
+        mServices.clearResolvedServicesLocked(UserHandle.USER_ALL);
+        assertEquals(0, mServiceMap.mResolvedServices.size());
+    }
+
+    private static ActiveServices.ResolvedServiceKey key(String action, int callingUid) {
+        final Intent intent = new Intent(action)
+                .setComponent(new ComponentName("com.android.test", "TestService"));
+        return new ActiveServices.ResolvedServiceKey(new Intent.FilterComparison(intent),
+                null, callingUid);
+    }
+}
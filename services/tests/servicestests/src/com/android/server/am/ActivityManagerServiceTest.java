@@ -51,9 +51,12 @@ import android.app.ActivityManager;
 import android.app.AppOpsManager;
 import android.app.IApplicationThread;
 import android.app.IUidObserver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
+import android.os.Binder;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
@@ -668,6 +671,115 @@ public class ActivityManagerServiceTest {
         }
     }
 
+    @Test
+    public void testCollectOomAdjTargetsLocked_fanOut() {
+        final ProcessRecord client = newProcessRecord(0);
+        final ArrayList<ProcessRecord> providers = new ArrayList<>();
+        for (int i = 1; i < ActivityManagerService.MAX_INCREMENTAL_OOM_ADJ_PROCS; i++) {
+            final ProcessRecord provider = newProcessRecord(i);
+            addProviderConnection(client, provider);
+            providers.add(provider);
+        }
+        // Several connections to the same provider process are only collected once, and
+        // persistent processes are skipped.
+        addProviderConnection(client, providers.get(0));
+        final ProcessRecord persistent = newProcessRecord(1000);
+        persistent.persistent = true;
+        addProviderConnection(client, persistent);
+
+        final ArrayList<ProcessRecord> targets = new ArrayList<>();
+        assertTrue(mAms.collectOomAdjTargetsLocked(client, targets));
+        assertEquals(ActivityManagerService.MAX_INCREMENTAL_OOM_ADJ_PROCS, targets.size());
+        assertEquals(client, targets.get(0));
+        assertTrue(targets.containsAll(providers));
+        assertFalse(targets.contains(persistent));
+    }
+
+    @Test
+    public void testCollectOomAdjTargetsLocked_cycle() {
+        final ProcessRecord first = newProcessRecord(0);
+        final ProcessRecord second = newProcessRecord(1);
+        addProviderConnection(first, second);
+        addProviderConnection(second, first);
+
+        final ArrayList<ProcessRecord> targets = new ArrayList<>();
+        assertTrue(mAms.collectOomAdjTargetsLocked(second, targets));
+        assertEquals(2, targets.size());
+        assertEquals(second, targets.get(0));
+        assertEquals(first, targets.get(1));
+    }
+
+    @Test
+    public void testCollectOomAdjTargetsLocked_tooManyProcesses() {
+        // Chains of dependencies as long as the process lists of low, mid and high end devices
+        // fall back to a full update.
+        for (int count : new int[] { 50, 150, 300 }) {
+            final ProcessRecord head = newProcessRecord(0);
+            ProcessRecord client = head;
+            for (int i = 1; i < count; i++) {
+                final ProcessRecord provider = newProcessRecord(i);
+                addProviderConnection(client, provider);
+                client = provider;
+            }
+
+            final ArrayList<ProcessRecord> targets = new ArrayList<>();
+            assertFalse(mAms.collectOomAdjTargetsLocked(head, targets));
+            assertEquals(ActivityManagerService.MAX_INCREMENTAL_OOM_ADJ_PROCS, targets.size());
+            assertEquals(head, targets.get(0));
+        }
+    }
+
+    @Test
+    public void testGetRecordForAppLocked_processChurn() {
+        final ArrayList<ProcessRecord> procs = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final ProcessRecord app = newProcessRecord(i);
+            when(app.thread.asBinder()).thenReturn(new Binder());
+            mAms.updateLruProcessLocked(app, false, null);
+            procs.add(app);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < procs.size(); i++) {
+                final ProcessRecord app = procs.get(i);
+                assertTrue(app.onLruList);
+                assertEquals(app, mAms.getRecordForAppLocked(app.thread));
+            }
+            // Kill every other process and start a new one in its place, which is looked up
+            // by its new thread.
+            for (int i = round % 2; i < procs.size(); i += 2) {
+                final ProcessRecord app = procs.get(i);
+                final IApplicationThread oldThread = app.thread;
+                app.killed = true;
+                mAms.removeLruProcessLocked(app);
+                assertFalse(app.onLruList);
+                assertNull(mAms.getRecordForAppLocked(oldThread));
+
+                final ProcessRecord newApp = newProcessRecord(i);
+                when(newApp.thread.asBinder()).thenReturn(new Binder());
+                mAms.updateLruProcessLocked(newApp, false, null);
+                procs.set(i, newApp);
+            }
+        }
+        assertEquals(procs.size(), mAms.mLruProcesses.size());
+        assertTrue(mAms.mLruProcessesByThread.size() <= procs.size());
+    }
+
+    private ProcessRecord newProcessRecord(int index) {
+        final ApplicationInfo info = new ApplicationInfo();
+        info.uid = TEST_UID + index;
+        final ProcessRecord app = new ProcessRecord(mBatteryStatsImpl, info, TAG + index,
+                info.uid);
+        app.thread = Mockito.mock(IApplicationThread.class);
+        return app;
+    }
+
+    private void addProviderConnection(ProcessRecord client, ProcessRecord provider) {
+        final ContentProviderRecord cpr = new ContentProviderRecord(mAms, new ProviderInfo(),
+                provider.info, new ComponentName(provider.processName, "Provider"), false);
+        cpr.proc = provider;
+        client.conProviders.add(new ContentProviderConnection(cpr, client));
+    }
+
     @MediumTest
     @Test
     public void testEnqueueUidChangeLocked_dispatchUidsChanged() {
@@ -29,6 +29,7 @@ import static android.view.WindowManager.LayoutParams.TYPE_VOICE_INTERACTION;
 
 import static com.android.server.wm.WindowContainer.POSITION_TOP;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Ignore;
@@ -409,6 +410,38 @@ public class DisplayContentTests extends WindowTestsBase {
                 SCREEN_ORIENTATION_LANDSCAPE, dc.getOrientation());
     }
 
+    @Test
+    public void testLayoutOnlyDirtyWindows() throws Exception {
+        final DisplayContent dc = createNewDisplay();
+        final WindowState window = createWindow(null, TYPE_BASE_APPLICATION, dc, "window");
+        final WindowState child = createWindow(window, TYPE_APPLICATION_ATTACHED_DIALOG, "child");
+        final WindowState other = createWindow(null, TYPE_BASE_APPLICATION, dc, "other");
+        final WindowState voice = createWindow(null, TYPE_VOICE_INTERACTION, dc, "voice");
+        dc.setLayoutNeeded();
+        dc.performLayout(true /* initial */, false /* updateInputWindows */);
+        final int fullLayoutSeq = sWm.mLayoutSeq;
+        assertEquals(fullLayoutSeq, other.mLayoutSeq);
+
+        // Only the window, its child and the windows that others depend on are laid out again.
+        window.setDisplayLayoutNeeded();
+        assertTrue(dc.isLayoutNeeded());
+        assertTrue(child.mLayoutDirty);
+        assertFalse(other.mLayoutDirty);
+        dc.performLayout(false /* initial */, false /* updateInputWindows */);
+        assertEquals(sWm.mLayoutSeq, window.mLayoutSeq);
+        assertEquals(sWm.mLayoutSeq, child.mLayoutSeq);
+        assertEquals(sWm.mLayoutSeq, voice.mLayoutSeq);
+        assertEquals(fullLayoutSeq, other.mLayoutSeq);
+        assertFalse(dc.isLayoutNeeded());
+        assertFalse(window.mLayoutDirty);
+        assertFalse(child.mLayoutDirty);
+
+        // The voice window offsets the content area of the others.
+        voice.setDisplayLayoutNeeded();
+        dc.performLayout(false /* initial */, false /* updateInputWindows */);
+        assertEquals(sWm.mLayoutSeq, other.mLayoutSeq);
+    }
+
     private static void verifySizes(DisplayContent displayContent, int expectedBaseWidth,
                              int expectedBaseHeight, int expectedBaseDensity) {
         assertEquals(displayContent.mBaseDisplayWidth, expectedBaseWidth);
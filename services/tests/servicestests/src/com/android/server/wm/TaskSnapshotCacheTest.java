@@ -19,7 +19,9 @@ package com.android.server.wm;
 import static android.view.WindowManager.LayoutParams.FIRST_APPLICATION_WINDOW;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 
+import android.app.ActivityManager;
 import android.platform.test.annotations.Presubmit;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
@@ -108,4 +110,79 @@ public class TaskSnapshotCacheTest extends TaskSnapshotPersisterTestBase {
         assertNotNull(mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
                 true /* restoreFromDisk */, false /* reducedResolution */));
     }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        // Budget for two of the 100x100 RGBA test snapshots.
+        mCache = new TaskSnapshotCache(sWm, mLoader, 2 * 100 * 100 * 4, 1);
+        final WindowState window1 = createWindow(null, FIRST_APPLICATION_WINDOW, "window1");
+        final WindowState window2 = createWindow(null, FIRST_APPLICATION_WINDOW, "window2");
+        final WindowState window3 = createWindow(null, FIRST_APPLICATION_WINDOW, "window3");
+        mCache.putSnapshot(window1.getTask(), createSnapshot());
+        mCache.putSnapshot(window2.getTask(), createSnapshot());
+
+        // Touch the first one so the second one is the least recently used.
+        assertNotNull(mCache.getSnapshot(window1.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+        mCache.putSnapshot(window3.getTask(), createSnapshot());
+
+        assertNotNull(mCache.getSnapshot(window1.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+        assertNull(mCache.getSnapshot(window2.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+        assertNotNull(mCache.getSnapshot(window3.getTask().mTaskId, 0 /* userId */,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+    }
+
+    @Test
+    public void testReduced_cachedAfterPrefetch() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        mPersister.persistSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+        mCache.prefetchReducedResolution(window.getTask().mTaskId, sWm.mCurrentUserId);
+
+        // Served from memory without going to disk.
+        final ActivityManager.TaskSnapshot snapshot = mCache.getSnapshot(
+                window.getTask().mTaskId, sWm.mCurrentUserId, false /* restoreFromDisk */,
+                true /* reducedResolution */);
+        assertNotNull(snapshot);
+        assertSame(snapshot, mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
+                true /* restoreFromDisk */, true /* reducedResolution */));
+
+        // But not for full resolution requests.
+        assertNull(mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
+                false /* restoreFromDisk */, false /* reducedResolution */));
+
+        mCache.onTaskRemoved(window.getTask().mTaskId);
+        assertNull(mCache.getSnapshot(window.getTask().mTaskId, sWm.mCurrentUserId,
+                false /* restoreFromDisk */, true /* reducedResolution */));
+    }
+
+    @Test
+    public void testReduced_staleRestoreNotCached() throws Exception {
+        final WindowState window = createWindow(null, FIRST_APPLICATION_WINDOW, "window");
+        final Task task = window.getTask();
+        mPersister.persistSnapshot(task.mTaskId, sWm.mCurrentUserId, createSnapshot());
+        mPersister.waitForQueueEmpty();
+
+        // A new snapshot is taken while the old one is read from disk.
+        mCache = new TaskSnapshotCache(sWm, new TaskSnapshotLoader(mPersister) {
+            @Override
+            ActivityManager.TaskSnapshot loadTask(int taskId, int userId,
+                    boolean reducedResolution) {
+                final ActivityManager.TaskSnapshot snapshot =
+                        super.loadTask(taskId, userId, reducedResolution);
+                synchronized (sWm.mWindowMap) {
+                    mCache.putSnapshot(task, createSnapshot());
+                }
+                return snapshot;
+            }
+        });
+        mCache.prefetchReducedResolution(task.mTaskId, sWm.mCurrentUserId);
+
+        // Once the new snapshot leaves the running cache, the old one must not be served.
+        mCache.onAppRemoved(window.mAppToken);
+        assertNull(mCache.getSnapshot(task.mTaskId, sWm.mCurrentUserId,
+                false /* restoreFromDisk */, true /* reducedResolution */));
+    }
 }
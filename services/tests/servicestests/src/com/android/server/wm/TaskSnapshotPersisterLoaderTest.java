@@ -100,10 +100,12 @@ public class TaskSnapshotPersisterLoaderTest extends TaskSnapshotPersisterTestBa
     }
 
     /**
-     * Tests that too many store write queue items are being purged.
+     * Tests that store write queue items over the memory budget are being purged.
      */
     @Test
     public void testPurging() {
+        // Budget for two of the 100x100 RGBA test snapshots.
+        mPersister.setMaxStoreQueueBytes(2 * 100 * 100 * 4);
         mPersister.persistSnapshot(100, mTestUserId, createSnapshot());
         mPersister.waitForQueueEmpty();
         mPersister.setPaused(true);
@@ -200,4 +202,20 @@ public class TaskSnapshotPersisterLoaderTest extends TaskSnapshotPersisterTestBa
                 new File(sFilesDir.getPath() + "/snapshots/2_reduced.jpg")};
         assertTrueForFiles(existsFiles, File::exists, " must exist");
     }
+
+    /**
+     * Tests that a newer snapshot of a task replaces one that is still waiting to be persisted.
+     */
+    @Test
+    public void testPendingSnapshotOfSameTaskReplaced() {
+        mPersister.setPaused(true);
+        mPersister.persistSnapshot(1, mTestUserId, createSnapshot());
+        mPersister.persistSnapshot(1, mTestUserId, createSnapshot(0.5f /* scale */));
+        mPersister.setPaused(false);
+        mPersister.waitForQueueEmpty();
+
+        // Only the reduced resolution snapshot made it to disk.
+        assertTrue(new File(sFilesDir.getPath() + "/snapshots/1_reduced.jpg").exists());
+        assertFalse(new File(sFilesDir.getPath() + "/snapshots/1.jpg").exists());
+    }
 }
@@ -23,6 +23,7 @@ import com.android.preload.actions.ComputeThresholdAction;
 import com.android.preload.actions.ComputeThresholdXAction;
 import com.android.preload.actions.DeviceSpecific;
 import com.android.preload.actions.ExportAction;
+import com.android.preload.actions.ExportPreloadProfileAction;
 import com.android.preload.actions.ImportAction;
 import com.android.preload.actions.ReloadListAction;
 import com.android.preload.actions.RunMonkeyAction;
@@ -135,6 +136,7 @@ public class Main {
         actions.add(new ComputeThresholdXAction("Compute(X)", dataTableModel,
                 CLASS_PRELOAD_BLACKLIST));
         actions.add(new WritePreloadedClassesAction(clientUtils, null, dataTableModel));
+        actions.add(new ExportPreloadProfileAction(dataTableModel));
         actions.add(new ShowDataAction(dataTableModel));
         actions.add(new ImportAction(dataTableModel));
         actions.add(new ExportAction(dataTableModel));
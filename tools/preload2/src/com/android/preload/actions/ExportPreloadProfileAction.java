@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.preload.actions;
+
+import com.android.preload.DumpData;
+import com.android.preload.DumpTableModel;
+import com.android.preload.Main;
+
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Export the class usage of the given data as a zygote preload profile, see
+ * com.android.internal.os.PreloadProfile. Each boot classpath class is listed with the number
+ * of packages that loaded it.
+ */
+public class ExportPreloadProfileAction extends AbstractThreadedAction {
+    private DumpTableModel dataTableModel;
+
+    public ExportPreloadProfileAction(DumpTableModel dataTableModel) {
+        super("Export preload profile");
+        this.dataTableModel = dataTableModel;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (dataTableModel.getData().isEmpty()) {
+            Main.getUI().showMessageDialog("No data available, please scan packages or run "
+                    + "monkeys.");
+            return;
+        }
+
+        super.actionPerformed(e);
+    }
+
+    @Override
+    public void run() {
+        File f = Main.getUI().showSaveDialog();
+        if (f == null) {
+            return;
+        }
+
+        List<DumpData> data = dataTableModel.getData();
+        // Count each package once, even if it was scanned several times.
+        Map<String, Set<String>> uses = new TreeMap<>();
+        Set<String> packages = new HashSet<>();
+        for (DumpData d : data) {
+            packages.add(d.getPackageName());
+            for (Map.Entry<String, String> e : d.getDumpData().entrySet()) {
+                if (e.getValue() != null) {
+                    continue;  // Not on the boot classpath.
+                }
+                Set<String> pkgs = uses.get(e.getKey());
+                if (pkgs == null) {
+                    pkgs = new HashSet<>();
+                    uses.put(e.getKey(), pkgs);
+                }
+                pkgs.add(d.getPackageName());
+            }
+        }
+
+        try (PrintWriter out = new PrintWriter(f)) {
+            out.println("# Class usage of " + packages.size() + " packages.");
+            out.println("processes class " + packages.size());
+            for (Map.Entry<String, Set<String>> e : uses.entrySet()) {
+                out.println("class " + e.getKey() + " " + e.getValue().size());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}